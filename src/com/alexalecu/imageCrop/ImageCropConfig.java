@@ -19,8 +19,13 @@ package com.alexalecu.imageCrop;
 
 import java.awt.Color;
 import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
+import com.alexalecu.imageUtil.GeomEdge;
+import com.alexalecu.imageUtil.ImageDetectMethod;
 import com.alexalecu.imageUtil.ImageSelectMethod;
 
 /**
@@ -33,8 +38,11 @@ public class ImageCropConfig implements Cloneable {
 	private Color bgColor; // the background color
 	private int bgTolerance; // the tolerance for the background color
 	private Rectangle selectionRect; // the selection rectangle properties
+	private List<GeomEdge> selectionEdgeList; // the edges of the auto-selected hull, if any
 	private ImageCropState state; // the image state
 	private ImageSelectMethod selectMethod; // the select method to be used for auto-selecting
+	private ImageDetectMethod detectMethod; // the method used to detect the item when auto-selecting
+	private AffineTransform sourceTransform; // maps the image to the image file at full resolution
 
 
 	/**
@@ -48,6 +56,7 @@ public class ImageCropConfig implements Cloneable {
 		selectionRect = null;
 		state = ImageCropState.StateInit;
 		selectMethod = ImageSelectMethod.SelectMinimum;
+		detectMethod = ImageDetectMethod.DetectBackground;
 	}
 
 	/**
@@ -125,6 +134,38 @@ public class ImageCropConfig implements Cloneable {
 		this.selectionRect = selectionRect;
 	}
 
+	/**
+	 * @return the edges of the hull found by the last auto-selection, null if the selection has
+	 * not been auto-selected
+	 */
+	public List<GeomEdge> getSelectionEdgeList() {
+		return selectionEdgeList;
+	}
+
+	/**
+	 * set the edges of the hull found by the auto-selection
+	 * @param selectionEdgeList
+	 */
+	public void setSelectionEdgeList(List<GeomEdge> selectionEdgeList) {
+		this.selectionEdgeList = selectionEdgeList;
+	}
+
+	/**
+	 * @return the transformation mapping the current image coordinates to the coordinates of the
+	 * image file at full resolution; null if the image does not come from a file
+	 */
+	public AffineTransform getSourceTransform() {
+		return sourceTransform;
+	}
+
+	/**
+	 * set the transformation mapping the current image coordinates to the image file coordinates
+	 * @param sourceTransform
+	 */
+	public void setSourceTransform(AffineTransform sourceTransform) {
+		this.sourceTransform = sourceTransform;
+	}
+
 	/**
 	 * @return the current image state
 	 */
@@ -155,6 +196,21 @@ public class ImageCropConfig implements Cloneable {
 		this.selectMethod = selectMethod;
 	}
 
+	/**
+	 * @return the method used to detect the item pixels when auto-selecting
+	 */
+	public ImageDetectMethod getDetectMethod() {
+		return detectMethod;
+	}
+
+	/**
+	 * set the method used to detect the item pixels when auto-selecting
+	 * @param detectMethod
+	 */
+	public void setDetectMethod(ImageDetectMethod detectMethod) {
+		this.detectMethod = detectMethod;
+	}
+
 	/**
 	 * @return true if the selection rectangle is valid
 	 */
@@ -173,8 +229,13 @@ public class ImageCropConfig implements Cloneable {
 		imageCropConfig.bgTolerance = bgTolerance;
 		imageCropConfig.state = state;
 		imageCropConfig.selectMethod = selectMethod;
-		imageCropConfig.selectionRect = new Rectangle(selectionRect.x, selectionRect.y,
-				selectionRect.width, selectionRect.height);
+		imageCropConfig.detectMethod = detectMethod;
+		imageCropConfig.selectionRect = selectionRect != null
+				? new Rectangle(selectionRect) : null;
+		imageCropConfig.selectionEdgeList = selectionEdgeList != null
+				? new ArrayList<GeomEdge>(selectionEdgeList) : null;
+		imageCropConfig.sourceTransform = sourceTransform != null
+				? new AffineTransform(sourceTransform) : null;
 		
 		return imageCropConfig;
 	}
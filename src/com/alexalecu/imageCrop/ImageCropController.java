@@ -19,15 +19,20 @@ package com.alexalecu.imageCrop;
 
 import java.awt.Dimension;
 import java.awt.Image;
+import java.awt.Rectangle;
 import java.awt.Toolkit;
+import java.awt.geom.AffineTransform;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.util.Stack;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.swing.JFrame;
 import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 
 import org.apache.log4j.Logger;
 import org.apache.log4j.PropertyConfigurator;
@@ -45,13 +50,33 @@ import com.alexalecu.imageCrop.controller.SelectionController;
 import com.alexalecu.imageCrop.event.DiscardImageEvent;
 import com.alexalecu.imageCrop.event.EventBus;
 import com.alexalecu.imageCrop.event.ExitApplicationEvent;
+import com.alexalecu.imageCrop.event.ExportImageEvent;
 import com.alexalecu.imageCrop.event.LoadImageEvent;
+import com.alexalecu.imageCrop.event.RedoImageEvent;
 import com.alexalecu.imageCrop.event.SaveImageAsEvent;
 import com.alexalecu.imageCrop.event.SaveImageEvent;
 import com.alexalecu.imageCrop.event.ToggleWizardEvent;
+import com.alexalecu.imageCrop.exception.InvalidOperationException;
 import com.alexalecu.imageCrop.gui.ImageCropGUI;
+import com.alexalecu.imageUtil.AutoSelectTask;
+import com.alexalecu.imageUtil.BackgroundMask;
+import com.alexalecu.imageUtil.EncodeService;
+import com.alexalecu.imageUtil.ExportProfile;
+import com.alexalecu.imageUtil.ExportTask;
 import com.alexalecu.imageUtil.ImageConvert;
+import com.alexalecu.imageUtil.ImageHandle;
+import com.alexalecu.imageUtil.ImageHistory;
+import com.alexalecu.imageUtil.ImagePyramid;
+import com.alexalecu.imageUtil.ImagePyramidCache;
+import com.alexalecu.imageUtil.ImageLoader;
+import com.alexalecu.imageUtil.JpegLosslessCrop;
+import com.alexalecu.imageUtil.LoadTask;
+import com.alexalecu.imageUtil.ParallelBands;
+import com.alexalecu.imageUtil.PixelFormat;
+import com.alexalecu.imageUtil.SaveTask;
+import com.alexalecu.imageUtil.TiledImage;
 import com.alexalecu.util.FileUtil;
+import com.alexalecu.util.ScratchDirectory;
 import com.google.common.eventbus.Subscribe;
 
 public class ImageCropController {
@@ -60,13 +85,68 @@ public class ImageCropController {
 		PropertyConfigurator.configure("props" + File.separator + "logger.properties");
 	}
 
-	private final String tempImage = "original.png";
+	// the system property holding the heap budget for a decoded image, in MB
+	private final static String HEAP_BUDGET_PROPERTY = "imageCrop.heapBudgetMB";
 	
-	// the stack containing the config for each image subsequent to the initial image
-	private Stack<ImageCropConfig> imageConfigStack;
+	// the system property which, when true, lets the crops of JPEG files be extended to the MCU
+	// grid so that they can be saved losslessly; otherwise only the aligned crops are
+	private final static String SNAP_JPEG_CROP_PROPERTY = "imageCrop.snapJpegCrop";
+	
+	// the system property holding the memory budget of the undo history images, in MB; the
+	// images which do not fit are spilled to the scratch directory
+	private final static String HISTORY_BUDGET_PROPERTY = "imageCrop.historyBudgetMB";
+	
+	// the system property which, when true, makes the pixels of the image files be classified
+	// against the background color while they are decoding, so that the auto select can skip
+	// its first stage
+	private final static String CLASSIFY_ON_LOAD_PROPERTY = "imageCrop.classifyOnLoad";
+	
+	// the system property holding the maximum size of the saved JPEG files, in KB; when set, the
+	// images are saved with the highest quality which fits it
+	private final static String JPEG_TARGET_SIZE_PROPERTY = "imageCrop.jpegTargetKB";
+	
+	// the heap budget for a decoded image; the bigger image files are decoded subsampled
+	private long heapBudget;
+	
+	// the subsampling factor of the image decoded from the original image file
+	private int subsampling = 1;
+	
+	// encodes the saved images; the images queued for encoding share the heap budget
+	private EncodeService encodeService;
+	
+	// builds and keeps the pyramids of the images shown scaled
+	private ImagePyramidCache pyramidCache;
+	
+	// exports the current image in the background, null if no export is in progress
+	private ExportTask exportTask;
+	
+	// the images saving in the background, in the order they have been queued
+	private final List<SaveTask> saveTasks = new ArrayList<SaveTask>();
+	
+	// the scratch directory of this session, null if it cannot be created
+	private ScratchDirectory scratch;
+	
+	// the config and the image of the initial image and of each image derived from it
+	private ImageHistory<ImageCropConfig> history;
 
-	// the current image in buffer
-	private BufferedImage image;
+	// the current image in buffer; its pixels are shared with the views and the GUI, not copied
+	private ImageHandle image;
+	
+	// decodes the image file being loaded, null if no image file is loading
+	private LoadTask loadTask;
+	
+	// the image the loading image file is being decoded into
+	private BufferedImage loadingImage;
+	
+	// the state to go back to if the loading fails
+	private ImageCropState stateBeforeLoad;
+	
+	// saves the image over the file it has been loaded from, which is loaded again once saved;
+	// null if none
+	private SaveTask reloadTask;
+	
+	// the classification of the initial image pixels done while decoding it, null if none
+	private BackgroundMask backgroundMask;
 
 	private ImageCropGUI gui;
 	private ImageCropWizard wizard;
@@ -80,8 +160,27 @@ public class ImageCropController {
 		
 		EventBus.register(this);
 		
-		imageConfigStack = new Stack<ImageCropConfig>();
-		imageConfigStack.push(new ImageCropConfig());
+		heapBudget = Long.getLong(HEAP_BUDGET_PROPERTY, -1L) > 0
+				? Long.getLong(HEAP_BUDGET_PROPERTY) * 1024 * 1024
+				: ImageLoader.getDefaultHeapBudget();
+		logger.debug("Heap budget for a decoded image: " + heapBudget + " bytes");
+		
+		encodeService = new EncodeService(ParallelBands.getThreadCount(), heapBudget);
+		pyramidCache = new ImagePyramidCache(heapBudget / 2);
+		
+		try {
+			scratch = ScratchDirectory.create("imageCrop");
+			logger.debug("Scratch directory: " + scratch.getDirectory().getPath());
+		}
+		catch (IOException e) {
+			logger.error("Cannot create the scratch directory", e);
+		}
+		
+		long historyBudget = Long.getLong(HISTORY_BUDGET_PROPERTY, -1L) > 0
+				? Long.getLong(HISTORY_BUDGET_PROPERTY) * 1024 * 1024 : heapBudget;
+		history = new ImageHistory<ImageCropConfig>(historyBudget,
+				scratch != null ? scratch.getDirectory() : null);
+		history.push(new ImageCropConfig(), null);
 
 		JFrame.setDefaultLookAndFeelDecorated(true);
 		
@@ -103,15 +202,19 @@ public class ImageCropController {
 	 * @return the current image config object
 	 */
 	public ImageCropConfig getImageConfig() {
-		return imageConfigStack.peek();
+		return history.getState();
 	}
 	
 	/**
-	 * push the new image crop configuration onto the stack
-	 * @param imageConfig
+	 * add a new image after the current one in the history and make it the current image in
+	 * buffer; the images which could have been redone are dropped
+	 * @param imageConfig the config of the new image
+	 * @param image the handle to the new image; its ownership is transferred to this controller
 	 */
-	public void pushImageConfig(ImageCropConfig imageConfig) {
-		imageConfigStack.push(imageConfig);
+	public void pushImage(ImageCropConfig imageConfig, ImageHandle image) {
+		history.push(imageConfig, image.retain());
+		setImage(image);
+		gui.setRedoAvailable(history.canRedo());
 	}
 
 	/**
@@ -120,38 +223,80 @@ public class ImageCropController {
 	private void resetCurrentConfig() {
 		logger.debug("Resetting current config.");
 		
-		clearImageConfigStack(); // clear the image list
-		imageConfigStack.push(new ImageCropConfig()); // reset the image config
-		image = null;
+		history.reset(new ImageCropConfig(), null); // clear the images and reset the config
+		setImage((ImageHandle)null);
+		backgroundMask = null;
+		gui.setRedoAvailable(false);
 	}
 	
 	/**
-	 * @return the size of the image config stack
+	 * @return the classification of the initial image pixels against the background color done
+	 * while decoding it, null if none
 	 */
-	public int getImageConfigStackSize() {
-		return imageConfigStack.size();
+	public BackgroundMask getBackgroundMask() {
+		return backgroundMask;
 	}
-
+	
 	/**
-	 * remove all the elements from the image parameter stack
+	 * @return the current image in buffer, which must not be modified
 	 */
-	private void clearImageConfigStack() {
-		imageConfigStack.clear();
+	public BufferedImage getImage() {
+		return image != null ? image.getImage() : null;
 	}
 	
 	/**
-	 * @return the current image in buffer
+	 * @return the handle to the current image in buffer
 	 */
-	public BufferedImage getImage() {
+	public ImageHandle getImageHandle() {
 		return image;
 	}
 	
 	/**
-	 * set the current image in buffer
+	 * set the current image in buffer, taking its ownership
 	 * @param image
 	 */
 	public void setImage(BufferedImage image) {
+		setImage(image != null ? ImageHandle.wrap(image) : null);
+	}
+	
+	/**
+	 * set the current image in buffer, releasing the previous one
+	 * @param image the handle to the new image; its ownership is transferred to this controller
+	 */
+	public void setImage(ImageHandle image) {
+		if (this.image != null)
+			this.image.release();
 		this.image = image;
+		
+		if (image != null)
+			requestPyramid(image.getImage());
+	}
+	
+	/**
+	 * build the pyramid of an image in the background, and pass it to the GUI once built; the
+	 * GUI gets it after the current event, i.e. after the image has been set on it
+	 * @param image the image to build the pyramid of
+	 */
+	private void requestPyramid(final BufferedImage image) {
+		ImagePyramid pyramid = pyramidCache.request(image, new ImagePyramidCache.Listener() {
+			public void pyramidBuilt(BufferedImage source, ImagePyramid pyramid) {
+				showPyramid(source, pyramid);
+			}
+		});
+		if (pyramid != null)
+			showPyramid(image, pyramid);
+	}
+	
+	/**
+	 * pass the pyramid of an image to the GUI, on the event dispatch thread
+	 */
+	private void showPyramid(final BufferedImage image, final ImagePyramid pyramid) {
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				if (gui != null)
+					gui.setImagePyramid(image, pyramid);
+			}
+		});
 	}
 
 	/**
@@ -159,7 +304,7 @@ public class ImageCropController {
 	 * @param state the state to be set
 	 */
 	public void setState(ImageCropState state) {
-		ImageCropConfig imageCropConfig = imageConfigStack.peek();
+		ImageCropConfig imageCropConfig = history.getState();
 		
 		if (imageCropConfig.getState() == state)
 			return;
@@ -193,22 +338,26 @@ public class ImageCropController {
 		if (image == null)
 			return;
 		
-		ImageCropConfig imageCropConfig = imageConfigStack.peek();
-		
+		history.getState().setScaleFactor(getScaleFactorToFit(image.getWidth(), image.getHeight()));
+	}
+	
+	/**
+	 * @param width the width of an image
+	 * @param height the height of an image
+	 * @return the scale factor to fit the image to the current image panel view port, 1 at most
+	 */
+	private double getScaleFactorToFit(int width, int height) {
 		// if the image size is smaller or equal to the view port size, set scale factor to 1
 		Dimension viewportSize = gui.getImagePanelSize();
-		if (viewportSize.width >= image.getWidth() &&
-				viewportSize.height >= image.getHeight()) {
-			imageCropConfig.setScaleFactor(1d);
-			return;
-		}
+		if (viewportSize.width >= width && viewportSize.height >= height)
+			return 1d;
 		
 		// calculate it as the minimum of the horizontal and vertical scale factors
-		double hScaleFactor = Math.floor(viewportSize.width * 100d / image.getWidth());
-		double vScaleFactor = Math.floor(viewportSize.height * 100d / image.getHeight());
+		double hScaleFactor = Math.floor(viewportSize.width * 100d / width);
+		double vScaleFactor = Math.floor(viewportSize.height * 100d / height);
 		int scaleFactor = (int)Math.min(hScaleFactor, vScaleFactor);
 		
-		imageCropConfig.setScaleFactor(scaleFactor / 100d);
+		return scaleFactor / 100d;
 	}
 
 
@@ -219,34 +368,196 @@ public class ImageCropController {
 	 */
 	@Subscribe
 	public void selectImage(LoadImageEvent event) {
+		// nothing to load while the image being edited is saved over its file, to be reloaded
+		if (reloadTask != null)
+			return;
+		
+		// while an image file is loading, the load button cancels the loading
+		if (loadTask != null) {
+			if (!event.isScan())
+				loadTask.cancel(false);
+			return;
+		}
+		
 		// if there is an image being edited, let the use choose to discard it or not
 		if (image != null) {
 			if (!gui.showConfirmDialog("Are you sure you want to discard current picture ?"))
 				return;
 		}
 		
-		File imageFile = null;
-		BufferedImage imageNew = null;
 		if (event.isScan()) {
-			imageNew = scanImage();
+			BufferedImage imageNew = scanImage();
+			if (imageNew == null)
+				return;
+			
+			subsampling = 1;
+			startHistory(null, imageNew);
+			imageSelected();
 		}
 		else {
 			// ask the user which image file to load
-			imageFile = gui.showLoadDialog();
+			File imageFile = gui.showLoadDialog();
 			if (imageFile == null) // the user has not chosen any file
 				return;
 
-			// load the image from the file
-			imageNew = loadImage(imageFile);
+			// load the image from the file in the background, showing it as it is decoded
+			startLoading(imageFile);
+		}
+	}
+	
+	/**
+	 * start decoding the given image file in the background; the decoded regions are shown as
+	 * they arrive, and the image becomes the current image in buffer once it is complete
+	 * @param imageFile the image file to load
+	 */
+	private void startLoading(final File imageFile) {
+		int imageSubsampling;
+		try {
+			Dimension size = ImageLoader.readSize(imageFile);
+			imageSubsampling = ImageLoader.getSubsampling(size, heapBudget);
+			logger.debug("Loading image: " + imageFile.getPath() + "; full size: " +
+					size.width + "x" + size.height + "; subsampling: " + imageSubsampling);
+		}
+		catch (Exception ex) {
+			// log the error and show an error message to the user
+			logger.debug("Invalid / corrupt image file: " + imageFile.getPath(), ex);
+			gui.showErrorDialog("Invalid / corrupt image file: " + imageFile.getPath());
+			return;
+		}
+		
+		loadTask = new LoadTask();
+		// connect the task property change events to the current object actions
+		loadTask.addPropertyChangeListener(new PropertyChangeListener() {
+			@Override
+			public void propertyChange(PropertyChangeEvent arg0) {
+				// ignore the late notifications of a finished task
+				if (arg0.getSource() != loadTask)
+					return;
+				
+				if (arg0.getPropertyName().equals("progress")) {
+					gui.setLoadProgress((Integer)arg0.getNewValue());
+				}
+				else if (arg0.getPropertyName().equals("image")) {
+					loadStarted(imageFile, (BufferedImage)arg0.getNewValue());
+				}
+				else if (arg0.getPropertyName().equals("region")) {
+					gui.updateImageRegion(loadingImage, (Rectangle)arg0.getNewValue());
+				}
+				else if (arg0.getPropertyName().equals("result")) {
+					loadDone(imageFile, (BufferedImage)arg0.getNewValue());
+				}
+			}
+		});
+		
+		try {
+			loadTask.setFile(imageFile);
+			loadTask.setSubsampling(imageSubsampling);
+			if (Boolean.getBoolean(CLASSIFY_ON_LOAD_PROPERTY)) {
+				// the new image config keeps the background settings of the current one
+				ImageCropConfig imageCropConfig = history.getState();
+				loadTask.setBackgroundColor(imageCropConfig.getBgColor(),
+						AutoSelectTask.getColorTolerance(imageCropConfig.getBgTolerance()));
+			}
 		}
-		if (imageNew == null)
+		catch (InvalidOperationException e) {
+			loadTask = null;
+			gui.showErrorDialog("Cannot initialize the loading job!");
 			return;
+		}
 		
-		ImageCropConfig previousImageConfig = imageConfigStack.peek();
+		ImageCropConfig imageCropConfig = history.getState();
+		stateBeforeLoad = imageCropConfig.getState();
+		imageCropConfig.setState(ImageCropState.StateLoading);
+		gui.setState(imageCropConfig.getState());
+		gui.setLoadProgress(0);
+		
+		// and let it roll
+		loadTask.execute();
+	}
+	
+	/**
+	 * called when the decoder has created the image, before any pixel has been decoded; show it
+	 * in place of the current image
+	 * @param imageFile the image file being loaded
+	 * @param partialImage the image being decoded into
+	 */
+	private void loadStarted(File imageFile, BufferedImage partialImage) {
+		loadingImage = partialImage;
+		
+		gui.setScaleFactor(partialImage,
+				getScaleFactorToFit(partialImage.getWidth(), partialImage.getHeight()));
+		gui.setSelectionRect(null, true);
+		gui.setImageName(imageFile.getName());
+		gui.setImageSize(new Dimension(partialImage.getWidth(), partialImage.getHeight()));
+	}
+	
+	/**
+	 * called when the loading is done
+	 * @param imageFile the image file which has been loaded
+	 * @param imageNew the decoded image, null if the loading has been cancelled or has failed
+	 */
+	private void loadDone(File imageFile, BufferedImage imageNew) {
+		boolean isCancelled = loadTask.isCancelled();
+		Throwable error = loadTask.getError();
+		int imageSubsampling = loadTask.getSubsampling();
+		BackgroundMask mask = loadTask.getBackgroundMask();
+		loadTask = null; // reset the load task, as the SwingWorker is not re-usable
+		loadingImage = null;
+		
+		gui.setLoadProgress(-1);
+		
+		if (isCancelled || imageNew == null) {
+			// reset the state to the previous one and show the previous image again
+			ImageCropConfig imageCropConfig = history.getState();
+			imageCropConfig.setState(stateBeforeLoad);
+			if (image != null) {
+				showCurrentImage();
+			}
+			else {
+				gui.setScaleFactor(null, imageCropConfig.getScaleFactor());
+				gui.setState(imageCropConfig.getState());
+			}
+			
+			if (!isCancelled) {
+				logger.debug("Invalid / corrupt image file: " + imageFile.getPath(), error);
+				gui.showErrorDialog("Invalid / corrupt image file: " + imageFile.getPath());
+			}
+			return;
+		}
+		
+		subsampling = imageSubsampling;
+		logger.debug("Image succesfully loaded: " + imageFile.getPath());
+		
+		startHistory(imageFile, imageNew);
+		
+		backgroundMask = mask;
+		if (mask != null)
+			logger.debug("Image pixels classified while loading; border color: " +
+					mask.getBorderColor() + "; item bounds: " + mask.getItemBounds());
+		
+		imageSelected();
+	}
+	
+	/**
+	 * called once the new image has become the current one
+	 */
+	private void imageSelected() {
+		logger.debug("Image selected.");
+		
+		wizard.triggerWizard(false); // switch to the next state if the wizard is on
+	}
+	
+	/**
+	 * start a new image history with the given image, keeping some of the current settings,
+	 * and make it the current image in buffer
+	 * @param imageFile the file the image has been loaded from, null if it has been scanned
+	 * @param imageNew the image; its ownership is transferred to this controller
+	 */
+	private void startHistory(File imageFile, BufferedImage imageNew) {
+		backgroundMask = null;
+		
+		ImageCropConfig previousImageConfig = history.getState();
 		
-		// clear the stack
-		clearImageConfigStack();
-
 		// reset the image config and re-use some of the previous ones
 		ImageCropConfig imageCropConfig = new ImageCropConfig();
 		imageCropConfig.setImageFile(imageFile);
@@ -254,20 +565,17 @@ public class ImageCropController {
 		imageCropConfig.setBgTolerance(previousImageConfig.getBgTolerance());
 		imageCropConfig.setState(ImageCropState.StateImageLoaded);
 		imageCropConfig.setSelectMethod(previousImageConfig.getSelectMethod());
+		imageCropConfig.setDetectMethod(previousImageConfig.getDetectMethod());
+		if (imageFile != null)
+			imageCropConfig.setSourceTransform(
+					AffineTransform.getScaleInstance(subsampling, subsampling));
 		
-		// add the current config to the stack
-		imageConfigStack.push(imageCropConfig);
-
-		image = ImageConvert.cloneImage(imageNew);
-		
-		// save the original image on the disk if the file was loaded from the scanner
-		try {
-			ImageConvert.writePng(image, new FileOutputStream(tempImage));
-		}
-		catch (Exception e) {
-			gui.showErrorDialog("Could not save the temporary file; any changes you make to the" +
-					" current image are not reversible");
-		}
+		// start a new history with the current config; the decoded image is not referenced
+		// anywhere else, so it is not copied
+		ImageHandle handle = ImageHandle.wrap(imageNew);
+		history.reset(imageCropConfig, handle.retain());
+		setImage(handle);
+		gui.setRedoAvailable(false);
 		
 		setScaleFactorToFit();
 
@@ -275,16 +583,12 @@ public class ImageCropController {
 
 		// and update the GUI image and state
 		gui.setState(imageCropConfig.getState());
-		gui.setScaleFactor(image, imageCropConfig.getScaleFactor());
+		gui.setScaleFactor(image.getImage(), imageCropConfig.getScaleFactor());
 		gui.setBgColor(imageCropConfig.getBgColor());
 		gui.setBgTolerance(imageCropConfig.getBgTolerance());
 		gui.setImageName(imageCropConfig.getImageFile() != null
 				? imageCropConfig.getImageFile().getName() : "N/A");
 		gui.setImageSize(new Dimension(image.getWidth(), image.getHeight()));
-
-		logger.debug("Image selected.");
-		
-		wizard.triggerWizard(false); // switch to the next state if the wizard is on
 	}
 	
 	/**
@@ -319,8 +623,11 @@ public class ImageCropController {
 				if (morenaImage.getWidth() > 0 || morenaImage.getHeight() > 0) {
 					Image imageTemp = Toolkit.getDefaultToolkit().createImage(morenaImage);
 					imageNew = new BufferedImage(imageTemp.getWidth(null),
-							imageTemp.getHeight(null), BufferedImage.TYPE_INT_RGB);
+							imageTemp.getHeight(null), BufferedImage.TYPE_3BYTE_BGR);
 					imageNew.createGraphics().drawImage(imageTemp, 0, 0, null);
+					
+					// keep the grey scans in 1 byte per pixel
+					imageNew = PixelFormat.compact(imageNew);
 				}
 				else {
 					throw new MorenaException("Could not get a valid Morena image");
@@ -341,34 +648,9 @@ public class ImageCropController {
 	}
 	
 	/**
-	 * load an image from a file
-	 * @param imageFile the file containing the image
-	 * @return the BufferedImage from the specified file
-	 */
-	private BufferedImage loadImage(File imageFile) {
-		if (imageFile == null)
-			return null;
-
-		try {
-			BufferedImage imageNew = ImageConvert.read(new FileInputStream(imageFile));
-			if (imageNew == null)
-				throw new Exception("invalid image");
-
-			logger.debug("Image succesfully loaded: " + imageFile.getPath());
-
-			return imageNew;
-		}
-		catch (Exception ex) {
-			// log the error and show an error message to the user
-			logger.debug("Invalid / corrupt image file: " + imageFile.getPath(), ex);
-			gui.showErrorDialog("Invalid / corrupt image file: " + imageFile.getPath());
-			return null;
-		}
-	}
-
-	/**
-	 * save the current image in buffer as JPEG; the file has to have a JPG extension; if the
-	 * original image file is overwritten, it will be reset to the new one
+	 * save the current image in buffer; the file has to have a JPG, PNG or, if a TIFF writer is
+	 * available, TIFF extension; if the original image file is overwritten, it will be reset to
+	 * the new one
 	 */
 	@Subscribe
 	public void saveAs(SaveImageAsEvent event) {
@@ -380,29 +662,33 @@ public class ImageCropController {
 		if (imageFile == null)
 			return;
 		
-		// exit if the file extension is not JPG or JPEG
+		// exit if the file extension is not JPG, JPEG, PNG, TIF or TIFF
 		String ext = FileUtil.getExtension(imageFile);
-		if (ext == null || (!ext.equals(".jpg") && !ext.equals(".jpeg"))) {
-			gui.showErrorDialog("Can save only to jpg files !");
+		boolean tiff = ext != null && (ext.equals(".tif") || ext.equals(".tiff"));
+		if (ext == null || (!ext.equals(".jpg") && !ext.equals(".jpeg") && !ext.equals(".png")
+				&& !(tiff && ImageConvert.canWrite("tiff")))) {
+			gui.showErrorDialog(ImageConvert.canWrite("tiff")
+					? "Can save only to jpg, png or tiff files !"
+					: "Can save only to jpg or png files !");
 			return;
 		}
 
-		boolean discardToFirst = false;
+		boolean reloadOriginal = false;
 
 		// if the file exists, ask for user confirmation to overwrite it
 		if (imageFile.exists()) {
 			boolean flag = true;
 			
 			// if the file to write to is the original one, ask the user if it is okay to overwrite
-			String originalPath = imageConfigStack.peek().getImageFile() != null
-					? imageConfigStack.peek().getImageFile().getPath() : null;
+			String originalPath = history.getState().getImageFile() != null
+					? history.getState().getImageFile().getPath() : null;
 			if (originalPath != null && imageFile.getPath().equals(originalPath)) {
 				flag = gui.showConfirmDialog(
 						"You are trying to overwrite the current editing image file." +
 						lineSeparator + "Are you sure you want to continue ?");
 				
 				if (flag) // the user chose to overwrite the original image
-					discardToFirst = true;
+					reloadOriginal = true;
 			}
 			else {
 				flag = gui.showConfirmDialog("File already exists." + lineSeparator +
@@ -414,71 +700,374 @@ public class ImageCropController {
 				return;
 		}
 		
-		// and try to save
-		if (!save(imageFile))
-			return;
-		
-		imageConfigStack.peek().setImageFile(imageFile);
-		gui.setImageName(imageFile.getName());
-
-		// if the original image file has been overwritten, reset the image to the new one
-		if (discardToFirst)
-			discard(false);
+		// and save it in the background; the image being edited is reloaded from the file it is
+		// overwriting once saved, and it cannot be edited until then
+		final File savedFile = imageFile;
+		final boolean reload = reloadOriginal;
+		final ImageCropConfig imageCropConfig = history.getState();
+		SaveTask saveTask = save(savedFile, new Runnable() {
+			public void run() {
+				imageCropConfig.setImageFile(savedFile);
+				
+				// nothing else to do if the image has changed while it was saving
+				if (history.getState() != imageCropConfig)
+					return;
+				gui.setImageName(savedFile.getName());
+				
+				// if the original image file has been overwritten, the history images do not
+				// match it anymore; load it in the background to start a new history with it
+				if (reload)
+					startLoading(savedFile);
+			}
+		});
+		if (saveTask != null && reload) {
+			reloadTask = saveTask;
+			stateBeforeLoad = imageCropConfig.getState();
+			imageCropConfig.setState(ImageCropState.StateLoading);
+			gui.setState(imageCropConfig.getState());
+		}
 	}
 
 	/**
-	 * save the current image in buffer as JPEG, using an unique file name to avoid the overwriting
+	 * save the current image in buffer using an unique file name to avoid the overwriting; as
+	 * JPEG, or as PNG for the high bit depth images, so that their depth is kept
 	 */
 	@Subscribe
 	public void save(SaveImageEvent event) {
 		// use the saveAs() method instead if there is no original image file
-		if (imageConfigStack.peek().getImageFile() == null) {
+		if (history.getState().getImageFile() == null) {
 			saveAs(null);
 			return;
 		}
 		
-		String dirPath = imageConfigStack.peek().getImageFile().getParent();
+		String dirPath = history.getState().getImageFile().getParent();
 		
-		// generate a unique file name
+		// generate a unique file name, skipping the names of the files still saving
 		String imageFilename = FileUtil.stripExtension(
-				imageConfigStack.peek().getImageFile().getName()) + ".jpg";
-		imageFilename = FileUtil.generateUniqueFilename(dirPath, imageFilename, 3);
+				history.getState().getImageFile().getName())
+				+ (PixelFormat.isHighBitDepth(image.getImage()) ? ".png" : ".jpg");
+		imageFilename = FileUtil.generateUniqueFilename(dirPath, imageFilename, 3,
+				getSavingFiles());
 		
 		logger.debug("Generating new unique file name: " + imageFilename);
 		
-		// and try to save the file
-		File file = new File(dirPath, imageFilename);
-		if (!save(file))
-			return;
-		
-		imageConfigStack.peek().setImageFile(file);
-		gui.setImageName(file.getName());
+		// and save the file in the background
+		final File file = new File(dirPath, imageFilename);
+		final ImageCropConfig imageCropConfig = history.getState();
+		save(file, new Runnable() {
+			public void run() {
+				imageCropConfig.setImageFile(file);
+				if (history.getState() == imageCropConfig)
+					gui.setImageName(file.getName());
+			}
+		});
 	}
 
 	/**
-	 * save the current image in buffer as JPEG; the extension is not checked
-	 * @param imageFile the file to save to; if it exists, this method will overwrite it
-	 * @return true if the image has been saved, false if an error has occurred
+	 * save the current image in buffer in the background, in the format matching the file
+	 * extension (JPEG if it is not known); the high bit depth images are written at their depth
+	 * to PNG or TIFF files. The image is taken as it is now, so it can be changed while it is
+	 * saving.
+	 * @param imageFile the file to save to; if it exists, it will be replaced
+	 * @param onSaved the action to run on the event dispatch thread once the image is saved
+	 * @return the task saving the image, null if it cannot be started
 	 */
-	public boolean save(File imageFile) {
-		final String lineSeparator = System.getProperty("line.separator");
+	private SaveTask save(File imageFile, final Runnable onSaved) {
+		final SaveTask saveTask = new SaveTask();
+		// connect the task property change events to the current object actions
+		saveTask.addPropertyChangeListener(new PropertyChangeListener() {
+			@Override
+			public void propertyChange(PropertyChangeEvent arg0) {
+				if (arg0.getPropertyName().equals("progress")) {
+					updateSaveProgress();
+				}
+				else if (arg0.getPropertyName().equals("result")) {
+					saveDone(saveTask, onSaved);
+				}
+			}
+		});
+		
+		FullResolutionSource source = new FullResolutionSource();
 		try {
-			// save the current image as JPEG
-			ImageConvert.writeJpg(image, new FileOutputStream(imageFile));
-			logger.debug("Image saved as: " + imageFile.getPath());
-			
-			// and notify the user
-			gui.showInfoDialog("Image saved as: " + lineSeparator + imageFile.getPath());
-			return true;
+			saveTask.setSource(source);
+			saveTask.setFile(imageFile);
+			saveTask.setFormat(EncodeService.Format.forFile(imageFile));
+			saveTask.setMaxBytes(Long.getLong(JPEG_TARGET_SIZE_PROPERTY, -1L) * 1024);
+			saveTask.setEncodeService(encodeService);
 		}
-		catch (Exception e) {
+		catch (InvalidOperationException e) {
+			source.release();
+			gui.showErrorDialog("Cannot initialize the saving job!");
+			return null;
+		}
+		
+		logger.debug("Saving image to: " + imageFile.getPath());
+		saveTasks.add(saveTask);
+		updateSaveProgress();
+		
+		// and let it roll
+		saveTask.execute();
+		return saveTask;
+	}
+	
+	/**
+	 * called when an image has been saved, or the saving has failed
+	 * @param saveTask the task which has saved the image
+	 * @param onSaved the action to run if the image has been saved
+	 */
+	private void saveDone(SaveTask saveTask, Runnable onSaved) {
+		saveTasks.remove(saveTask);
+		updateSaveProgress();
+		
+		// the image being edited can be changed again, or loaded again from the saved file
+		if (saveTask == reloadTask) {
+			reloadTask = null;
+			ImageCropConfig imageCropConfig = history.getState();
+			imageCropConfig.setState(stateBeforeLoad);
+			gui.setState(imageCropConfig.getState());
+		}
+		
+		final String lineSeparator = System.getProperty("line.separator");
+		File imageFile = saveTask.getFile();
+		if (saveTask.getResult() == null) {
 			logger.debug("An error has occured while saving image to file: " +
-					imageFile.getPath(), e);
+					imageFile.getPath(), saveTask.getError());
 			
 			// notify the user about the error
 			gui.showErrorDialog("An error has occured while saving image to file: " + 
 					lineSeparator + imageFile.getPath());
-			return false;
+			return;
+		}
+		
+		logger.debug("Image saved as: " + imageFile.getPath());
+		onSaved.run();
+	}
+	
+	/**
+	 * show the number of images saving in the background and their average progress
+	 */
+	private void updateSaveProgress() {
+		int progress = 0;
+		for (SaveTask saveTask : saveTasks)
+			progress += saveTask.getProgress();
+		gui.setSaveProgress(saveTasks.size(),
+				saveTasks.isEmpty() ? -1 : progress / saveTasks.size());
+	}
+	
+	/**
+	 * @return the files of the images saving in the background
+	 */
+	private List<File> getSavingFiles() {
+		List<File> files = new ArrayList<File>(saveTasks.size());
+		for (SaveTask saveTask : saveTasks)
+			files.add(saveTask.getFile());
+		return files;
+	}
+	
+	/**
+	 * block until a task running in the background is done; its result is not reported anymore
+	 * @param task the task to wait for
+	 */
+	private static void waitFor(SwingWorker<?, ?> task) {
+		try {
+			task.get();
+		}
+		catch (Exception e) {
+			// the application is exiting
+		}
+	}
+
+	/**
+	 * export the current image in buffer as the JPEG derivatives of the default export profile
+	 * (full size, web and thumbnail), next to the original image file and using an unique name;
+	 * the export runs in the background, the full resolution image is obtained once, and all the
+	 * derivatives are built from it. If an export is in progress, cancel it
+	 */
+	@Subscribe
+	public void export(ExportImageEvent event) {
+		if (exportTask != null) {
+			exportTask.cancel(true);
+			return;
+		}
+		
+		File baseFile;
+		if (history.getState().getImageFile() == null) {
+			// there is no original image file, let the user choose the base file
+			baseFile = gui.showSaveDialog();
+			if (baseFile == null)
+				return;
+		}
+		else {
+			String dirPath = history.getState().getImageFile().getParent();
+			String imageFilename = FileUtil.stripExtension(
+					history.getState().getImageFile().getName()) + ".jpg";
+			baseFile = new File(dirPath,
+					FileUtil.generateUniqueFilename(dirPath, imageFilename, 3, getSavingFiles()));
+		}
+		
+		final ExportTask task = new ExportTask();
+		// connect the task property change events to the current object actions
+		task.addPropertyChangeListener(new PropertyChangeListener() {
+			@Override
+			public void propertyChange(PropertyChangeEvent arg0) {
+				if (arg0.getPropertyName().equals("progress")) {
+					gui.setExportProgress((Integer)arg0.getNewValue());
+				}
+				else if (arg0.getPropertyName().equals("result")) {
+					exportDone(task);
+				}
+			}
+		});
+		
+		FullResolutionSource source = new FullResolutionSource();
+		try {
+			task.setSource(source);
+			task.setBaseFile(baseFile);
+			task.setProfile(ExportProfile.DEFAULT);
+			task.setEncodeService(encodeService);
+		}
+		catch (InvalidOperationException e) {
+			source.release();
+			gui.showErrorDialog("Cannot initialize the exporting job!");
+			return;
+		}
+		
+		logger.debug("Exporting image to: " + baseFile.getPath());
+		exportTask = task;
+		gui.setExportProgress(0);
+		
+		// and let it roll
+		task.execute();
+	}
+	
+	/**
+	 * called when the export is done, has been cancelled or has failed
+	 * @param task the task which has exported the image
+	 */
+	private void exportDone(ExportTask task) {
+		if (exportTask == task)
+			exportTask = null;
+		gui.setExportProgress(-1);
+		
+		final String lineSeparator = System.getProperty("line.separator");
+		File baseFile = task.getBaseFile();
+		if (task.isCancelled()) {
+			logger.debug("Export cancelled: " + baseFile.getPath());
+			return;
+		}
+		
+		if (task.getResult() == null) {
+			logger.debug("An error has occured while exporting image to file: " +
+					baseFile.getPath(), task.getError());
+			
+			// notify the user about the error
+			gui.showErrorDialog("An error has occured while exporting image to file: " +
+					lineSeparator + baseFile.getPath());
+			return;
+		}
+		
+		StringBuilder message = new StringBuilder("Image exported as:");
+		for (File file : task.getResult()) {
+			logger.debug("Image exported as: " + file.getPath());
+			message.append(lineSeparator).append(file.getPath());
+		}
+		gui.showInfoDialog(message.toString());
+	}
+	
+	/**
+	 * A snapshot of the current image and of the state needed to obtain it at the resolution of
+	 * the image file it comes from, so that it can be saved in the background while the next
+	 * image is being worked on
+	 */
+	private class FullResolutionSource implements SaveTask.Source {
+		// a handle of its own, so that the image cannot change while it is being saved
+		private final ImageHandle proxyHandle = image.retain();
+		private final BufferedImage proxy = proxyHandle.getImage();
+		private final AffineTransform sourceTransform = history.getState().getSourceTransform();
+		private final File sourceFile = history.getState(0).getImageFile();
+		private final int proxySubsampling = subsampling;
+		
+		// the full resolution image rendered to disk, if any
+		private TiledImage tiledImage;
+		
+		/**
+		 * crop the JPEG file the image comes from in the DCT domain, if the image is just a crop
+		 * of it (i.e. it has not been rotated or deskewed)
+		 * @param imageFile the file to save to
+		 * @return true if the image has been saved, false if it has to be encoded again
+		 * @throws IOException if the files cannot be read or written
+		 */
+		public boolean copyTo(File imageFile) throws IOException {
+			if (sourceTransform == null || sourceFile == null)
+				return false;
+			
+			// the full resolution image has to be an integer translation of the image file
+			AffineTransform destToSource = new AffineTransform(sourceTransform);
+			destToSource.scale(1d / proxySubsampling, 1d / proxySubsampling);
+			double tx = destToSource.getTranslateX();
+			double ty = destToSource.getTranslateY();
+			if ((destToSource.getType() & ~AffineTransform.TYPE_TRANSLATION) != 0
+					|| tx != Math.rint(tx) || ty != Math.rint(ty))
+				return false;
+			
+			Dimension mcuSize = JpegLosslessCrop.getMcuSize(sourceFile);
+			if (mcuSize == null)
+				return false;
+			
+			Rectangle region = new Rectangle((int)tx, (int)ty,
+					proxy.getWidth() * proxySubsampling, proxy.getHeight() * proxySubsampling);
+			Dimension size = ImageLoader.readSize(sourceFile);
+			region = region.intersection(new Rectangle(size));
+			if (region.x % mcuSize.width != 0 || region.y % mcuSize.height != 0) {
+				if (!Boolean.getBoolean(SNAP_JPEG_CROP_PROPERTY))
+					return false;
+				region = JpegLosslessCrop.snapToMcu(region, mcuSize);
+			}
+			
+			JpegLosslessCrop.crop(sourceFile, region, imageFile);
+			logger.debug("Image cropped losslessly from: " + sourceFile.getPath() +
+					" (x, y, w, h): " + region.x + ", " + region.y + ", " + region.width + ", " +
+					region.height);
+			return true;
+		}
+		
+		/**
+		 * @return the image at the resolution of the image file it comes from; if the image is
+		 * a subsampled proxy, the part of the image file it covers is decoded again, and
+		 * rendered into a tiled image on disk if it does not fit the heap budget. A crop is a
+		 * view of the image it has been cut from, so it can be encoded without copying its pixels
+		 * @throws IOException if the image file cannot be decoded
+		 */
+		public BufferedImage getImage() throws IOException {
+			if (proxySubsampling == 1 || sourceTransform == null || sourceFile == null)
+				return proxy;
+			
+			// map the full resolution pixels to the current image pixels, then to the image file
+			AffineTransform destToSource = new AffineTransform(sourceTransform);
+			destToSource.scale(1d / proxySubsampling, 1d / proxySubsampling);
+			int width = proxy.getWidth() * proxySubsampling;
+			int height = proxy.getHeight() * proxySubsampling;
+			
+			if ((long)width * height * 4 > heapBudget) {
+				logger.debug("Rendering the full resolution image to disk from: " +
+						sourceFile.getPath());
+				tiledImage = ImageLoader.readTransformedTiled(sourceFile, destToSource,
+						width, height);
+				return tiledImage.getImage();
+			}
+			
+			logger.debug("Decoding the full resolution image from: " + sourceFile.getPath());
+			return ImageLoader.readTransformed(sourceFile, destToSource, width, height);
+		}
+		
+		/**
+		 * delete the tiled image rendered to disk, if any, and release the image handle
+		 */
+		public void release() {
+			if (tiledImage != null)
+				tiledImage.close();
+			tiledImage = null;
+			proxyHandle.release();
 		}
 	}
 	
@@ -496,67 +1085,97 @@ public class ImageCropController {
 	 * @param keepSelection true to maintain the selection
 	 */
 	public void discard(boolean keepSelection) {
-		logger.debug("Discarding image: imageConfigStack.size() = " + imageConfigStack.size());
+		logger.debug("Discarding image: history index = " + history.getIndex());
 		
-		// if we only have one image in stack, reset the application state to init
-		if (imageConfigStack.size() == 1) {
-			ImageCropConfig previousImageConfig = imageConfigStack.peek();
+		// if we are at the initial image, reset the application state to init
+		if (!history.canUndo()) {
+			ImageCropConfig previousImageConfig = history.getState();
 			
 			resetCurrentConfig();
 			
-			ImageCropConfig imageCropConfig = imageConfigStack.peek();
+			ImageCropConfig imageCropConfig = history.getState();
 			
 			// remember some of the previous settings
 			imageCropConfig.setBgColor(previousImageConfig.getBgColor());
 			imageCropConfig.setBgTolerance(previousImageConfig.getBgTolerance());
 			imageCropConfig.setSelectMethod(previousImageConfig.getSelectMethod());
+			imageCropConfig.setDetectMethod(previousImageConfig.getDetectMethod());
 			
 			// and update the GUI
-			gui.setScaleFactor(image, imageCropConfig.getScaleFactor());
+			gui.setScaleFactor(getImage(), imageCropConfig.getScaleFactor());
 			gui.setSelectionRect(imageCropConfig.getSelectionRect(), true);
 			gui.setState(imageCropConfig.getState());
 			
 			return;
-		}
-		else { // otherwise lets reinstate the previous (original) image
-			imageConfigStack.pop();
-			ImageCropConfig imageCropConfig = imageConfigStack.peek();
-
-			// load the image from the file; if it cannot be done, discard this parameter set too
-			BufferedImage imageNew = loadImage(imageCropConfig.getImageFile() != null
-					? imageCropConfig.getImageFile() : new File(tempImage));
-			if (imageNew == null) {
-				discard(keepSelection);
-				return;
-			}
-			
-			// reinstate the image
-			image = imageNew;
-
-			if (!keepSelection && (imageCropConfig.getState() == ImageCropState.StateSelectionDone
-					|| imageCropConfig.getState() == ImageCropState.StateCrop))
-				imageCropConfig.setState(ImageCropState.StateSelection);
-			
-			gui.setBgColor(imageCropConfig.getBgColor());
-			gui.setBgTolerance(imageCropConfig.getBgTolerance());
-			gui.setAutoSelectMethod(imageCropConfig.getSelectMethod());
-			gui.setImageName(imageCropConfig.getImageFile().getName());
-			gui.setBgColor(imageCropConfig.getBgColor());
-			gui.setBgTolerance(imageCropConfig.getBgTolerance());
-			gui.setAutoSelectMethod(imageCropConfig.getSelectMethod());
-			gui.setImageName(imageCropConfig.getImageFile() != null
-					? imageCropConfig.getImageFile().getName() : "N/A");
-			gui.setImageSize(new Dimension(image.getWidth(), image.getHeight()));
-			
-			// scale the image in buffer if needed, based on the new scale factor
-			gui.setScaleFactor(image, imageCropConfig.getScaleFactor());
+		}
+		
+		// otherwise lets reinstate the previous image, from memory or from its spill file
+		try {
+			history.undo();
+			setImage(history.getImage());
+		}
+		catch (IOException e) {
+			logger.error("Cannot load the previous image", e);
+			gui.showErrorDialog("Cannot load the previous image");
+			return;
+		}
+		
+		ImageCropConfig imageCropConfig = history.getState();
+		if (!keepSelection && (imageCropConfig.getState() == ImageCropState.StateSelectionDone
+				|| imageCropConfig.getState() == ImageCropState.StateCrop))
+			imageCropConfig.setState(ImageCropState.StateSelection);
+		
+		showCurrentImage();
+	}
+	
+	/**
+	 * reinstate the last discarded image
+	 */
+	@Subscribe
+	public void redo(RedoImageEvent event) {
+		if (!history.canRedo())
+			return;
+		
+		logger.debug("Reinstating image: history index = " + (history.getIndex() + 1));
+		
+		try {
+			history.redo();
+			setImage(history.getImage());
+		}
+		catch (IOException e) {
+			logger.error("Cannot load the next image", e);
+			gui.showErrorDialog("Cannot load the next image");
+			return;
+		}
+		
+		showCurrentImage();
+	}
+	
+	/**
+	 * update the GUI to match the current image and config, after moving through the history
+	 */
+	private void showCurrentImage() {
+		ImageCropConfig imageCropConfig = history.getState();
+		
+		gui.setBgColor(imageCropConfig.getBgColor());
+		gui.setBgTolerance(imageCropConfig.getBgTolerance());
+		gui.setAutoSelectMethod(imageCropConfig.getSelectMethod());
+		gui.setAutoDetectMethod(imageCropConfig.getDetectMethod());
+		gui.setImageName(imageCropConfig.getImageFile() != null
+				? imageCropConfig.getImageFile().getName() : "N/A");
+		gui.setImageSize(new Dimension(image.getWidth(), image.getHeight()));
+		
+		// scale the image in buffer if needed, based on the new scale factor
+		gui.setScaleFactor(image.getImage(), imageCropConfig.getScaleFactor());
 
-			// update the selection panel
-			gui.setSelectionRect(imageCropConfig.getSelectionRect(), true);
+		// update the selection panel
+		gui.setSelectionRect(imageCropConfig.getSelectionRect(), true);
 
-			// reset the GUI state and update the crop size if necessary
-			gui.setState(imageCropConfig.getState());
-		}
+		// reset the GUI state and update the crop size if necessary
+		gui.setState(imageCropConfig.getState());
+		gui.setRedoAvailable(history.canRedo());
+		
+		logCurrentConfig();
 	}
 
 
@@ -565,9 +1184,9 @@ public class ImageCropController {
 	 * image width / height, scale factor)
 	 */
 	public void logCurrentConfig() {
-		ImageCropConfig imageCropConfig = imageConfigStack.peek();
+		ImageCropConfig imageCropConfig = history.getState();
 		
-		logger.debug("imageConfigStack.size() = " + imageConfigStack.size());
+		logger.debug("history index = " + history.getIndex() + " / " + history.size());
 		logger.debug("state = " + imageCropConfig.getState());
 		
 		logger.debug("imageFile = " + (imageCropConfig.getImageFile() != null ?
@@ -579,18 +1198,44 @@ public class ImageCropController {
 	}
 
 	/**
-	 * exit the application
+	 * exit the application; the window is hidden at once, and the application exits once the
+	 * images saving and exporting in the background have been written
 	 */
 	@Subscribe
 	public void exitApp(ExitApplicationEvent event) {
 		logger.debug("Exiting application." + System.getProperty("line.separator"));
-
-		// dispose the GUI
+		
+		pyramidCache.shutdown();
 		if (gui != null)
-			gui.dispose();
+			gui.setVisible(false);
+		
+		// let the images saving in the background be written, without blocking the event
+		// dispatch thread, which reports them
+		final List<SwingWorker<?, ?>> tasks = new ArrayList<SwingWorker<?, ?>>(saveTasks);
+		if (exportTask != null)
+			tasks.add(exportTask);
+		Thread exitThread = new Thread(new Runnable() {
+			public void run() {
+				for (SwingWorker<?, ?> task : tasks)
+					waitFor(task);
+				
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						// dispose the GUI
+						if (gui != null)
+							gui.dispose();
+						
+						// the scratch files are not needed anymore
+						if (scratch != null)
+							scratch.delete();
 
-		// and exit the app
-		System.exit(0);
+						// and exit the app
+						System.exit(0);
+					}
+				});
+			}
+		}, "imageCrop-exit");
+		exitThread.start();
 	}
 
 
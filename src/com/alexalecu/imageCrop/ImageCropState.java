@@ -7,6 +7,8 @@ public enum ImageCropState {
 	StateBackgroundColor,
 	StateSelection,
 	StateAutoSelecting,
+	StateRotating,
+	StateLoading,
 	StateSelectionAutoSelected,
 	StateSelectionDone,
 	StateCrop
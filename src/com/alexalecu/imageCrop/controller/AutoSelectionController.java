@@ -92,6 +92,8 @@ public class AutoSelectionController {
 				autoSelectTask.setBgColor(imageCropConfig.getBgColor());
 				autoSelectTask.setBgTolerance(imageCropConfig.getBgTolerance());
 				autoSelectTask.setSelectMethod(imageCropConfig.getSelectMethod());
+				autoSelectTask.setDetectMethod(imageCropConfig.getDetectMethod());
+				autoSelectTask.setBackgroundMask(controller.getBackgroundMask());
 			}
 			catch (InvalidOperationException e) {
 				gui.showErrorDialog("Cannot initialize the auto selecting job!");
@@ -131,6 +133,7 @@ public class AutoSelectionController {
 		gui.setAutoSelectStatus(AutoSelectStatus.Finished);
 		
 		logger.debug("Auto select method: " + imageCropConfig.getSelectMethod());
+		logger.debug("Auto detect method: " + imageCropConfig.getDetectMethod());
 		logger.debug("Auto select result (x, y, w, h): " +
 				(polygonRect == null ? "null" : polygonRect.x + ", " + polygonRect.y + ", " +
 						polygonRect.width + ", " + polygonRect.height));
@@ -146,6 +149,7 @@ public class AutoSelectionController {
 		}
 
 		imageCropConfig.setSelectionRect(polygonRect);
+		imageCropConfig.setSelectionEdgeList(edgeList);
 
 		// update the GUI properties
 		gui.setSelectionRect(imageCropConfig.getSelectionRect(), false);
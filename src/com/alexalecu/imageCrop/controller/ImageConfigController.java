@@ -21,6 +21,7 @@ import org.apache.log4j.Logger;
 import com.alexalecu.imageCrop.ImageCropConfig;
 import com.alexalecu.imageCrop.ImageCropController;
 import com.alexalecu.imageCrop.ImageCropState;
+import com.alexalecu.imageCrop.event.AutoDetectMethodChangedEvent;
 import com.alexalecu.imageCrop.event.AutoSelectMethodChangedEvent;
 import com.alexalecu.imageCrop.event.BgColorPickedEvent;
 import com.alexalecu.imageCrop.event.BgColorSelectedEvent;
@@ -84,6 +85,15 @@ public class ImageConfigController {
 	public void autoSelectMethodChanged(AutoSelectMethodChangedEvent event) {
 		controller.getImageConfig().setSelectMethod(event.getImageSelectMethod());
 	}
+	
+	/**
+	 * Get notified about changes to the auto detect method
+	 * @param event the AutoDetectMethodChangedEvent containing the new detect method
+	 */
+	@Subscribe
+	public void autoDetectMethodChanged(AutoDetectMethodChangedEvent event) {
+		controller.getImageConfig().setDetectMethod(event.getImageDetectMethod());
+	}
 
 	/**
 	 * apply the scale factor to the image in buffer
@@ -16,10 +16,14 @@
  */
 package com.alexalecu.imageCrop.controller;
 
-import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.log4j.Logger;
 
@@ -27,15 +31,19 @@ import com.alexalecu.imageCrop.ImageCropConfig;
 import com.alexalecu.imageCrop.ImageCropController;
 import com.alexalecu.imageCrop.ImageCropState;
 import com.alexalecu.imageCrop.event.CropSelectionEvent;
+import com.alexalecu.imageCrop.event.DeskewSelectionEvent;
 import com.alexalecu.imageCrop.event.EventBus;
 import com.alexalecu.imageCrop.event.RotateSelectionEvent;
 import com.alexalecu.imageCrop.event.SelectionRectangleChangedEvent;
+import com.alexalecu.imageCrop.exception.InvalidOperationException;
 import com.alexalecu.imageCrop.gui.ImageCropGUI;
 import com.alexalecu.imageCrop.util.ImageCropUtil;
-import com.alexalecu.imageUtil.ImageConvert;
-import com.alexalecu.imageUtil.ImageKit;
+import com.alexalecu.imageUtil.GeomEdge;
+import com.alexalecu.imageUtil.GeomPoint;
+import com.alexalecu.imageUtil.ImageHandle;
 import com.alexalecu.imageUtil.ImageRotate;
-import com.alexalecu.imageUtil.ImageRotate.RotateBoundingBox;
+import com.alexalecu.imageUtil.RotateTask;
+import com.alexalecu.imageUtil.SkewDetector;
 import com.google.common.eventbus.Subscribe;
 
 /**
@@ -47,6 +55,9 @@ public class SelectionController {
 	
 	private ImageCropController controller;
 	private ImageCropGUI gui;
+	private RotateTask rotateTask;
+	private ImageCropState stateBeforeRotate; // the state to go back to if the rotation fails
+	private AffineTransform rotateTransform; // maps the rotated image to the image being rotated
 	
 	
 	public SelectionController(ImageCropController controller, ImageCropGUI gui) {
@@ -69,6 +80,7 @@ public class SelectionController {
 		
 		imageCropConfig.setSelectionRect(rectangle == null ?
 				null : new Rectangle(rectangle.x, rectangle.y, rectangle.width, rectangle.height));
+		imageCropConfig.setSelectionEdgeList(null); // the hull does not match a manual selection
 		imageCropConfig.setState(rectangle != null
 				? ImageCropState.StateSelectionDone
 				: ImageCropState.StateSelection);
@@ -97,19 +109,65 @@ public class SelectionController {
 		if (rect.x < 0 || rect.y < 0 || rect.width <= 0 || rect.height <= 0 ||
 				rect.x + rect.width >= image.getWidth() ||
 				rect.y + rect.height >= image.getHeight())
-			pushImage(image);
-		else
-			pushImage(ImageConvert.cropImage(image, rect));
+			pushImage(controller.getImageHandle().retain(), null);
+		else // a view of the current image, its pixels are not copied
+			pushImage(controller.getImageHandle().getView(rect),
+					AffineTransform.getTranslateInstance(rect.x, rect.y));
 	}
 
 	/**
-	 * rotate the current image image in buffer; if there is a selection, it will be lost - the user
-	 * is asked to confirm that
+	 * estimate the skew of the auto-selected picture from its hull edges, then straighten it and
+	 * crop it out of the current image in a single pass in the background, and set it as the
+	 * current image; the rotate button cancels it, as it does for a rotation
+	 */
+	@Subscribe
+	public void deskew(DeskewSelectionEvent event) {
+		List<GeomEdge> edgeList = controller.getImageConfig().getSelectionEdgeList();
+		if (edgeList == null || edgeList.size() < 3) {
+			gui.showErrorDialog("Auto select the picture first !");
+			return;
+		}
+
+		double deg = SkewDetector.estimateSkewDegrees(edgeList);
+		logger.debug("Deskew image; estimated skew deg = " + deg);
+
+		// the hull vertices are the start points of the edges
+		List<GeomPoint> hull = new ArrayList<GeomPoint>(edgeList.size());
+		for (GeomEdge edge : edgeList)
+			hull.add(edge.getP());
+
+		Dimension size = new Dimension();
+		AffineTransform transform = SkewDetector.getDeskewTransform(hull, deg, size);
+		
+		createRotateTask();
+		ImageHandle image = controller.getImageHandle().retain();
+		try {
+			rotateTask.setImage(image);
+			rotateTask.setTransform(transform, size);
+		}
+		catch (InvalidOperationException e) {
+			image.release();
+			rotateTask = null;
+			gui.showErrorDialog("Cannot initialize the deskewing job!");
+			return;
+		}
+		
+		startRotateTask(transform);
+	}
+
+	/**
+	 * rotate the current image image in buffer in the background; if there is a selection, it will
+	 * be lost - the user is asked to confirm that; if a rotation is in progress, cancel it
 	 */
 	@Subscribe
 	public void rotate(RotateSelectionEvent event) {
 		final String lineSeparator = System.getProperty("line.separator");
 		
+		if (controller.getImageConfig().getState() == ImageCropState.StateRotating) {
+			rotateTask.cancel(true);
+			return;
+		}
+		
 		// exit is there is a select and the user does not want to discard it
 		if (controller.getImageConfig().getSelectionRect() != null) {
 			if (!gui.showConfirmDialog("Rotating image will lost the current selection." +
@@ -132,81 +190,129 @@ public class SelectionController {
 
 		logger.debug("Rotate image; deg = " + deg);
 
-		// rotate the initial image, the result will be a new image
-		BufferedImage image = null;
+		// rotate the initial image, rendering only the largest rectangle which fits inside it
+		createRotateTask();
+		ImageHandle image = controller.getImageHandle().retain();
 		try {
-			image = ImageRotate.rotateDegrees(controller.getImage(), deg, 
-					RotateBoundingBox.ROTATE_BOUNDING_BOX_OPTIMAL, null);
+			rotateTask.setImage(image);
+			rotateTask.setDegrees(deg);
+		}
+		catch (InvalidOperationException e) {
+			image.release();
+			rotateTask = null;
+			gui.showErrorDialog("Cannot initialize the rotating job!");
+			return;
+		}
+		
+		startRotateTask(ImageRotate.getRotateCroppedTransform(image.getWidth(),
+				image.getHeight(), deg, new Dimension()));
+	}
+	
+	/**
+	 * create the task rotating the current image, connected to the current object actions
+	 */
+	private void createRotateTask() {
+		rotateTask = new RotateTask();
+		// connect the task property change events to the current object actions
+		rotateTask.addPropertyChangeListener(new PropertyChangeListener() {
+			@Override
+			public void propertyChange(PropertyChangeEvent arg0) {
+				if (arg0.getPropertyName().equals("progress")) {
+					gui.setRotateProgress((Integer)arg0.getNewValue());
+				}
+				else if (arg0.getPropertyName().equals("result")) {
+					rotateDone((BufferedImage)arg0.getNewValue());
+				}
+			}
+		});
+	}
+	
+	/**
+	 * switch to the rotating state and execute the rotate task
+	 * @param transform the transformation mapping the rotated image to the current image
+	 */
+	private void startRotateTask(AffineTransform transform) {
+		rotateTransform = transform;
+		
+		ImageCropConfig imageCropConfig = controller.getImageConfig();
+		stateBeforeRotate = imageCropConfig.getState();
+		imageCropConfig.setState(ImageCropState.StateRotating);
+		gui.setState(imageCropConfig.getState());
+		gui.setRotateProgress(0);
+
+		// and let it roll
+		rotateTask.execute();
+	}
+	
+	/**
+	 * called when the rotation is done
+	 * @param image the rotated image, null if the rotation has been cancelled or has failed
+	 */
+	private void rotateDone(BufferedImage image) {
+		boolean isCancelled = rotateTask.isCancelled();
+		Throwable error = rotateTask.getError();
+		rotateTask = null; // reset the rotate task, as the SwingWorker is not re-usable
+
+		gui.setRotateProgress(-1);
+		
+		if (isCancelled || image == null) { // reset the state to the previous one
+			ImageCropConfig imageCropConfig = controller.getImageConfig();
+			imageCropConfig.setState(stateBeforeRotate);
+			gui.setState(imageCropConfig.getState());
 		}
-		catch (Throwable tr) {
-			logger.debug("", tr);
+		
+		if (isCancelled)
+			return;
+		
+		if (image == null) {
+			logger.debug("", error);
 			
 			// we might not have enough memory; tell the user to crop first to reduce the image size
 			String msg = "An error has occured while rotating image !";
-			if (tr instanceof OutOfMemoryError)
-				msg += lineSeparator + "The image is too big. Try croping it first.";
+			if (error instanceof OutOfMemoryError)
+				msg += System.getProperty("line.separator")
+						+ "The image is too big. Try croping it first.";
 			gui.showErrorDialog(msg);
 			
 			return;
 		}
 
-		// compute the maximum hull which fits inside the rotated image
-		Object res[] = ImageKit.autoSelectBoundingRectangle(image,
-				new Rectangle(0, 0, image.getWidth(), image.getHeight()), Color.BLACK, 0, -1);
-		
-		Rectangle cropRect = (Rectangle)res[0];
-
-		logger.debug("Auto select result (x, y, w, h): " + cropRect.x + ", " + cropRect.y + ", "
-				+ cropRect.width + ", " + cropRect.height);
+		logger.debug("Rotated image size: " + image.getWidth() + "x" + image.getHeight());
 
-		// make sure that the resulting rectangle is valid and fits inside the current image
-		if (!ImageCropUtil.validateSelectionRectangle(image, cropRect)) {
-			gui.showErrorDialog("An error has occured. Try again !");
-			logger.debug("An error has occured; rotated image size: " +
-					image.getWidth() + "x" + image.getHeight());
-			return;
-		}
-
-		// crop the image according to the resulting rectangle and make it the current image in buffer
-		pushImage(ImageConvert.cropImage(image, cropRect));
+		// make the rotated image the current image in buffer
+		pushImage(ImageHandle.wrap(image), rotateTransform);
 	}
 
 
 	/**
-	 * make this image the current one in buffer; if the previous image is the initial one, add
-	 * this image to the stack, otherwise replace the last image in stack with this one
-	 * @param image the new image to use
+	 * make this image the current one in buffer, adding it to the image history after the
+	 * current one; the images which could have been redone are dropped
+	 * @param image the handle to the new image to use; its ownership is transferred to the
+	 * controller
+	 * @param imageToPrevious the transformation mapping the new image coordinates to the current
+	 * image coordinates; null if the new image is the current one
 	 */
-	private void pushImage(BufferedImage image) {
-		logger.debug("imageConfigStack.size() = " + controller.getImageConfigStackSize());
-
-		// we only have the initial image in stack; add the new one
-		if (controller.getImageConfigStackSize() == 1) {
-			ImageCropConfig imageCropConfig;
-			try {
-				imageCropConfig = (ImageCropConfig)controller.getImageConfig().clone();
-			}
-			catch (CloneNotSupportedException e) {
-				logger.error("Cannot create new image config object", e);
-				gui.showErrorDialog("Cannot create a new image!");
-				return;
-			}
-			controller.pushImageConfig(imageCropConfig);
-
-			logger.debug("Adding image in images stack");
+	private void pushImage(ImageHandle image, AffineTransform imageToPrevious) {
+		ImageCropConfig imageCropConfig;
+		try {
+			imageCropConfig = (ImageCropConfig)controller.getImageConfig().clone();
 		}
-		else { // replace the last element with the current one
-			logger.debug("Replacing last image in images stack");
+		catch (CloneNotSupportedException e) {
+			logger.error("Cannot create new image config object", e);
+			gui.showErrorDialog("Cannot create a new image!");
+			image.release();
+			return;
 		}
-
-		ImageCropConfig imageCropConfig = controller.getImageConfig();
 		
 		// set the image config
 		imageCropConfig.setScaleFactor(1d);
 		imageCropConfig.setState(ImageCropState.StateImageLoaded);
 		imageCropConfig.setSelectionRect(null);
+		imageCropConfig.setSelectionEdgeList(null);
+		if (imageCropConfig.getSourceTransform() != null && imageToPrevious != null)
+			imageCropConfig.getSourceTransform().concatenate(imageToPrevious);
 
-		controller.setImage(image);
+		controller.pushImage(imageCropConfig, image);
 
 		controller.setScaleFactorToFit();
 
@@ -215,7 +321,7 @@ public class SelectionController {
 		// update the GUI to match the current state
 		gui.setSelectionRect(imageCropConfig.getSelectionRect(), true);
 		gui.setState(imageCropConfig.getState());
-		gui.setScaleFactor(image, imageCropConfig.getScaleFactor());
+		gui.setScaleFactor(image.getImage(), imageCropConfig.getScaleFactor());
 		gui.setImageSize(new Dimension(image.getWidth(), image.getHeight()));
 	}
 	
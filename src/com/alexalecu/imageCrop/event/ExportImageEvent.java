@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageCrop.event;
+
+/**
+ * @author Alex Cojocaru
+ *
+ * Naming convention:
+ *   *_PICKED, *_SELECTED, *_CHANGED: the property has been changed by the user;
+ *   *_UPDATED: the property has changed programmatically and the GUI has to be changed to reflect
+ *   the new value
+ */
+public class ExportImageEvent {
+
+}
@@ -45,9 +45,13 @@ import com.alexalecu.imageCrop.gui.controlPanel.SelectionControlPanel;
 import com.alexalecu.imageCrop.imagePanel.ImagePanel;
 import com.alexalecu.imageCrop.imagePanel.SelectionPanel;
 import com.alexalecu.imageUtil.AutoSelectStatus;
+import com.alexalecu.imageUtil.FileFilter;
 import com.alexalecu.imageUtil.GeomEdge;
+import com.alexalecu.imageUtil.ImageConvert;
+import com.alexalecu.imageUtil.ImageDetectMethod;
 import com.alexalecu.imageUtil.ImageSelectMethod;
 import com.alexalecu.imageUtil.ImageFileFilter;
+import com.alexalecu.imageUtil.ImagePyramid;
 import com.alexalecu.imageUtil.JpgFileFilter;
 import com.alexalecu.util.SwingUtil;
 
@@ -88,7 +92,11 @@ public class ImageCropGUI extends JFrame {
 		fcLoad.setAcceptAllFileFilterUsed(false);
 		
 		fcSave.addChoosableFileFilter(new JpgFileFilter());
+		// the lossless formats, which keep the depth of the 16 bit per channel images
+		fcSave.addChoosableFileFilter(new FileFilter(ImageConvert.canWrite("tiff")
+				? new String[] {"png", "tif", "tiff"} : new String[] {"png"}));
 		fcSave.setAcceptAllFileFilterUsed(false);
+		fcSave.setFileFilter(fcSave.getChoosableFileFilters()[0]);
 
 		initComponents();
 		controlTabbedPanel.setSelectedIndex(0);
@@ -338,6 +346,37 @@ public class ImageCropGUI extends JFrame {
 	
 				break;
 			
+			case StateRotating:
+				// leave the rotate button enabled, it cancels the rotation
+				setControlSetEnabled(ControlSet.ControlSetLoad, false);
+				setControlSetEnabled(ControlSet.ControlSetScale, false);
+				setControlSetEnabled(ControlSet.ControlSetPickBackground, false);
+				setControlSetEnabled(ControlSet.ControlSetSetBackground, false);
+				setControlSetEnabled(ControlSet.ControlSetAutoSelect, false);
+				setControlSetEnabled(ControlSet.ControlSetAutoSelectOp, false);
+				setControlSetEnabled(ControlSet.ControlSetMoveResize, false);
+				setControlSetEnabled(ControlSet.ControlSetCrop, false);
+				setControlSetEnabled(ControlSet.ControlSetRotate, true);
+				setControlSetEnabled(ControlSet.ControlSetSave, false);
+	
+				break;
+			
+			case StateLoading:
+				// leave the load button enabled, it cancels the loading
+				setControlSetEnabled(ControlSet.ControlSetLoad, true);
+				setControlSetEnabled(ControlSet.ControlSetScale, false);
+				setControlSetEnabled(ControlSet.ControlSetPickBackground, false);
+				setControlSetEnabled(ControlSet.ControlSetSetBackground, false);
+				setControlSetEnabled(ControlSet.ControlSetAutoSelect, false);
+				setControlSetEnabled(ControlSet.ControlSetAutoSelectOp, false);
+				setControlSetEnabled(ControlSet.ControlSetMoveResize, false);
+				setControlSetEnabled(ControlSet.ControlSetCrop, false);
+				setControlSetEnabled(ControlSet.ControlSetRotate, false);
+				setControlSetEnabled(ControlSet.ControlSetSave, false);
+				scanImageButton.setEnabled(false);
+	
+				break;
+			
 			case StateSelectionAutoSelected:
 			case StateSelectionDone:
 				setControlSetEnabled(ControlSet.ControlSetLoad, true);
@@ -453,6 +492,25 @@ public class ImageCropGUI extends JFrame {
 		imagePropsPanel.setScaleFactor((int)(scaleFactor * 100));
 	}
 
+	/**
+	 * set the pyramid of an image, for rendering the scaled image faster
+	 * @param image the image the pyramid has been built from
+	 * @param pyramid the pyramid of the image
+	 */
+	public void setImagePyramid(BufferedImage image, ImagePyramid pyramid) {
+		imagePanel.setPyramid(image, pyramid);
+	}
+	
+	/**
+	 * repaint the region of the image which has changed since it has been set through
+	 * setScaleFactor, e.g. while the image is still decoding
+	 * @param image the current BufferedImage
+	 * @param region the region of the image which has changed, in image coordinates
+	 */
+	public void updateImageRegion(BufferedImage image, Rectangle region) {
+		imagePanel.updateRegion(image, region);
+	}
+	
 	/**
 	 * force a repaint to the image panel to make sure that the image gets updated
 	 */
@@ -489,6 +547,14 @@ public class ImageCropGUI extends JFrame {
 	public void setAutoSelectMethod(ImageSelectMethod selectMethod) {
 		selectionControlPanel.setAutoSelectMethod(selectMethod);
 	}
+
+	/**
+	 * set the new detect method in the corresponding panel
+	 * @param detectMethod the detect method to be set
+	 */
+	public void setAutoDetectMethod(ImageDetectMethod detectMethod) {
+		selectionControlPanel.setAutoDetectMethod(detectMethod);
+	}
 	
 	/**
 	 * set the auto-select task status on the corresponding component
@@ -498,6 +564,55 @@ public class ImageCropGUI extends JFrame {
 		selectionControlPanel.setAutoSelectStatus(status);
 	}
 	
+	/**
+	 * show the progress of the rotate operation
+	 * @param progress the percentage done, or -1 if no rotation is in progress
+	 */
+	public void setRotateProgress(int progress) {
+		actionPanel.setRotateProgress(progress);
+	}
+	
+	/**
+	 * show the progress of the images saving in the background
+	 * @param pending the number of images saving
+	 * @param progress their average percentage done, or -1 if no image is saving
+	 */
+	public void setSaveProgress(int pending, int progress) {
+		actionPanel.setSaveProgress(pending, progress);
+	}
+	
+	/**
+	 * show the progress of the export
+	 * @param progress the percentage done, or -1 if no export is in progress
+	 */
+	public void setExportProgress(int progress) {
+		actionPanel.setExportProgress(progress);
+	}
+	
+	/**
+	 * show the progress of the image loading on the load button, which cancels the loading
+	 * while it is in progress
+	 * @param progress the percentage done, or -1 if no image is loading
+	 */
+	public void setLoadProgress(int progress) {
+		if (progress < 0) {
+			loadImageButton.setText("Load image");
+			loadImageButton.setToolTipText(null);
+		}
+		else {
+			loadImageButton.setText("Cancel load (" + progress + "%)");
+			loadImageButton.setToolTipText("Cancel the image loading");
+		}
+	}
+	
+	/**
+	 * enable or disable the reinstating of the last discarded image
+	 * @param redoAvailable true if there is an image which can be reinstated
+	 */
+	public void setRedoAvailable(boolean redoAvailable) {
+		actionPanel.setRedoAvailable(redoAvailable);
+	}
+	
 
 	/**
 	 * update the image name label value based on the new image file name
@@ -26,7 +26,10 @@ import javax.swing.JPanel;
 
 import com.alexalecu.imageCrop.component.NotificationButton;
 import com.alexalecu.imageCrop.event.CropSelectionEvent;
+import com.alexalecu.imageCrop.event.DeskewSelectionEvent;
 import com.alexalecu.imageCrop.event.DiscardImageEvent;
+import com.alexalecu.imageCrop.event.ExportImageEvent;
+import com.alexalecu.imageCrop.event.RedoImageEvent;
 import com.alexalecu.imageCrop.event.RotateSelectionEvent;
 import com.alexalecu.imageCrop.event.SaveImageAsEvent;
 import com.alexalecu.imageCrop.event.SaveImageEvent;
@@ -37,10 +40,16 @@ public class ActionPanel extends JPanel {
 	private static final long serialVersionUID = 1L;
 	
 	private JButton buttonCrop;
+	private JButton buttonDeskew;
 	private JButton buttonRotate;
 	private JButton buttonDiscard;
+	private JButton buttonRedo;
 	private JButton buttonSaveAs;
 	private JButton buttonSave;
+	private JButton buttonExport;
+	
+	// true if there is a discarded image which can be reinstated
+	private boolean redoAvailable;
 
 	public ActionPanel() {
 		super();
@@ -59,6 +68,13 @@ public class ActionPanel extends JPanel {
 				.event(new CropSelectionEvent())
 				.build();
 		
+		// create the 'deskew selection' button
+		buttonDeskew = new NotificationButton.Builder()
+				.text("Deskew selection")
+				.tooltip("Straighten and crop the auto-selected picture")
+				.event(new DeskewSelectionEvent())
+				.build();
+		
 		// create the 'rotate selection' button
 		buttonRotate = new NotificationButton.Builder()
 				.text("Rotate image")
@@ -73,6 +89,14 @@ public class ActionPanel extends JPanel {
 				.event(new DiscardImageEvent())
 				.build();
 		
+		// create the 'redo' button, which reinstates the last discarded image
+		buttonRedo = new NotificationButton.Builder()
+				.text("Redo")
+				.tooltip("Reinstate the last discarded image")
+				.event(new RedoImageEvent())
+				.build();
+		buttonRedo.setEnabled(false);
+		
 		// create the 'save as' button which saves the current image in buffer, allowing the
 		// user to choose the file name
 		buttonSaveAs = new NotificationButton.Builder()
@@ -88,6 +112,15 @@ public class ActionPanel extends JPanel {
 						" to avoid overwriting")
 				.event(new SaveImageEvent())
 				.build();
+
+		// create the 'export' button which saves the full size, web and thumbnail versions of
+		// the current image in buffer
+		buttonExport = new NotificationButton.Builder()
+				.text("Export image")
+				.tooltip("Save the image along with its web and thumbnail versions, in the" +
+						" same directory")
+				.event(new ExportImageEvent())
+				.build();
 		
 
 		// set the layout of the current panel to be a grid bag
@@ -96,14 +129,20 @@ public class ActionPanel extends JPanel {
 		// and add the buttons one by one
 		add(buttonCrop, SwingUtil.getGridBagConstraint(
 				0, 0, GridBagConstraints.CENTER, new Insets(5, 5, 5, 5)));
-		add(buttonRotate, SwingUtil.getGridBagConstraint(
+		add(buttonDeskew, SwingUtil.getGridBagConstraint(
 				0, 1, GridBagConstraints.CENTER, new Insets(5, 5, 5, 5)));
-		add(buttonDiscard, SwingUtil.getGridBagConstraint(
+		add(buttonRotate, SwingUtil.getGridBagConstraint(
 				0, 2, GridBagConstraints.CENTER, new Insets(5, 5, 5, 5)));
-		add(buttonSaveAs, SwingUtil.getGridBagConstraint(
+		add(buttonDiscard, SwingUtil.getGridBagConstraint(
 				0, 3, GridBagConstraints.CENTER, new Insets(5, 5, 5, 5)));
-		add(buttonSave, SwingUtil.getGridBagConstraint(
+		add(buttonRedo, SwingUtil.getGridBagConstraint(
 				0, 4, GridBagConstraints.CENTER, new Insets(5, 5, 5, 5)));
+		add(buttonSaveAs, SwingUtil.getGridBagConstraint(
+				0, 5, GridBagConstraints.CENTER, new Insets(5, 5, 5, 5)));
+		add(buttonSave, SwingUtil.getGridBagConstraint(
+				0, 6, GridBagConstraints.CENTER, new Insets(5, 5, 5, 5)));
+		add(buttonExport, SwingUtil.getGridBagConstraint(
+				0, 7, GridBagConstraints.CENTER, new Insets(5, 5, 5, 5)));
 	}
 	
 	/**
@@ -118,16 +157,75 @@ public class ActionPanel extends JPanel {
 		{
 			case ControlSetCrop:
 				buttonCrop.setEnabled(enabled);
+				buttonDeskew.setEnabled(enabled);
 				break;
 			case ControlSetRotate:
 				buttonRotate.setEnabled(enabled);
 				break;
 			case ControlSetSave:
 				buttonDiscard.setEnabled(enabled);
+				buttonRedo.setEnabled(enabled && redoAvailable);
 				buttonSaveAs.setEnabled(enabled);
 				buttonSave.setEnabled(enabled);
+				buttonExport.setEnabled(enabled);
 				break;
 		}
 	}
+	
+	/**
+	 * set whether there is a discarded image which can be reinstated; the redo button is enabled
+	 * only if the save control set is enabled too
+	 * @param redoAvailable true if an image can be reinstated
+	 */
+	public void setRedoAvailable(boolean redoAvailable) {
+		this.redoAvailable = redoAvailable;
+		buttonRedo.setEnabled(redoAvailable && buttonDiscard.isEnabled());
+	}
+	
+	/**
+	 * show the progress of the images saving in the background on the save button; the button
+	 * stays enabled, so that the next image can be saved meanwhile
+	 * @param pending the number of images saving
+	 * @param progress their average percentage done, or -1 if no image is saving
+	 */
+	public void setSaveProgress(int pending, int progress) {
+		if (pending == 0)
+			buttonSave.setText("Save image");
+		else
+			buttonSave.setText("Save image (" + pending + " saving, " + progress + "%)");
+	}
+	
+	/**
+	 * show the progress of the rotate operation on the rotate button, which cancels the
+	 * operation while it is in progress
+	 * @param progress the percentage done, or -1 if no rotation is in progress
+	 */
+	public void setRotateProgress(int progress) {
+		if (progress < 0) {
+			buttonRotate.setText("Rotate image");
+			buttonRotate.setToolTipText("Rotate the image");
+		}
+		else {
+			buttonRotate.setText("Cancel rotate (" + progress + "%)");
+			buttonRotate.setToolTipText("Cancel the image rotation");
+		}
+	}
+	
+	/**
+	 * show the progress of the export on the export button, which cancels the export while it
+	 * is in progress
+	 * @param progress the percentage done, or -1 if no export is in progress
+	 */
+	public void setExportProgress(int progress) {
+		if (progress < 0) {
+			buttonExport.setText("Export image");
+			buttonExport.setToolTipText("Save the image along with its web and thumbnail" +
+					" versions, in the same directory");
+		}
+		else {
+			buttonExport.setText("Cancel export (" + progress + "%)");
+			buttonExport.setToolTipText("Cancel the image export");
+		}
+	}
 
 }
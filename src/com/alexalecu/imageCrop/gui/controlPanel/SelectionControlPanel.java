@@ -35,6 +35,7 @@ import javax.swing.JSpinner;
 import javax.swing.SpinnerNumberModel;
 
 import com.alexalecu.imageCrop.component.NotificationButton;
+import com.alexalecu.imageCrop.event.AutoDetectMethodChangedEvent;
 import com.alexalecu.imageCrop.event.AutoSelectMethodChangedEvent;
 import com.alexalecu.imageCrop.event.AutoSelectRectangleEvent;
 import com.alexalecu.imageCrop.event.EventBus;
@@ -43,6 +44,7 @@ import com.alexalecu.imageCrop.event.ResizeSelectionEvent;
 import com.alexalecu.imageCrop.gui.ImageCropGUI.ControlSet;
 import com.alexalecu.imageCrop.imagePanel.SelectionPanel.ResizeDirection;
 import com.alexalecu.imageUtil.AutoSelectStatus;
+import com.alexalecu.imageUtil.ImageDetectMethod;
 import com.alexalecu.imageUtil.ImageSelectMethod;
 import com.alexalecu.util.SwingUtil;
 
@@ -55,7 +57,14 @@ public class SelectionControlPanel extends JPanel {
 		selectMethodList.add("Maximum");
 	}
 
+	public static final Vector<String> detectMethodList = new Vector<String>();
+	static {
+		detectMethodList.add("Background");
+		detectMethodList.add("Edges");
+	}
+
 	private JComboBox comboSelectMethod;
+	private JComboBox comboDetectMethod;
 	private JButton buttonAutoSelect;
 	private JProgressBar progressBarAutoSelect;
 
@@ -100,6 +109,19 @@ public class SelectionControlPanel extends JPanel {
 			}
 		});
 		
+		// the label and control for the detect method
+		JLabel labelDetectMethod = new JLabel("Detect by:");
+		comboDetectMethod = new JComboBox();
+		comboDetectMethod.setModel(new DefaultComboBoxModel(detectMethodList));
+		comboDetectMethod.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent arg0) {
+				String detectMethodS = (String)comboDetectMethod.getSelectedItem();
+				ImageDetectMethod detectMethod = detectMethodS == detectMethodList.get(0) ?
+						ImageDetectMethod.DetectBackground : ImageDetectMethod.DetectEdges;
+				EventBus.post(new AutoDetectMethodChangedEvent(detectMethod));
+			}
+		});
+		
 		// the 'auto select picture' button which asks the container to auto select the picture
 		buttonAutoSelect = new NotificationButton.Builder()
 				.text("Auto select picture")
@@ -260,25 +282,31 @@ public class SelectionControlPanel extends JPanel {
 		add(comboSelectMethod, SwingUtil.getGridBagConstraint(
 				1, 0, GridBagConstraints.WEST, new Insets(5, 2, 5, 5)));
 
+		// add the detect method label and control
+		add(labelDetectMethod, SwingUtil.getGridBagConstraint(
+				0, 1, GridBagConstraints.WEST, new Insets(5, 5, 5, 2)));
+		add(comboDetectMethod, SwingUtil.getGridBagConstraint(
+				1, 1, GridBagConstraints.WEST, new Insets(5, 2, 5, 5)));
+
 		// add the button to auto select a picture
 		add(buttonAutoSelect, SwingUtil.getGridBagConstraint(
-				0, 1, 2, 1, GridBagConstraints.CENTER, new Insets(5, 5, 2, 5)));
+				0, 2, 2, 1, GridBagConstraints.CENTER, new Insets(5, 5, 2, 5)));
 
 		// and the progress bar for the auto-select operation
 		constraints = SwingUtil.getGridBagConstraint(
-				0, 2, 2, 1, GridBagConstraints.CENTER, new Insets(2, 5, 5, 5));
+				0, 3, 2, 1, GridBagConstraints.CENTER, new Insets(2, 5, 5, 5));
 		constraints.fill = GridBagConstraints.HORIZONTAL;
 		add(progressBarAutoSelect, constraints);
 
 		// add the move panel label
 		add(labelMove, SwingUtil.getGridBagConstraint(
-				0, 3, 2, 1, GridBagConstraints.CENTER, new Insets(5, 5, 5, 5)));
+				0, 4, 2, 1, GridBagConstraints.CENTER, new Insets(5, 5, 5, 5)));
 
 		// add the move step label and control
 		add(labelMoveStep, SwingUtil.getGridBagConstraint(
-				0, 4, GridBagConstraints.WEST, new Insets(5, 5, 5, 2)));
+				0, 5, GridBagConstraints.WEST, new Insets(5, 5, 5, 2)));
 		add(spinnerMoveStep, SwingUtil.getGridBagConstraint(
-				1, 4, GridBagConstraints.WEST, new Insets(5, 2, 5, 5)));
+				1, 5, GridBagConstraints.WEST, new Insets(5, 2, 5, 5)));
 
 		// set up the panel which contains all the move buttons
 		JPanel panelMoveButtons = new JPanel(new GridBagLayout());
@@ -295,18 +323,18 @@ public class SelectionControlPanel extends JPanel {
 		
 		// and add the panel containing the move buttons to the main panel
 		add(panelMoveButtons, SwingUtil.getGridBagConstraint(
-				0, 5, 2, 1, GridBagConstraints.CENTER, new Insets(5, 5, 5, 5)));
+				0, 6, 2, 1, GridBagConstraints.CENTER, new Insets(5, 5, 5, 5)));
 
 
 		// add the resize panel label
 		add(labelResize, SwingUtil.getGridBagConstraint(
-				0, 6, 2, 1, GridBagConstraints.CENTER, new Insets(10, 5, 5, 5)));
+				0, 7, 2, 1, GridBagConstraints.CENTER, new Insets(10, 5, 5, 5)));
 
 		// add the resize step label and control
 		add(labelResizeStep, SwingUtil.getGridBagConstraint(
-				0, 7, GridBagConstraints.WEST, new Insets(5, 5, 5, 2)));
+				0, 8, GridBagConstraints.WEST, new Insets(5, 5, 5, 2)));
 		add(spinnerResizeStep, SwingUtil.getGridBagConstraint(
-				1, 7, GridBagConstraints.WEST, new Insets(5, 2, 5, 5)));
+				1, 8, GridBagConstraints.WEST, new Insets(5, 2, 5, 5)));
 
 		// set up the panel which contains all the resize buttons
 		JPanel panelResizeButtons = new JPanel(new GridBagLayout());
@@ -331,7 +359,7 @@ public class SelectionControlPanel extends JPanel {
 		
 		// and add the panel containing the resize buttons to the main panel
 		add(panelResizeButtons, SwingUtil.getGridBagConstraint(
-				0, 8, 2, 1, GridBagConstraints.CENTER, new Insets(5, 5, 5, 5)));
+				0, 9, 2, 1, GridBagConstraints.CENTER, new Insets(5, 5, 5, 5)));
 	}
 	
 	
@@ -385,6 +413,15 @@ public class SelectionControlPanel extends JPanel {
 		comboSelectMethod.setSelectedIndex(selectMethod == ImageSelectMethod.SelectMinimum ? 0 : 1);
 	}
 
+	/**
+	 * set the new detect method in the combobox
+	 * @param detectMethod the detect method to be set
+	 */
+	public void setAutoDetectMethod(ImageDetectMethod detectMethod) {
+		comboDetectMethod.setSelectedIndex(
+				detectMethod == ImageDetectMethod.DetectBackground ? 0 : 1);
+	}
+
 	/**
 	 * set the new auto-select status in the progress bar
 	 * @param status
@@ -401,6 +438,9 @@ public class SelectionControlPanel extends JPanel {
 			case ReduceImageColors:
 				progressBarAutoSelect.setString("Reducing image colors");
 				break;
+			case DetectEdges:
+				progressBarAutoSelect.setString("Detecting the edges");
+				break;
 			case FindEdgePoints:
 				progressBarAutoSelect.setString("Finding the polygon shape");
 				break;
@@ -456,6 +496,7 @@ public class SelectionControlPanel extends JPanel {
 				break;
 			case ControlSetAutoSelect:
 				comboSelectMethod.setEnabled(enabled);
+				comboDetectMethod.setEnabled(enabled);
 				buttonAutoSelect.setEnabled(enabled);
 				if (enabled)
 					buttonAutoSelect.setText("Auto select picture");
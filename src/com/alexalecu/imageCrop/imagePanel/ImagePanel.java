@@ -20,28 +20,65 @@ package com.alexalecu.imageCrop.imagePanel;
 import java.awt.Color;
 import java.awt.Cursor;
 import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.image.BufferedImage;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.JPanel;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+
+import org.apache.log4j.Logger;
 
 import com.alexalecu.imageCrop.event.BgColorPickedEvent;
 import com.alexalecu.imageCrop.event.EventBus;
+import com.alexalecu.imageUtil.AffineResampler;
 import com.alexalecu.imageUtil.ImageColors;
-import com.alexalecu.imageUtil.ImageConvert;
+import com.alexalecu.imageUtil.ImagePyramid;
+import com.alexalecu.imageUtil.ScaledTileCache;
 
 /**
  * A JPanel subclass which holds a BufferedImage and notifies the parent about
- * any background color update
+ * any background color update; a scaled image is rendered in tiles, only where the panel is
+ * painted (i.e. in the visible part of the scroll pane), so that zooming in a big image costs
+ * the same as zooming in a small one; once the pyramid of the image is set, the tiles are
+ * reduced from its nearest level instead of from the whole image.
+ * While the scale is changing, the tiles are quickly sampled from the nearest pixels; once it
+ * settles, the visible tiles are interpolated in the background and swapped in.
  */
 public class ImagePanel extends JPanel {
 	private static final long serialVersionUID = 1L;
 	
+	private final Logger logger = Logger.getLogger(this.getClass());
+	
+	// the maximum number of scaled tiles to keep, about 4 screens at 256 x 256 pixels per tile
+	private final static int MAX_TILES = 160;
+	
+	// the delay after the last scale change before refining the tiles, in milliseconds
+	private final static int REFINE_DELAY = 150;
+	
 	private BufferedImage image;
+	private double scaleFactor = 1d;
+	
+	// the pyramid of the image it has been built from, null if it has not been built yet
+	private BufferedImage pyramidSource;
+	private ImagePyramid pyramid;
+	
+	// the tiles of the scaled image, null if the image is shown at its size
+	private ScaledTileCache tiles;
 	private int width;
 	private int height;
 	
+	// starts refining the tiles once the scale has settled
+	private final Timer refineTimer;
+	
+	// interpolates the visible tiles in the background, null if none is running
+	private RefineTask refineTask;
+	
 	/**
 	 * creates an ImagePanel instance
 	 * @param width the width of the panel
@@ -53,6 +90,13 @@ public class ImagePanel extends JPanel {
 		this.width = width;
 		this.height = height;
 		
+		refineTimer = new Timer(REFINE_DELAY, new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				refine();
+			}
+		});
+		refineTimer.setRepeats(false);
+		
 		addMouseListener(
 			new MouseAdapter() {
 				public void mouseClicked(MouseEvent evt) {
@@ -78,23 +122,34 @@ public class ImagePanel extends JPanel {
 	 * image
 	 */
 	public void setImage(BufferedImage image, double scaleFactor, boolean repaint) {
+		// don't keep the previous image alive through its pyramid
+		if (image != pyramidSource) {
+			pyramidSource = null;
+			pyramid = null;
+		}
+		
 		// reset the panel size to match the image size
 		if (image != null) {
-			// if the new scale factor is 1, clone the original image; otherwise scale it
+			// if the new scale factor is 1, display the image itself, it is only read from;
+			// otherwise scale the tiles which are painted, as they are painted
+			this.image = image;
+			this.scaleFactor = scaleFactor;
 			if (scaleFactor == 1d) {
-				this.image = ImageConvert.cloneImage(image);
+				cancelRefine();
+				tiles = null;
+				width = image.getWidth();
+				height = image.getHeight();
 			}
 			else {
-				int newW = (int)(scaleFactor * image.getWidth());
-				int newH = (int)(scaleFactor * image.getHeight());
-				this.image = ImageConvert.resize(image, newW, newH);
+				scaleTiles();
+				width = tiles.getWidth();
+				height = tiles.getHeight();
 			}
-			
-			width = this.image.getWidth();
-			height = this.image.getHeight();
 		}
 		else {
+			cancelRefine();
 			this.image = null;
+			tiles = null;
 			
 			width = 0;
 			height = 0;
@@ -104,6 +159,110 @@ public class ImagePanel extends JPanel {
 			repaint();
 	}
 	
+	/**
+	 * set the pyramid of an image; if the image is the one displayed, the scaled tiles are
+	 * refined again from the pyramid
+	 * @param source the image the pyramid has been built from
+	 * @param pyramid the pyramid of the image
+	 */
+	public void setPyramid(BufferedImage source, ImagePyramid pyramid) {
+		this.pyramidSource = source;
+		this.pyramid = pyramid;
+		
+		if (source == image && tiles != null) {
+			// the refined tiles are kept until the ones reduced from the pyramid are ready
+			if (isPreview())
+				scaleTiles();
+			else
+				scheduleRefine();
+			repaint();
+		}
+	}
+	
+	/**
+	 * show the changes made to a region of the image passed to setImage, e.g. while it is still
+	 * decoding: the scaled tiles showing the region are dropped, and the region is repainted
+	 * @param source the image passed to setImage
+	 * @param region the region of the image which has changed, in image coordinates
+	 */
+	public void updateRegion(BufferedImage source, Rectangle region) {
+		if (image == null)
+			return;
+		
+		// the image itself is displayed, it only has to be repainted
+		if (tiles == null) {
+			repaint(region);
+			return;
+		}
+		
+		// the pyramid does not show the changes, go back to scaling the image itself
+		if (tiles.getPyramid() != null) {
+			pyramidSource = null;
+			pyramid = null;
+			scaleTiles();
+			repaint();
+			return;
+		}
+		
+		// the tiles being refined do not show the changes either, refine them again
+		repaint(tiles.invalidate(region));
+		if (isPreview())
+			scheduleRefine();
+	}
+	
+	/**
+	 * show the image at the current scale from the nearest pixels, which is fast enough for
+	 * following the scale changes, and refine it once the scale settles
+	 */
+	private void scaleTiles() {
+		tiles = new ScaledTileCache(image, pyramidSource == image ? pyramid : null,
+				scaleFactor, MAX_TILES, AffineResampler.Interpolation.NEAREST_NEIGHBOR);
+		scheduleRefine();
+	}
+	
+	/**
+	 * @return true if the tiles shown are sampled from the nearest pixels
+	 */
+	private boolean isPreview() {
+		return tiles != null
+				&& tiles.getInterpolation() == AffineResampler.Interpolation.NEAREST_NEIGHBOR;
+	}
+	
+	/**
+	 * (re)start the delay before refining the tiles, dropping the refinement in progress
+	 */
+	private void scheduleRefine() {
+		if (refineTask != null) {
+			refineTask.cancel(false);
+			refineTask = null;
+		}
+		refineTimer.restart();
+	}
+	
+	/**
+	 * stop refining the tiles
+	 */
+	private void cancelRefine() {
+		refineTimer.stop();
+		if (refineTask != null) {
+			refineTask.cancel(false);
+			refineTask = null;
+		}
+	}
+	
+	/**
+	 * interpolate the visible tiles in the background, at the current scale
+	 */
+	private void refine() {
+		if (tiles == null)
+			return;
+		
+		ScaledTileCache refined = new ScaledTileCache(image,
+				pyramidSource == image ? pyramid : null, scaleFactor, MAX_TILES, null);
+		refineTask = new RefineTask(refined, getVisibleRect());
+		refineTask.execute();
+	}
+	
 	/**
 	 * @return the width of the panel
 	 */
@@ -138,8 +297,24 @@ public class ImagePanel extends JPanel {
 	public void paintComponent(Graphics g) {
 		super.paintComponent(g); // paint background
 		
-		if (image != null)
+		if (image == null)
+			return;
+		
+		// the image itself is clipped by the graphics to the area being painted
+		if (tiles == null) {
 			g.drawImage(image, 0, 0, this);
+			return;
+		}
+		
+		// paint the tiles intersecting the area being painted, rendering the missing ones
+		Rectangle clip = g.getClipBounds();
+		Rectangle range = tiles.getTileRange(clip != null ? clip : new Rectangle(width, height));
+		for (int tileY = range.y; tileY < range.y + range.height; tileY++) {
+			for (int tileX = range.x; tileX < range.x + range.width; tileX++) {
+				g.drawImage(tiles.getTile(tileX, tileY), tileX * ScaledTileCache.TILE_SIZE,
+						tileY * ScaledTileCache.TILE_SIZE, this);
+			}
+		}
 	}
 	
 	/**
@@ -167,9 +342,67 @@ public class ImagePanel extends JPanel {
 		if (image == null)
 			return;
 		
+		// pick the color of the image pixel under the panel pixel
+		int imageX = Math.min(image.getWidth() - 1, (int)(x / scaleFactor));
+		int imageY = Math.min(image.getHeight() - 1, (int)(y / scaleFactor));
+		if (imageX < 0 || imageY < 0)
+			return;
+		
 		// send the notification to any registered listeners
-		Color bgColor = ImageColors.getPixelColor(image, x, y);
+		Color bgColor = ImageColors.getPixelColor(image, imageX, imageY);
 		EventBus.post(new BgColorPickedEvent(bgColor));
 	}
-
+	
+	
+	/**
+	 * Interpolate the tiles showing a region of the panel, then swap them in for the tiles
+	 * sampled from the nearest pixels, unless the scale or the image has changed meanwhile
+	 */
+	private class RefineTask extends SwingWorker<Boolean, Void> {
+		private final ScaledTileCache refined;
+		private final Rectangle region;
+		
+		/**
+		 * @param refined the cache to render the tiles into; it is only used by the background
+		 * thread until the task is done
+		 * @param region the region of the panel to render the tiles of
+		 */
+		private RefineTask(ScaledTileCache refined, Rectangle region) {
+			this.refined = refined;
+			this.region = region;
+		}
+		
+		@Override
+		protected Boolean doInBackground() {
+			return Boolean.valueOf(refined.render(region, new AffineResampler.Monitor() {
+				public void progress(int done, int total) {
+				}
+				
+				public boolean isCancelled() {
+					return RefineTask.this.isCancelled();
+				}
+			}));
+		}
+		
+		@Override
+		protected void done() {
+			// a stale refinement, dropped
+			if (refineTask != this || isCancelled())
+				return;
+			refineTask = null;
+			
+			try {
+				if (get().booleanValue()) {
+					tiles = refined;
+					repaint();
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			catch (ExecutionException e) {
+				logger.error("Cannot refine the scaled image", e.getCause());
+			}
+		}
+	}
 }
@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.Color;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Render an affine transformation of an image straight from its raster: each destination pixel
+ * is mapped back into the source image and interpolated from the source pixels around it,
+ * so only the destination pixels are ever allocated.
+ * The destination is split into square tiles which are rendered in parallel.
+ *
+ * @author Alex Cojocaru
+ */
+public class AffineResampler {
+	// the size of the destination tiles
+	private final static int TILE_SIZE = 64;
+
+	public enum Interpolation {
+		NEAREST_NEIGHBOR,
+		BILINEAR,
+		BICUBIC;
+	}
+
+	/**
+	 * Observe and control a resampling operation
+	 */
+	public interface Monitor {
+		/**
+		 * called each time a tile has been rendered, from the rendering thread
+		 * @param done the number of tiles rendered so far
+		 * @param total the total number of tiles
+		 */
+		public void progress(int done, int total);
+
+		/**
+		 * @return true if the operation has been cancelled; the remaining tiles are skipped
+		 */
+		public boolean isCancelled();
+	}
+
+	/**
+	 * render the destination image using the bilinear interpolation
+	 * @see #resample(BufferedImage, AffineTransform, int, int, Color, Interpolation, Monitor)
+	 */
+	public static BufferedImage resample(BufferedImage source, AffineTransform destToSource,
+			int width, int height, Color background) {
+		return resample(source, destToSource, width, height, background,
+				Interpolation.BILINEAR, null);
+	}
+
+	/**
+	 * render the destination image, processing the tiles in parallel
+	 * @param source the source image
+	 * @param destToSource the transformation mapping the destination coordinates to the source
+	 * coordinates; the coordinates are continuous, i.e. the center of the pixel (x, y) is at
+	 * (x + 0.5, y + 0.5)
+	 * @param width the width of the destination image
+	 * @param height the height of the destination image
+	 * @param background the color of the destination pixels mapped outside the source image;
+	 * transparent black if null
+	 * @param interpolation the interpolation kernel
+	 * @param monitor the monitor to report the progress to and to check for cancellation;
+	 * can be null
+	 * @return the destination image, of the same type as the source if possible;
+	 * null if the operation has been cancelled
+	 */
+	public static BufferedImage resample(BufferedImage source, AffineTransform destToSource,
+			int width, int height, Color background, Interpolation interpolation,
+			Monitor monitor) {
+		BufferedImage dest = PixelWriter.createCompatibleImage(source, width, height);
+		return resample(source, destToSource, dest, background, interpolation, monitor)
+				? dest : null;
+	}
+
+	/**
+	 * render into an existing destination image, processing the tiles in parallel; the
+	 * destination can be any image, e.g. the view of a TiledImage
+	 * @param source the source image
+	 * @param destToSource the transformation mapping the destination coordinates to the source
+	 * coordinates, in continuous coordinates
+	 * @param dest the image to render into
+	 * @param background the color of the destination pixels mapped outside the source image;
+	 * transparent black if null
+	 * @param interpolation the interpolation kernel
+	 * @param monitor the monitor to report the progress to and to check for cancellation;
+	 * can be null
+	 * @return true if the whole image has been rendered, false if the operation has been cancelled
+	 */
+	public static boolean resample(BufferedImage source, AffineTransform destToSource,
+			BufferedImage dest, Color background, final Interpolation interpolation,
+			final Monitor monitor) {
+
+		final int width = dest.getWidth();
+		final int height = dest.getHeight();
+		final PixelReader reader = PixelReader.forImage(source);
+		final PixelWriter writer = PixelWriter.forImage(dest);
+		final int bgArgb = background != null ? background.getRGB() : 0;
+
+		final double[] matrix = new double[6];
+		destToSource.getMatrix(matrix);
+
+		final int tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+		final int tileCount = tilesX * ((height + TILE_SIZE - 1) / TILE_SIZE);
+		final AtomicInteger tilesDone = new AtomicInteger();
+
+		ParallelBands.run(tileCount, 1, new ParallelBands.BandTask() {
+			public void process(int start, int end) {
+				int[] row = new int[TILE_SIZE];
+				int[] scratch = new int[writer.getScratchSize(TILE_SIZE)];
+				double[] weights = new double[8];
+
+				for (int tile = start; tile < end; tile++) {
+					if (monitor != null && monitor.isCancelled())
+						return;
+
+					int x0 = (tile % tilesX) * TILE_SIZE;
+					int y0 = (tile / tilesX) * TILE_SIZE;
+					int tileWidth = Math.min(TILE_SIZE, width - x0);
+					int tileHeight = Math.min(TILE_SIZE, height - y0);
+
+					for (int y = y0; y < y0 + tileHeight; y++) {
+						// the source coordinates of the first pixel center in the tile row,
+						// shifted by half a pixel so that the source pixel centers land on
+						// integer coordinates
+						double xc = x0 + 0.5d;
+						double yc = y + 0.5d;
+						double sx = matrix[0] * xc + matrix[2] * yc + matrix[4] - 0.5d;
+						double sy = matrix[1] * xc + matrix[3] * yc + matrix[5] - 0.5d;
+
+						for (int x = 0; x < tileWidth; x++) {
+							row[x] = sample(reader, sx, sy, bgArgb, interpolation, weights);
+							sx += matrix[0];
+							sy += matrix[1];
+						}
+
+						writer.setArgbRow(x0, y, tileWidth, row, scratch);
+					}
+
+					if (monitor != null)
+						monitor.progress(tilesDone.incrementAndGet(), tileCount);
+				}
+			}
+		});
+
+		return monitor == null || !monitor.isCancelled();
+	}
+
+	/**
+	 * interpolate the color at the given source location; the source pixels outside the image
+	 * replicate the nearest edge pixel, then the result is blended with the background color
+	 * according to how much of the destination pixel falls inside the image, which gives
+	 * anti-aliased edges without the background bleeding into the image
+	 * @param reader the source image reader
+	 * @param sx the x coordinate, in pixel center units
+	 * @param sy the y coordinate, in pixel center units
+	 * @param bgArgb the color of the pixels outside the source image
+	 * @param interpolation the interpolation kernel
+	 * @param weights scratch buffer for the kernel weights, of length 8
+	 * @return the interpolated ARGB value
+	 */
+	private static int sample(PixelReader reader, double sx, double sy, int bgArgb,
+			Interpolation interpolation, double[] weights) {
+		int w = reader.getWidth();
+		int h = reader.getHeight();
+
+		// the part of the unit pixel around (sx, sy) which covers the image
+		double coverX = Math.min(sx + 0.5d, w - 0.5d) - Math.max(sx - 0.5d, -0.5d);
+		double coverY = Math.min(sy + 0.5d, h - 0.5d) - Math.max(sy - 0.5d, -0.5d);
+		if (coverX <= 0 || coverY <= 0)
+			return bgArgb;
+
+		int argb;
+		switch (interpolation) {
+			case NEAREST_NEIGHBOR:
+				argb = reader.getArgb(clamp((int)Math.floor(sx + 0.5d), w),
+						clamp((int)Math.floor(sy + 0.5d), h));
+				break;
+			case BICUBIC:
+				argb = bicubic(reader, sx, sy, weights);
+				break;
+			default:
+				argb = bilinear(reader, sx, sy);
+		}
+
+		double cover = Math.min(1d, coverX) * Math.min(1d, coverY);
+		return cover < 1d ? blend(argb, bgArgb, cover) : argb;
+	}
+
+	/**
+	 * interpolate the color at the given source location from the 4 pixels around it
+	 */
+	private static int bilinear(PixelReader reader, double sx, double sy) {
+		int w = reader.getWidth();
+		int h = reader.getHeight();
+		int x0 = (int)Math.floor(sx);
+		int y0 = (int)Math.floor(sy);
+		double fx = sx - x0;
+		double fy = sy - y0;
+
+		int xa = clamp(x0, w), xb = clamp(x0 + 1, w);
+		int ya = clamp(y0, h), yb = clamp(y0 + 1, h);
+		int p00 = reader.getArgb(xa, ya);
+		int p10 = reader.getArgb(xb, ya);
+		int p01 = reader.getArgb(xa, yb);
+		int p11 = reader.getArgb(xb, yb);
+
+		int argb = 0;
+		for (int shift = 0; shift < 32; shift += 8) {
+			double top = ((p00 >>> shift) & 0xFF) * (1 - fx) + ((p10 >>> shift) & 0xFF) * fx;
+			double bottom = ((p01 >>> shift) & 0xFF) * (1 - fx) + ((p11 >>> shift) & 0xFF) * fx;
+			argb |= toByte(top * (1 - fy) + bottom * fy) << shift;
+		}
+		return argb;
+	}
+
+	/**
+	 * interpolate the color at the given source location from the 16 pixels around it, using
+	 * the Catmull-Rom cubic kernel
+	 */
+	private static int bicubic(PixelReader reader, double sx, double sy, double[] weights) {
+		int w = reader.getWidth();
+		int h = reader.getHeight();
+		int x0 = (int)Math.floor(sx);
+		int y0 = (int)Math.floor(sy);
+		cubicWeights(sx - x0, weights, 0);
+		cubicWeights(sy - y0, weights, 4);
+
+		double a = 0, r = 0, g = 0, b = 0;
+		for (int j = 0; j < 4; j++) {
+			int y = clamp(y0 - 1 + j, h);
+			double wy = weights[4 + j];
+			for (int i = 0; i < 4; i++) {
+				int p = reader.getArgb(clamp(x0 - 1 + i, w), y);
+				double wxy = weights[i] * wy;
+				a += (p >>> 24) * wxy;
+				r += ((p >> 16) & 0xFF) * wxy;
+				g += ((p >> 8) & 0xFF) * wxy;
+				b += (p & 0xFF) * wxy;
+			}
+		}
+		return toByte(a) << 24 | toByte(r) << 16 | toByte(g) << 8 | toByte(b);
+	}
+
+	/**
+	 * compute the Catmull-Rom weights of the 4 pixels around a location
+	 * @param t the distance between the location and the second pixel, between 0 and 1
+	 * @param weights the array to store the weights into
+	 * @param offset the index of the first weight in the array
+	 */
+	private static void cubicWeights(double t, double[] weights, int offset) {
+		double t2 = t * t;
+		double t3 = t2 * t;
+		weights[offset] = 0.5d * (-t3 + 2 * t2 - t);
+		weights[offset + 1] = 0.5d * (3 * t3 - 5 * t2 + 2);
+		weights[offset + 2] = 0.5d * (-3 * t3 + 4 * t2 + t);
+		weights[offset + 3] = 0.5d * (t3 - t2);
+	}
+
+	/**
+	 * blend two ARGB colors
+	 * @param argb the first color
+	 * @param bgArgb the second color
+	 * @param ratio the weight of the first color, between 0 and 1
+	 */
+	private static int blend(int argb, int bgArgb, double ratio) {
+		int result = 0;
+		for (int shift = 0; shift < 32; shift += 8) {
+			double value = ((argb >>> shift) & 0xFF) * ratio
+					+ ((bgArgb >>> shift) & 0xFF) * (1 - ratio);
+			result |= toByte(value) << shift;
+		}
+		return result;
+	}
+
+	/**
+	 * @return the given coordinate, clamped to [0, size)
+	 */
+	private static int clamp(int coord, int size) {
+		return coord < 0 ? 0 : coord >= size ? size - 1 : coord;
+	}
+
+	/**
+	 * @return the given color component, rounded and clamped to [0, 255]
+	 */
+	private static int toByte(double value) {
+		int result = (int)(value + 0.5d);
+		return result < 0 ? 0 : result > 255 ? 255 : result;
+	}
+}
@@ -21,6 +21,7 @@ public enum AutoSelectStatus {
 	Init,
 	SelectBoundingRectangle,
 	ReduceImageColors,
+	DetectEdges,
 	FindEdgePoints,
 	FindVertices,
 	ComputeLargestRectangle,
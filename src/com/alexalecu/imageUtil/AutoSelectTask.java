@@ -47,6 +47,8 @@ public class AutoSelectTask extends SwingWorker<Object[], AutoSelectStatus> {
 	private Color bgColor;
 	private int bgTolerance;
 	private ImageSelectMethod selectMethod;
+	private ImageDetectMethod detectMethod = ImageDetectMethod.DetectBackground;
+	private BackgroundMask backgroundMask;
 
 
 	/**
@@ -120,7 +122,15 @@ public class AutoSelectTask extends SwingWorker<Object[], AutoSelectStatus> {
 	 */
 	public void setBgTolerance(int bgTolerance) throws InvalidOperationException {
 		assertStateForChangingProperties();
-		this.bgTolerance = (int)(255 * bgTolerance / 100);
+		this.bgTolerance = getColorTolerance(bgTolerance);
+	}
+
+	/**
+	 * @param bgTolerance a background tolerance, as a percentage
+	 * @return the tolerance on each of the (red, green, blue) color components, between 0 and 255
+	 */
+	public static int getColorTolerance(int bgTolerance) {
+		return (int)(255 * bgTolerance / 100);
 	}
 
 	/**
@@ -132,6 +142,27 @@ public class AutoSelectTask extends SwingWorker<Object[], AutoSelectStatus> {
 		this.selectMethod = selectMethod;
 	}
 	
+	/**
+	 * set the method used to tell the item pixels apart from the background ones
+	 * @param detectMethod
+	 */
+	public void setDetectMethod(ImageDetectMethod detectMethod) throws InvalidOperationException {
+		assertStateForChangingProperties();
+		this.detectMethod = detectMethod;
+	}
+	
+	/**
+	 * set the background mask computed while the image was decoding; it replaces the
+	 * classification of the image pixels if it matches the image, the background color and the
+	 * tolerance of the task
+	 * @param backgroundMask
+	 */
+	public void setBackgroundMask(BackgroundMask backgroundMask)
+			throws InvalidOperationException {
+		assertStateForChangingProperties();
+		this.backgroundMask = backgroundMask;
+	}
+	
 	/**
 	 * Assert that the current task state allows the instance fields to be modified
 	 * @throws InvalidOperationException
@@ -161,9 +192,22 @@ public class AutoSelectTask extends SwingWorker<Object[], AutoSelectStatus> {
 		}
 
 		// simplify the input image - convert it to a matrix
-		// where each pixel matching the bgColor is false, not matching is true
-		publish(AutoSelectStatus.ReduceImageColors);
-		boolean[][] matrix = reduceColors(image);
+		// where each pixel matching the bgColor is false, not matching is true;
+		// when detecting by edges, each pixel on an edge is true, the rest is false
+		boolean[][] matrix;
+		if (detectMethod == ImageDetectMethod.DetectEdges) {
+			publish(AutoSelectStatus.DetectEdges);
+			matrix = EdgeDetector.detectEdges(image, EdgeDetector.getEdgeThreshold(bgTolerance));
+		}
+		else if (backgroundMask != null && backgroundMask.matches(image, bgColor, bgTolerance)) {
+			// the pixels have been classified while the image was decoding; the mask is only
+			// read from below
+			matrix = backgroundMask.getMatrix();
+		}
+		else {
+			publish(AutoSelectStatus.ReduceImageColors);
+			matrix = reduceColors(image);
+		}
 		if (matrix == null || isCancelled()) // return if the task has been cancelled
 			return new Object[] {null, null};
 
@@ -430,14 +474,16 @@ public class AutoSelectTask extends SwingWorker<Object[], AutoSelectStatus> {
 	 */
 	public boolean[][] reduceColors(BufferedImage bi) {
 		boolean[][] matrix = new boolean[bi.getWidth()][bi.getHeight()];
+		ColorMatcher matcher = new ColorMatcher(bi, bgColor,
+				ColorMatcher.normalizeTolerance(bgTolerance));
 		
-		// scan the image on the horizontal and vertical, looking for pixels
+		// scan the image column by column, at the native sample depth, looking for pixels
 		// that don't match the bg color and converting them to true
 		for (int x = 0; x < matrix.length; x++) {
-			for (int y = 0; y < matrix[0].length; y++) {
-				if (!ImageColors.isBgColor(bi, x, y, bgColor, bgTolerance))
-					matrix[x][y] = true;
-			}
+			boolean[] column = matrix[x];
+			matcher.matchColumn(x, 0, column.length, column);
+			for (int y = 0; y < column.length; y++)
+				column[y] = !column[y];
 			if (isCancelled()) // check if the task has been cancelled
 				return null;
 		}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * The classification of the pixels of an image into background and item pixels, built row
+ * band by row band, e.g. while the image is still decoding, so that it is ready by the time
+ * the image is. Besides the mask itself, it keeps the number of item pixels on each row and
+ * column and the mean color of the image border.
+ * A row can be classified again, e.g. by the later passes of a progressive decoder; the last
+ * classification wins.
+ *
+ * @author Alex Cojocaru
+ */
+public class BackgroundMask {
+	private final int width;
+	private final int height;
+	private final Color bgColor;
+	private final int bgTolerance;
+
+	// the image the mask belongs to, once a region of it has been classified
+	private BufferedImage image;
+
+	// true for the item pixels, false for the background ones, indexed as [x][y]
+	private final boolean[][] matrix;
+
+	// the number of item pixels on each row and column
+	private final int[] rowCounts;
+	private final int[] columnCounts;
+
+	// the rows classified so far
+	private final boolean[] rowsDone;
+	private int rowsDoneCount;
+
+	// the sums of the border pixel color components, indexed by row
+	private final long[][] borderSums;
+
+	/**
+	 * @param width the width of the image to classify
+	 * @param height the height of the image to classify
+	 * @param bgColor the background color
+	 * @param bgTolerance the tolerance on each of the (red, green, blue) components when matching
+	 * the background color, between 0 and 255; it is scaled to the sample depth of the image
+	 */
+	public BackgroundMask(int width, int height, Color bgColor, int bgTolerance) {
+		this.width = width;
+		this.height = height;
+		this.bgColor = bgColor;
+		this.bgTolerance = bgTolerance;
+
+		matrix = new boolean[width][height];
+		rowCounts = new int[height];
+		columnCounts = new int[width];
+		rowsDone = new boolean[height];
+		borderSums = new long[height][3];
+	}
+
+	/**
+	 * classify the pixels of a region of the image
+	 * @param image the image; always the same one for a given mask
+	 * @param region the region to classify; the parts outside the mask are ignored
+	 */
+	public synchronized void classify(BufferedImage image, Rectangle region) {
+		if (this.image == null)
+			this.image = image;
+		else if (this.image != image)
+			throw new IllegalArgumentException("The mask belongs to another image");
+
+		Rectangle clipped = region.intersection(new Rectangle(0, 0, width, height));
+		if (clipped.isEmpty())
+			return;
+
+		// the pixels are matched at the sample depth of the image
+		ColorMatcher matcher = new ColorMatcher(image, bgColor,
+				ColorMatcher.normalizeTolerance(bgTolerance));
+		boolean[] matches = new boolean[clipped.width];
+		for (int y = clipped.y; y < clipped.y + clipped.height; y++) {
+			matcher.matchRow(clipped.x, y, clipped.width, matches);
+
+			for (int i = 0; i < clipped.width; i++) {
+				boolean item = !matches[i];
+
+				int x = clipped.x + i;
+				if (matrix[x][y] != item) {
+					matrix[x][y] = item;
+					int delta = item ? 1 : -1;
+					rowCounts[y] += delta;
+					columnCounts[x] += delta;
+				}
+			}
+
+			updateBorderSums(image, y, clipped.x, clipped.width);
+
+			// the row is done once all its pixels have been classified at least once; the
+			// decoders update whole rows
+			if (!rowsDone[y] && clipped.x == 0 && clipped.width == width) {
+				rowsDone[y] = true;
+				rowsDoneCount++;
+			}
+		}
+	}
+
+	/**
+	 * bind the mask to a conversion of the image it has classified which has the same pixels,
+	 * e.g. its normalization to a compact pixel format, so that it matches the converted image
+	 * @param image the converted image
+	 */
+	public synchronized void rebind(BufferedImage image) {
+		if (image.getWidth() != width || image.getHeight() != height)
+			throw new IllegalArgumentException("The image size does not match the mask");
+		this.image = image;
+	}
+
+	/**
+	 * @param image an image
+	 * @param bgColor a background color
+	 * @param bgTolerance a background color tolerance, between 0 and 255
+	 * @return true if the mask is complete and it classifies the given image using the given
+	 * background color and tolerance
+	 */
+	public synchronized boolean matches(BufferedImage image, Color bgColor, int bgTolerance) {
+		return isComplete() && this.image == image && this.bgColor.equals(bgColor)
+				&& this.bgTolerance == bgTolerance;
+	}
+
+	/**
+	 * @return true if all the rows have been classified
+	 */
+	public synchronized boolean isComplete() {
+		return rowsDoneCount == height;
+	}
+
+	/**
+	 * @return the mask, indexed as [x][y], where each item pixel is true; it is not copied
+	 */
+	public synchronized boolean[][] getMatrix() {
+		return matrix;
+	}
+
+	/**
+	 * @param y the y coordinate of a row
+	 * @return the number of item pixels on the row
+	 */
+	public synchronized int getRowCount(int y) {
+		return rowCounts[y];
+	}
+
+	/**
+	 * @param x the x coordinate of a column
+	 * @return the number of item pixels on the column
+	 */
+	public synchronized int getColumnCount(int x) {
+		return columnCounts[x];
+	}
+
+	/**
+	 * @return the smallest rectangle containing all the item pixels, null if there is none
+	 */
+	public synchronized Rectangle getItemBounds() {
+		int top = 0, bottom = height - 1, left = 0, right = width - 1;
+		while (top <= bottom && rowCounts[top] == 0)
+			top++;
+		if (top > bottom)
+			return null;
+		while (rowCounts[bottom] == 0)
+			bottom--;
+		while (columnCounts[left] == 0)
+			left++;
+		while (columnCounts[right] == 0)
+			right--;
+		return new Rectangle(left, top, right - left + 1, bottom - top + 1);
+	}
+
+	/**
+	 * @return the mean color of the pixels on the border of the image, a good guess of the
+	 * background color of a scan; null if no border pixel has been classified yet
+	 */
+	public synchronized Color getBorderColor() {
+		long red = 0L, green = 0L, blue = 0L, count = 0L;
+		for (int y = 0; y < height; y++) {
+			if (!rowsDone[y])
+				continue;
+			red += borderSums[y][0];
+			green += borderSums[y][1];
+			blue += borderSums[y][2];
+			count += y == 0 || y == height - 1 ? width : Math.min(2, width);
+		}
+		if (count == 0)
+			return null;
+		return new Color((int)(red / count), (int)(green / count), (int)(blue / count));
+	}
+
+	/**
+	 * store the color sums of the border pixels of a row; the first and the last rows are on
+	 * the border, the other rows contribute their first and last pixels
+	 * @param image the image
+	 * @param y the y coordinate of the row
+	 * @param x0 the x coordinate of the first classified pixel
+	 * @param length the number of classified pixels
+	 */
+	private void updateBorderSums(BufferedImage image, int y, int x0, int length) {
+		// only whole rows are taken into account, see rowsDone
+		if (x0 != 0 || length != width)
+			return;
+
+		long[] sums = borderSums[y];
+		sums[0] = sums[1] = sums[2] = 0L;
+		if (y == 0 || y == height - 1) {
+			int[] row = image.getRGB(0, y, width, 1, null, 0, width);
+			for (int x = 0; x < width; x++)
+				addColor(sums, row[x]);
+		}
+		else {
+			addColor(sums, image.getRGB(0, y));
+			if (width > 1)
+				addColor(sums, image.getRGB(width - 1, y));
+		}
+	}
+
+	/**
+	 * add the components of the given color to the sums
+	 */
+	private static void addColor(long[] sums, int rgb) {
+		sums[0] += (rgb >> 16) & 0xFF;
+		sums[1] += (rgb >> 8) & 0xFF;
+		sums[2] += rgb & 0xFF;
+	}
+}
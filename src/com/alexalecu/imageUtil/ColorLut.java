@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.color.ColorSpace;
+import java.awt.color.ICC_Profile;
+import java.awt.image.ColorConvertOp;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A color conversion from a source color space (3 or 4 components, e.g. an ICC RGB or CMYK
+ * profile) to sRGB, sampled on a regular grid: the expensive color management transform is run
+ * once on the grid points only, then each pixel is converted by interpolating between the grid
+ * points around it (trilinear for 3 components, quadrilinear for 4).
+ * The tables built from ICC profiles are cached, so the images sharing a profile share a table.
+ * The instances are immutable and can be shared between threads.
+ *
+ * @author Alex Cojocaru
+ */
+public class ColorLut {
+	// the number of grid points on each input axis
+	private final static int GRID = 17;
+
+	// the number of extra fraction bits kept in the table entries
+	private final static int TABLE_BITS = 4;
+
+	// the number of tables kept in the cache
+	private final static int CACHE_SIZE = 8;
+
+	// the grid cell and the position inside it (0 - 256) of each input value
+	private final static int[] CELL = new int[256];
+	private final static int[] WEIGHT = new int[256];
+
+	static {
+		for (int v = 0; v < 256; v++) {
+			int position = v * (GRID - 1); // in 1/255 grid units
+			CELL[v] = Math.min(position / 255, GRID - 2);
+			WEIGHT[v] = ((position - CELL[v] * 255) * 256 + 127) / 255;
+		}
+	}
+
+	private final static Map<ProfileKey, ColorLut> cache =
+			new LinkedHashMap<ProfileKey, ColorLut>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<ProfileKey, ColorLut> eldest) {
+					return size() > CACHE_SIZE;
+				}
+			};
+
+	private static ColorLut naiveCmyk;
+
+	private final int inputs;
+
+	// the red, green and blue values of each grid point, with TABLE_BITS fraction bits; the
+	// first input varies the slowest
+	private final int[] table;
+
+	private ColorLut(int inputs, int[] table) {
+		this.inputs = inputs;
+		this.table = table;
+	}
+
+	/**
+	 * get the table converting from the given profile to sRGB, building it if it is not cached
+	 * @param source the source profile, of an RGB, CMYK or any other 3 or 4 component color space
+	 * @return the color table
+	 * @throws IllegalArgumentException if the profile does not have 3 or 4 components
+	 */
+	public static ColorLut forProfile(ICC_Profile source) {
+		ProfileKey key = new ProfileKey(source.getData());
+		synchronized (cache) {
+			ColorLut lut = cache.get(key);
+			if (lut == null) {
+				lut = build(source);
+				cache.put(key, lut);
+			}
+			return lut;
+		}
+	}
+
+	/**
+	 * @return the table converting from CMYK to sRGB with the device independent formulas
+	 * (e.g. red = (1 - cyan) * (1 - black)), for the CMYK images without an embedded profile
+	 */
+	public static synchronized ColorLut forNaiveCmyk() {
+		if (naiveCmyk == null) {
+			int[] table = new int[GRID * GRID * GRID * GRID * 3];
+			int i = 0;
+			for (int c = 0; c < GRID; c++)
+				for (int m = 0; m < GRID; m++)
+					for (int y = 0; y < GRID; y++)
+						for (int k = 0; k < GRID; k++) {
+							double white = (1d - gridValue(k) / 255d) * (255 << TABLE_BITS);
+							table[i++] = (int)Math.round((1d - gridValue(c) / 255d) * white);
+							table[i++] = (int)Math.round((1d - gridValue(m) / 255d) * white);
+							table[i++] = (int)Math.round((1d - gridValue(y) / 255d) * white);
+						}
+			naiveCmyk = new ColorLut(4, table);
+		}
+		return naiveCmyk;
+	}
+
+	/**
+	 * @return the number of components of the source color space
+	 */
+	public int getInputs() {
+		return inputs;
+	}
+
+	/**
+	 * convert a color of a 3 component source color space
+	 * @return the RGB value, packed as 0xRRGGBB
+	 */
+	public int lookup(int c0, int c1, int c2) {
+		int base = ((CELL[c0] * GRID + CELL[c1]) * GRID + CELL[c2]) * 3;
+		return pack(interpolate3(base, GRID * GRID * 3, GRID * 3, 3,
+				WEIGHT[c0], WEIGHT[c1], WEIGHT[c2]));
+	}
+
+	/**
+	 * convert a color of a 4 component source color space
+	 * @return the RGB value, packed as 0xRRGGBB
+	 */
+	public int lookup(int c0, int c1, int c2, int c3) {
+		int stride3 = 3;
+		int stride2 = GRID * stride3;
+		int stride1 = GRID * stride2;
+		int stride0 = GRID * stride1;
+		int base = CELL[c0] * stride0 + CELL[c1] * stride1 + CELL[c2] * stride2
+				+ CELL[c3] * stride3;
+
+		// interpolate in the first 3 dimensions on both sides of the 4th one, then in between
+		int w0 = WEIGHT[c0], w1 = WEIGHT[c1], w2 = WEIGHT[c2], w3 = WEIGHT[c3];
+		long low = interpolate3(base, stride0, stride1, stride2, w0, w1, w2);
+		long high = interpolate3(base + stride3, stride0, stride1, stride2, w0, w1, w2);
+
+		long result = 0L;
+		for (int shift = 32; shift >= 0; shift -= 16) {
+			int a = (int)(low >> shift) & 0xFFFF;
+			int b = (int)(high >> shift) & 0xFFFF;
+			result = result << 16 | (a + (((b - a) * w3) >> 8));
+		}
+		return pack(result);
+	}
+
+	/**
+	 * interpolate the 3 color components in the grid cube starting at the given table index
+	 * @return the red, green and blue values, with TABLE_BITS fraction bits, packed as 16 bit
+	 * fields of a long (red in the bits 32 - 47)
+	 */
+	private long interpolate3(int base, int stride0, int stride1, int stride2,
+			int w0, int w1, int w2) {
+		long result = 0L;
+		for (int channel = 0; channel < 3; channel++) {
+			int i = base + channel;
+			int c000 = table[i];
+			int c001 = table[i + stride2];
+			int c010 = table[i + stride1];
+			int c011 = table[i + stride1 + stride2];
+			int c100 = table[i + stride0];
+			int c101 = table[i + stride0 + stride2];
+			int c110 = table[i + stride0 + stride1];
+			int c111 = table[i + stride0 + stride1 + stride2];
+
+			int c00 = c000 + (((c001 - c000) * w2) >> 8);
+			int c01 = c010 + (((c011 - c010) * w2) >> 8);
+			int c10 = c100 + (((c101 - c100) * w2) >> 8);
+			int c11 = c110 + (((c111 - c110) * w2) >> 8);
+			int c0 = c00 + (((c01 - c00) * w1) >> 8);
+			int c1 = c10 + (((c11 - c10) * w1) >> 8);
+			result = result << 16 | (c0 + (((c1 - c0) * w0) >> 8));
+		}
+		return result;
+	}
+
+	/**
+	 * round the interpolated components and pack them
+	 */
+	private static int pack(long components) {
+		int rgb = 0;
+		for (int shift = 32; shift >= 0; shift -= 16) {
+			int value = ((int)(components >> shift) & 0xFFFF) + (1 << (TABLE_BITS - 1));
+			rgb = rgb << 8 | Math.min(255, value >> TABLE_BITS);
+		}
+		return rgb;
+	}
+
+	/**
+	 * @return the input value of the given grid point
+	 */
+	private static int gridValue(int index) {
+		return (index * 255 + (GRID - 1) / 2) / (GRID - 1);
+	}
+
+	/**
+	 * run the color management transform on the grid points
+	 */
+	private static ColorLut build(ICC_Profile source) {
+		int inputs = source.getNumComponents();
+		if (inputs != 3 && inputs != 4)
+			throw new IllegalArgumentException("Unsupported number of components: " + inputs);
+
+		int points = 1;
+		for (int i = 0; i < inputs; i++)
+			points *= GRID;
+
+		WritableRaster grid = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE,
+				points, 1, inputs, null);
+		int[] pixel = new int[inputs];
+		for (int p = 0; p < points; p++) {
+			for (int i = inputs - 1, rest = p; i >= 0; i--, rest /= GRID)
+				pixel[i] = gridValue(rest % GRID);
+			grid.setPixel(p, 0, pixel);
+		}
+
+		// the 16 bit destination keeps the fraction bits of the transform
+		WritableRaster rgb = Raster.createInterleavedRaster(DataBuffer.TYPE_USHORT,
+				points, 1, 3, null);
+		ICC_Profile sRGB = ICC_Profile.getInstance(ColorSpace.CS_sRGB);
+		new ColorConvertOp(new ICC_Profile[] {source, sRGB}, null).filter(grid, rgb);
+
+		int[] table = rgb.getPixels(0, 0, points, 1, (int[])null);
+		for (int i = 0; i < table.length; i++)
+			table[i] = (int)(((long)table[i] * (255 << TABLE_BITS) + 32767) / 65535);
+		return new ColorLut(inputs, table);
+	}
+
+	/**
+	 * the cache key of a profile, its data
+	 */
+	private static class ProfileKey {
+		private final byte[] data;
+		private final int hash;
+
+		private ProfileKey(byte[] data) {
+			this.data = data;
+			this.hash = Arrays.hashCode(data);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof ProfileKey && Arrays.equals(data, ((ProfileKey)obj).data);
+		}
+	}
+}
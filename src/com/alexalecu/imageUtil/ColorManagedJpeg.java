@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.color.ICC_Profile;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Decode the JPEG images the standard decoder does not convert to RGB by itself, or converts
+ * slowly: the CMYK and YCCK images, and the images with an embedded ICC profile.
+ * The raw samples are decoded first, then converted to sRGB in parallel row bands through a
+ * ColorLut, so the color management transform is run once per profile instead of once per pixel.
+ *
+ * @author Alex Cojocaru
+ */
+public class ColorManagedJpeg {
+	private final static String NATIVE_FORMAT = "javax_imageio_jpeg_image_1.0";
+
+	// the APP2 marker, carrying the ICC profile chunks
+	private final static int APP2 = 0xE2;
+	private final static byte[] ICC_SIGNATURE = {
+		'I', 'C', 'C', '_', 'P', 'R', 'O', 'F', 'I', 'L', 'E', 0
+	};
+	// the signature, the chunk sequence number and the chunk count precede the profile data
+	private final static int ICC_HEADER_LENGTH = ICC_SIGNATURE.length + 2;
+
+	// the color transforms of the Adobe APP14 marker
+	private final static int TRANSFORM_UNKNOWN = 0;
+	private final static int TRANSFORM_YCC = 1;
+	private final static int TRANSFORM_YCCK = 2;
+
+	// the minimum number of rows converted by a thread
+	private final static int MIN_BAND_HEIGHT = 32;
+
+	// the YCbCr to RGB conversion tables, with 16 fraction bits
+	private final static int[] CR_R = new int[256];
+	private final static int[] CB_B = new int[256];
+	private final static int[] CR_G = new int[256];
+	private final static int[] CB_G = new int[256];
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			int c = i - 128;
+			CR_R[i] = (int)Math.round(1.402d * 65536 * c) + 32768;
+			CB_B[i] = (int)Math.round(1.772d * 65536 * c) + 32768;
+			CR_G[i] = (int)Math.round(-0.714136d * 65536 * c);
+			CB_G[i] = (int)Math.round(-0.344136d * 65536 * c) + 32768;
+		}
+	}
+
+	private final int components;
+	private final boolean ycc;
+	private final boolean inverted;
+	private final ColorLut lut;
+
+	private ColorManagedJpeg(int components, boolean ycc, boolean inverted, ColorLut lut) {
+		this.components = components;
+		this.ycc = ycc;
+		this.inverted = inverted;
+		this.lut = lut;
+	}
+
+	/**
+	 * inspect the metadata of the image the reader is set on
+	 * @param reader the image reader, with its input set
+	 * @return the decoder for the image, or null if the image is not a JPEG needing a color
+	 * conversion, and the standard decoder should be used
+	 * @throws IOException if the metadata cannot be read
+	 */
+	public static ColorManagedJpeg forReader(ImageReader reader) throws IOException {
+		if (!"jpeg".equalsIgnoreCase(reader.getFormatName()))
+			return null;
+
+		IIOMetadata metadata = reader.getImageMetadata(0);
+		if (metadata == null || !NATIVE_FORMAT.equals(metadata.getNativeMetadataFormatName()))
+			return null;
+		Node tree;
+		try {
+			tree = metadata.getAsTree(NATIVE_FORMAT);
+		}
+		catch (IllegalArgumentException e) {
+			return null;
+		}
+
+		IIOMetadataNode sof = findNode(tree, "sof");
+		if (sof == null)
+			return null;
+		int components = getIntAttribute(sof, "numFrameComponents", 0);
+
+		IIOMetadataNode adobe = findNode(tree, "app14Adobe");
+		int transform = adobe != null
+				? getIntAttribute(adobe, "transform", TRANSFORM_UNKNOWN) : -1;
+		ICC_Profile profile = readProfile(tree);
+
+		if (components == 4) {
+			ColorLut lut = profile != null && profile.getNumComponents() == 4
+					? ColorLut.forProfile(profile) : ColorLut.forNaiveCmyk();
+			// the Adobe applications write the CMYK components inverted
+			return new ColorManagedJpeg(4, transform == TRANSFORM_YCCK, adobe != null, lut);
+		}
+
+		if (components == 3 && profile != null && profile.getNumComponents() == 3) {
+			// the 3 component images are YCbCr unless the Adobe marker or the component ids say
+			// otherwise, as the standard decoder assumes
+			boolean ycc = transform == TRANSFORM_YCC
+					|| transform == -1 && !hasRgbComponentIds(sof);
+			return new ColorManagedJpeg(3, ycc, false, ColorLut.forProfile(profile));
+		}
+
+		return null;
+	}
+
+	/**
+	 * decode the image and convert it to sRGB
+	 * @param reader the image reader, with its input set
+	 * @param param the read parameters; the source region and subsampling are honoured
+	 * @return the decoded image, of TYPE_3BYTE_BGR
+	 * @throws IOException if the image cannot be decoded
+	 */
+	public BufferedImage read(ImageReader reader, ImageReadParam param) throws IOException {
+		final Raster raster = reader.readRaster(0, param);
+		final int width = raster.getWidth();
+		final int height = raster.getHeight();
+		final BufferedImage image = new BufferedImage(width, height,
+				BufferedImage.TYPE_3BYTE_BGR);
+		final byte[] dest = ((DataBufferByte)image.getRaster().getDataBuffer()).getData();
+
+		ParallelBands.run(height, MIN_BAND_HEIGHT, new ParallelBands.BandTask() {
+			public void process(int start, int end) {
+				int[] samples = new int[width * components];
+				for (int y = start; y < end; y++) {
+					getSamples(raster, y, samples);
+					convertRow(samples, dest, y * width * 3, width);
+				}
+			}
+		});
+		return image;
+	}
+
+	/**
+	 * convert a row of raw samples, storing the result in B, G, R order
+	 */
+	private void convertRow(int[] samples, byte[] dest, int offset, int width) {
+		for (int x = 0, i = 0; x < width; x++, i += components) {
+			int c0 = samples[i], c1 = samples[i + 1], c2 = samples[i + 2];
+			if (ycc) {
+				int luma = c0 << 16, cb = c1, cr = c2;
+				c0 = clamp((luma + CR_R[cr]) >> 16);
+				c1 = clamp((luma + CB_G[cb] + CR_G[cr]) >> 16);
+				c2 = clamp((luma + CB_B[cb]) >> 16);
+			}
+
+			int rgb;
+			if (components == 4) {
+				int c3 = samples[i + 3];
+				if (ycc) {
+					// the YCC part decodes to the CMY components, and only the black one is
+					// inverted
+					c3 = 255 - c3;
+				}
+				else if (inverted) {
+					c0 = 255 - c0;
+					c1 = 255 - c1;
+					c2 = 255 - c2;
+					c3 = 255 - c3;
+				}
+				rgb = lut.lookup(c0, c1, c2, c3);
+			}
+			else {
+				rgb = lut.lookup(c0, c1, c2);
+			}
+
+			dest[offset++] = (byte)rgb;
+			dest[offset++] = (byte)(rgb >> 8);
+			dest[offset++] = (byte)(rgb >> 16);
+		}
+	}
+
+	/**
+	 * read the samples of a raster row, straight from the data buffer for the byte rasters the
+	 * JPEG decoder produces
+	 */
+	private void getSamples(Raster raster, int y, int[] samples) {
+		int width = raster.getWidth();
+		int minX = raster.getMinX();
+		int rowY = raster.getMinY() + y;
+		if (!(raster.getSampleModel() instanceof ComponentSampleModel)
+				|| !(raster.getDataBuffer() instanceof DataBufferByte)) {
+			raster.getPixels(minX, rowY, width, 1, samples);
+			return;
+		}
+
+		ComponentSampleModel sm = (ComponentSampleModel)raster.getSampleModel();
+		DataBufferByte buffer = (DataBufferByte)raster.getDataBuffer();
+		byte[] data = buffer.getData();
+		int pixelStride = sm.getPixelStride();
+		int[] bandOffsets = sm.getBandOffsets();
+		int start = buffer.getOffset()
+				+ (rowY - raster.getSampleModelTranslateY()) * sm.getScanlineStride()
+				+ (minX - raster.getSampleModelTranslateX()) * pixelStride;
+
+		for (int x = 0, i = 0; x < width; x++, start += pixelStride)
+			for (int band = 0; band < components; band++)
+				samples[i++] = data[start + bandOffsets[band]] & 0xFF;
+	}
+
+	/**
+	 * get the embedded ICC profile: the standard decoder parses it when the image has a JFIF
+	 * marker, otherwise it is reassembled from the APP2 chunks
+	 * @return the profile, null if there is none or it is not valid
+	 */
+	private static ICC_Profile readProfile(Node tree) {
+		IIOMetadataNode app2ICC = findNode(tree, "app2ICC");
+		if (app2ICC != null && app2ICC.getUserObject() instanceof ICC_Profile)
+			return (ICC_Profile)app2ICC.getUserObject();
+
+		IIOMetadataNode markers = findNode(tree, "markerSequence");
+		if (markers == null)
+			return null;
+
+		// the chunks are numbered from 1, and usually stored in order
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		int expected = 1;
+		NodeList children = markers.getChildNodes();
+		for (int i = 0; i < children.getLength(); i++) {
+			Node child = children.item(i);
+			if (!"unknown".equals(child.getNodeName())
+					|| getIntAttribute((IIOMetadataNode)child, "MarkerTag", 0) != APP2)
+				continue;
+			Object chunk = ((IIOMetadataNode)child).getUserObject();
+			if (!(chunk instanceof byte[]) || !isIccChunk((byte[])chunk))
+				continue;
+
+			byte[] bytes = (byte[])chunk;
+			if ((bytes[ICC_SIGNATURE.length] & 0xFF) != expected++)
+				return null;
+			data.write(bytes, ICC_HEADER_LENGTH, bytes.length - ICC_HEADER_LENGTH);
+		}
+
+		if (data.size() == 0)
+			return null;
+		try {
+			return ICC_Profile.getInstance(data.toByteArray());
+		}
+		catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return true if the APP2 marker data starts with the ICC profile signature
+	 */
+	private static boolean isIccChunk(byte[] bytes) {
+		if (bytes.length <= ICC_HEADER_LENGTH)
+			return false;
+		for (int i = 0; i < ICC_SIGNATURE.length; i++)
+			if (bytes[i] != ICC_SIGNATURE[i])
+				return false;
+		return true;
+	}
+
+	/**
+	 * @return true if the frame components are tagged 'R', 'G' and 'B'
+	 */
+	private static boolean hasRgbComponentIds(IIOMetadataNode sof) {
+		NodeList specs = sof.getElementsByTagName("componentSpec");
+		return specs.getLength() == 3
+				&& getIntAttribute((IIOMetadataNode)specs.item(0), "componentId", 0) == 'R'
+				&& getIntAttribute((IIOMetadataNode)specs.item(1), "componentId", 0) == 'G'
+				&& getIntAttribute((IIOMetadataNode)specs.item(2), "componentId", 0) == 'B';
+	}
+
+	/**
+	 * @return the first node with the given name in the tree, depth first; null if none
+	 */
+	private static IIOMetadataNode findNode(Node node, String name) {
+		if (name.equals(node.getNodeName()))
+			return (IIOMetadataNode)node;
+		for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+			IIOMetadataNode found = findNode(child, name);
+			if (found != null)
+				return found;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the value of the given integer attribute, or the default value if it is missing
+	 */
+	private static int getIntAttribute(IIOMetadataNode node, String name, int defaultValue) {
+		String value = node.getAttribute(name);
+		if (value == null || value.length() == 0)
+			return defaultValue;
+		try {
+			return Integer.parseInt(value);
+		}
+		catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * @return the given value clamped to [0, 255]
+	 */
+	private static int clamp(int value) {
+		return value < 0 ? 0 : value > 255 ? 255 : value;
+	}
+}
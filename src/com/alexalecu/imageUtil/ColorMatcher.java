@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.Color;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+
+/**
+ * Match the pixels of an image against a color, reading the raster samples at their native
+ * depth: the color and the tolerance are mapped to the sample range of each band once, so a 16
+ * bit per channel scan is matched on its 16 bit samples instead of being truncated to 8 bits
+ * pixel by pixel. The tolerance is given in normalized units, the fraction of the full sample
+ * range, so it means the same for any depth; it applies to the samples as they are, in the
+ * color space of the image (e.g. the linear grey levels of a grey image).
+ * An instance uses an internal buffer, so it must not be shared between threads.
+ *
+ * @author Alex Cojocaru
+ */
+public class ColorMatcher {
+	// the margin added to the sample ranges, in samples
+	private final static double ROUNDING_MARGIN = 0.01d;
+
+	private final BufferedImage image;
+
+	// the raster the samples are read from; null if the pixels are read through getRGB
+	private final Raster raster;
+
+	// the number of bands of a pixel, and how many of them are compared (the alpha is not)
+	private final int bands;
+	private final int colorBands;
+
+	// the range of the matching samples, for each compared band
+	private final int[] low;
+	private final int[] high;
+
+	private int[] samples = new int[0];
+
+	/**
+	 * @param image the image to match the pixels of
+	 * @param color the color to match against
+	 * @param tolerance the tolerance on each color component, as a fraction of the full sample
+	 * range, between 0 and 1
+	 */
+	public ColorMatcher(BufferedImage image, Color color, double tolerance) {
+		this.image = image;
+		ColorModel cm = image.getColorModel();
+
+		// the indexed samples are palette entries, so those images are matched on their colors
+		if (cm instanceof IndexColorModel) {
+			raster = null;
+			bands = colorBands = 3;
+		}
+		else {
+			raster = image.getRaster();
+			bands = raster.getNumBands();
+			colorBands = cm.getNumColorComponents();
+		}
+
+		// the color components in the color space of the image, e.g. the linear grey levels of a
+		// grey image; the colors picked from a high bit depth image keep their precision
+		ColorSpace cs = raster != null ? cm.getColorSpace() : null;
+		float[] components;
+		boolean converted = false;
+		if (cs == null || cs.isCS_sRGB()) {
+			components = color.getRGBColorComponents(null);
+		}
+		else if (cs == color.getColorSpace()) {
+			components = color.getColorComponents(null);
+		}
+		else {
+			components = color.getColorComponents(cs, null);
+			converted = true;
+		}
+
+		low = new int[colorBands];
+		high = new int[colorBands];
+		for (int band = 0; band < colorBands; band++) {
+			int max = (1 << (raster == null ? 8 : raster.getSampleModel().getSampleSize(band))) - 1;
+			double value = cs == null ? components[band]
+					: (components[band] - cs.getMinValue(band))
+							/ (cs.getMaxValue(band) - cs.getMinValue(band));
+			double expected = value * max;
+
+			// allow for the float precision of the color components; the converted colors are
+			// only known to the nearest step of their 8 bit sRGB components
+			double delta = tolerance * max + (converted ? max / 255d : ROUNDING_MARGIN);
+			low[band] = (int)Math.ceil(expected - delta);
+			high[band] = (int)Math.floor(expected + delta);
+		}
+	}
+
+	/**
+	 * @param tolerance a tolerance on the 0 - 255 scale of the 8 bit color components
+	 * @return the normalized tolerance, between 0 and 1
+	 */
+	public static double normalizeTolerance(int tolerance) {
+		return Math.max(0, Math.min(255, tolerance)) / 255d;
+	}
+
+	/**
+	 * @return true if the pixel at (x, y) matches the color
+	 */
+	public boolean matches(int x, int y) {
+		readSamples(x, y, 1, 1);
+		return matches(0);
+	}
+
+	/**
+	 * match a horizontal run of pixels
+	 * @param x the x coordinate of the first pixel
+	 * @param y the y coordinate of the row
+	 * @param length the number of pixels
+	 * @param result the array to store the outcome for each pixel into, starting at index 0
+	 */
+	public void matchRow(int x, int y, int length, boolean[] result) {
+		readSamples(x, y, length, 1);
+		for (int i = 0; i < length; i++)
+			result[i] = matches(i * bands);
+	}
+
+	/**
+	 * match a vertical run of pixels
+	 * @param x the x coordinate of the column
+	 * @param y the y coordinate of the first pixel
+	 * @param length the number of pixels
+	 * @param result the array to store the outcome for each pixel into, starting at index 0
+	 */
+	public void matchColumn(int x, int y, int length, boolean[] result) {
+		readSamples(x, y, 1, length);
+		for (int i = 0; i < length; i++)
+			result[i] = matches(i * bands);
+	}
+
+	/**
+	 * @return true if the pixel whose samples start at the given buffer index matches
+	 */
+	private boolean matches(int index) {
+		for (int band = 0; band < colorBands; band++) {
+			int sample = samples[index + band];
+			if (sample < low[band] || sample > high[band])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * read the samples of a region into the buffer, pixel by pixel in row order
+	 */
+	private void readSamples(int x, int y, int width, int height) {
+		int count = width * height * bands;
+		if (samples.length < count)
+			samples = new int[count];
+
+		if (raster != null) {
+			raster.getPixels(x, y, width, height, samples);
+			return;
+		}
+
+		// the ARGB values are stored at the end of the buffer, then unpacked in place
+		int pixels = width * height;
+		image.getRGB(x, y, width, height, samples, count - pixels, width);
+		for (int i = 0, j = count - pixels; i < count; i += 3, j++) {
+			int argb = samples[j];
+			samples[i] = (argb >> 16) & 0xFF;
+			samples[i + 1] = (argb >> 8) & 0xFF;
+			samples[i + 2] = argb & 0xFF;
+		}
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Edge detection based on the Sobel operator, used to find the items whose border color matches
+ * the background color (e.g. white bordered photos scanned on a white background)
+ *
+ * @author Alex Cojocaru
+ */
+public class EdgeDetector {
+	/**
+	 * the minimum gradient magnitude (0 - 255) for a pixel to be considered an edge; it keeps the
+	 * scanner noise out of the edge mask when a low background tolerance is used
+	 */
+	public final static int MIN_EDGE_THRESHOLD = 8;
+
+	// the minimum number of rows processed by a thread
+	private final static int MIN_BAND_HEIGHT = 64;
+
+	/**
+	 * Compute the edge mask of the image: run the Sobel operator on the grey levels of the image
+	 * and mark as true each pixel where the gradient magnitude is above the threshold.
+	 * The Sobel kernels are separable, so each row is filtered on the horizontal first
+	 * ([-1 0 1] and [1 2 1]), then the vertical pass combines three filtered rows;
+	 * the image is split into row bands which are processed in parallel.
+	 * @param image the image to scan
+	 * @param threshold the gradient magnitude threshold, between 0 and 255
+	 * @return a matrix of the same size as the image (indexed as [x][y]), where each edge pixel
+	 * is true
+	 */
+	public static boolean[][] detectEdges(final BufferedImage image, final int threshold) {
+		final int width = image.getWidth();
+		final int height = image.getHeight();
+		final boolean[][] matrix = new boolean[width][height];
+
+		ParallelBands.run(height, MIN_BAND_HEIGHT, new ParallelBands.BandTask() {
+			public void process(int start, int end) {
+				int[] samples = new int[ImageColors.getRowBufferSize(image)];
+				int[] grey = new int[width];
+
+				// the horizontally filtered rows above, on and below the current row
+				int[][] diff = new int[3][width];
+				int[][] smooth = new int[3][width];
+
+				// the rows outside the image are replicated from the nearest edge row
+				filterRow(image, Math.max(start - 1, 0), samples, grey, diff[0], smooth[0]);
+				filterRow(image, start, samples, grey, diff[1], smooth[1]);
+
+				for (int y = start; y < end; y++) {
+					filterRow(image, Math.min(y + 1, height - 1), samples, grey,
+							diff[2], smooth[2]);
+
+					int[] diffPrev = diff[0], diffCrt = diff[1], diffNext = diff[2];
+					int[] smoothPrev = smooth[0], smoothNext = smooth[2];
+					for (int x = 0; x < width; x++) {
+						int gx = diffPrev[x] + 2 * diffCrt[x] + diffNext[x];
+						int gy = smoothNext[x] - smoothPrev[x];
+
+						// |gx| + |gy| is at most 8 * 255, normalize it to 0 - 255
+						if (((Math.abs(gx) + Math.abs(gy)) >> 3) > threshold)
+							matrix[x][y] = true;
+					}
+
+					// shift the rolling window down one row
+					int[] temp = diff[0];
+					diff[0] = diff[1];
+					diff[1] = diff[2];
+					diff[2] = temp;
+					temp = smooth[0];
+					smooth[0] = smooth[1];
+					smooth[1] = smooth[2];
+					smooth[2] = temp;
+				}
+			}
+		});
+
+		return matrix;
+	}
+
+	/**
+	 * map a background color tolerance to the matching gradient magnitude threshold. A straight
+	 * step of d grey levels gives |gx| + |gy| = 4 * d across it, i.e. a normalized magnitude of
+	 * d / 2, so halving the tolerance makes a pixel an edge when the step across it is larger
+	 * than the tolerance, as a pixel differing that much from the background color is an item
+	 * pixel when matching the background color
+	 * @param colorTolerance the tolerance on each color component, between 0 and 255
+	 * @return the gradient magnitude threshold, between 0 and 255; at least MIN_EDGE_THRESHOLD
+	 */
+	public static int getEdgeThreshold(int colorTolerance) {
+		return Math.max(colorTolerance / 2, MIN_EDGE_THRESHOLD);
+	}
+
+	/**
+	 * read the grey levels of the given row and apply the horizontal pass of the Sobel kernels:
+	 * the derivative [-1 0 1] and the smoothing [1 2 1]
+	 * @param image the image to read the row from
+	 * @param y the y coordinate of the row
+	 * @param samples the scratch buffer to read the raster samples into
+	 * @param grey the scratch buffer to store the grey levels into
+	 * @param diff the array to store the horizontal derivative into
+	 * @param smooth the array to store the horizontal smoothing into
+	 */
+	private static void filterRow(BufferedImage image, int y, int[] samples, int[] grey,
+			int[] diff, int[] smooth) {
+		ImageColors.getGreyRow(image, y, samples, grey);
+
+		int last = grey.length - 1;
+		for (int x = 0; x <= last; x++) {
+			int left = grey[x > 0 ? x - 1 : 0];
+			int right = grey[x < last ? x + 1 : last];
+			diff[x] = right - left;
+			smooth[x] = left + 2 * grey[x] + right;
+		}
+	}
+}
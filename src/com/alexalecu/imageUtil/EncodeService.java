@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.alexalecu.util.FileUtil;
+
+/**
+ * Encode many images (or regions of images) to files concurrently, on a bounded pool of threads.
+ * The rasters waiting in the queue are accounted against a memory budget: submitting a job blocks
+ * while the images already queued use up the budget, so that a producer creating the images
+ * faster than they can be encoded cannot exhaust the heap.
+ * Each image is encoded to a temporary file which then replaces the destination file, so that a
+ * failed or interrupted job does not leave a truncated file behind. A job can only be cancelled
+ * before it has started, which gives its memory back straight away; a running job is left to
+ * complete, as it reads the image.
+ *
+ * @author Alex Cojocaru
+ */
+public class EncodeService {
+	public enum Format {
+		JPEG,
+		PNG,
+		TIFF;
+
+		/**
+		 * @param file an image file
+		 * @return the format matching the file extension; JPEG if the extension is unknown
+		 */
+		public static Format forFile(File file) {
+			String ext = FileUtil.getExtension(file);
+			if (".png".equalsIgnoreCase(ext))
+				return PNG;
+			if (".tif".equalsIgnoreCase(ext) || ".tiff".equalsIgnoreCase(ext))
+				return TIFF;
+			return JPEG;
+		}
+	}
+
+	/**
+	 * The outcome of an encoding job
+	 */
+	public static class Result {
+		private final File file;
+		private final long queuedMillis;
+		private final long encodeMillis;
+
+		private Result(File file, long queuedMillis, long encodeMillis) {
+			this.file = file;
+			this.queuedMillis = queuedMillis;
+			this.encodeMillis = encodeMillis;
+		}
+
+		/**
+		 * @return the file the image has been written to
+		 */
+		public File getFile() {
+			return file;
+		}
+
+		/**
+		 * @return how long the job has waited in the queue, in milliseconds
+		 */
+		public long getQueuedMillis() {
+			return queuedMillis;
+		}
+
+		/**
+		 * @return how long the encoding took, in milliseconds
+		 */
+		public long getEncodeMillis() {
+			return encodeMillis;
+		}
+	}
+
+	// the memory budget is tracked in KB, so that it fits the int permits of the semaphore
+	private final int budgetKB;
+	private final Semaphore memory;
+	private final ExecutorService executor;
+
+	/**
+	 * @param threadCount the number of images encoded at the same time
+	 * @param memoryBudget the maximum number of bytes of the images queued or being encoded
+	 */
+	public EncodeService(int threadCount, long memoryBudget) {
+		budgetKB = (int)Math.max(1L, Math.min(Integer.MAX_VALUE, memoryBudget / 1024));
+		memory = new Semaphore(budgetKB, true);
+		executor = Executors.newFixedThreadPool(Math.max(1, threadCount), new ThreadFactory() {
+			private int count = 0;
+
+			public synchronized Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "imageUtil-encode-" + (++count));
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * queue an image region to be encoded; the call blocks while the queued images use up the
+	 * memory budget. The image must not be modified until the job is complete.
+	 * @param image the image to encode
+	 * @param region the region of the image to encode; the whole image if null
+	 * @param format the output format
+	 * @param preset the encoder settings, for the JPEG format
+	 * @param destination the file to write to; it is overwritten if it exists
+	 * @return the future result of the job; it throws the IOException raised by the encoder, if
+	 * any, wrapped in an ExecutionException
+	 * @throws InterruptedException if the thread is interrupted while waiting for memory
+	 */
+	public Future<Result> submit(BufferedImage image, Rectangle region, Format format,
+			ImageConvert.JpegPreset preset, File destination) throws InterruptedException {
+		return submit(image, region, format, preset, -1L, destination);
+	}
+
+	/**
+	 * queue an image region to be encoded as JPEG, using the highest quality which keeps the
+	 * file within the given size; the call blocks while the queued images use up the memory
+	 * budget. The image must not be modified until the job is complete.
+	 * @param image the image to encode
+	 * @param region the region of the image to encode; the whole image if null
+	 * @param preset the encoder settings; its quality is ignored
+	 * @param maxBytes the maximum size of the file, in bytes
+	 * @param destination the file to write to; it is overwritten if it exists
+	 * @return the future result of the job
+	 * @throws InterruptedException if the thread is interrupted while waiting for memory
+	 * @see ImageConvert#writeJpg(BufferedImage, ImageConvert.JpegPreset, long, File)
+	 */
+	public Future<Result> submit(BufferedImage image, Rectangle region,
+			ImageConvert.JpegPreset preset, long maxBytes, File destination)
+			throws InterruptedException {
+		return submit(image, region, Format.JPEG, preset, maxBytes, destination);
+	}
+
+	/**
+	 * queue an image region to be encoded
+	 * @param maxBytes the maximum size of the JPEG file, 0 or less for no limit
+	 */
+	private Future<Result> submit(BufferedImage image, Rectangle region, final Format format,
+			final ImageConvert.JpegPreset preset, final long maxBytes, final File destination)
+			throws InterruptedException {
+
+		final BufferedImage source = region == null ? image
+				: image.getSubimage(region.x, region.y, region.width, region.height);
+
+		// the images bigger than the whole budget are encoded on their own
+		final int costKB = (int)Math.max(1L, Math.min(budgetKB, getByteCount(source) / 1024));
+		memory.acquire(costKB);
+
+		// the job is claimed either by its thread or by its cancellation, which releases the memory
+		final AtomicBoolean claimed = new AtomicBoolean();
+		final long queued = System.nanoTime();
+		try {
+			FutureTask<Result> task = new FutureTask<Result>(new Callable<Result>() {
+				public Result call() throws Exception {
+					if (!claimed.compareAndSet(false, true))
+						return null;
+					long started = System.nanoTime();
+					File file = null;
+					try {
+						// encode to a file next to the destination, then rename it over the
+						// destination, so that the destination is never left half written
+						file = FileUtil.createReplacementFile(destination);
+						if (format == Format.PNG)
+							ImageConvert.writePng(source, file);
+						else if (format == Format.TIFF)
+							ImageConvert.writeTiff(source, file);
+						else if (maxBytes > 0)
+							ImageConvert.writeJpg(source, preset, maxBytes, file);
+						else
+							ImageConvert.writeJpg(source, preset, file);
+						FileUtil.replaceFile(file, destination);
+						file = null;
+					}
+					finally {
+						memory.release(costKB);
+						if (file != null)
+							file.delete();
+					}
+					return new Result(destination, (started - queued) / 1000000L,
+							(System.nanoTime() - started) / 1000000L);
+				}
+			}) {
+				@Override
+				public boolean cancel(boolean mayInterruptIfRunning) {
+					if (!claimed.compareAndSet(false, true))
+						return false;
+					memory.release(costKB);
+					super.cancel(false);
+					return true;
+				}
+			};
+			executor.execute(task);
+			return task;
+		}
+		catch (RuntimeException e) {
+			memory.release(costKB);
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the number of bytes of the images queued or being encoded
+	 */
+	public long getPendingBytes() {
+		return (long)(budgetKB - memory.availablePermits()) * 1024;
+	}
+
+	/**
+	 * stop accepting jobs; the jobs already queued are still encoded
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * @return an estimation of the memory used by the pixels of an image
+	 */
+	private static long getByteCount(BufferedImage image) {
+		int bits = image.getColorModel().getPixelSize();
+		return (long)image.getWidth() * image.getHeight() * Math.max(1, (bits + 7) / 8);
+	}
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import com.alexalecu.util.FileUtil;
+
+/**
+ * A set of JPEG derivatives of an image to export together, e.g. the full resolution image, a
+ * web version and a thumbnail. The derivatives are built from the image in memory as a cascade,
+ * each one downscaled from the previous (bigger) one, so the full resolution pixels are read
+ * only once; they are then encoded in parallel by an EncodeService.
+ *
+ * @author Alex Cojocaru
+ */
+public class ExportProfile {
+	/**
+	 * An image to export: its file name suffix, its maximum size and its encoder settings
+	 */
+	public static class Derivative {
+		private final String suffix;
+		private final int maxSize;
+		private final ImageConvert.JpegPreset preset;
+
+		/**
+		 * @param suffix the suffix appended to the base file name, e.g. "_web"
+		 * @param maxSize the maximum width and height of the image, 0 for the full size
+		 * @param preset the encoder settings
+		 */
+		public Derivative(String suffix, int maxSize, ImageConvert.JpegPreset preset) {
+			this.suffix = suffix;
+			this.maxSize = maxSize;
+			this.preset = preset;
+		}
+
+		/**
+		 * @return the suffix appended to the base file name
+		 */
+		public String getSuffix() {
+			return suffix;
+		}
+
+		/**
+		 * @return the maximum width and height of the image, 0 for the full size
+		 */
+		public int getMaxSize() {
+			return maxSize;
+		}
+
+		/**
+		 * @return the encoder settings
+		 */
+		public ImageConvert.JpegPreset getPreset() {
+			return preset;
+		}
+	}
+
+	/**
+	 * the full resolution image, a 2000 pixels web version and a 300 pixels thumbnail
+	 */
+	public final static ExportProfile DEFAULT = new ExportProfile(
+			new Derivative("", 0, ImageConvert.JpegPreset.HIGH_QUALITY),
+			new Derivative("_web", 2000, ImageConvert.JpegPreset.WEB),
+			new Derivative("_thumb", 300, ImageConvert.JpegPreset.WEB));
+
+	private final List<Derivative> derivatives;
+
+	/**
+	 * @param derivatives the images to export
+	 */
+	public ExportProfile(Derivative... derivatives) {
+		// the biggest first, so that each one can be downscaled from the previous one
+		List<Derivative> sorted = new ArrayList<Derivative>(Arrays.asList(derivatives));
+		Collections.sort(sorted, new Comparator<Derivative>() {
+			public int compare(Derivative d1, Derivative d2) {
+				int size1 = d1.getMaxSize() > 0 ? d1.getMaxSize() : Integer.MAX_VALUE;
+				int size2 = d2.getMaxSize() > 0 ? d2.getMaxSize() : Integer.MAX_VALUE;
+				return size1 > size2 ? -1 : size1 < size2 ? 1 : 0;
+			}
+		});
+		this.derivatives = Collections.unmodifiableList(sorted);
+	}
+
+	/**
+	 * @return the images to export, the biggest first
+	 */
+	public List<Derivative> getDerivatives() {
+		return derivatives;
+	}
+
+	/**
+	 * @param baseFile the file the full resolution image is exported to
+	 * @param derivative one of the derivatives of the profile
+	 * @return the file the derivative is exported to: the base file name with the derivative
+	 * suffix, and a JPG extension
+	 */
+	public File getFile(File baseFile, Derivative derivative) {
+		return new File(baseFile.getParentFile(),
+				FileUtil.stripExtension(baseFile.getName()) + derivative.getSuffix() + ".jpg");
+	}
+
+	/**
+	 * @param width the width of the full resolution image
+	 * @param height the height of the full resolution image
+	 * @param maxSize the maximum width and height, 0 for the full size
+	 * @return the size of the image downscaled to fit the maximum size, keeping its aspect ratio;
+	 * the images which fit already are not upscaled
+	 */
+	public static Dimension getSize(int width, int height, int maxSize) {
+		int longest = Math.max(width, height);
+		if (maxSize <= 0 || longest <= maxSize)
+			return new Dimension(width, height);
+		double scale = (double)maxSize / longest;
+		return new Dimension(Math.max(1, (int)Math.round(width * scale)),
+				Math.max(1, (int)Math.round(height * scale)));
+	}
+
+	/**
+	 * build the derivatives of an image and queue them to be encoded; the call blocks while the
+	 * encoding queue uses up its memory budget
+	 * @param image the full resolution image; it must not be modified until the jobs complete
+	 * @param baseFile the file the full resolution image is exported to, see getFile
+	 * @param service the service encoding the images
+	 * @return the future results of the jobs, in the order of getDerivatives
+	 * @throws InterruptedException if the thread is interrupted while waiting for memory
+	 */
+	public List<Future<EncodeService.Result>> export(BufferedImage image, File baseFile,
+			EncodeService service) throws InterruptedException {
+		List<Future<EncodeService.Result>> results =
+				new ArrayList<Future<EncodeService.Result>>(derivatives.size());
+		export(image, baseFile, service, results);
+		return results;
+	}
+
+	/**
+	 * build the derivatives of an image and queue them to be encoded, adding each job to the
+	 * given list as soon as it is queued, so that the jobs queued before an interruption are
+	 * known as well
+	 * @param image the full resolution image; it must not be modified until the jobs complete
+	 * @param baseFile the file the full resolution image is exported to, see getFile
+	 * @param service the service encoding the images
+	 * @param results the list to add the future results of the jobs to, in the order of
+	 * getDerivatives
+	 * @throws InterruptedException if the thread is interrupted while waiting for memory
+	 */
+	public void export(BufferedImage image, File baseFile, EncodeService service,
+			List<Future<EncodeService.Result>> results) throws InterruptedException {
+		BufferedImage level = image;
+		for (Derivative derivative : derivatives) {
+			// the sizes are computed from the full resolution, so the rounding errors of the
+			// cascade do not add up
+			Dimension size = getSize(image.getWidth(), image.getHeight(),
+					derivative.getMaxSize());
+			if (size.width != level.getWidth() || size.height != level.getHeight())
+				level = ImageConvert.resize(level, size.width, size.height);
+
+			results.add(service.submit(level, null, EncodeService.Format.JPEG,
+					derivative.getPreset(), getFile(baseFile, derivative)));
+		}
+	}
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.SwingWorker;
+
+import com.alexalecu.imageCrop.exception.InvalidOperationException;
+
+/**
+ * Export an image as the derivatives of an export profile in the background: the image is
+ * obtained once, then the derivatives are built from it and encoded in parallel. The export is
+ * all or nothing: if it is cancelled or a derivative cannot be written, the jobs not started yet
+ * are dropped and the derivatives already written are deleted. The progress (0 - 100) is
+ * published through the "progress" property, and the exported files through the "result"
+ * property, once the task is done.
+ *
+ * @author Alex Cojocaru
+ */
+public class ExportTask extends SwingWorker<List<File>, Void> {
+	// the progress once the image has been obtained, the encoding takes the rest
+	private final static int PROGRESS_IMAGE = 20;
+
+	private List<File> result; // the task execution result
+	private Throwable error; // the error thrown by the task, if any
+
+	private SaveTask.Source source;
+
+	// set by the background body when it starts, or by done() if the body has never run (the
+	// task has been cancelled before); whichever sets it releases the source
+	private final AtomicBoolean sourceClaimed = new AtomicBoolean();
+	private File baseFile;
+	private ExportProfile profile = ExportProfile.DEFAULT;
+	private EncodeService encodeService;
+
+
+	/**
+	 * @return the exported files, in the order of the profile derivatives; null if the task has
+	 * been cancelled or has failed
+	 */
+	public List<File> getResult() {
+		return result;
+	}
+
+	/**
+	 * set the task execution result and trigger a property change event
+	 * @param result
+	 */
+	private void setResult(List<File> result) {
+		List<File> oldResult = this.result;
+		this.result = result;
+		getPropertyChangeSupport().firePropertyChange("result", oldResult, result);
+	}
+
+	/**
+	 * @return the error which made the task fail, null if it has not failed
+	 */
+	public Throwable getError() {
+		return error;
+	}
+
+	/**
+	 * set the image to export
+	 * @param source
+	 */
+	public void setSource(SaveTask.Source source) throws InvalidOperationException {
+		assertStateForChangingProperties();
+		this.source = source;
+	}
+
+	/**
+	 * @return the file the full resolution image is exported to, see ExportProfile.getFile
+	 */
+	public File getBaseFile() {
+		return baseFile;
+	}
+
+	/**
+	 * set the file the full resolution image is exported to; the files are overwritten if they
+	 * exist
+	 * @param baseFile
+	 */
+	public void setBaseFile(File baseFile) throws InvalidOperationException {
+		assertStateForChangingProperties();
+		this.baseFile = baseFile;
+	}
+
+	/**
+	 * set the export profile, ExportProfile.DEFAULT by default
+	 * @param profile
+	 */
+	public void setProfile(ExportProfile profile) throws InvalidOperationException {
+		assertStateForChangingProperties();
+		this.profile = profile;
+	}
+
+	/**
+	 * set the service encoding the derivatives
+	 * @param encodeService
+	 */
+	public void setEncodeService(EncodeService encodeService) throws InvalidOperationException {
+		assertStateForChangingProperties();
+		this.encodeService = encodeService;
+	}
+
+	/**
+	 * Assert that the current task state allows the instance fields to be modified
+	 * @throws InvalidOperationException
+	 */
+	public void assertStateForChangingProperties() throws InvalidOperationException {
+		if (getState() == StateValue.PENDING)
+			return;
+		if (getState() == StateValue.DONE)
+			return;
+
+		throw new InvalidOperationException("Cannot change instance fields" +
+				" when the ExportTask is in " + getState() + "state");
+	}
+
+	/**
+	 * export the image; make sure you set the execution parameters before executing the task
+	 * @return the exported files
+	 */
+	@Override
+	protected List<File> doInBackground() throws Exception {
+		if (source == null || !sourceClaimed.compareAndSet(false, true))
+			return null;
+
+		List<Future<EncodeService.Result>> futures =
+				new ArrayList<Future<EncodeService.Result>>();
+		boolean exported = false;
+		try {
+			if (baseFile == null || encodeService == null)
+				return null;
+
+			BufferedImage image = source.getImage();
+			if (isCancelled())
+				return null;
+			setProgress(PROGRESS_IMAGE);
+
+			profile.export(image, baseFile, encodeService, futures);
+
+			List<File> files = new ArrayList<File>(futures.size());
+			for (Future<EncodeService.Result> future : futures) {
+				files.add(future.get().getFile());
+				setProgress(PROGRESS_IMAGE
+						+ (100 - PROGRESS_IMAGE) * files.size() / futures.size());
+			}
+			exported = true;
+			return files;
+		}
+		catch (ExecutionException e) {
+			// report the encoder error itself
+			throw e.getCause() instanceof Exception ? (Exception)e.getCause() : e;
+		}
+		finally {
+			if (!exported)
+				abort(futures);
+			source.release();
+		}
+	}
+
+	/**
+	 * drop the jobs which have not started (the others cannot be cancelled), wait for the
+	 * running ones, as they read the image, and delete the derivatives they have written
+	 */
+	private void abort(List<Future<EncodeService.Result>> futures) {
+		// the thread may have been interrupted by the cancellation; wait anyway
+		boolean interrupted = Thread.interrupted();
+
+		for (Future<EncodeService.Result> future : futures)
+			future.cancel(false);
+
+		for (Future<EncodeService.Result> future : futures) {
+			while (true) {
+				try {
+					// a job cancelled just as it was starting has no result
+					EncodeService.Result result = future.get();
+					if (result != null)
+						result.getFile().delete();
+					break;
+				}
+				catch (InterruptedException e) {
+					interrupted = true;
+				}
+				catch (ExecutionException e) {
+					break;
+				}
+				catch (CancellationException e) {
+					break;
+				}
+			}
+		}
+
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	@Override
+	public void done() {
+		if (source != null && sourceClaimed.compareAndSet(false, true))
+			source.release();
+
+		try {
+			setResult(get());
+		}
+		catch (InterruptedException e) {
+			setResult(null);
+		}
+		catch (ExecutionException e) {
+			error = e.getCause();
+			setResult(null);
+		}
+		catch (CancellationException e) {
+			setResult(null);
+		}
+	}
+}
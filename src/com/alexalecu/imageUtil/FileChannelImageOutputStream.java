@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.imageio.stream.ImageOutputStreamImpl;
+
+/**
+ * An ImageOutputStream writing straight to a FileChannel through a small write buffer, instead of
+ * caching the whole encoded image in memory the way the OutputStream based streams do when the
+ * ImageIO disk cache is disabled
+ *
+ * @author Alex Cojocaru
+ */
+public class FileChannelImageOutputStream extends ImageOutputStreamImpl {
+	private final static int BUFFER_SIZE = 64 * 1024;
+
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+
+	// the bytes written but not yet sent to the channel, and their position in the file
+	private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+	private long bufferPos;
+
+	/**
+	 * open the file for writing, truncating it
+	 * @param file the file to write to
+	 * @throws IOException if the file cannot be opened
+	 */
+	public FileChannelImageOutputStream(File file) throws IOException {
+		raf = new RandomAccessFile(file, "rw");
+		raf.setLength(0);
+		channel = raf.getChannel();
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		checkClosed();
+		flushBits();
+		prepareBuffer(1);
+		buffer.put((byte)b);
+		streamPos++;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		checkClosed();
+		flushBits();
+		if (len > BUFFER_SIZE) { // too big to be buffered, write it straight away
+			flushBuffer();
+			channel.write(ByteBuffer.wrap(b, off, len), streamPos);
+		}
+		else {
+			prepareBuffer(len);
+			buffer.put(b, off, len);
+		}
+		streamPos += len;
+	}
+
+	@Override
+	public int read() throws IOException {
+		checkClosed();
+		flushBuffer();
+		bitOffset = 0;
+
+		ByteBuffer one = ByteBuffer.allocate(1);
+		if (channel.read(one, streamPos) <= 0)
+			return -1;
+		streamPos++;
+		return one.get(0) & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		checkClosed();
+		flushBuffer();
+		bitOffset = 0;
+
+		int count = channel.read(ByteBuffer.wrap(b, off, len), streamPos);
+		if (count > 0)
+			streamPos += count;
+		return count;
+	}
+
+	@Override
+	public long length() {
+		try {
+			checkClosed();
+			flushBuffer();
+			return channel.size();
+		}
+		catch (IOException e) {
+			return -1L;
+		}
+	}
+
+	@Override
+	public void seek(long pos) throws IOException {
+		checkClosed();
+		if (pos < flushedPos)
+			throw new IndexOutOfBoundsException("pos < flushedPos");
+		bitOffset = 0;
+		streamPos = pos;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		super.flush();
+		flushBuffer();
+	}
+
+	@Override
+	public void close() throws IOException {
+		flushBuffer();
+		super.close();
+		channel.close();
+		raf.close();
+	}
+
+	/**
+	 * make sure that the next len bytes can be appended to the buffer at the stream position
+	 */
+	private void prepareBuffer(int len) throws IOException {
+		if (buffer.position() > 0 && (bufferPos + buffer.position() != streamPos
+				|| buffer.remaining() < len))
+			flushBuffer();
+		if (buffer.position() == 0)
+			bufferPos = streamPos;
+	}
+
+	/**
+	 * write the buffered bytes to the channel
+	 */
+	private void flushBuffer() throws IOException {
+		if (buffer.position() == 0)
+			return;
+		buffer.flip();
+		long pos = bufferPos;
+		while (buffer.hasRemaining())
+			pos += channel.write(buffer, pos);
+		buffer.clear();
+	}
+}
@@ -20,6 +20,9 @@ package com.alexalecu.imageUtil;
 import java.awt.Color;
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
 
 /**
  * Class containing methods to manipulate the BufferedImage colors
@@ -30,9 +33,20 @@ public class ImageColors {
 	 * @param bi the BufferedImage to read the pixel color from
 	 * @param x the X coordinate of the point to read the color from
 	 * @param y the Y coordinate of the point to read the color from
-	 * @return the color of the pixel at (x, y)
+	 * @return the color of the pixel at (x, y); the colors of the high bit depth images are
+	 * kept at their precision, in the color space of the image
 	 */
 	public static Color getPixelColor(BufferedImage bi, int x, int y) {
+		if (PixelFormat.isHighBitDepth(bi)) {
+			ColorModel cm = bi.getColorModel();
+			float[] components = cm.getNormalizedComponents(
+					bi.getRaster().getDataElements(x, y, null), null, 0);
+			int colors = cm.getNumColorComponents();
+			float[] color = new float[colors];
+			System.arraycopy(components, 0, color, 0, colors);
+			return new Color(cm.getColorSpace(), color,
+					cm.hasAlpha() ? components[colors] : 1f);
+		}
 		return new Color(bi.getRGB(x, y));
 	}
 	
@@ -82,12 +96,13 @@ public class ImageColors {
 	 * @param x the x coord of the pixel to verify
 	 * @param y the y coord of the pixel to verify
 	 * @param bgColor the bg color to match against
-	 * @param tolerance the bg color tolerance to apply
+	 * @param tolerance the bg color tolerance to apply, between 0 and 255; it is scaled to the
+	 * sample depth of the image
 	 * @return true if the pixel matches the bg color
 	 */
 	public static boolean isBgColor(BufferedImage bi, int x, int y, Color bgColor, int tolerance) {
-		Color color = getPixelColor(bi, x, y);
-		return colorMatch(bgColor, color, tolerance);
+		return new ColorMatcher(bi, bgColor, ColorMatcher.normalizeTolerance(tolerance))
+				.matches(x, y);
 	}
 	
 	/**
@@ -103,7 +118,7 @@ public class ImageColors {
 	 * current line
 	 * @param bgColor the background color to search for
 	 * @param bgTol the background color tolerance to use when trying to match
-	 * the background color
+	 * the background color, between 0 and 255
 	 * @return true if the whole line is bg color
 	 */
 	public static boolean isBgColor(BufferedImage bi, 
@@ -111,13 +126,11 @@ public class ImageColors {
 			int startCoord, int endCoord,
 			Color bgColor, int bgTol) {
 		
-		for (int i = startCoord; i <= endCoord; i++) {
-			Color pixelColor = isVerticalLine 
-					? getPixelColor(bi, lineCoord, i)
-					: getPixelColor(bi, i, lineCoord);
-			if (!colorMatch(pixelColor, bgColor, bgTol))
+		boolean[] matches = matchLine(bi, lineCoord, isVerticalLine, startCoord, endCoord,
+				bgColor, bgTol);
+		for (boolean match : matches)
+			if (!match)
 				return false;
-		}
 		return true;
 	}
 	
@@ -133,7 +146,7 @@ public class ImageColors {
 	 * current line
 	 * @param bgColor the background color to search for
 	 * @param bgTol the background color tolerance to use when trying to match
-	 * the background color
+	 * the background color, between 0 and 255
 	 * @return the start and end coordinates of the color zone for the given
 	 * line
 	 */
@@ -152,13 +165,15 @@ public class ImageColors {
 		if (!isVerticalLine && lineCoord >= bi.getHeight())
 			return res;
 		
+		if (endCoord < startCoord)
+			return res;
+		boolean[] matches = matchLine(bi, lineCoord, isVerticalLine, startCoord, endCoord,
+				bgColor, bgTol);
+		
 		// scan the line from the start point to the end point, looking for the
 		// first pixel not matching the bg color 
 		for (int i = startCoord; i <= endCoord; i++) {
-			Color pixelColor = isVerticalLine 
-					? getPixelColor(bi, lineCoord, i)
-					: getPixelColor(bi, i, lineCoord);
-			if (!colorMatch(pixelColor, bgColor, bgTol)) {
+			if (!matches[i - startCoord]) {
 				res[0] = i;
 				break;
 			}
@@ -171,10 +186,7 @@ public class ImageColors {
 		// now start the the end point to the just found point, looking for the
 		// first pixel not matching the bg color
 		for (int i = endCoord; i > startCoord; i--) {
-			Color pixelColor = isVerticalLine 
-					? getPixelColor(bi, lineCoord, i)
-					: getPixelColor(bi, i, lineCoord);
-			if (!colorMatch(pixelColor, bgColor, bgTol)) {
+			if (!matches[i - startCoord]) {
 				res[1] = i;
 				break;
 			}
@@ -183,6 +195,28 @@ public class ImageColors {
 		return res;
 	}
 	
+	/**
+	 * match the pixels of a line against the bg color, reading the samples at the native depth
+	 * of the image
+	 * @return the outcome for each pixel from startCoord to endCoord
+	 */
+	private static boolean[] matchLine(BufferedImage bi, 
+			int lineCoord, boolean isVerticalLine,
+			int startCoord, int endCoord,
+			Color bgColor, int bgTol) {
+		boolean[] matches = new boolean[Math.max(0, endCoord - startCoord + 1)];
+		if (matches.length == 0)
+			return matches;
+		
+		ColorMatcher matcher = new ColorMatcher(bi, bgColor,
+				ColorMatcher.normalizeTolerance(bgTol));
+		if (isVerticalLine)
+			matcher.matchColumn(lineCoord, startCoord, matches.length, matches);
+		else
+			matcher.matchRow(startCoord, lineCoord, matches.length, matches);
+		return matches;
+	}
+	
 	/**
 	 * all pixels which do not match the bg color are converted to the fg color;
 	 * the conversion is applied only within the bounding rectangle 
@@ -231,4 +265,58 @@ public class ImageColors {
 			}
 		}
 	}
+
+	/**
+	 * @param bi the BufferedImage to read the row from
+	 * @return the size of the sample buffer to pass to getGreyRow for the given image
+	 */
+	public static int getRowBufferSize(BufferedImage bi) {
+		return bi.getWidth() * bi.getRaster().getNumBands();
+	}
+
+	/**
+	 * read a whole row of the image as 8 bit grey levels; the samples are read in bulk from the
+	 * raster, no per pixel objects are created
+	 * @param bi the BufferedImage to read the row from
+	 * @param y the y coordinate of the row to read
+	 * @param samples a scratch buffer of at least getRowBufferSize(bi) elements
+	 * @param grey the array to store the grey level of each pixel in the row to
+	 */
+	public static void getGreyRow(BufferedImage bi, int y, int[] samples, int[] grey) {
+		int width = bi.getWidth();
+
+		// the samples of an indexed image are palette indices, so go through the color model
+		if (bi.getColorModel() instanceof IndexColorModel) {
+			bi.getRGB(0, y, width, 1, samples, 0, width);
+			for (int x = 0; x < width; x++) {
+				int rgb = samples[x];
+				grey[x] = luminance((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF);
+			}
+			return;
+		}
+
+		Raster raster = bi.getRaster();
+		int bands = raster.getNumBands();
+		int shift = Math.max(0, raster.getSampleModel().getSampleSize(0) - 8);
+		raster.getPixels(0, y, width, 1, samples);
+
+		if (bands < 3) {
+			// grey or grey + alpha
+			for (int x = 0, i = 0; x < width; x++, i += bands)
+				grey[x] = samples[i] >> shift;
+		}
+		else {
+			// the color model puts the samples in (red, green, blue [, alpha]) order
+			for (int x = 0, i = 0; x < width; x++, i += bands)
+				grey[x] = luminance(samples[i] >> shift, samples[i + 1] >> shift,
+						samples[i + 2] >> shift);
+		}
+	}
+
+	/**
+	 * @return the grey level (luma) of the given red, green and blue values
+	 */
+	public static int luminance(int red, int green, int blue) {
+		return (77 * red + 150 * green + 29 * blue) >> 8;
+	}
 }
@@ -17,43 +17,62 @@
 
 package com.alexalecu.imageUtil;
 
-import java.awt.Graphics2D;
 import java.awt.Rectangle;
-import java.awt.RenderingHints;
-import java.awt.color.ColorSpace;
-import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
-import java.awt.image.ColorConvertOp;
 import java.awt.image.ColorModel;
 import java.awt.image.WritableRaster;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 
 import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
 import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
+import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
 import javax.imageio.stream.ImageOutputStream;
 
 public class ImageConvert {
+	// the number of pixels of the proxy image used for estimating the JPG size of an image
+	private final static int SIZE_PROXY_PIXELS = 256 * 256;
+
+	// the qualities the proxy image is encoded at, to sample the size / quality curve
+	private final static float[] SIZE_PROXY_QUALITIES = {
+		0.05f, 0.15f, 0.3f, 0.45f, 0.6f, 0.7f, 0.8f, 0.88f, 0.94f, 1f
+	};
+
+	// the quality search stops when the best quality is known within this step, or when the
+	// encoded size is within this ratio of the target size
+	private final static float SIZE_QUALITY_STEP = 0.02f;
+	private final static double SIZE_CLOSE_RATIO = 0.95d;
+
+	// the maximum number of full size encodes of a quality search
+	private final static int SIZE_MAX_ENCODES = 6;
+
 	static {
 		ImageIO.setUseCache(false);
 	}
 
 	/**
-	 * clone a buffered image
+	 * clone a buffered image; the clone has the same color model and sample layout as the
+	 * source, and does not share its pixels even if the source is a sub-image
 	 * @param img the image to be cloned
 	 * @return the cloned image
 	 */
 	public static BufferedImage cloneImage(BufferedImage img) {
-		BufferedImage out = new BufferedImage(
-				img.getWidth(), img.getHeight(), img.getType());        
-		out.setData(img.copyData(null));
-		return out;
+		// a raster sized to the image, not to the parent raster of a sub-image
+		WritableRaster raster = img.getRaster().createCompatibleWritableRaster(
+				img.getWidth(), img.getHeight());
+		raster.setRect(img.getRaster());
+		ColorModel cm = img.getColorModel();
+		return new BufferedImage(cm, raster, cm.isAlphaPremultiplied(), null);
 	}
 	
 	/**
@@ -99,6 +118,61 @@ public class ImageConvert {
 		}
 	}
 
+	/**
+	 * The encoder settings used for writing JPG images
+	 */
+	public enum JpegPreset {
+		/** the writer defaults */
+		DEFAULT(-1f, false, false),
+		/** high quality, for the saved crops */
+		HIGH_QUALITY(0.95f, false, true),
+		/** smaller files which render progressively, for the web */
+		WEB(0.8f, true, true),
+		/** fast and small, for the intermediate copies */
+		DRAFT(0.6f, false, false);
+
+		private final float quality;
+		private final boolean progressive;
+		private final boolean optimizeHuffman;
+
+		private JpegPreset(float quality, boolean progressive, boolean optimizeHuffman) {
+			this.quality = quality;
+			this.progressive = progressive;
+			this.optimizeHuffman = optimizeHuffman;
+		}
+
+		/**
+		 * @return the compression quality, between 0 and 1; less than 0 for the writer default
+		 */
+		public float getQuality() {
+			return quality;
+		}
+
+		/**
+		 * @return true if the image is written as a progressive JPG
+		 */
+		public boolean isProgressive() {
+			return progressive;
+		}
+
+		/**
+		 * @return true if the Huffman tables are optimized for the image
+		 */
+		public boolean isOptimizeHuffman() {
+			return optimizeHuffman;
+		}
+	}
+
+	// the writers used by each thread, keyed by format; an ImageWriter cannot be shared between
+	// threads, but it can be reused on the same thread once it has been reset
+	private final static ThreadLocal<Map<String, ImageWriter>> writerPool =
+			new ThreadLocal<Map<String, ImageWriter>>() {
+				@Override
+				protected Map<String, ImageWriter> initialValue() {
+					return new HashMap<String, ImageWriter>();
+				}
+			};
+
 	/**
 	 * write a JPG image to an output stream
 	 * @param image the BufferedImage to be written
@@ -120,30 +194,201 @@ public class ImageConvert {
 	 */
 	public static void writeJpg(BufferedImage image, float quality, 
 	        OutputStream out) throws IOException {
-		// get the JPG writer
-		Iterator<ImageWriter> writers = ImageIO.getImageWritersBySuffix("jpeg");
-		if (!writers.hasNext())
-			throw new IllegalStateException("No writers found");
-		
-		// use the first writer found
-		ImageWriter writer = writers.next();
-		
 		ImageOutputStream ios = ImageIO.createImageOutputStream(out);
-		writer.setOutput(ios);
-		ImageWriteParam param = null;
-		
-		// set the write quality if >= 0
-		if (quality >= 0f) {
-			param = writer.getDefaultWriteParam();
-			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-			param.setCompressionQuality(quality);
+		try {
+			write(image, "jpeg", quality, false, false, ios);
+		}
+		finally {
+			ios.close();
 		}
-		
-		// and write the image, cleaning up the resources afterwards
-		writer.write(null, new IIOImage(image, null, null), param);
-		ios.flush();
-		ios.close();
-		writer.dispose();
+	}
+
+	/**
+	 * write a JPG image to an output stream using the given encoder settings
+	 * @param image the BufferedImage to be written
+	 * @param preset the encoder settings
+	 * @param out the output stream to write to
+	 * @throws IOException if the image cannot be written
+	 */
+	public static void writeJpg(BufferedImage image, JpegPreset preset, OutputStream out)
+			throws IOException {
+		ImageOutputStream ios = ImageIO.createImageOutputStream(out);
+		try {
+			write(image, "jpeg", preset.getQuality(), preset.isProgressive(),
+					preset.isOptimizeHuffman(), ios);
+		}
+		finally {
+			ios.close();
+		}
+	}
+
+	/**
+	 * write a JPG image to a file using the given encoder settings; the encoded bytes go straight
+	 * to the file channel instead of being cached in memory first
+	 * @param image the BufferedImage to be written
+	 * @param preset the encoder settings
+	 * @param file the file to write to; it is overwritten if it exists
+	 * @throws IOException if the image cannot be written
+	 */
+	public static void writeJpg(BufferedImage image, JpegPreset preset, File file)
+			throws IOException {
+		ImageOutputStream ios = new FileChannelImageOutputStream(file);
+		try {
+			write(image, "jpeg", preset.getQuality(), preset.isProgressive(),
+					preset.isOptimizeHuffman(), ios);
+		}
+		finally {
+			ios.close();
+		}
+	}
+
+	/**
+	 * write a JPG image to a file using the highest quality which keeps the file within the
+	 * given size. The size / quality curve is estimated first by encoding a downscaled proxy of
+	 * the image at a few qualities; the quality is then searched with full encodes, each of them
+	 * calibrating the estimation, so only a few full encodes are needed. The encoder and the
+	 * buffers are reused across the iterations, and the best encode is written as it is.
+	 * @param image the BufferedImage to be written
+	 * @param preset the encoder settings; its quality is ignored
+	 * @param maxBytes the maximum size of the file, in bytes
+	 * @param file the file to write to; it is overwritten if it exists
+	 * @return the quality used; if even the lowest quality does not fit, the image is written at
+	 * the lowest quality anyway
+	 * @throws IOException if the image cannot be written
+	 */
+	public static float writeJpg(BufferedImage image, JpegPreset preset, long maxBytes,
+			File file) throws IOException {
+		// the encoder converts the image, so do it once for all the encodes
+		image = getJpgCompatible(image);
+
+		float[] qualities = SIZE_PROXY_QUALITIES;
+		double[] sizes = estimateJpgSizes(image, preset);
+
+		ByteArrayOutputStream best = new ByteArrayOutputStream();
+		ByteArrayOutputStream attempt = new ByteArrayOutputStream();
+		float bestQuality = -1f;
+
+		// the best quality is in (low, high]; low is known to fit, high is known not to
+		float minQuality = qualities[0];
+		float low = minQuality - SIZE_QUALITY_STEP;
+		float high = 1f + SIZE_QUALITY_STEP;
+		float quality = sizes != null ? estimateJpgQuality(sizes, maxBytes) : 0.75f;
+
+		for (int encodes = 0; encodes < SIZE_MAX_ENCODES; encodes++) {
+			int size = encodeJpg(image, quality, preset, attempt);
+			if (size <= maxBytes) {
+				ByteArrayOutputStream temp = best;
+				best = attempt;
+				attempt = temp;
+				bestQuality = low = quality;
+				if (quality >= 1f || size >= maxBytes * SIZE_CLOSE_RATIO)
+					break;
+			}
+			else {
+				high = quality;
+				if (quality <= minQuality)
+					break;
+			}
+			if (high - low <= SIZE_QUALITY_STEP)
+				break;
+
+			// scale the estimated curve to the actual size, then aim at the target again
+			float next = (low + high) / 2;
+			if (sizes != null) {
+				double ratio = size / interpolateJpgSize(sizes, quality);
+				next = estimateJpgQuality(sizes, maxBytes / ratio);
+			}
+			float min = Math.max(minQuality, low + SIZE_QUALITY_STEP / 2);
+			float max = Math.min(1f, high - SIZE_QUALITY_STEP / 2);
+			quality = next >= min && next <= max ? next : Math.max(min, Math.min(max,
+					(low + high) / 2));
+		}
+
+		if (bestQuality < 0) {
+			bestQuality = minQuality;
+			encodeJpg(image, bestQuality, preset, best);
+		}
+
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			best.writeTo(out);
+		}
+		finally {
+			out.close();
+		}
+		return bestQuality;
+	}
+
+	/**
+	 * estimate the JPG size of an image at each of the proxy qualities, by encoding a
+	 * downscaled proxy of it and scaling the sizes by the pixel count ratio
+	 * @return the estimated sizes, or null if the image is too small to need a proxy
+	 */
+	private static double[] estimateJpgSizes(BufferedImage image, JpegPreset preset)
+			throws IOException {
+		double pixels = (double)image.getWidth() * image.getHeight();
+		double factor = Math.sqrt(pixels / SIZE_PROXY_PIXELS);
+		if (factor < 2)
+			return null;
+
+		BufferedImage proxy = resize(image,
+				Math.max(1, (int)Math.round(image.getWidth() / factor)),
+				Math.max(1, (int)Math.round(image.getHeight() / factor)));
+		double scale = pixels / ((double)proxy.getWidth() * proxy.getHeight());
+
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		double[] sizes = new double[SIZE_PROXY_QUALITIES.length];
+		for (int i = 0; i < sizes.length; i++)
+			sizes[i] = encodeJpg(proxy, SIZE_PROXY_QUALITIES[i], preset, buffer) * scale;
+		return sizes;
+	}
+
+	/**
+	 * @param sizes the estimated sizes at the proxy qualities
+	 * @param maxBytes the target size
+	 * @return the highest quality whose estimated size fits the target size, interpolated
+	 * between the proxy qualities
+	 */
+	private static float estimateJpgQuality(double[] sizes, double maxBytes) {
+		float[] qualities = SIZE_PROXY_QUALITIES;
+		for (int i = sizes.length - 1; i >= 0; i--) {
+			if (sizes[i] > maxBytes)
+				continue;
+			if (i == sizes.length - 1 || sizes[i + 1] <= sizes[i])
+				return qualities[i];
+			return qualities[i] + (float)((qualities[i + 1] - qualities[i])
+					* (maxBytes - sizes[i]) / (sizes[i + 1] - sizes[i]));
+		}
+		return qualities[0];
+	}
+
+	/**
+	 * @return the estimated size at the given quality, interpolated between the proxy qualities
+	 */
+	private static double interpolateJpgSize(double[] sizes, float quality) {
+		float[] qualities = SIZE_PROXY_QUALITIES;
+		int i = 0;
+		while (i < qualities.length - 2 && quality > qualities[i + 1])
+			i++;
+		double t = (quality - qualities[i]) / (qualities[i + 1] - qualities[i]);
+		return Math.max(1d, sizes[i] + (sizes[i + 1] - sizes[i]) * t);
+	}
+
+	/**
+	 * encode a JPG image into a buffer, replacing its content
+	 * @return the encoded size, in bytes
+	 */
+	private static int encodeJpg(BufferedImage image, float quality, JpegPreset preset,
+			ByteArrayOutputStream buffer) throws IOException {
+		buffer.reset();
+		ImageOutputStream ios = ImageIO.createImageOutputStream(buffer);
+		try {
+			write(image, "jpeg", quality, preset.isProgressive(), preset.isOptimizeHuffman(), ios);
+		}
+		finally {
+			ios.close();
+		}
+		return buffer.size();
 	}
 
 	/**
@@ -153,23 +398,136 @@ public class ImageConvert {
 	 * @throws IOException if the image cannot be written
 	 */
 	public static void writePng(BufferedImage image, OutputStream out) throws IOException {
-		// get the PNG writer
-		Iterator<ImageWriter> writers = ImageIO.getImageWritersBySuffix("png");
-		if (!writers.hasNext())
-			throw new IllegalStateException("No writers found");
-		
-		// use the first writer found
-		ImageWriter writer = writers.next();
-		
 		ImageOutputStream ios = ImageIO.createImageOutputStream(out);
-		writer.setOutput(ios);
-		ImageWriteParam param = null;
-		
-		// and write the image, cleaning up the resources afterwards
-		writer.write(null, new IIOImage(image, null, null), param);
-		ios.flush();
-		ios.close();
-		writer.dispose();
+		try {
+			write(image, "png", -1f, false, false, ios);
+		}
+		finally {
+			ios.close();
+		}
+	}
+
+	/**
+	 * write a PNG image to a file, straight to the file channel
+	 * @param image the BufferedImage to be written
+	 * @param file the file to write to; it is overwritten if it exists
+	 * @throws IOException if the image cannot be written
+	 */
+	public static void writePng(BufferedImage image, File file) throws IOException {
+		ImageOutputStream ios = new FileChannelImageOutputStream(file);
+		try {
+			write(image, "png", -1f, false, false, ios);
+		}
+		finally {
+			ios.close();
+		}
+	}
+
+	/**
+	 * write a TIFF image to a file, straight to the file channel; the high bit depth images are
+	 * written at their depth
+	 * @param image the BufferedImage to be written
+	 * @param file the file to write to; it is overwritten if it exists
+	 * @throws IOException if the image cannot be written
+	 * @throws IllegalStateException if there is no TIFF writer available, see canWrite
+	 */
+	public static void writeTiff(BufferedImage image, File file) throws IOException {
+		ImageOutputStream ios = new FileChannelImageOutputStream(file);
+		try {
+			write(image, "tiff", -1f, false, false, ios);
+		}
+		finally {
+			ios.close();
+		}
+	}
+
+	/**
+	 * @param format the image format suffix, e.g. tiff
+	 * @return true if there is a writer for the given format
+	 */
+	public static boolean canWrite(String format) {
+		return ImageIO.getImageWritersBySuffix(format).hasNext();
+	}
+
+	/**
+	 * @param image an image
+	 * @return the image itself if the JPEG encoder can write it, its opaque 8 bit conversion
+	 * otherwise; the encoder takes neither alpha nor components of more than 8 bits
+	 */
+	private static BufferedImage getJpgCompatible(BufferedImage image) {
+		if (PixelFormat.isHighBitDepth(image) || image.getColorModel().hasAlpha())
+			return PixelFormat.convert(image, PixelFormat.getOpaqueType(image));
+		return image;
+	}
+
+	/**
+	 * write an image using the pooled writer of the current thread
+	 * @param image the image to be written
+	 * @param format the image format suffix, e.g. jpeg or png
+	 * @param quality the compression quality; if less than 0 the default quality is used
+	 * @param progressive true to write a progressive image, if supported by the format
+	 * @param optimizeHuffman true to optimize the Huffman tables, for the JPG format
+	 * @param ios the stream to write to; it is flushed, but not closed
+	 * @throws IOException if the image cannot be written
+	 */
+	private static void write(BufferedImage image, String format, float quality,
+			boolean progressive, boolean optimizeHuffman, ImageOutputStream ios)
+			throws IOException {
+		if (format.equals("jpeg"))
+			image = getJpgCompatible(image);
+
+		ImageWriter writer = getWriter(format);
+		boolean reusable = false;
+		try {
+			writer.setOutput(ios);
+
+			ImageWriteParam param = null;
+			if (quality >= 0f || progressive || optimizeHuffman) {
+				param = writer.getDefaultWriteParam();
+				if (quality >= 0f) {
+					param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+					param.setCompressionQuality(quality);
+				}
+				if (progressive && param.canWriteProgressive())
+					param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+				if (optimizeHuffman && param instanceof JPEGImageWriteParam)
+					((JPEGImageWriteParam)param).setOptimizeHuffmanTables(true);
+			}
+
+			writer.write(null, new IIOImage(image, null, null), param);
+			ios.flush();
+			reusable = true;
+		}
+		finally {
+			if (reusable) {
+				// drops the output and the listeners, the writer is ready for the next image
+				writer.reset();
+			}
+			else {
+				// the writer may be left in an unknown state, don't reuse it
+				writerPool.get().remove(format);
+				writer.dispose();
+			}
+		}
+	}
+
+	/**
+	 * @param format the image format suffix
+	 * @return the writer of the current thread for the given format
+	 */
+	private static ImageWriter getWriter(String format) {
+		Map<String, ImageWriter> writers = writerPool.get();
+		ImageWriter writer = writers.get(format);
+		if (writer == null) {
+			Iterator<ImageWriter> it = ImageIO.getImageWritersBySuffix(format);
+			if (!it.hasNext())
+				throw new IllegalStateException("No writers found");
+
+			// use the first writer found
+			writer = it.next();
+			writers.put(format, writer);
+		}
+		return writer;
 	}
 
 	/**
@@ -227,51 +585,24 @@ public class ImageConvert {
 	 * @param src the BufferedImage to be converted
 	 * @param targetType to type of convert to 
 	 * @return a BufferedImage of type targetType
+	 * @see PixelFormat#convert(BufferedImage, int)
 	 */
 	public static BufferedImage convertType(BufferedImage src, int targetType) {
-		ColorSpace cs = ColorSpace.getInstance(ColorSpace.CS_GRAY);
-		ColorConvertOp op = new ColorConvertOp(cs, null);
-		return op.filter(src, null);
+		return PixelFormat.convert(src, targetType);
 	}
 	
 	/**
-	 * resize a BufferedImage
+	 * resize a BufferedImage, halving it progressively first if it is downscaled by more than
+	 * 2 times, then finishing with a bicubic pass
 	 * @param source the BufferedImage to be resized
 	 * @param targetW the width of the result image
 	 * @param targetH the height of the result image
 	 * @return a BufferedImage of size targetW x targetH
+	 * @see ImageResize#resize(BufferedImage, int, int)
 	 */
 	public static BufferedImage resize(BufferedImage source, 
 			int targetW, int targetH) {
-		int type = source.getType();
-		BufferedImage target = null;
-		
-		// initialize the target image based on the input image type
-		if (type == BufferedImage.TYPE_CUSTOM) { //handmade
-			ColorModel cm = source.getColorModel();
-			WritableRaster raster = cm.createCompatibleWritableRaster(
-					targetW, targetH);
-			boolean alphaPremultiplied = cm.isAlphaPremultiplied();
-			target = new BufferedImage(cm, raster, alphaPremultiplied, null);
-		}
-		else {
-			target = new BufferedImage(targetW, targetH, type);
-		}
-		
-		Graphics2D g = target.createGraphics();
-		//smoother than exlax:
-		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, 
-				RenderingHints.VALUE_INTERPOLATION_BICUBIC);
-		double sx = (double) targetW / source.getWidth();
-		double sy = (double) targetH / source.getHeight();
-		
-		// and resize
-		g.drawRenderedImage(source, AffineTransform.getScaleInstance(sx, sy));
-		
-		// do some cleanup
-		g.dispose();
-		
-		return target;
+		return ImageResize.resize(source, targetW, targetH);
 	}
 	
 	/**
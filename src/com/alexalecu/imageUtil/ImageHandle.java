@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * A reference counted handle to the pixels of an image, which lets several owners share the same
+ * raster instead of each keeping a defensive copy: the image returned by getImage must be treated
+ * as read-only, and an owner which needs to modify the pixels asks for getWritableImage, which
+ * copies them only if they are shared with another handle (copy-on-write).
+ * The sub-region views share the pixels of the image they are taken from.
+ * The reference count is changed and checked while holding the lock of the shared pixels, so
+ * that a handle cannot be retained from another one while that one detaches from the pixels.
+ * A background task working on an image takes a handle of its own (see retain) and releases it
+ * once done, so that the image cannot change under it.
+ *
+ * @author Alex Cojocaru
+ */
+public class ImageHandle {
+	/**
+	 * The raster shared by the handles, with the number of handles referencing it; the count is
+	 * guarded by the lock of this object
+	 */
+	private static class SharedPixels {
+		private int references = 1;
+	}
+
+	private SharedPixels pixels;
+	private BufferedImage image;
+	private boolean released;
+
+	private ImageHandle(SharedPixels pixels, BufferedImage image) {
+		this.pixels = pixels;
+		this.image = image;
+	}
+
+	/**
+	 * create a handle taking the ownership of an image, without copying it; the caller must not
+	 * modify the image afterwards
+	 * @param image the image to wrap
+	 * @return the handle to the image
+	 */
+	public static ImageHandle wrap(BufferedImage image) {
+		if (image == null)
+			throw new IllegalArgumentException("The image cannot be null");
+		return new ImageHandle(new SharedPixels(), image);
+	}
+
+	/**
+	 * @return the image, which must not be modified
+	 */
+	public BufferedImage getImage() {
+		checkReleased();
+		return image;
+	}
+
+	/**
+	 * @return the width of the image
+	 */
+	public int getWidth() {
+		return image.getWidth();
+	}
+
+	/**
+	 * @return the height of the image
+	 */
+	public int getHeight() {
+		return image.getHeight();
+	}
+
+	/**
+	 * @return a new handle sharing the pixels of this one; it has to be released separately
+	 */
+	public synchronized ImageHandle retain() {
+		checkReleased();
+		synchronized (pixels) {
+			pixels.references++;
+		}
+		return new ImageHandle(pixels, image);
+	}
+
+	/**
+	 * create a view of a region of the image, without copying the pixels; it has to be released
+	 * separately
+	 * @param region the region of the image, inside the image bounds
+	 * @return the handle to the region
+	 */
+	public synchronized ImageHandle getView(Rectangle region) {
+		checkReleased();
+		BufferedImage view = image.getSubimage(region.x, region.y, region.width, region.height);
+		synchronized (pixels) {
+			pixels.references++;
+		}
+		return new ImageHandle(pixels, view);
+	}
+
+	/**
+	 * @return true if the pixels are referenced by other handles too
+	 */
+	public synchronized boolean isShared() {
+		synchronized (pixels) {
+			return pixels.references > 1;
+		}
+	}
+
+	/**
+	 * get the image for modifying its pixels: if they are shared with other handles, this handle
+	 * detaches from them and gets its own copy first
+	 * @return the image which can be modified
+	 */
+	public synchronized BufferedImage getWritableImage() {
+		checkReleased();
+		synchronized (pixels) {
+			if (pixels.references == 1)
+				return image;
+
+			// the other handles keep the pixels as they are
+			image = ImageConvert.cloneImage(image);
+			pixels.references--;
+		}
+		pixels = new SharedPixels();
+		return image;
+	}
+
+	/**
+	 * drop the reference to the pixels; the handle cannot be used afterwards. Releasing a handle
+	 * more than once has no effect.
+	 */
+	public synchronized void release() {
+		if (released)
+			return;
+		released = true;
+		synchronized (pixels) {
+			pixels.references--;
+		}
+	}
+
+	private void checkReleased() {
+		if (released)
+			throw new IllegalStateException("The image handle has been released");
+	}
+}
@@ -0,0 +1,406 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * An undo / redo history of images, each with a state object describing it. The images closest
+ * to the current one are kept in memory, within a byte budget; the others are spilled to raw
+ * snapshot files and loaded back as raw rasters when the history gets back to them, so that
+ * the last steps can be undone without decoding anything.
+ * The snapshot files are written in the background; an image stays in memory until its snapshot
+ * has been written. The images sharing their pixels (e.g. a crop and the image it has been cut
+ * from) are counted once against the budget.
+ *
+ * @param <S> the type of the state objects
+ * @author Alex Cojocaru
+ */
+public class ImageHistory<S> {
+	/**
+	 * A step of the history
+	 */
+	private static class Entry<S> {
+		private final S state;
+
+		// the image, null if it has been spilled (or if the step has no image)
+		private ImageHandle image;
+
+		// the snapshot file of the image, once it has been written
+		private File spillFile;
+
+		// true while the snapshot file is being written
+		private boolean spilling;
+
+		// true once the step has been removed from the history
+		private boolean dropped;
+
+		private Entry(S state, ImageHandle image) {
+			this.state = state;
+			this.image = image;
+		}
+	}
+
+	private final Logger logger = Logger.getLogger(this.getClass());
+
+	private final List<Entry<S>> entries = new ArrayList<Entry<S>>();
+	private int index = -1;
+
+	private final long memoryBudget;
+	private final File spillDirectory;
+
+	// writes the snapshot files, off the thread changing the history
+	private final Executor spillExecutor;
+	private int pendingSpills;
+
+	/**
+	 * @param memoryBudget the number of bytes of the images kept in memory, besides the current
+	 * one which is always in memory
+	 * @param spillDirectory the directory to spill the images to, null for the temporary
+	 * directory
+	 */
+	public ImageHistory(long memoryBudget, File spillDirectory) {
+		this.memoryBudget = memoryBudget;
+		this.spillDirectory = spillDirectory;
+
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1L, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "imageUtil-history");
+						thread.setDaemon(true);
+						thread.setPriority(Thread.MIN_PRIORITY);
+						return thread;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+		spillExecutor = executor;
+	}
+
+	/**
+	 * add a step after the current one, which becomes the current step; the steps which could
+	 * have been redone are dropped
+	 * @param state the state of the new step
+	 * @param image the image of the new step, null if none; the history takes its ownership
+	 */
+	public synchronized void push(S state, ImageHandle image) {
+		while (entries.size() > index + 1)
+			drop(entries.remove(entries.size() - 1));
+
+		entries.add(new Entry<S>(state, image));
+		index++;
+		trim();
+	}
+
+	/**
+	 * drop all the steps, then add the given one
+	 * @see #push(Object, ImageHandle)
+	 */
+	public synchronized void reset(S state, ImageHandle image) {
+		clear();
+		push(state, image);
+	}
+
+	/**
+	 * drop all the steps, releasing their images and deleting their spill files
+	 */
+	public synchronized void clear() {
+		for (Entry<S> entry : entries)
+			drop(entry);
+		entries.clear();
+		index = -1;
+	}
+
+	/**
+	 * @return the number of steps, including the ones which can be redone
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the index of the current step, 0 for the first one
+	 */
+	public synchronized int getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return the state of the current step
+	 */
+	public synchronized S getState() {
+		return entries.get(index).state;
+	}
+
+	/**
+	 * @param index the index of the step
+	 * @return the state of the given step
+	 */
+	public synchronized S getState(int index) {
+		return entries.get(index).state;
+	}
+
+	/**
+	 * @return a new handle to the image of the current step, to be released by the caller;
+	 * null if the step has no image
+	 * @throws IOException if the image has been spilled and it cannot be loaded back
+	 */
+	public synchronized ImageHandle getImage() throws IOException {
+		Entry<S> entry = entries.get(index);
+		load(entry);
+		return entry.image != null ? entry.image.retain() : null;
+	}
+
+	/**
+	 * @return true if there is a step before the current one
+	 */
+	public synchronized boolean canUndo() {
+		return index > 0;
+	}
+
+	/**
+	 * @return true if there is a step after the current one
+	 */
+	public synchronized boolean canRedo() {
+		return index < entries.size() - 1;
+	}
+
+	/**
+	 * make the previous step the current one
+	 * @throws IOException if its image has been spilled and it cannot be loaded back; the
+	 * current step does not change in this case
+	 */
+	public synchronized void undo() throws IOException {
+		if (!canUndo())
+			throw new IllegalStateException("Nothing to undo");
+		moveTo(index - 1);
+	}
+
+	/**
+	 * make the next step the current one
+	 * @throws IOException if its image has been spilled and it cannot be loaded back; the
+	 * current step does not change in this case
+	 */
+	public synchronized void redo() throws IOException {
+		if (!canRedo())
+			throw new IllegalStateException("Nothing to redo");
+		moveTo(index + 1);
+	}
+
+	/**
+	 * @return the number of bytes of the images kept in memory; the pixels shared by several
+	 * images are counted once
+	 */
+	public synchronized long getResidentBytes() {
+		Set<DataBuffer> counted = newBufferSet();
+		long bytes = 0L;
+		for (Entry<S> entry : entries) {
+			if (entry.image == null)
+				continue;
+			DataBuffer buffer = getDataBuffer(entry.image);
+			if (counted.add(buffer))
+				bytes += getByteCount(buffer);
+		}
+		return bytes;
+	}
+
+	/**
+	 * wait for the snapshot files being written in the background
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	public synchronized void flush() throws InterruptedException {
+		while (pendingSpills > 0)
+			wait();
+	}
+
+	/**
+	 * @param index the index of the step
+	 * @return true if the image of the given step is in memory
+	 */
+	public synchronized boolean isResident(int index) {
+		return entries.get(index).image != null;
+	}
+
+	private void moveTo(int newIndex) throws IOException {
+		load(entries.get(newIndex));
+		index = newIndex;
+		trim();
+	}
+
+	/**
+	 * spill the images which do not fit the budget, starting with the ones farthest from the
+	 * current step; the closest steps on both sides are kept in memory first
+	 */
+	private void trim() {
+		if (index < 0)
+			return;
+
+		// the pixels of the current image are in memory anyway, and so are the ones already
+		// counted; the images sharing them cost nothing
+		Set<DataBuffer> counted = newBufferSet();
+		if (entries.get(index).image != null)
+			counted.add(getDataBuffer(entries.get(index).image));
+
+		long resident = 0L;
+		for (int distance = 1; distance < entries.size(); distance++) {
+			for (int i = index - distance; i <= index + distance; i += 2 * distance) {
+				if (i < 0 || i >= entries.size())
+					continue;
+				Entry<S> entry = entries.get(i);
+				if (entry.image == null)
+					continue;
+				DataBuffer buffer = getDataBuffer(entry.image);
+				if (counted.contains(buffer))
+					continue;
+				long bytes = getByteCount(buffer);
+				if (resident + bytes <= memoryBudget) {
+					resident += bytes;
+					counted.add(buffer);
+				}
+				else {
+					spill(entry);
+				}
+			}
+		}
+	}
+
+	/**
+	 * drop the image of a step if its snapshot file has been written, otherwise write it in the
+	 * background; the image is dropped once the file is written, if it still does not fit
+	 */
+	private void spill(final Entry<S> entry) {
+		// the snapshot of an image is written once, it does not change
+		if (entry.spillFile != null) {
+			entry.image.release();
+			entry.image = null;
+			return;
+		}
+		if (entry.spilling)
+			return;
+
+		entry.spilling = true;
+		pendingSpills++;
+		final ImageHandle image = entry.image.retain();
+		spillExecutor.execute(new Runnable() {
+			public void run() {
+				writeSnapshot(entry, image);
+			}
+		});
+	}
+
+	/**
+	 * write the snapshot file of the image of a step, then trim the history again
+	 * @param entry the step
+	 * @param image a handle of its own to the image of the step, released once written
+	 */
+	private void writeSnapshot(Entry<S> entry, ImageHandle image) {
+		File file = null;
+		try {
+			file = File.createTempFile("history", ".raw", spillDirectory);
+			// the files of a spill directory are deleted along with it
+			if (spillDirectory == null)
+				file.deleteOnExit();
+			RasterSnapshot.write(image.getImage(), file);
+		}
+		catch (IOException e) {
+			// the image stays in memory
+			logger.debug("Cannot write the history snapshot file", e);
+			if (file != null)
+				deleteSpillFile(file);
+			file = null;
+		}
+		finally {
+			image.release();
+		}
+
+		synchronized (this) {
+			entry.spilling = false;
+			pendingSpills--;
+			notifyAll();
+
+			if (file == null)
+				return;
+			if (entry.dropped) {
+				deleteSpillFile(file);
+				return;
+			}
+			entry.spillFile = file;
+			trim();
+		}
+	}
+
+	private void load(Entry<S> entry) throws IOException {
+		if (entry.image == null && entry.spillFile != null)
+			entry.image = ImageHandle.wrap(RasterSnapshot.read(entry.spillFile));
+	}
+
+	private void drop(Entry<S> entry) {
+		entry.dropped = true;
+		if (entry.image != null)
+			entry.image.release();
+		if (entry.spillFile != null)
+			deleteSpillFile(entry.spillFile);
+	}
+
+	/**
+	 * delete a snapshot file; if it cannot be deleted now, it is left to the cleanup of the
+	 * spill directory, or deleted when the JVM exits if it is in the temporary directory
+	 */
+	private void deleteSpillFile(File file) {
+		if (file.delete() || !file.exists())
+			return;
+		logger.debug("Cannot delete the history snapshot file: " + file.getPath());
+		if (spillDirectory == null)
+			file.deleteOnExit();
+	}
+
+	/**
+	 * @return the buffer holding the pixels of an image, which is the one of the image it has
+	 * been cut from for a view
+	 */
+	private static DataBuffer getDataBuffer(ImageHandle image) {
+		return image.getImage().getRaster().getDataBuffer();
+	}
+
+	/**
+	 * @return the memory used by a pixel buffer
+	 */
+	private static long getByteCount(DataBuffer buffer) {
+		return (long)buffer.getSize() * buffer.getNumBanks()
+				* (DataBuffer.getDataTypeSize(buffer.getDataType()) / 8);
+	}
+
+	/**
+	 * @return an empty set of pixel buffers, compared by identity
+	 */
+	private static Set<DataBuffer> newBufferSet() {
+		return Collections.newSetFromMap(new IdentityHashMap<DataBuffer, Boolean>());
+	}
+}
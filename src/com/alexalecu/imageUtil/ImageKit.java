@@ -19,6 +19,7 @@ package com.alexalecu.imageUtil;
 
 import java.awt.Color;
 import java.awt.Rectangle;
+import java.awt.color.ColorSpace;
 import java.awt.image.*;
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -56,8 +57,16 @@ public class ImageKit {
 		// compute the coordinates of the minimum rectangle which encloses the whole image
 		Rectangle maxRect = getMinBoundingRectangle(bi, cropRectangle, bgColor, bgTol);
 		
-		// cut just the section that concerns me
-		BufferedImage biw = ImageConvert.cropImageNew(bi, maxRect);
+		// cut just the section that concerns me; the colors are reduced in place and the source
+		// image is still referenced by the caller, so the section is copied on write
+		ImageHandle handle = ImageHandle.wrap(bi);
+		ImageHandle section = handle.getView(maxRect);
+		// the reduced colors do not fit a grey image, so it is converted instead
+		BufferedImage biw = bi.getColorModel().getColorSpace().getType() == ColorSpace.TYPE_GRAY
+				? PixelFormat.convert(section.getImage(), BufferedImage.TYPE_3BYTE_BGR)
+				: section.getWritableImage();
+		section.release();
+		handle.release();
 		
 		// convert the image to 2 color only:
 		// the background area to background color
@@ -68,46 +77,6 @@ public class ImageKit {
 				255 - bgColor.getBlue());
 		ImageColors.reduceColors(biw, new Rectangle(0, 0, biw.getWidth(), biw.getHeight()),
 	    		bgColor, bgTol, fgColor);
-	    
-	    /*
-		try {writeJpg(biw, -1f, new FileOutputStream("C:\\aa0.jpg"));}
-		catch (Exception e) {}
-		
-	    
-	    // apply the 4 filters for computing the edges
-		GreyscaleFilter s1 = new GreyscaleFilter();
-	    biw = s1.filter(biw);
-
-        try {writeJpg(biw, -1.00f, new FileOutputStream("C:\\aa1.jpg"));}
-		catch (Exception e) {}
-		
-		SobelEdgeDetectorFilter s2 = new SobelEdgeDetectorFilter();
-		biw = s2.filter(biw, null, true);
-
-		try {writeJpg(biw, -1.00f, new FileOutputStream("C:\\aa2.jpg"));}
-		catch (Exception e) {}
-
-	    int bgGray = GreyscaleFilter.calculateGrey(
-	    		bgColor.getRed(), bgColor.getGreen(), bgColor.getBlue(), 
-				s1.getGreyscaleType());
-	    int foreGray = 255 - bgGray;
-	    
-	    ThresholdFilter s3 = new ThresholdFilter();
-	    s3.setThresholdLimit(bgGray);
-	    biw = s3.filter(biw);
-	    
-	    LineHoughTransformOp s4 = new LineHoughTransformOp();
-        s4.setLocalPeakNeighbourhood(7); // 0 .. 20
-        s4.run(biw);
-        ArrayList edges = s4.getEdges(biw, 0.25d); // 0.00d .. 1.00 d
-	    
-        int[] edge;
-        for (int i = 0; i < edges.size(); i++) {
-        	edge = (int[])edges.get(i);
-        	edges.set(i, new GeomEdge(edge[0] + x1, edge[1] + y1, 
-        			edge[2] + x1, edge[3] + y1));
-		}
-        */
 		
 		ConvexHull polygon = new ConvexHull();
         Rectangle polygonRect;
@@ -0,0 +1,398 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Decode the images which are too big to fit the heap: the size is read from the file header
+ * first, then either the whole image, a subsampled proxy of it or just a region of it is decoded
+ *
+ * @author Alex Cojocaru
+ */
+public class ImageLoader {
+	// the part of the maximum heap size an image may use by default
+	private final static double DEFAULT_HEAP_RATIO = 0.25d;
+
+	// the heap size of a decoded pixel, assuming the usual 3 or 4 bytes per pixel formats
+	private final static int BYTES_PER_PIXEL = 4;
+
+	// the extra source pixels decoded around a region which is going to be interpolated
+	private final static int INTERPOLATION_MARGIN = 2;
+
+	static {
+		ImageIO.setUseCache(false);
+	}
+
+	/**
+	 * Observe and control a decoding operation
+	 */
+	public interface Monitor {
+		/**
+		 * called each time a region of the image has been decoded, from the decoding thread;
+		 * the image is the one being decoded into, which is returned once the decoding is done
+		 * @param image the image being decoded
+		 * @param region the region of the image which has just been decoded
+		 */
+		public void imageUpdated(BufferedImage image, Rectangle region);
+
+		/**
+		 * called as the decoding goes, from the decoding thread
+		 * @param percent the percentage done, between 0 and 100
+		 */
+		public void progress(int percent);
+
+		/**
+		 * @return true if the operation has been cancelled; the decoding is aborted
+		 */
+		public boolean isCancelled();
+	}
+
+	/**
+	 * @return the default heap budget for a decoded image, in bytes
+	 */
+	public static long getDefaultHeapBudget() {
+		return (long)(Runtime.getRuntime().maxMemory() * DEFAULT_HEAP_RATIO);
+	}
+
+	/**
+	 * read the image size from the file header, without decoding the pixels
+	 * @param file the image file
+	 * @return the image size
+	 * @throws IOException if the file cannot be read or is not a supported image
+	 */
+	public static Dimension readSize(File file) throws IOException {
+		ImageInputStream iis = openStream(file);
+		try {
+			ImageReader reader = getReader(iis);
+			try {
+				return new Dimension(reader.getWidth(0), reader.getHeight(0));
+			}
+			finally {
+				reader.dispose();
+			}
+		}
+		finally {
+			iis.close();
+		}
+	}
+
+	/**
+	 * compute the smallest subsampling factor which makes the decoded image fit the heap budget
+	 * @param size the full image size
+	 * @param heapBudget the heap budget, in bytes
+	 * @return the subsampling factor, 1 if the full image fits the budget
+	 */
+	public static int getSubsampling(Dimension size, long heapBudget) {
+		long pixels = Math.max(1, heapBudget / BYTES_PER_PIXEL);
+		int subsampling = Math.max(1,
+				(int)Math.ceil(Math.sqrt((double)size.width * size.height / pixels)));
+
+		// the subsampled size is rounded up, so make sure that it does fit
+		while ((long)getSubsampledLength(size.width, subsampling)
+				* getSubsampledLength(size.height, subsampling) > pixels
+				&& subsampling < Math.max(size.width, size.height))
+			subsampling++;
+		return subsampling;
+	}
+
+	/**
+	 * decode the image, keeping one pixel out of each subsampling x subsampling block; the
+	 * image is normalized to one of the compact pixel formats, see PixelFormat
+	 * @param file the image file
+	 * @param subsampling the subsampling factor, 1 to decode the full image
+	 * @return the decoded image
+	 * @throws IOException if the file cannot be decoded
+	 */
+	public static BufferedImage read(File file, int subsampling) throws IOException {
+		return PixelFormat.normalize(decode(file, subsampling, null, null));
+	}
+
+	/**
+	 * decode the image, keeping one pixel out of each subsampling x subsampling block, and
+	 * report the decoded regions as they arrive, so that the image can be shown progressively;
+	 * the image is normalized to one of the compact pixel formats once it is complete, which
+	 * copies it only if the decoder has produced an unusual format
+	 * @param file the image file
+	 * @param subsampling the subsampling factor, 1 to decode the full image
+	 * @param monitor the monitor to report the decoded regions and the progress to
+	 * @return the decoded image, null if the operation has been cancelled
+	 * @throws IOException if the file cannot be decoded
+	 */
+	public static BufferedImage read(File file, int subsampling, Monitor monitor)
+			throws IOException {
+		BufferedImage image = decode(file, subsampling, null, monitor);
+		return monitor.isCancelled() ? null : PixelFormat.normalize(image);
+	}
+
+	/**
+	 * decode a region of the image at full resolution
+	 * @param file the image file
+	 * @param region the region to decode; it is clipped to the image bounds
+	 * @return the decoded region
+	 * @throws IOException if the file cannot be decoded
+	 */
+	public static BufferedImage readRegion(File file, Rectangle region) throws IOException {
+		return decode(file, 1, region, null);
+	}
+
+	/**
+	 * render an image at full resolution, decoding only the part of the image file it covers
+	 * @param file the image file
+	 * @param destToSource the transformation mapping the rendered image coordinates to the image
+	 * file coordinates
+	 * @param width the width of the rendered image
+	 * @param height the height of the rendered image
+	 * @return the rendered image
+	 * @throws IOException if the file cannot be decoded
+	 */
+	public static BufferedImage readTransformed(File file, AffineTransform destToSource,
+			int width, int height) throws IOException {
+		// a plain integer translation is a region of the image, which needs no resampling
+		if (isIntegerTranslation(destToSource)) {
+			return readRegion(file, new Rectangle((int)Math.round(destToSource.getTranslateX()),
+					(int)Math.round(destToSource.getTranslateY()), width, height));
+		}
+
+		Rectangle bounds = destToSource.createTransformedShape(
+				new Rectangle(0, 0, width, height)).getBounds();
+		bounds.grow(INTERPOLATION_MARGIN, INTERPOLATION_MARGIN);
+		Dimension size = readSize(file);
+		bounds = bounds.intersection(new Rectangle(0, 0, size.width, size.height));
+		BufferedImage region = decode(file, 1, bounds, null);
+
+		AffineTransform regionTransform = AffineTransform.getTranslateInstance(
+				-bounds.x, -bounds.y);
+		regionTransform.concatenate(destToSource);
+		return AffineResampler.resample(region, regionTransform, width, height, null,
+				AffineResampler.Interpolation.BICUBIC, null);
+	}
+
+	/**
+	 * render an image at full resolution into a tiled image on disk, decoding only the part of
+	 * the image file it covers; the memory used does not depend on the image size
+	 * @see #readTransformed(File, AffineTransform, int, int)
+	 * @return the rendered tiled image, to be closed by the caller
+	 */
+	public static TiledImage readTransformedTiled(File file, AffineTransform destToSource,
+			int width, int height) throws IOException {
+		Dimension size = readSize(file);
+		Rectangle imageBounds = new Rectangle(0, 0, size.width, size.height);
+
+		if (isIntegerTranslation(destToSource)) {
+			return TiledImage.read(file, imageBounds.intersection(new Rectangle(
+					(int)Math.round(destToSource.getTranslateX()),
+					(int)Math.round(destToSource.getTranslateY()), width, height)));
+		}
+
+		Rectangle bounds = destToSource.createTransformedShape(
+				new Rectangle(0, 0, width, height)).getBounds();
+		bounds.grow(INTERPOLATION_MARGIN, INTERPOLATION_MARGIN);
+		bounds = bounds.intersection(imageBounds);
+		if (bounds.isEmpty())
+			throw new IOException("The region is outside the image");
+
+		TiledImage region = TiledImage.read(file, bounds);
+		try {
+			AffineTransform regionTransform = AffineTransform.getTranslateInstance(
+					-bounds.x, -bounds.y);
+			regionTransform.concatenate(destToSource);
+
+			TiledImage result = new TiledImage(width, height);
+			AffineResampler.resample(region.getImage(), regionTransform, result.getImage(),
+					null, AffineResampler.Interpolation.BICUBIC, null);
+			return result;
+		}
+		finally {
+			region.close();
+		}
+	}
+
+	/**
+	 * @return the length of a subsampled image side
+	 */
+	private static int getSubsampledLength(int length, int subsampling) {
+		return (length + subsampling - 1) / subsampling;
+	}
+
+	/**
+	 * @return true if the transformation is a translation by an integer number of pixels, give or
+	 * take the rounding errors accumulated while composing it
+	 */
+	private static boolean isIntegerTranslation(AffineTransform transform) {
+		final double epsilon = 1e-9;
+		double[] matrix = new double[6];
+		transform.getMatrix(matrix);
+		return Math.abs(matrix[0] - 1) < epsilon && Math.abs(matrix[1]) < epsilon
+				&& Math.abs(matrix[2]) < epsilon && Math.abs(matrix[3] - 1) < epsilon
+				&& Math.abs(matrix[4] - Math.rint(matrix[4])) < 1e-6
+				&& Math.abs(matrix[5] - Math.rint(matrix[5])) < 1e-6;
+	}
+
+	/**
+	 * decode the image using the given read parameters
+	 * @param file the image file
+	 * @param subsampling the subsampling factor
+	 * @param region the region to decode, null for the whole image
+	 * @param monitor the monitor to report the decoded regions and the progress to; can be null
+	 * @return the decoded image; partially decoded if the monitor has cancelled the operation
+	 * @throws IOException if the file cannot be decoded or the region is outside the image
+	 */
+	private static BufferedImage decode(File file, int subsampling, Rectangle region,
+			Monitor monitor) throws IOException {
+		ImageInputStream iis = openStream(file);
+		try {
+			ImageReader reader = getReader(iis);
+			try {
+				ImageReadParam param = reader.getDefaultReadParam();
+				if (subsampling > 1)
+					param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+				if (region != null) {
+					Rectangle clipped = region.intersection(
+							new Rectangle(0, 0, reader.getWidth(0), reader.getHeight(0)));
+					if (clipped.isEmpty())
+						throw new IOException("The region is outside the image");
+					param.setSourceRegion(clipped);
+				}
+				if (monitor != null)
+					addListeners(reader, monitor);
+
+				// the CMYK and ICC tagged JPEGs are converted through a cached color table;
+				// their pixels are only shown once they have all been converted
+				ColorManagedJpeg jpeg = ColorManagedJpeg.forReader(reader);
+				if (jpeg == null)
+					return reader.read(0, param);
+				BufferedImage image = jpeg.read(reader, param);
+				if (monitor != null && !monitor.isCancelled())
+					monitor.imageUpdated(image, new Rectangle(0, 0,
+							image.getWidth(), image.getHeight()));
+				return image;
+			}
+			finally {
+				reader.dispose();
+			}
+		}
+		finally {
+			iis.close();
+		}
+	}
+
+	/**
+	 * forward the reader update and progress notifications to the monitor, and abort the reader
+	 * once the monitor has been cancelled
+	 */
+	private static void addListeners(final ImageReader reader, final Monitor monitor) {
+		reader.addIIOReadUpdateListener(new IIOReadUpdateListener() {
+			public void imageUpdate(ImageReader source, BufferedImage theImage, int minX,
+					int minY, int width, int height, int periodX, int periodY, int[] bands) {
+				// the updated pixels are spread periodX, periodY apart; report their bounds
+				monitor.imageUpdated(theImage, new Rectangle(minX, minY,
+						(width - 1) * periodX + 1, (height - 1) * periodY + 1));
+			}
+
+			public void passStarted(ImageReader source, BufferedImage theImage, int pass,
+					int minPass, int maxPass, int minX, int minY, int periodX, int periodY,
+					int[] bands) {
+			}
+
+			public void passComplete(ImageReader source, BufferedImage theImage) {
+			}
+
+			public void thumbnailPassStarted(ImageReader source, BufferedImage theThumbnail,
+					int pass, int minPass, int maxPass, int minX, int minY, int periodX,
+					int periodY, int[] bands) {
+			}
+
+			public void thumbnailUpdate(ImageReader source, BufferedImage theThumbnail,
+					int minX, int minY, int width, int height, int periodX, int periodY,
+					int[] bands) {
+			}
+
+			public void thumbnailPassComplete(ImageReader source, BufferedImage theThumbnail) {
+			}
+		});
+
+		reader.addIIOReadProgressListener(new IIOReadProgressListener() {
+			public void imageProgress(ImageReader source, float percentageDone) {
+				monitor.progress(Math.min(100, (int)percentageDone));
+				if (monitor.isCancelled())
+					source.abort();
+			}
+
+			public void imageStarted(ImageReader source, int imageIndex) {
+				monitor.progress(0);
+			}
+
+			public void imageComplete(ImageReader source) {
+				monitor.progress(100);
+			}
+
+			public void readAborted(ImageReader source) {
+			}
+
+			public void sequenceStarted(ImageReader source, int minIndex) {
+			}
+
+			public void sequenceComplete(ImageReader source) {
+			}
+
+			public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {
+			}
+
+			public void thumbnailProgress(ImageReader source, float percentageDone) {
+			}
+
+			public void thumbnailComplete(ImageReader source) {
+			}
+		});
+	}
+
+	/**
+	 * @return an image input stream on the given file
+	 */
+	private static ImageInputStream openStream(File file) throws IOException {
+		ImageInputStream iis = ImageIO.createImageInputStream(file);
+		if (iis == null)
+			throw new IOException("Cannot open " + file.getPath());
+		return iis;
+	}
+
+	/**
+	 * @return a reader able to decode the given stream, with the stream set as its input
+	 */
+	private static ImageReader getReader(ImageInputStream iis) throws IOException {
+		Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+		if (!readers.hasNext())
+			throw new IOException("Unsupported image format");
+		ImageReader reader = readers.next();
+		reader.setInput(iis, true, true);
+		return reader;
+	}
+}
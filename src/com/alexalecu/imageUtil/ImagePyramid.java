@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The reduced levels of an image (1/2, 1/4, 1/8 ... of its size), so that the image can be shown
+ * at any scale by reducing the nearest level by less than 2 times, instead of reducing the whole
+ * image. Each level is built from the previous one. The pyramid does not reference the image it
+ * has been built from, so that it can be cached without keeping the image alive.
+ *
+ * @author Alex Cojocaru
+ */
+public class ImagePyramid {
+	// the levels are built until they are this small
+	private final static int MIN_LEVEL_SIZE = 64;
+
+	private final int width;
+	private final int height;
+	private final List<BufferedImage> levels;
+
+	private ImagePyramid(int width, int height, List<BufferedImage> levels) {
+		this.width = width;
+		this.height = height;
+		this.levels = levels;
+	}
+
+	/**
+	 * build the pyramid of an image
+	 * @param source the image to build the pyramid of
+	 * @return the pyramid
+	 */
+	public static ImagePyramid build(BufferedImage source) {
+		List<BufferedImage> levels = new ArrayList<BufferedImage>();
+		BufferedImage level = source;
+		while (Math.max(level.getWidth(), level.getHeight()) >= 2 * MIN_LEVEL_SIZE) {
+			level = ImageResize.resize(level, Math.max(1, (level.getWidth() + 1) / 2),
+					Math.max(1, (level.getHeight() + 1) / 2));
+			levels.add(level);
+		}
+		return new ImagePyramid(source.getWidth(), source.getHeight(), levels);
+	}
+
+	/**
+	 * @param source the image the pyramid has been built from
+	 * @return true if the pyramid may have been built from the given image
+	 */
+	public boolean matches(BufferedImage source) {
+		return source.getWidth() == width && source.getHeight() == height;
+	}
+
+	/**
+	 * @return the number of reduced levels
+	 */
+	public int getLevelCount() {
+		return levels.size();
+	}
+
+	/**
+	 * @param index the index of the level, 0 for the half size level
+	 * @return the reduced level
+	 */
+	public BufferedImage getLevel(int index) {
+		return levels.get(index);
+	}
+
+	/**
+	 * get the smallest level which is at least as big as the image scaled by the given factor,
+	 * i.e. the level to reduce for showing the image at that scale
+	 * @param source the image the pyramid has been built from
+	 * @param scale the scale factor
+	 * @return the level, or the image itself if it is not reduced by 2 times or more
+	 */
+	public BufferedImage getLevelForScale(BufferedImage source, double scale) {
+		BufferedImage result = source;
+		for (BufferedImage level : levels) {
+			if (level.getWidth() < scale * width || level.getHeight() < scale * height)
+				break;
+			result = level;
+		}
+		return result;
+	}
+
+	/**
+	 * @return the memory used by the pixels of the reduced levels, in bytes
+	 */
+	public long getByteCount() {
+		long count = 0;
+		for (BufferedImage level : levels) {
+			DataBuffer buffer = level.getRaster().getDataBuffer();
+			count += (long)buffer.getSize() * buffer.getNumBanks()
+					* DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.image.BufferedImage;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Build the pyramids of the images in the background and keep them within a memory budget,
+ * evicting the least recently used ones. The pyramids are kept by image (the same instance, not
+ * an equal one), for as long as the image is referenced from outside the cache.
+ * Only the last requested image is built: the requests made meanwhile for other images are
+ * dropped, as they are not shown anymore.
+ *
+ * @author Alex Cojocaru
+ */
+public class ImagePyramidCache {
+	/**
+	 * Notified when a pyramid has been built
+	 */
+	public interface Listener {
+		/**
+		 * called from the building thread, once the pyramid has been built and cached
+		 * @param source the image the pyramid has been built from
+		 * @param pyramid the pyramid
+		 */
+		public void pyramidBuilt(BufferedImage source, ImagePyramid pyramid);
+	}
+
+	private final long budget;
+
+	// the pyramids by image, with their last access; the images are weakly referenced
+	private final Map<BufferedImage, ImagePyramid> pyramids =
+			new WeakHashMap<BufferedImage, ImagePyramid>();
+	private final Map<ImagePyramid, Long> lastAccess = new WeakHashMap<ImagePyramid, Long>();
+	private long accessCount;
+
+	// the last requested image, the only one worth building
+	private BufferedImage requested;
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(
+			new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "imageUtil-pyramid");
+					thread.setDaemon(true);
+					thread.setPriority(Thread.MIN_PRIORITY);
+					return thread;
+				}
+			});
+
+	/**
+	 * @param budget the maximum memory used by the cached pyramids, in bytes; the last built
+	 * pyramid is kept even if it does not fit
+	 */
+	public ImagePyramidCache(long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * @param image an image
+	 * @return the pyramid of the image, null if it has not been built
+	 */
+	public synchronized ImagePyramid get(BufferedImage image) {
+		ImagePyramid pyramid = pyramids.get(image);
+		if (pyramid != null)
+			lastAccess.put(pyramid, Long.valueOf(++accessCount));
+		return pyramid;
+	}
+
+	/**
+	 * get the pyramid of an image, building it in the background if it is not cached
+	 * @param image the image, which must not be modified
+	 * @param listener notified once the pyramid has been built, if it is not cached
+	 * @return the cached pyramid of the image, null if it is being built
+	 */
+	public synchronized ImagePyramid request(final BufferedImage image,
+			final Listener listener) {
+		ImagePyramid pyramid = get(image);
+		if (pyramid != null || requested == image)
+			return pyramid;
+
+		requested = image;
+		executor.execute(new Runnable() {
+			public void run() {
+				synchronized (ImagePyramidCache.this) {
+					if (requested != image)
+						return;
+				}
+
+				ImagePyramid pyramid = ImagePyramid.build(image);
+				synchronized (ImagePyramidCache.this) {
+					if (requested == image)
+						requested = null;
+					put(image, pyramid);
+				}
+				listener.pyramidBuilt(image, pyramid);
+			}
+		});
+		return null;
+	}
+
+	/**
+	 * @return the memory used by the cached pyramids, in bytes
+	 */
+	public synchronized long getByteCount() {
+		long count = 0;
+		for (ImagePyramid pyramid : pyramids.values())
+			count += pyramid.getByteCount();
+		return count;
+	}
+
+	/**
+	 * cache a pyramid, evicting the least recently used ones until the cache fits its budget
+	 */
+	private void put(BufferedImage image, ImagePyramid pyramid) {
+		pyramids.put(image, pyramid);
+		lastAccess.put(pyramid, Long.valueOf(++accessCount));
+
+		long count = getByteCount();
+		while (count > budget && pyramids.size() > 1) {
+			BufferedImage eldest = null;
+			long eldestAccess = Long.MAX_VALUE;
+			for (Map.Entry<BufferedImage, ImagePyramid> entry : pyramids.entrySet()) {
+				long access = lastAccess.get(entry.getValue()).longValue();
+				if (access < eldestAccess) {
+					eldestAccess = access;
+					eldest = entry.getKey();
+				}
+			}
+			count -= pyramids.remove(eldest).getByteCount();
+		}
+	}
+
+	/**
+	 * stop building the pyramids
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Resize images straight from their rasters, with no Graphics2D: a downscaled image is first
+ * halved as many times as it stays at least twice the target size, by averaging the blocks of
+ * pixels the halvings would merge, in a single pass; a separable bicubic pass then brings it to
+ * the target size, with the kernel widened by the remaining scale factor so that no source
+ * pixel is skipped. Each pass processes bands of rows in parallel.
+ *
+ * @author Alex Cojocaru
+ */
+public class ImageResize {
+	// the minimum number of rows processed by a thread
+	private final static int MIN_BAND_HEIGHT = 16;
+
+	// the Catmull-Rom kernel reaches 2 pixels away from its center
+	private final static double KERNEL_RADIUS = 2d;
+
+	/**
+	 * resize an image
+	 * @param source the image to resize
+	 * @param width the width of the resized image
+	 * @param height the height of the resized image
+	 * @return the resized image, of the same type as the source if PixelWriter writes it
+	 * directly, of TYPE_INT_ARGB or TYPE_INT_RGB otherwise
+	 */
+	public static BufferedImage resize(BufferedImage source, int width, int height) {
+		if (width <= 0 || height <= 0)
+			throw new IllegalArgumentException("Invalid size: " + width + " x " + height);
+
+		int type = PixelWriter.isDirectType(source.getType()) ? source.getType()
+				: source.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB
+				: BufferedImage.TYPE_INT_RGB;
+
+		// halve the size while it is at least twice the target size; the halvings are done in
+		// a single pass averaging blocks of factorX x factorY pixels, so that the rounding errors
+		// do not add up
+		int factorX = 1, factorY = 1;
+		while (ceilDiv(source.getWidth(), factorX) >= 2 * width)
+			factorX *= 2;
+		while (ceilDiv(source.getHeight(), factorY) >= 2 * height)
+			factorY *= 2;
+
+		// the shrunk image is the result if the block size is the exact scale factor
+		if (source.getWidth() == width * factorX && source.getHeight() == height * factorY)
+			return shrink(source, factorX, factorY, type);
+
+		// otherwise it is kept as packed ints, the cheapest to read
+		BufferedImage current = factorX > 1 || factorY > 1
+				? shrink(source, factorX, factorY, source.getColorModel().hasAlpha()
+						? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB)
+				: source;
+
+		BufferedImage result = new BufferedImage(width, height, type);
+		resample(current, result, (double)source.getWidth() / width / factorX,
+				(double)source.getHeight() / height / factorY);
+		return result;
+	}
+
+	/**
+	 * @return the quotient of the division, rounded up
+	 */
+	private static int ceilDiv(int dividend, int divisor) {
+		return (dividend + divisor - 1) / divisor;
+	}
+
+	/**
+	 * shrink an image by averaging the pixels of each block of the given size; the blocks on
+	 * the right and bottom edges of an image whose size is not a multiple of the block size
+	 * average the pixels they cover
+	 * @param source the image to shrink
+	 * @param factorX the width of a block, a power of 2
+	 * @param factorY the height of a block, a power of 2
+	 * @param type the type of the shrunk image
+	 * @return the shrunk image
+	 */
+	private static BufferedImage shrink(BufferedImage source, final int factorX,
+			final int factorY, int type) {
+		final int srcWidth = source.getWidth();
+		final int srcHeight = source.getHeight();
+		final int width = ceilDiv(srcWidth, factorX);
+		int height = ceilDiv(srcHeight, factorY);
+		final int shiftX = Integer.numberOfTrailingZeros(factorX);
+
+		BufferedImage dest = new BufferedImage(width, height, type);
+		final PixelReader reader = PixelReader.forImage(source);
+		final PixelWriter writer = PixelWriter.forImage(dest);
+
+		ParallelBands.run(height, MIN_BAND_HEIGHT, new ParallelBands.BandTask() {
+			public void process(int start, int end) {
+				int[] row = new int[srcWidth];
+				int[] a = new int[width], r = new int[width], g = new int[width];
+				int[] b = new int[width];
+				int[] out = new int[width];
+				int[] scratch = new int[writer.getScratchSize(width)];
+
+				for (int y = start; y < end; y++) {
+					Arrays.fill(a, 0);
+					Arrays.fill(r, 0);
+					Arrays.fill(g, 0);
+					Arrays.fill(b, 0);
+					int y0 = y * factorY;
+					int y1 = Math.min(y0 + factorY, srcHeight);
+					for (int sy = y0; sy < y1; sy++) {
+						reader.getArgbRow(0, sy, srcWidth, row);
+						for (int sx = 0; sx < srcWidth; sx++) {
+							int p = row[sx];
+							int x = sx >> shiftX;
+							a[x] += p >>> 24;
+							r[x] += (p >> 16) & 0xFF;
+							g[x] += (p >> 8) & 0xFF;
+							b[x] += p & 0xFF;
+						}
+					}
+
+					int rows = y1 - y0;
+					for (int x = 0; x < width; x++) {
+						int count = rows * (Math.min((x + 1) * factorX, srcWidth) - x * factorX);
+						int half = count / 2;
+						out[x] = (a[x] + half) / count << 24 | (r[x] + half) / count << 16
+								| (g[x] + half) / count << 8 | (b[x] + half) / count;
+					}
+					writer.setArgbRow(0, y, width, out, scratch);
+				}
+			}
+		});
+
+		return dest;
+	}
+
+	/**
+	 * The source pixels contributing to each destination pixel on an axis, and their weights
+	 */
+	private static class Contributors {
+		private final int[] first; // the first source pixel of each destination pixel
+		private final int[] count; // the number of source pixels of each destination pixel
+		private final int[] index; // the source pixels, clamped to the image
+		private final float[] weight; // their weights, whose sum is 1 for each destination pixel
+		private final int maxCount;
+
+		/**
+		 * compute the contributors of a bicubic resampling axis
+		 * @param srcSize the source size on the axis
+		 * @param destSize the destination size on the axis
+		 * @param scale the size of a destination pixel, in source pixels
+		 */
+		private Contributors(int srcSize, int destSize, double scale) {
+			// widen the kernel when downscaling, so that it covers all the source pixels
+			double stretch = Math.max(1d, scale);
+			double radius = KERNEL_RADIUS * stretch;
+
+			maxCount = (int)Math.ceil(2 * radius) + 1;
+			first = new int[destSize];
+			count = new int[destSize];
+			index = new int[destSize * maxCount];
+			weight = new float[destSize * maxCount];
+
+			for (int i = 0; i < destSize; i++) {
+				// the destination pixel center, in source pixel center coordinates
+				double center = (i + 0.5d) * scale - 0.5d;
+				int left = (int)Math.floor(center - radius) + 1;
+				int right = (int)Math.floor(center + radius);
+
+				double sum = 0;
+				int n = 0;
+				for (int j = left; j <= right && n < maxCount; j++, n++) {
+					double w = cubic((j - center) / stretch);
+					index[i * maxCount + n] = j < 0 ? 0 : j >= srcSize ? srcSize - 1 : j;
+					weight[i * maxCount + n] = (float)w;
+					sum += w;
+				}
+				for (int k = 0; k < n; k++)
+					weight[i * maxCount + k] /= sum;
+				first[i] = i * maxCount;
+				count[i] = n;
+			}
+		}
+	}
+
+	/**
+	 * @return the Catmull-Rom kernel value at the given distance from its center
+	 */
+	private static double cubic(double t) {
+		t = Math.abs(t);
+		if (t < 1d)
+			return 1.5d * t * t * t - 2.5d * t * t + 1d;
+		if (t < 2d)
+			return -0.5d * t * t * t + 2.5d * t * t - 4d * t + 2d;
+		return 0d;
+	}
+
+	/**
+	 * resample an image to the size of the destination image, in two separable bicubic passes:
+	 * the source rows are resampled horizontally first, then the destination rows are computed
+	 * from the horizontally resampled rows
+	 * @param source the image to resample
+	 * @param dest the image to resample into
+	 * @param scaleX the width of a destination pixel, in source pixels
+	 * @param scaleY the height of a destination pixel, in source pixels
+	 */
+	private static void resample(BufferedImage source, BufferedImage dest, double scaleX,
+			double scaleY) {
+		final int srcWidth = source.getWidth();
+		final int width = dest.getWidth();
+		final int height = dest.getHeight();
+		final PixelReader reader = PixelReader.forImage(source);
+		final PixelWriter writer = PixelWriter.forImage(dest);
+		final Contributors columns = new Contributors(srcWidth, width, scaleX);
+		final Contributors rows = new Contributors(source.getHeight(), height, scaleY);
+
+		// the horizontal pass, kept as packed ARGB values
+		final int[] temp = new int[width * source.getHeight()];
+		ParallelBands.run(source.getHeight(), MIN_BAND_HEIGHT, new ParallelBands.BandTask() {
+			public void process(int start, int end) {
+				int[] row = new int[srcWidth];
+				for (int y = start; y < end; y++) {
+					reader.getArgbRow(0, y, srcWidth, row);
+					int offset = y * width;
+					for (int x = 0; x < width; x++) {
+						float a = 0, r = 0, g = 0, b = 0;
+						for (int k = columns.first[x], last = k + columns.count[x]; k < last; k++) {
+							int p = row[columns.index[k]];
+							float w = columns.weight[k];
+							a += (p >>> 24) * w;
+							r += ((p >> 16) & 0xFF) * w;
+							g += ((p >> 8) & 0xFF) * w;
+							b += (p & 0xFF) * w;
+						}
+						temp[offset + x] = pack(a, r, g, b);
+					}
+				}
+			}
+		});
+
+		// and the vertical pass
+		ParallelBands.run(height, MIN_BAND_HEIGHT, new ParallelBands.BandTask() {
+			public void process(int start, int end) {
+				float[] a = new float[width], r = new float[width];
+				float[] g = new float[width], b = new float[width];
+				int[] out = new int[width];
+				int[] scratch = new int[writer.getScratchSize(width)];
+
+				for (int y = start; y < end; y++) {
+					Arrays.fill(a, 0f);
+					Arrays.fill(r, 0f);
+					Arrays.fill(g, 0f);
+					Arrays.fill(b, 0f);
+					for (int k = rows.first[y], last = k + rows.count[y]; k < last; k++) {
+						int offset = rows.index[k] * width;
+						float w = rows.weight[k];
+						for (int x = 0; x < width; x++) {
+							int p = temp[offset + x];
+							a[x] += (p >>> 24) * w;
+							r[x] += ((p >> 16) & 0xFF) * w;
+							g[x] += ((p >> 8) & 0xFF) * w;
+							b[x] += (p & 0xFF) * w;
+						}
+					}
+					for (int x = 0; x < width; x++)
+						out[x] = pack(a[x], r[x], g[x], b[x]);
+					writer.setArgbRow(0, y, width, out, scratch);
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return the ARGB value of the given components, rounded and clamped to [0, 255]
+	 */
+	private static int pack(float a, float r, float g, float b) {
+		return toByte(a) << 24 | toByte(r) << 16 | toByte(g) << 8 | toByte(b);
+	}
+
+	/**
+	 * @return the given color component, rounded and clamped to [0, 255]
+	 */
+	private static int toByte(float value) {
+		int result = (int)(value + 0.5f);
+		return result < 0 ? 0 : result > 255 ? 255 : result;
+	}
+}
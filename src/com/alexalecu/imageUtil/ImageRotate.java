@@ -21,6 +21,7 @@ import java.awt.Dimension;
 import java.awt.Graphics2D;
 import java.awt.Paint;
 import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
 
 public class ImageRotate {
@@ -120,6 +121,133 @@ public class ImageRotate {
 		return bi;
 	} 
  
+	/**
+	 * Rotates the specified image the specified number of degrees around its
+	 * center, and crops the result to the largest rectangle which contains
+	 * image pixels only. The crop rectangle is computed analytically and
+	 * only the pixels inside it are rendered, so the rotated bounding box
+	 * is never allocated.
+	 * 
+	 * @param  img      the image to rotate
+	 * @param  degrees  the degrees to rotate
+	 * @return  the rotated and cropped image
+	 */
+	public static BufferedImage rotateDegreesCropped(BufferedImage img,
+			double degrees) {
+		return rotateDegreesCropped(img, degrees,
+				AffineResampler.Interpolation.BILINEAR, null);
+	}
+ 
+	/**
+	 * Rotates the specified image the specified number of degrees around its
+	 * center, and crops the result to the largest rectangle which contains
+	 * image pixels only, using the specified interpolation. The tiles of the
+	 * result are rendered in parallel. The exact quarter turns are done by
+	 * moving the pixels, without any interpolation.
+	 * 
+	 * @param  img            the image to rotate
+	 * @param  degrees        the degrees to rotate
+	 * @param  interpolation  the interpolation kernel
+	 * @param  monitor        the progress and cancellation monitor, can be null
+	 * @return  the rotated and cropped image, null if cancelled
+	 */
+	public static BufferedImage rotateDegreesCropped(BufferedImage img,
+			double degrees, AffineResampler.Interpolation interpolation,
+			AffineResampler.Monitor monitor) {
+		ImageTranspose.Transpose rotation = ImageTranspose.getRotation(degrees);
+		if (rotation != null) {
+			if (monitor != null && monitor.isCancelled())
+				return null;
+			BufferedImage result = ImageTranspose.transpose(img, rotation);
+			if (monitor != null)
+				monitor.progress(1, 1);
+			return result;
+		}
+		
+		Dimension dim = new Dimension();
+		AffineTransform destToSource = getRotateCroppedTransform(
+				img.getWidth(), img.getHeight(), degrees, dim);
+		
+		return AffineResampler.resample(img, destToSource,
+				dim.width, dim.height, null, interpolation, monitor);
+	}
+ 
+	/**
+	 * Gets the transformation mapping the pixels of an image rotated and
+	 * cropped by rotateDegreesCropped back into the original image.
+	 * 
+	 * @param  width    the image width
+	 * @param  height   the image height
+	 * @param  degrees  the degrees to rotate
+	 * @param  size     the size of the rotated image is stored into it
+	 * @return  the transformation, in continuous pixel coordinates
+	 */
+	public static AffineTransform getRotateCroppedTransform(int width,
+			int height, double degrees, Dimension size) {
+		Dimension dim = getInscribedBox(width, height, degrees);
+		size.setSize(dim);
+		
+		// map the destination pixels back into the source image: move the
+		// destination center to the origin, rotate back, then move the
+		// origin to the source center
+		AffineTransform destToSource = new AffineTransform();
+		destToSource.translate(width / 2.0, height / 2.0);
+		destToSource.rotate(-Math.toRadians(degrees));
+		destToSource.translate(-dim.width / 2.0, -dim.height / 2.0);
+		return destToSource;
+	}
+ 
+	/**
+	 * Gets the size of the largest axis aligned rectangle, centered on the
+	 * image, which contains image pixels only after rotating an image of the
+	 * specified size at the specified angle. The interpolation needs the
+	 * center of each resulting pixel to fall between the centers of the
+	 * image pixels, hence the computation is done on the pixel centers grid
+	 * which is a pixel smaller than the image.
+	 * 
+	 * @param  width    the image width
+	 * @param  height   the image height
+	 * @param  degrees  the angle of rotation
+	 * @return  the rectangle size
+	 */
+	public static Dimension getInscribedBox(int width, int height,
+			double degrees) {
+		double radians = Math.toRadians(normalizeDegrees(degrees));
+		double sin = Math.abs(Math.sin(radians));
+		double cos = Math.abs(Math.cos(radians));
+		
+		// snap the right angles, the trigonometry is not exact for them
+		if (sin < 1e-12)
+			return new Dimension(width, height);
+		if (cos < 1e-12)
+			return new Dimension(height, width);
+		
+		double w = width - 1;
+		double h = height - 1;
+		double longSide = Math.max(w, h);
+		double shortSide = Math.min(w, h);
+		
+		double wr, hr;
+		if (shortSide <= 2.0 * sin * cos * longSide
+				|| Math.abs(sin - cos) < 1e-10) {
+			// half constrained: two opposite corners of the rectangle touch
+			// the long sides of the rotated image
+			double x = 0.5 * shortSide;
+			wr = w >= h ? x / sin : x / cos;
+			hr = w >= h ? x / cos : x / sin;
+		}
+		else {
+			// fully constrained: each corner touches a side of the image
+			double cos2 = cos * cos - sin * sin;
+			wr = (w * cos - h * sin) / cos2;
+			hr = (h * cos - w * sin) / cos2;
+		}
+		
+		// n pixels have their centers spread over n - 1 pixels
+		return new Dimension(
+				(int)Math.floor(wr + 1e-9) + 1, (int)Math.floor(hr + 1e-9) + 1);
+	}
+ 
 	/**
 	 * Gets the largest bounding box size that can hold an image of the 
 	 * specified size at any angle of rotation.  
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+/**
+ * Lossless quarter turn rotations and mirror flips: the pixels are moved as they are, straight
+ * between the data buffers of the common image types, in square blocks to keep both the read and
+ * the written rows in cache; the block rows are processed in parallel
+ *
+ * @author Alex Cojocaru
+ */
+public class ImageTranspose {
+	// the size of the square blocks of pixels moved at once
+	private final static int BLOCK_SIZE = 64;
+
+	public enum Transpose {
+		ROTATE_90,
+		ROTATE_180,
+		ROTATE_270,
+		FLIP_HORIZONTAL,
+		FLIP_VERTICAL;
+	}
+
+	/**
+	 * @param degrees the degrees to rotate an image by
+	 * @return the transpose which rotates the image by the given degrees, or null if the degrees
+	 * are not an exact, non zero multiple of 90
+	 */
+	public static Transpose getRotation(double degrees) {
+		double normalized = ImageRotate.normalizeDegrees(degrees);
+		if (normalized == 90d)
+			return Transpose.ROTATE_90;
+		if (normalized == 180d)
+			return Transpose.ROTATE_180;
+		if (normalized == 270d)
+			return Transpose.ROTATE_270;
+		return null;
+	}
+
+	/**
+	 * transpose the given image; the rotations are clockwise, matching ImageRotate
+	 * @param image the image to transpose
+	 * @param transpose the transpose to apply
+	 * @return a new image, with the same color model as the source image
+	 */
+	public static BufferedImage transpose(BufferedImage image, Transpose transpose) {
+		final int w = image.getWidth();
+		final int h = image.getHeight();
+		boolean swap = transpose == Transpose.ROTATE_90 || transpose == Transpose.ROTATE_270;
+		final int dw = swap ? h : w;
+		final int dh = swap ? w : h;
+
+		// the source coordinates of the destination pixel (x, y) are
+		// (cx + x * mxx + y * mxy, cy + x * myx + y * myy)
+		final int cx, mxx, mxy, cy, myx, myy;
+		switch (transpose) {
+			case ROTATE_90:
+				cx = 0;     mxx = 0;  mxy = 1;
+				cy = h - 1; myx = -1; myy = 0;
+				break;
+			case ROTATE_270:
+				cx = w - 1; mxx = 0;  mxy = -1;
+				cy = 0;     myx = 1;  myy = 0;
+				break;
+			case ROTATE_180:
+				cx = w - 1; mxx = -1; mxy = 0;
+				cy = h - 1; myx = 0;  myy = -1;
+				break;
+			case FLIP_HORIZONTAL:
+				cx = w - 1; mxx = -1; mxy = 0;
+				cy = 0;     myx = 0;  myy = 1;
+				break;
+			default:
+				cx = 0;     mxx = 1;  mxy = 0;
+				cy = h - 1; myx = 0;  myy = -1;
+		}
+
+		BufferedImage result = createCompatibleImage(image, dw, dh);
+		final WritableRaster src = image.getRaster();
+		final WritableRaster dest = result.getRaster();
+
+		final BufferLayout srcLayout = BufferLayout.forRaster(src);
+		final BufferLayout destLayout = BufferLayout.forRaster(dest);
+		final boolean direct = srcLayout != null && destLayout != null
+				&& srcLayout.pixelStride == destLayout.pixelStride
+				&& Arrays.equals(srcLayout.bands, destLayout.bands)
+				&& src.getDataBuffer().getDataType() == dest.getDataBuffer().getDataType();
+
+		int blockRows = (dh + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		ParallelBands.run(blockRows, 1, new ParallelBands.BandTask() {
+			public void process(int start, int end) {
+				Object pixel = null;
+				for (int by = start * BLOCK_SIZE; by < Math.min(dh, end * BLOCK_SIZE);
+						by += BLOCK_SIZE) {
+					int byEnd = Math.min(dh, by + BLOCK_SIZE);
+					for (int bx = 0; bx < dw; bx += BLOCK_SIZE) {
+						int bxEnd = Math.min(dw, bx + BLOCK_SIZE);
+						if (direct) {
+							copyBlock(src.getDataBuffer(), srcLayout, dest.getDataBuffer(),
+									destLayout, bx, bxEnd, by, byEnd,
+									cx, mxx, mxy, cy, myx, myy);
+							continue;
+						}
+
+						// any other layout is copied one pixel at a time, still losslessly
+						for (int y = by; y < byEnd; y++) {
+							for (int x = bx; x < bxEnd; x++) {
+								pixel = src.getDataElements(cx + x * mxx + y * mxy,
+										cy + x * myx + y * myy, pixel);
+								dest.setDataElements(x, y, pixel);
+							}
+						}
+					}
+				}
+			}
+		});
+
+		return result;
+	}
+
+	/**
+	 * create an image with the same type and color model as the given one; a custom image gets
+	 * the same sample model too (e.g. the same order of the bands), so its pixels can be moved
+	 * as they are
+	 */
+	private static BufferedImage createCompatibleImage(BufferedImage image, int width,
+			int height) {
+		ColorModel cm = image.getColorModel();
+		switch (image.getType()) {
+			case BufferedImage.TYPE_CUSTOM:
+				return new BufferedImage(cm,
+						image.getRaster().createCompatibleWritableRaster(width, height),
+						cm.isAlphaPremultiplied(), null);
+			case BufferedImage.TYPE_BYTE_BINARY:
+			case BufferedImage.TYPE_BYTE_INDEXED:
+				// keep the palette
+				return new BufferedImage(width, height, image.getType(), (IndexColorModel)cm);
+			default:
+				return new BufferedImage(width, height, image.getType());
+		}
+	}
+
+	/**
+	 * move a block of pixels between two data buffers of the same type and pixel stride
+	 */
+	private static void copyBlock(DataBuffer srcBuffer, BufferLayout srcLayout,
+			DataBuffer destBuffer, BufferLayout destLayout, int x0, int x1, int y0, int y1,
+			int cx, int mxx, int mxy, int cy, int myx, int myy) {
+
+		int ps = srcLayout.pixelStride;
+		// the source index of the destination pixel (0, 0) and its steps along x and y
+		int srcBase = srcLayout.offset + cx * ps + cy * srcLayout.scanlineStride;
+		int srcStepX = mxx * ps + myx * srcLayout.scanlineStride;
+		int srcStepY = mxy * ps + myy * srcLayout.scanlineStride;
+
+		if (srcBuffer instanceof DataBufferInt) {
+			int[] srcData = ((DataBufferInt)srcBuffer).getData();
+			int[] destData = ((DataBufferInt)destBuffer).getData();
+			for (int y = y0; y < y1; y++) {
+				int si = srcBase + x0 * srcStepX + y * srcStepY;
+				int di = destLayout.offset + y * destLayout.scanlineStride + x0 * ps;
+				if (srcStepX == ps) { // the row is contiguous in the source too
+					System.arraycopy(srcData, si, destData, di, (x1 - x0) * ps);
+					continue;
+				}
+				for (int x = x0; x < x1; x++) {
+					for (int i = 0; i < ps; i++)
+						destData[di + i] = srcData[si + i];
+					si += srcStepX;
+					di += ps;
+				}
+			}
+		}
+		else {
+			byte[] srcData = ((DataBufferByte)srcBuffer).getData();
+			byte[] destData = ((DataBufferByte)destBuffer).getData();
+			for (int y = y0; y < y1; y++) {
+				int si = srcBase + x0 * srcStepX + y * srcStepY;
+				int di = destLayout.offset + y * destLayout.scanlineStride + x0 * ps;
+				if (srcStepX == ps) { // the row is contiguous in the source too
+					System.arraycopy(srcData, si, destData, di, (x1 - x0) * ps);
+					continue;
+				}
+				for (int x = x0; x < x1; x++) {
+					for (int i = 0; i < ps; i++)
+						destData[di + i] = srcData[si + i];
+					si += srcStepX;
+					di += ps;
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * The layout of the pixels inside a single bank int or byte data buffer, where the elements
+	 * of each pixel are stored next to each other
+	 */
+	private static class BufferLayout {
+		private int offset; // the index of the first element of the pixel (0, 0)
+		private int scanlineStride;
+		private int pixelStride;
+		private int[] bands; // where each band is in a pixel: the bit masks or the offsets
+
+		/**
+		 * @return the layout of the given raster, or null if it cannot be accessed directly
+		 */
+		private static BufferLayout forRaster(WritableRaster raster) {
+			DataBuffer buffer = raster.getDataBuffer();
+			SampleModel sm = raster.getSampleModel();
+			if (buffer.getNumBanks() != 1)
+				return null;
+
+			BufferLayout layout = new BufferLayout();
+			if (buffer instanceof DataBufferInt && sm instanceof SinglePixelPackedSampleModel) {
+				layout.scanlineStride = ((SinglePixelPackedSampleModel)sm).getScanlineStride();
+				layout.pixelStride = 1;
+				layout.bands = ((SinglePixelPackedSampleModel)sm).getBitMasks();
+			}
+			else if (buffer instanceof DataBufferByte && sm instanceof ComponentSampleModel) {
+				ComponentSampleModel csm = (ComponentSampleModel)sm;
+				layout.scanlineStride = csm.getScanlineStride();
+				layout.pixelStride = csm.getPixelStride();
+				layout.bands = csm.getBandOffsets();
+
+				// the band elements must lie within the pixel stride
+				for (int bandOffset : csm.getBandOffsets())
+					if (bandOffset < 0 || bandOffset >= layout.pixelStride)
+						return null;
+			}
+			else {
+				return null;
+			}
+
+			layout.offset = buffer.getOffset()
+					- raster.getSampleModelTranslateY() * layout.scanlineStride
+					- raster.getSampleModelTranslateX() * layout.pixelStride;
+			return layout;
+		}
+	}
+}
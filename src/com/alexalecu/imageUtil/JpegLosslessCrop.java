@@ -0,0 +1,764 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.imageio.plugins.jpeg.JPEGHuffmanTable;
+
+/**
+ * Crop a baseline JPEG file without decoding its pixels: the Huffman coded DCT coefficients of
+ * the blocks inside the crop are decoded and coded again, so the pixels of the crop are exactly
+ * the ones of the source and there is no generation loss. As the crop is made of whole blocks,
+ * its top left corner has to be on an MCU boundary; see snapToMcu.
+ * The application, comment and quantization segments are copied, the coefficients are coded
+ * with the standard Huffman tables, and the output has no restart markers.
+ *
+ * @author Alex Cojocaru
+ */
+public class JpegLosslessCrop {
+	private final static int SOF0 = 0xC0;
+	private final static int SOF1 = 0xC1;
+	private final static int DHT = 0xC4;
+	private final static int JPG = 0xC8;
+	private final static int DAC = 0xCC;
+	private final static int RST0 = 0xD0;
+	private final static int RST7 = 0xD7;
+	private final static int SOI = 0xD8;
+	private final static int EOI = 0xD9;
+	private final static int SOS = 0xDA;
+	private final static int DQT = 0xDB;
+	private final static int DRI = 0xDD;
+	private final static int APP0 = 0xE0;
+	private final static int APP15 = 0xEF;
+	private final static int COM = 0xFE;
+
+	/**
+	 * A component of the frame, with the coefficients of its blocks inside the crop
+	 */
+	private static class Component {
+		private int id;
+		private int h, v;
+		private int quantTable;
+		private int dcTable, acTable;
+
+		// the coefficients of the blocks inside the crop, 64 per block in zig-zag order
+		private short[] coefficients;
+		private int blocksPerLine;
+
+		private int predictor;
+	}
+
+	/**
+	 * The headers of a JPEG file, up to the start of the entropy coded data
+	 */
+	private static class Frame {
+		private byte[] data;
+		private int width, height;
+		private Component[] components;
+		private int hMax = 1, vMax = 1;
+		private int restartInterval;
+		private HuffmanDecoder[] dcTables = new HuffmanDecoder[4];
+		private HuffmanDecoder[] acTables = new HuffmanDecoder[4];
+
+		// the offset and the length of the segments copied to the output
+		private List<int[]> copiedSegments = new ArrayList<int[]>();
+
+		// the offset of the entropy coded data
+		private int scanOffset = -1;
+
+		/**
+		 * @return true if the scan interleaves several components; a single component scan
+		 * is made of 8x8 MCUs, whatever the sampling factors
+		 */
+		private boolean isInterleaved() {
+			return components.length > 1;
+		}
+
+		private int getMcuWidth() {
+			return isInterleaved() ? 8 * hMax : 8;
+		}
+
+		private int getMcuHeight() {
+			return isInterleaved() ? 8 * vMax : 8;
+		}
+	}
+
+	/**
+	 * @param file the image file
+	 * @return the size of the MCU of the given file, i.e. the grid the origin of a lossless crop
+	 * has to be aligned to; null if the file is not a JPEG file this class can crop
+	 * @throws IOException if the file cannot be read
+	 */
+	public static Dimension getMcuSize(File file) throws IOException {
+		try {
+			Frame frame = parse(readFile(file));
+			return new Dimension(frame.getMcuWidth(), frame.getMcuHeight());
+		}
+		catch (UnsupportedFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * extend a region to the left and the top, so that its origin is on the MCU grid
+	 * @param region the region to extend
+	 * @param mcuSize the MCU size, as returned by getMcuSize
+	 * @return the extended region, which covers the given one
+	 */
+	public static Rectangle snapToMcu(Rectangle region, Dimension mcuSize) {
+		int x = region.x - region.x % mcuSize.width;
+		int y = region.y - region.y % mcuSize.height;
+		return new Rectangle(x, y, region.width + region.x - x, region.height + region.y - y);
+	}
+
+	/**
+	 * crop a JPEG file losslessly; the source is read entirely before the destination is written,
+	 * so they can be the same file
+	 * @param source the JPEG file to crop
+	 * @param region the region to keep, inside the image; its origin has to be on the MCU grid
+	 * @param destination the file to write the crop to; it is overwritten if it exists
+	 * @throws IOException if the source cannot be read or it is not a baseline JPEG file, or if
+	 * the destination cannot be written
+	 */
+	public static void crop(File source, Rectangle region, File destination)
+			throws IOException {
+		Frame frame = parse(readFile(source));
+
+		int mcuWidth = frame.getMcuWidth();
+		int mcuHeight = frame.getMcuHeight();
+		if (region.x < 0 || region.y < 0 || region.width <= 0 || region.height <= 0
+				|| region.x + region.width > frame.width
+				|| region.y + region.height > frame.height)
+			throw new IllegalArgumentException("The region is outside the image");
+		if (region.x % mcuWidth != 0 || region.y % mcuHeight != 0)
+			throw new IllegalArgumentException("The region origin is not on the MCU grid");
+
+		decode(frame, region);
+
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(destination));
+		try {
+			write(frame, region, out);
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * parse the headers of a JPEG file
+	 * @param data the content of the file
+	 * @return the frame headers
+	 * @throws UnsupportedFormatException if the file is not a baseline (or extended sequential,
+	 * 8 bit) Huffman coded JPEG file with a single scan
+	 */
+	private static Frame parse(byte[] data) throws IOException {
+		if (data.length < 4 || (data[0] & 0xFF) != 0xFF || (data[1] & 0xFF) != SOI)
+			throw new UnsupportedFormatException("Not a JPEG file");
+
+		Frame frame = new Frame();
+		frame.data = data;
+
+		int pos = 2;
+		while (frame.scanOffset < 0) {
+			if (pos + 4 > data.length || (data[pos] & 0xFF) != 0xFF)
+				throw new UnsupportedFormatException("Corrupt JPEG file");
+			// skip the fill bytes
+			while (pos + 1 < data.length && (data[pos + 1] & 0xFF) == 0xFF)
+				pos++;
+
+			int marker = data[pos + 1] & 0xFF;
+			int length = readShort(data, pos + 2);
+			int start = pos + 4;
+			int end = pos + 2 + length;
+			if (end > data.length)
+				throw new UnsupportedFormatException("Truncated JPEG file");
+
+			if (marker == SOF0 || marker == SOF1) {
+				parseFrame(frame, data, start);
+			}
+			else if (marker >= 0xC0 && marker <= 0xCF && marker != DHT && marker != JPG
+					&& marker != DAC) {
+				throw new UnsupportedFormatException("Unsupported JPEG process");
+			}
+			else if (marker == DHT) {
+				parseHuffmanTables(frame, data, start, end);
+			}
+			else if (marker == DRI) {
+				frame.restartInterval = readShort(data, start);
+			}
+			else if (marker == DQT || marker == COM || (marker >= APP0 && marker <= APP15)) {
+				frame.copiedSegments.add(new int[] { pos, end - pos });
+			}
+			else if (marker == SOS) {
+				parseScan(frame, data, start);
+				frame.scanOffset = end;
+			}
+			else if (marker == EOI) {
+				throw new UnsupportedFormatException("No scan found");
+			}
+			pos = end;
+		}
+		return frame;
+	}
+
+	private static void parseFrame(Frame frame, byte[] data, int pos) throws IOException {
+		if ((data[pos] & 0xFF) != 8)
+			throw new UnsupportedFormatException("Unsupported sample precision");
+		frame.height = readShort(data, pos + 1);
+		frame.width = readShort(data, pos + 3);
+		int count = data[pos + 5] & 0xFF;
+		if (frame.width == 0 || frame.height == 0 || count == 0)
+			throw new UnsupportedFormatException("Unsupported frame header");
+
+		frame.components = new Component[count];
+		for (int i = 0; i < count; i++) {
+			int offset = pos + 6 + i * 3;
+			Component component = new Component();
+			component.id = data[offset] & 0xFF;
+			component.h = (data[offset + 1] >> 4) & 0x0F;
+			component.v = data[offset + 1] & 0x0F;
+			component.quantTable = data[offset + 2] & 0xFF;
+			if (component.h < 1 || component.h > 4 || component.v < 1 || component.v > 4)
+				throw new UnsupportedFormatException("Invalid sampling factors");
+			frame.hMax = Math.max(frame.hMax, component.h);
+			frame.vMax = Math.max(frame.vMax, component.v);
+			frame.components[i] = component;
+		}
+	}
+
+	private static void parseHuffmanTables(Frame frame, byte[] data, int pos, int end)
+			throws IOException {
+		while (pos < end) {
+			int tableClass = (data[pos] >> 4) & 0x0F;
+			int id = data[pos] & 0x0F;
+			if (id > 3 || tableClass > 1)
+				throw new UnsupportedFormatException("Invalid Huffman table");
+
+			short[] lengths = new short[16];
+			int count = 0;
+			for (int i = 0; i < 16; i++) {
+				lengths[i] = (short)(data[pos + 1 + i] & 0xFF);
+				count += lengths[i];
+			}
+			short[] values = new short[count];
+			for (int i = 0; i < count; i++)
+				values[i] = (short)(data[pos + 17 + i] & 0xFF);
+
+			HuffmanDecoder decoder = new HuffmanDecoder(lengths, values);
+			if (tableClass == 0)
+				frame.dcTables[id] = decoder;
+			else
+				frame.acTables[id] = decoder;
+			pos += 17 + count;
+		}
+	}
+
+	private static void parseScan(Frame frame, byte[] data, int pos) throws IOException {
+		if (frame.components == null)
+			throw new UnsupportedFormatException("No frame header");
+
+		// a single scan holding all the components; the multi-scan files are not supported
+		int count = data[pos] & 0xFF;
+		if (count != frame.components.length)
+			throw new UnsupportedFormatException("Multiple scans are not supported");
+
+		for (int i = 0; i < count; i++) {
+			int id = data[pos + 1 + i * 2] & 0xFF;
+			int tables = data[pos + 2 + i * 2] & 0xFF;
+			Component component = frame.components[i];
+			if (component.id != id)
+				throw new UnsupportedFormatException("Unsupported component order");
+			component.dcTable = (tables >> 4) & 0x0F;
+			component.acTable = tables & 0x0F;
+			if (component.dcTable > 3 || component.acTable > 3
+					|| frame.dcTables[component.dcTable] == null
+					|| frame.acTables[component.acTable] == null)
+				throw new UnsupportedFormatException("Missing Huffman table");
+		}
+	}
+
+	/**
+	 * decode the entropy coded data up to the last MCU row of the crop, keeping the coefficients
+	 * of the blocks inside the crop
+	 */
+	private static void decode(Frame frame, Rectangle region) throws IOException {
+		int mcuWidth = frame.getMcuWidth();
+		int mcuHeight = frame.getMcuHeight();
+		int mcusPerLine = (frame.width + mcuWidth - 1) / mcuWidth;
+
+		// the MCUs covering the crop
+		int mcuX0 = region.x / mcuWidth;
+		int mcuY0 = region.y / mcuHeight;
+		int mcuX1 = (region.x + region.width + mcuWidth - 1) / mcuWidth;
+		int mcuY1 = (region.y + region.height + mcuHeight - 1) / mcuHeight;
+
+		boolean interleaved = frame.isInterleaved();
+		for (Component component : frame.components) {
+			int h = interleaved ? component.h : 1;
+			int v = interleaved ? component.v : 1;
+			component.blocksPerLine = (mcuX1 - mcuX0) * h;
+			component.coefficients = new short[component.blocksPerLine * (mcuY1 - mcuY0) * v * 64];
+			component.predictor = 0;
+		}
+
+		BitReader reader = new BitReader(frame.data, frame.scanOffset);
+		int mcu = 0;
+		for (int mcuY = 0; mcuY < mcuY1; mcuY++) {
+			for (int mcuX = 0; mcuX < mcusPerLine; mcuX++) {
+				if (frame.restartInterval > 0 && mcu > 0 && mcu % frame.restartInterval == 0) {
+					reader.restart();
+					for (Component component : frame.components)
+						component.predictor = 0;
+				}
+				mcu++;
+
+				boolean inside = mcuY >= mcuY0 && mcuX >= mcuX0 && mcuX < mcuX1;
+				for (Component component : frame.components) {
+					int h = interleaved ? component.h : 1;
+					int v = interleaved ? component.v : 1;
+					for (int y = 0; y < v; y++) {
+						for (int x = 0; x < h; x++) {
+							int offset = -1;
+							if (inside) {
+								int blockY = (mcuY - mcuY0) * v + y;
+								int blockX = (mcuX - mcuX0) * h + x;
+								offset = (blockY * component.blocksPerLine + blockX) * 64;
+							}
+							decodeBlock(frame, component, reader, offset);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * decode the coefficients of a block
+	 * @param offset the offset to store the coefficients at, -1 to skip them
+	 */
+	private static void decodeBlock(Frame frame, Component component, BitReader reader,
+			int offset) throws IOException {
+		short[] coefficients = component.coefficients;
+
+		int size = frame.dcTables[component.dcTable].decode(reader);
+		if (size > 0)
+			component.predictor += extend(reader.getBits(size), size);
+		if (offset >= 0)
+			coefficients[offset] = (short)component.predictor;
+
+		HuffmanDecoder acTable = frame.acTables[component.acTable];
+		for (int k = 1; k < 64; k++) {
+			int symbol = acTable.decode(reader);
+			int run = symbol >> 4;
+			size = symbol & 0x0F;
+			if (size == 0) {
+				if (run != 15)
+					break; // end of block
+				k += 15; // 16 zeros
+				continue;
+			}
+			k += run;
+			if (k > 63)
+				throw new IOException("Corrupt JPEG data");
+			int value = extend(reader.getBits(size), size);
+			if (offset >= 0)
+				coefficients[offset + k] = (short)value;
+		}
+	}
+
+	/**
+	 * write the cropped JPEG file
+	 */
+	private static void write(Frame frame, Rectangle region, OutputStream out)
+			throws IOException {
+		boolean interleaved = frame.isInterleaved();
+		byte[] data = frame.data;
+
+		out.write(0xFF);
+		out.write(SOI);
+		for (int[] segment : frame.copiedSegments)
+			out.write(data, segment[0], segment[1]);
+
+		// the frame header, with the size of the crop
+		int count = frame.components.length;
+		writeMarker(out, SOF0, 6 + count * 3);
+		out.write(8);
+		writeShort(out, region.height);
+		writeShort(out, region.width);
+		out.write(count);
+		for (Component component : frame.components) {
+			out.write(component.id);
+			out.write(interleaved ? component.h << 4 | component.v : 0x11);
+			out.write(component.quantTable);
+		}
+
+		// the standard Huffman tables, which can code any coefficient of an 8 bit image
+		HuffmanEncoder[] dcEncoders = new HuffmanEncoder[] {
+				new HuffmanEncoder(JPEGHuffmanTable.StdDCLuminance),
+				new HuffmanEncoder(JPEGHuffmanTable.StdDCChrominance) };
+		HuffmanEncoder[] acEncoders = new HuffmanEncoder[] {
+				new HuffmanEncoder(JPEGHuffmanTable.StdACLuminance),
+				new HuffmanEncoder(JPEGHuffmanTable.StdACChrominance) };
+		int tableCount = count > 1 ? 2 : 1;
+		for (int i = 0; i < tableCount; i++) {
+			writeHuffmanTable(out, 0, i, i == 0 ? JPEGHuffmanTable.StdDCLuminance
+					: JPEGHuffmanTable.StdDCChrominance);
+			writeHuffmanTable(out, 1, i, i == 0 ? JPEGHuffmanTable.StdACLuminance
+					: JPEGHuffmanTable.StdACChrominance);
+		}
+
+		// the scan header; the first component uses the luminance tables, the others the
+		// chrominance ones
+		writeMarker(out, SOS, 4 + count * 2);
+		out.write(count);
+		for (int i = 0; i < count; i++) {
+			out.write(frame.components[i].id);
+			out.write(i == 0 ? 0x00 : 0x11);
+		}
+		out.write(0);
+		out.write(63);
+		out.write(0);
+
+		// and the blocks of the crop
+		BitWriter writer = new BitWriter(out);
+		for (Component component : frame.components)
+			component.predictor = 0;
+
+		int mcuWidth = frame.getMcuWidth();
+		int mcuHeight = frame.getMcuHeight();
+		int mcusPerLine = (region.width + mcuWidth - 1) / mcuWidth;
+		int mcuLines = (region.height + mcuHeight - 1) / mcuHeight;
+		for (int mcuY = 0; mcuY < mcuLines; mcuY++) {
+			for (int mcuX = 0; mcuX < mcusPerLine; mcuX++) {
+				for (int i = 0; i < count; i++) {
+					Component component = frame.components[i];
+					int h = interleaved ? component.h : 1;
+					int v = interleaved ? component.v : 1;
+					int table = i == 0 ? 0 : 1;
+					for (int y = 0; y < v; y++) {
+						for (int x = 0; x < h; x++) {
+							int offset = ((mcuY * v + y) * component.blocksPerLine
+									+ mcuX * h + x) * 64;
+							encodeBlock(component, offset, dcEncoders[table],
+									acEncoders[table], writer);
+						}
+					}
+				}
+			}
+		}
+		writer.flush();
+
+		out.write(0xFF);
+		out.write(EOI);
+	}
+
+	/**
+	 * encode the coefficients of a block
+	 */
+	private static void encodeBlock(Component component, int offset, HuffmanEncoder dcEncoder,
+			HuffmanEncoder acEncoder, BitWriter writer) throws IOException {
+		short[] coefficients = component.coefficients;
+
+		int diff = coefficients[offset] - component.predictor;
+		component.predictor = coefficients[offset];
+		int size = getSize(diff);
+		dcEncoder.write(size, writer);
+		if (size > 0)
+			writer.write(diff < 0 ? diff - 1 : diff, size);
+
+		int run = 0;
+		for (int k = 1; k < 64; k++) {
+			int value = coefficients[offset + k];
+			if (value == 0) {
+				run++;
+				continue;
+			}
+			while (run > 15) {
+				acEncoder.write(0xF0, writer); // 16 zeros
+				run -= 16;
+			}
+			size = getSize(value);
+			acEncoder.write(run << 4 | size, writer);
+			writer.write(value < 0 ? value - 1 : value, size);
+			run = 0;
+		}
+		if (run > 0)
+			acEncoder.write(0x00, writer); // end of block
+	}
+
+	/**
+	 * @return the number of bits of the magnitude of a coefficient
+	 */
+	private static int getSize(int value) {
+		return 32 - Integer.numberOfLeadingZeros(Math.abs(value));
+	}
+
+	/**
+	 * @return the signed value of the given magnitude bits
+	 */
+	private static int extend(int bits, int size) {
+		return bits < (1 << (size - 1)) ? bits - (1 << size) + 1 : bits;
+	}
+
+	private static void writeHuffmanTable(OutputStream out, int tableClass, int id,
+			JPEGHuffmanTable table) throws IOException {
+		short[] lengths = table.getLengths();
+		short[] values = table.getValues();
+		writeMarker(out, DHT, 17 + values.length);
+		out.write(tableClass << 4 | id);
+		for (short length : lengths)
+			out.write(length);
+		for (short value : values)
+			out.write(value);
+	}
+
+	private static void writeMarker(OutputStream out, int marker, int length)
+			throws IOException {
+		out.write(0xFF);
+		out.write(marker);
+		writeShort(out, length + 2);
+	}
+
+	private static void writeShort(OutputStream out, int value) throws IOException {
+		out.write(value >> 8);
+		out.write(value & 0xFF);
+	}
+
+	private static int readShort(byte[] data, int pos) {
+		return (data[pos] & 0xFF) << 8 | (data[pos + 1] & 0xFF);
+	}
+
+	private static byte[] readFile(File file) throws IOException {
+		byte[] data = new byte[(int)file.length()];
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			in.readFully(data);
+		}
+		finally {
+			in.close();
+		}
+		return data;
+	}
+
+
+	/**
+	 * Thrown when a file is not a JPEG file this class can crop
+	 */
+	private static class UnsupportedFormatException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		private UnsupportedFormatException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * Read the entropy coded data, removing the stuffed bytes; the markers read as zero bits
+	 */
+	private static class BitReader {
+		private final byte[] data;
+		private int pos;
+		private int buffer;
+		private int count;
+		private boolean markerFound;
+
+		private BitReader(byte[] data, int pos) {
+			this.data = data;
+			this.pos = pos;
+		}
+
+		/**
+		 * @return the next n bits, without consuming them; n is at most 16
+		 */
+		private int peekBits(int n) {
+			while (count <= 24) {
+				int b = 0;
+				if (!markerFound && pos < data.length) {
+					b = data[pos] & 0xFF;
+					if (b != 0xFF) {
+						pos++;
+					}
+					else if (pos + 1 < data.length && data[pos + 1] == 0) {
+						pos += 2; // a stuffed byte
+					}
+					else {
+						markerFound = true;
+						b = 0;
+					}
+				}
+				buffer = buffer << 8 | b;
+				count += 8;
+			}
+			return (buffer >>> (count - n)) & ((1 << n) - 1);
+		}
+
+		private void skipBits(int n) {
+			count -= n;
+		}
+
+		private int getBits(int n) {
+			int bits = peekBits(n);
+			count -= n;
+			return bits;
+		}
+
+		/**
+		 * drop the bits left in the current interval and skip the restart marker
+		 */
+		private void restart() throws IOException {
+			buffer = 0;
+			count = 0;
+			markerFound = false;
+			while (pos + 1 < data.length) {
+				int marker = data[pos + 1] & 0xFF;
+				if ((data[pos] & 0xFF) == 0xFF && marker >= RST0 && marker <= RST7) {
+					pos += 2;
+					return;
+				}
+				pos++;
+			}
+			throw new IOException("Restart marker not found");
+		}
+	}
+
+	/**
+	 * Write the entropy coded data, stuffing a zero byte after each 0xFF byte
+	 */
+	private static class BitWriter {
+		private final OutputStream out;
+		private int buffer;
+		private int count;
+
+		private BitWriter(OutputStream out) {
+			this.out = out;
+		}
+
+		/**
+		 * write the low size bits of the given value
+		 */
+		private void write(int value, int size) throws IOException {
+			buffer = buffer << size | (value & ((1 << size) - 1));
+			count += size;
+			while (count >= 8) {
+				int b = (buffer >> (count - 8)) & 0xFF;
+				out.write(b);
+				if (b == 0xFF)
+					out.write(0);
+				count -= 8;
+			}
+		}
+
+		/**
+		 * pad the last byte with 1 bits
+		 */
+		private void flush() throws IOException {
+			if (count > 0)
+				write(0xFF, 8 - count);
+		}
+	}
+
+	/**
+	 * Decode the Huffman codes, looking up the codes of up to 8 bits in a table
+	 */
+	private static class HuffmanDecoder {
+		private final static int LOOKUP_BITS = 8;
+
+		// the code length in the high bits and the symbol in the low 8 bits; 0 if the code is
+		// longer than LOOKUP_BITS
+		private final int[] lookup = new int[1 << LOOKUP_BITS];
+		private final int[] maxCode = new int[17];
+		private final int[] valueOffset = new int[17];
+		private final short[] values;
+
+		private HuffmanDecoder(short[] lengths, short[] values) {
+			this.values = values;
+
+			int code = 0;
+			int k = 0;
+			for (int length = 1; length <= 16; length++) {
+				valueOffset[length] = k - code;
+				for (int i = 0; i < lengths[length - 1]; i++) {
+					if (length <= LOOKUP_BITS) {
+						int shift = LOOKUP_BITS - length;
+						for (int suffix = 0; suffix < (1 << shift); suffix++)
+							lookup[code << shift | suffix] = length << 8 | values[k];
+					}
+					code++;
+					k++;
+				}
+				maxCode[length] = lengths[length - 1] > 0 ? code - 1 : -1;
+				code <<= 1;
+			}
+		}
+
+		private int decode(BitReader reader) throws IOException {
+			int entry = lookup[reader.peekBits(LOOKUP_BITS)];
+			if (entry != 0) {
+				reader.skipBits(entry >> 8);
+				return entry & 0xFF;
+			}
+			for (int length = LOOKUP_BITS + 1; length <= 16; length++) {
+				int code = reader.peekBits(length);
+				if (code <= maxCode[length]) {
+					reader.skipBits(length);
+					return values[valueOffset[length] + code];
+				}
+			}
+			throw new IOException("Corrupt JPEG data");
+		}
+	}
+
+	/**
+	 * Code the symbols using a Huffman table
+	 */
+	private static class HuffmanEncoder {
+		private final int[] codes = new int[256];
+		private final int[] sizes = new int[256];
+
+		private HuffmanEncoder(JPEGHuffmanTable table) {
+			short[] lengths = table.getLengths();
+			short[] values = table.getValues();
+			int code = 0;
+			int k = 0;
+			for (int length = 1; length <= 16; length++) {
+				for (int i = 0; i < lengths[length - 1]; i++) {
+					codes[values[k]] = code++;
+					sizes[values[k]] = length;
+					k++;
+				}
+				code <<= 1;
+			}
+		}
+
+		private void write(int symbol, BitWriter writer) throws IOException {
+			if (sizes[symbol] == 0)
+				throw new IOException("No Huffman code for symbol " + symbol);
+			writer.write(codes[symbol], sizes[symbol]);
+		}
+	}
+}
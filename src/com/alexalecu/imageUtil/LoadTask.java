@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.SwingWorker;
+
+import com.alexalecu.imageCrop.exception.InvalidOperationException;
+
+/**
+ * Decode an image file in the background, so that it can be shown while it is decoding: the
+ * image being decoded into is published through the "image" property as soon as the decoder
+ * creates it, then the bounds of the regions decoded since the last notification through the
+ * "region" property; the progress (0 - 100) is published through the "progress" property, and
+ * the result through the "result" property, once the task is done.
+ * All the property change events are fired on the event dispatch thread.
+ * Optionally, the pixels are classified against a background color as the rows arrive, so
+ * that the background mask is complete when the image is.
+ *
+ * @author Alex Cojocaru
+ */
+public class LoadTask extends SwingWorker<BufferedImage, Rectangle> {
+	private BufferedImage result; // the task execution result
+	private Throwable error; // the error thrown by the task, if any
+
+	// the image being decoded into, once the decoder has created it
+	private volatile BufferedImage image;
+
+	private File file;
+	private int subsampling = 1;
+	private Color bgColor;
+	private int bgTolerance;
+
+	// the classification of the decoded pixels, null if they are not classified
+	private volatile BackgroundMask backgroundMask;
+
+
+	/**
+	 * @return the decoded image; null if the task has been cancelled or has failed
+	 */
+	public BufferedImage getResult() {
+		return result;
+	}
+
+	/**
+	 * set the task execution result and trigger a property change event
+	 * @param result
+	 */
+	private void setResult(BufferedImage result) {
+		BufferedImage oldResult = this.result;
+		this.result = result;
+		getPropertyChangeSupport().firePropertyChange("result", oldResult, result);
+	}
+
+	/**
+	 * @return the error which made the task fail, null if it has not failed
+	 */
+	public Throwable getError() {
+		return error;
+	}
+
+	/**
+	 * set the image file to decode
+	 * @param file
+	 */
+	public void setFile(File file) throws InvalidOperationException {
+		assertStateForChangingProperties();
+		this.file = file;
+	}
+
+	/**
+	 * @return the subsampling factor the image is decoded with
+	 */
+	public int getSubsampling() {
+		return subsampling;
+	}
+
+	/**
+	 * set the subsampling factor, 1 by default to decode the full image
+	 * @param subsampling
+	 */
+	public void setSubsampling(int subsampling) throws InvalidOperationException {
+		assertStateForChangingProperties();
+		this.subsampling = subsampling;
+	}
+
+	/**
+	 * classify the decoded pixels against the given background color, null not to classify them
+	 * @param bgColor the background color
+	 * @param bgTolerance the tolerance on each color component, between 0 and 255
+	 */
+	public void setBackgroundColor(Color bgColor, int bgTolerance)
+			throws InvalidOperationException {
+		assertStateForChangingProperties();
+		this.bgColor = bgColor;
+		this.bgTolerance = bgTolerance;
+	}
+
+	/**
+	 * @return the classification of the decoded image pixels, complete if the task has succeeded;
+	 * null if no background color has been set
+	 */
+	public BackgroundMask getBackgroundMask() {
+		return backgroundMask;
+	}
+
+	/**
+	 * Assert that the current task state allows the instance fields to be modified
+	 * @throws InvalidOperationException
+	 */
+	public void assertStateForChangingProperties() throws InvalidOperationException {
+		if (getState() == StateValue.PENDING)
+			return;
+		if (getState() == StateValue.DONE)
+			return;
+
+		throw new InvalidOperationException("Cannot change instance fields" +
+				" when the LoadTask is in " + getState() + "state");
+	}
+
+	/**
+	 * decode the image; make sure you set the execution parameters before executing the task
+	 * @return the decoded image, null if the task has been cancelled
+	 */
+	@Override
+	protected BufferedImage doInBackground() throws Exception {
+		if (file == null)
+			return null;
+
+		BufferedImage decoded = ImageLoader.read(file, subsampling, new ImageLoader.Monitor() {
+			public void imageUpdated(BufferedImage updated, Rectangle region) {
+				if (image != updated) {
+					image = updated;
+					if (bgColor != null)
+						backgroundMask = new BackgroundMask(updated.getWidth(),
+								updated.getHeight(), bgColor, bgTolerance);
+					firePropertyChange("image", null, updated);
+				}
+				// classify the rows while they are still in the cache
+				if (backgroundMask != null)
+					backgroundMask.classify(updated, region);
+				publish(region);
+			}
+
+			public void progress(int percent) {
+				setProgress(percent);
+			}
+
+			public boolean isCancelled() {
+				return LoadTask.this.isCancelled();
+			}
+		});
+
+		// the decoded image is normalized once complete, which copies the pixels as they are
+		// if the decoder has produced an unusual format; the mask classifies the copy as well
+		if (decoded != null && decoded != image && backgroundMask != null)
+			backgroundMask.rebind(decoded);
+		return decoded;
+	}
+
+	/**
+	 * merge the regions decoded since the last call and notify the listeners
+	 */
+	@Override
+	protected void process(List<Rectangle> regions) {
+		Rectangle bounds = new Rectangle(regions.get(0));
+		for (Rectangle region : regions)
+			bounds.add(region);
+		firePropertyChange("region", null, bounds);
+	}
+
+	@Override
+	public void done() {
+		try {
+			setResult(get());
+		}
+		catch (InterruptedException e) {
+			setResult(null);
+		}
+		catch (ExecutionException e) {
+			error = e.getCause();
+			setResult(null);
+		}
+		catch (CancellationException e) {
+			setResult(null);
+		}
+	}
+}
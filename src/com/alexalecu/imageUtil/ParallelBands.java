@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Split a range of rows (or any other 1-dimensional range) into bands and process them in
+ * parallel on a shared pool sized to the number of cores
+ *
+ * @author Alex Cojocaru
+ */
+public class ParallelBands {
+	private final static int THREAD_COUNT = Runtime.getRuntime().availableProcessors();
+
+	// set on the pool threads, so that nested calls are run inline instead of deadlocking
+	private final static ThreadLocal<Boolean> poolThread = new ThreadLocal<Boolean>();
+
+	private final static ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT,
+			new ThreadFactory() {
+				private int count = 0;
+
+				public synchronized Thread newThread(final Runnable r) {
+					Thread thread = new Thread(new Runnable() {
+						public void run() {
+							poolThread.set(Boolean.TRUE);
+							r.run();
+						}
+					}, "imageUtil-band-" + (++count));
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	/**
+	 * The unit of work executed for each band
+	 */
+	public interface BandTask {
+		/**
+		 * process the band [start, end)
+		 * @param start the first index in the band, inclusive
+		 * @param end the last index in the band, exclusive
+		 */
+		public void process(int start, int end);
+	}
+
+	/**
+	 * @return the number of threads used for the band processing
+	 */
+	public static int getThreadCount() {
+		return THREAD_COUNT;
+	}
+
+	/**
+	 * split the [0, length) range into bands of at least minBandSize elements and process them in
+	 * parallel; the method returns when all the bands have been processed
+	 * @param length the length of the range to process
+	 * @param minBandSize the minimum number of elements in a band, to keep the small inputs on
+	 * the calling thread
+	 * @param task the task to run on each band
+	 */
+	public static void run(int length, int minBandSize, final BandTask task) {
+		if (length <= 0)
+			return;
+
+		int bandCount = Math.min(THREAD_COUNT * 4, length / Math.max(1, minBandSize));
+
+		// no point going parallel for a single band, or when called from one of the pool threads
+		if (bandCount <= 1 || THREAD_COUNT == 1 || poolThread.get() != null) {
+			task.process(0, length);
+			return;
+		}
+
+		int bandSize = (length + bandCount - 1) / bandCount;
+		List<Callable<Object>> bands = new ArrayList<Callable<Object>>(bandCount);
+		for (int start = 0; start < length; start += bandSize) {
+			final int bandStart = start;
+			final int bandEnd = Math.min(length, start + bandSize);
+			bands.add(new Callable<Object>() {
+				public Object call() {
+					task.process(bandStart, bandEnd);
+					return null;
+				}
+			});
+		}
+
+		try {
+			for (Future<Object> future : executor.invokeAll(bands))
+				future.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Band processing interrupted", e);
+		}
+		catch (ExecutionException e) {
+			// re-throw the original exception thrown by the band task
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			if (cause instanceof Error)
+				throw (Error)cause;
+			throw new IllegalStateException("Band processing failed", cause);
+		}
+	}
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBufferByte;
+
+/**
+ * Keep the images in the most compact of the standard pixel formats: the grey images stay
+ * TYPE_BYTE_GRAY (1 byte per pixel) and the opaque color images TYPE_3BYTE_BGR (3 bytes per
+ * pixel) from the decoder or the scanner to the encoder; the other formats are converted once,
+ * when the image enters the application, and only the consumers which need a specific format
+ * convert the images, using direct raster loops and lookup tables.
+ *
+ * @author Alex Cojocaru
+ */
+public class PixelFormat {
+	// the minimum number of rows converted by a thread
+	private final static int MIN_BAND_HEIGHT = 64;
+
+	// the luma weights of each component value, see ImageColors.luminance
+	private final static int[] RED_WEIGHTS = new int[256];
+	private final static int[] GREEN_WEIGHTS = new int[256];
+	private final static int[] BLUE_WEIGHTS = new int[256];
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			RED_WEIGHTS[i] = 77 * i;
+			GREEN_WEIGHTS[i] = 150 * i;
+			BLUE_WEIGHTS[i] = 29 * i;
+		}
+	}
+
+	/**
+	 * @param image an image
+	 * @return the most compact standard type which holds the pixels of the image without losing
+	 * colors: TYPE_BYTE_GRAY for the grey images without alpha, TYPE_4BYTE_ABGR for the images
+	 * with alpha, TYPE_3BYTE_BGR for the others
+	 */
+	public static int getCompactType(BufferedImage image) {
+		ColorModel cm = image.getColorModel();
+		if (cm.hasAlpha())
+			return BufferedImage.TYPE_4BYTE_ABGR;
+		if (cm.getColorSpace().getType() == ColorSpace.TYPE_GRAY)
+			return BufferedImage.TYPE_BYTE_GRAY;
+		return BufferedImage.TYPE_3BYTE_BGR;
+	}
+
+	/**
+	 * @param image an image
+	 * @return the most compact standard type which holds the colors of the image, dropping its
+	 * alpha and its high bit depth: TYPE_BYTE_GRAY for the grey images, TYPE_3BYTE_BGR for
+	 * the others
+	 */
+	public static int getOpaqueType(BufferedImage image) {
+		return image.getColorModel().getColorSpace().getType() == ColorSpace.TYPE_GRAY
+				? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_3BYTE_BGR;
+	}
+
+	/**
+	 * make sure the image is of one of the types the image processing reads and writes directly
+	 * (see PixelWriter.isDirectType); any other type (indexed, custom layouts, etc.) is converted
+	 * to its compact type. The high bit depth images (e.g. the 48 bit scans) are kept as they
+	 * are, so that their crops can be saved without losing the depth.
+	 * @param image the image to normalize
+	 * @return the image itself if it is of a direct type or of a high bit depth, its conversion
+	 * otherwise
+	 */
+	public static BufferedImage normalize(BufferedImage image) {
+		if (PixelWriter.isDirectType(image.getType()) || isHighBitDepth(image))
+			return image;
+		return convert(image, getCompactType(image));
+	}
+
+	/**
+	 * @param image an image
+	 * @return true if the image stores its components on more than 8 bits each, in a
+	 * component layout the encoders can write as they are (e.g. TYPE_USHORT_GRAY)
+	 */
+	public static boolean isHighBitDepth(BufferedImage image) {
+		ColorModel cm = image.getColorModel();
+		if (!(cm instanceof ComponentColorModel))
+			return false;
+		for (int size : cm.getComponentSize())
+			if (size > 8)
+				return true;
+		return false;
+	}
+
+	/**
+	 * normalize the image, then convert the opaque color images which contain grey pixels only
+	 * (e.g. the document scans made in color mode) to TYPE_BYTE_GRAY
+	 * @param image the image to compact
+	 * @return the image itself if it cannot be made more compact, its conversion otherwise
+	 */
+	public static BufferedImage compact(BufferedImage image) {
+		image = normalize(image);
+		if (image.getType() != BufferedImage.TYPE_BYTE_GRAY && !image.getColorModel().hasAlpha()
+				&& !isHighBitDepth(image) && isGrey(image))
+			return convert(image, BufferedImage.TYPE_BYTE_GRAY);
+		return image;
+	}
+
+	/**
+	 * @param image an image
+	 * @return true if the red, green and blue components of each pixel are equal
+	 */
+	public static boolean isGrey(BufferedImage image) {
+		if (image.getColorModel().getColorSpace().getType() == ColorSpace.TYPE_GRAY)
+			return true;
+
+		PixelReader reader = PixelReader.forImage(image);
+		int width = image.getWidth();
+		int[] row = new int[width];
+		for (int y = 0; y < image.getHeight(); y++) {
+			reader.getArgbRow(0, y, width, row);
+			for (int x = 0; x < width; x++) {
+				int rgb = row[x];
+				int blue = rgb & 0xFF;
+				if (((rgb >> 16) & 0xFF) != blue || ((rgb >> 8) & 0xFF) != blue)
+					return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * convert an image to another type; the color images are converted to grey using the luma
+	 * of their pixels, and the alpha is dropped when the target type has none
+	 * @param source the image to convert
+	 * @param targetType the type of the new image, any of the predefined BufferedImage types
+	 * @return a new image of the given type, even if the source is of the same type
+	 */
+	public static BufferedImage convert(BufferedImage source, final int targetType) {
+		if (source.getType() == targetType)
+			return ImageConvert.cloneImage(source);
+
+		final int width = source.getWidth();
+		final BufferedImage target = new BufferedImage(width, source.getHeight(), targetType);
+		final PixelReader reader = PixelReader.forImage(source);
+		final PixelWriter writer = PixelWriter.forImage(target);
+		final boolean direct = PixelWriter.isDirectType(targetType);
+		final boolean alpha = target.getColorModel().hasAlpha();
+
+		ParallelBands.run(source.getHeight(), MIN_BAND_HEIGHT, new ParallelBands.BandTask() {
+			public void process(int start, int end) {
+				int[] row = new int[width];
+				int[] scratch = new int[writer.getScratchSize(width)];
+				byte[] grey = targetType == BufferedImage.TYPE_BYTE_GRAY
+						? ((DataBufferByte)target.getRaster().getDataBuffer()).getData() : null;
+
+				for (int y = start; y < end; y++) {
+					reader.getArgbRow(0, y, width, row);
+
+					if (grey != null) {
+						// the new grey image is not a sub-image, its rows are contiguous
+						for (int x = 0, i = y * width; x < width; x++, i++) {
+							int rgb = row[x];
+							grey[i] = (byte)((RED_WEIGHTS[(rgb >> 16) & 0xFF]
+									+ GREEN_WEIGHTS[(rgb >> 8) & 0xFF]
+									+ BLUE_WEIGHTS[rgb & 0xFF]) >> 8);
+						}
+						continue;
+					}
+
+					if (!alpha)
+						for (int x = 0; x < width; x++)
+							row[x] |= 0xFF000000;
+
+					if (direct)
+						writer.setArgbRow(0, y, width, row, scratch);
+					else
+						target.setRGB(0, y, width, 1, row, 0, width);
+				}
+			}
+		});
+
+		return target;
+	}
+}
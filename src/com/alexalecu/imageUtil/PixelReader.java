@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Random access to the pixels of a BufferedImage as ARGB values; the common image types are read
+ * straight from the underlying data buffer, the others go through BufferedImage.getRGB.
+ * The instances are immutable and can be shared between threads.
+ *
+ * @author Alex Cojocaru
+ */
+public abstract class PixelReader {
+	protected final int width;
+	protected final int height;
+
+	protected PixelReader(BufferedImage image) {
+		this.width = image.getWidth();
+		this.height = image.getHeight();
+	}
+
+	/**
+	 * create the fastest reader for the given image
+	 * @param image the image to read the pixels from
+	 * @return the pixel reader
+	 */
+	public static PixelReader forImage(BufferedImage image) {
+		switch (image.getType()) {
+			case BufferedImage.TYPE_INT_RGB:
+				return new IntReader(image, 0xFF000000);
+			case BufferedImage.TYPE_INT_ARGB:
+				return new IntReader(image, 0);
+			case BufferedImage.TYPE_3BYTE_BGR:
+			case BufferedImage.TYPE_4BYTE_ABGR:
+			case BufferedImage.TYPE_BYTE_GRAY:
+				return new ByteReader(image);
+			default:
+				return isUShortComponent(image) ? new UShortReader(image) : new RGBReader(image);
+		}
+	}
+
+	/**
+	 * @return true if the image stores each pixel component into a short, e.g. the 16 bit per
+	 * channel scans
+	 */
+	private static boolean isUShortComponent(BufferedImage image) {
+		WritableRaster raster = image.getRaster();
+		return image.getColorModel() instanceof ComponentColorModel
+				&& raster.getSampleModel() instanceof ComponentSampleModel
+				&& raster.getDataBuffer() instanceof DataBufferUShort
+				&& raster.getNumBands() <= 4 && raster.getSampleModel().getSampleSize(0) == 16;
+	}
+
+	/**
+	 * @return the width of the image
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return the height of the image
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @param x the x coordinate of the pixel, inside the image
+	 * @param y the y coordinate of the pixel, inside the image
+	 * @return the ARGB value of the pixel
+	 */
+	public abstract int getArgb(int x, int y);
+
+	/**
+	 * read a horizontal run of pixels
+	 * @param x the x coordinate of the first pixel
+	 * @param y the y coordinate of the row
+	 * @param length the number of pixels to read
+	 * @param argb the array to store the ARGB values into, starting at index 0
+	 */
+	public void getArgbRow(int x, int y, int length, int[] argb) {
+		for (int i = 0; i < length; i++)
+			argb[i] = getArgb(x + i, y);
+	}
+
+
+	/**
+	 * reader for the images packing each pixel into an int
+	 */
+	private static class IntReader extends PixelReader {
+		private final int[] data;
+		private final int offset;
+		private final int scanlineStride;
+		private final int alphaMask;
+
+		private IntReader(BufferedImage image, int alphaMask) {
+			super(image);
+			WritableRaster raster = image.getRaster();
+			SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel)raster.getSampleModel();
+			DataBufferInt buffer = (DataBufferInt)raster.getDataBuffer();
+
+			this.data = buffer.getData();
+			this.scanlineStride = sm.getScanlineStride();
+			// take the sub-image translation into account
+			this.offset = buffer.getOffset()
+					- raster.getSampleModelTranslateY() * scanlineStride
+					- raster.getSampleModelTranslateX();
+			this.alphaMask = alphaMask;
+		}
+
+		@Override
+		public int getArgb(int x, int y) {
+			return data[offset + y * scanlineStride + x] | alphaMask;
+		}
+
+		@Override
+		public void getArgbRow(int x, int y, int length, int[] argb) {
+			int start = offset + y * scanlineStride + x;
+			if (alphaMask == 0) {
+				System.arraycopy(data, start, argb, 0, length);
+			}
+			else {
+				for (int i = 0; i < length; i++)
+					argb[i] = data[start + i] | alphaMask;
+			}
+		}
+	}
+
+	/**
+	 * reader for the images storing each pixel component into a byte
+	 */
+	private static class ByteReader extends PixelReader {
+		private final byte[] data;
+		private final int offset;
+		private final int scanlineStride;
+		private final int pixelStride;
+		private final int offsetR, offsetG, offsetB, offsetA;
+
+		private ByteReader(BufferedImage image) {
+			super(image);
+			WritableRaster raster = image.getRaster();
+			ComponentSampleModel sm = (ComponentSampleModel)raster.getSampleModel();
+			DataBufferByte buffer = (DataBufferByte)raster.getDataBuffer();
+
+			this.data = buffer.getData();
+			this.scanlineStride = sm.getScanlineStride();
+			this.pixelStride = sm.getPixelStride();
+			this.offset = buffer.getOffset()
+					- raster.getSampleModelTranslateY() * scanlineStride
+					- raster.getSampleModelTranslateX() * pixelStride;
+
+			// the bands are in (red, green, blue [, alpha]) order, or a single grey band
+			int[] bandOffsets = sm.getBandOffsets();
+			int bands = bandOffsets.length;
+			this.offsetR = bandOffsets[0];
+			this.offsetG = bands >= 3 ? bandOffsets[1] : bandOffsets[0];
+			this.offsetB = bands >= 3 ? bandOffsets[2] : bandOffsets[0];
+			this.offsetA = bands == 4 ? bandOffsets[3] : -1;
+		}
+
+		@Override
+		public int getArgb(int x, int y) {
+			int i = offset + y * scanlineStride + x * pixelStride;
+			int alpha = offsetA >= 0 ? data[i + offsetA] & 0xFF : 0xFF;
+			return alpha << 24 | (data[i + offsetR] & 0xFF) << 16
+					| (data[i + offsetG] & 0xFF) << 8 | (data[i + offsetB] & 0xFF);
+		}
+	}
+
+	/**
+	 * reader for the images storing each pixel component into a short; the components are
+	 * narrowed to their 8 most significant bits
+	 */
+	private static class UShortReader extends PixelReader {
+		private final short[] data;
+		private final int offset;
+		private final int scanlineStride;
+		private final int pixelStride;
+		private final int offsetR, offsetG, offsetB, offsetA;
+
+		private UShortReader(BufferedImage image) {
+			super(image);
+			WritableRaster raster = image.getRaster();
+			ComponentSampleModel sm = (ComponentSampleModel)raster.getSampleModel();
+			DataBufferUShort buffer = (DataBufferUShort)raster.getDataBuffer();
+
+			this.data = buffer.getData();
+			this.scanlineStride = sm.getScanlineStride();
+			this.pixelStride = sm.getPixelStride();
+			this.offset = buffer.getOffset()
+					- raster.getSampleModelTranslateY() * scanlineStride
+					- raster.getSampleModelTranslateX() * pixelStride;
+
+			// the same band conventions as ByteReader
+			int[] bandOffsets = sm.getBandOffsets();
+			int bands = bandOffsets.length;
+			this.offsetR = bandOffsets[0];
+			this.offsetG = bands >= 3 ? bandOffsets[1] : bandOffsets[0];
+			this.offsetB = bands >= 3 ? bandOffsets[2] : bandOffsets[0];
+			this.offsetA = bands == 4 || bands == 2 ? bandOffsets[bands - 1] : -1;
+		}
+
+		@Override
+		public int getArgb(int x, int y) {
+			int i = offset + y * scanlineStride + x * pixelStride;
+			int alpha = offsetA >= 0 ? (data[i + offsetA] & 0xFFFF) >> 8 : 0xFF;
+			return alpha << 24 | (data[i + offsetR] & 0xFF00) << 8
+					| (data[i + offsetG] & 0xFF00) | (data[i + offsetB] & 0xFFFF) >> 8;
+		}
+	}
+
+	/**
+	 * fallback reader for any other image type
+	 */
+	private static class RGBReader extends PixelReader {
+		private final BufferedImage image;
+
+		private RGBReader(BufferedImage image) {
+			super(image);
+			this.image = image;
+		}
+
+		@Override
+		public int getArgb(int x, int y) {
+			return image.getRGB(x, y);
+		}
+
+		@Override
+		public void getArgbRow(int x, int y, int length, int[] argb) {
+			image.getRGB(x, y, length, 1, argb, 0, length);
+		}
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+
+/**
+ * Write rows of ARGB values into a BufferedImage, the counterpart of PixelReader; the common
+ * image types are written straight into the raster, using the same conventions as PixelReader
+ * (e.g. the grey images store the red component as is, with no color space conversion).
+ * Different threads can write different rows of the same image at the same time.
+ *
+ * @author Alex Cojocaru
+ */
+public class PixelWriter {
+	private final BufferedImage image;
+	private final WritableRaster raster;
+	private final int type;
+	private final int bands;
+
+	private PixelWriter(BufferedImage image) {
+		this.image = image;
+		this.raster = image.getRaster();
+		this.type = image.getType();
+		this.bands = raster.getNumBands();
+	}
+
+	/**
+	 * create a writer for the given image
+	 * @param image the image to write the pixels into
+	 * @return the pixel writer
+	 */
+	public static PixelWriter forImage(BufferedImage image) {
+		return new PixelWriter(image);
+	}
+
+	/**
+	 * @return true if PixelReader and PixelWriter access the given image type straight from its
+	 * raster, therefore a copy between two images of this type is lossless
+	 */
+	public static boolean isDirectType(int type) {
+		switch (type) {
+			case BufferedImage.TYPE_INT_RGB:
+			case BufferedImage.TYPE_INT_ARGB:
+			case BufferedImage.TYPE_3BYTE_BGR:
+			case BufferedImage.TYPE_4BYTE_ABGR:
+			case BufferedImage.TYPE_BYTE_GRAY:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * create a new image that can hold the pixels of the source image, of the same type if
+	 * PixelWriter can write it directly; otherwise of TYPE_INT_ARGB if the source has alpha,
+	 * and of its compact opaque type if not (e.g. TYPE_3BYTE_BGR for a 48 bit scan), so that
+	 * the new image can still be written by any encoder
+	 * @param source the image to create a compatible image for
+	 * @param width the width of the new image
+	 * @param height the height of the new image
+	 * @return the new image
+	 */
+	public static BufferedImage createCompatibleImage(BufferedImage source, int width,
+			int height) {
+		int type;
+		if (isDirectType(source.getType()))
+			type = source.getType();
+		else if (source.getColorModel().hasAlpha())
+			type = BufferedImage.TYPE_INT_ARGB;
+		else
+			type = PixelFormat.getOpaqueType(source);
+		return new BufferedImage(width, height, type);
+	}
+
+	/**
+	 * @return the number of elements of the scratch buffer needed by setArgbRow for the given
+	 * row length
+	 */
+	public int getScratchSize(int length) {
+		return length * bands;
+	}
+
+	/**
+	 * write a horizontal run of pixels
+	 * @param x the x coordinate of the first pixel
+	 * @param y the y coordinate of the row
+	 * @param length the number of pixels to write
+	 * @param argb the ARGB values to write, starting at index 0
+	 * @param scratch a scratch buffer of at least getScratchSize(length) elements
+	 */
+	public void setArgbRow(int x, int y, int length, int[] argb, int[] scratch) {
+		switch (type) {
+			case BufferedImage.TYPE_INT_RGB:
+			case BufferedImage.TYPE_INT_ARGB:
+				// the data elements of these types are the packed pixels themselves
+				raster.setDataElements(x, y, length, 1, argb);
+				break;
+			case BufferedImage.TYPE_3BYTE_BGR:
+			case BufferedImage.TYPE_4BYTE_ABGR:
+			case BufferedImage.TYPE_BYTE_GRAY:
+				// the bands are in (red, green, blue [, alpha]) order, or a single grey band
+				for (int i = 0, j = 0; i < length; i++) {
+					int pixel = argb[i];
+					scratch[j++] = (pixel >> 16) & 0xFF;
+					if (bands >= 3) {
+						scratch[j++] = (pixel >> 8) & 0xFF;
+						scratch[j++] = pixel & 0xFF;
+					}
+					if (bands == 4)
+						scratch[j++] = pixel >>> 24;
+				}
+				raster.setPixels(x, y, length, 1, scratch);
+				break;
+			default:
+				image.setRGB(x, y, length, 1, argb, 0, length);
+		}
+	}
+}
@@ -0,0 +1,376 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Dump an image to a file as its raw raster, and load it back; both ways the pixels are bulk
+ * copied through a direct buffer reused by the thread, there is no encoding or decoding involved.
+ * The file is not memory mapped, so that it can be deleted as soon as it is closed.
+ * The images of the common int and byte types are stored as they are, and so are the 16 bit per
+ * component grey and RGB(A) images (e.g. the 48 bit scans), which keep their depth; the others
+ * are stored as ARGB ints.
+ *
+ * @author Alex Cojocaru
+ */
+public class RasterSnapshot {
+	private final static int MAGIC = 0x49435253; // ICRS
+	private final static int VERSION = 1;
+	private final static int HEADER_SIZE = 32;
+
+	// the stored types of the 16 bit per component sRGB images, which have no BufferedImage type;
+	// the grey ones are stored as TYPE_USHORT_GRAY
+	private final static int TYPE_USHORT_RGB = 1001;
+	private final static int TYPE_USHORT_RGBA = 1002;
+
+	// the file is read and written in chunks of whole rows of at most this size, unless a single
+	// row is larger
+	private final static int CHUNK_SIZE = 1024 * 1024;
+
+	// the buffer the chunks are copied through, kept by each thread
+	private final static ThreadLocal<ByteBuffer> chunkBuffer = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocateDirect(CHUNK_SIZE);
+		}
+	};
+
+	/**
+	 * write the image to a snapshot file
+	 * @param image the image to write
+	 * @param file the file to write to; it is overwritten if it exists
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void write(BufferedImage image, File file) throws IOException {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		// the images of the stored types are copied straight from their data buffer, any other
+		// image is converted to ARGB
+		WritableRaster raster = image.getRaster();
+		int type = getStoredType(image);
+		int scanlineStride = getPixelStride(type) > 0 ? getScanlineStride(raster) : 0;
+		if (scanlineStride == 0)
+			type = BufferedImage.TYPE_INT_ARGB;
+
+		int pixelStride = getPixelStride(type);
+		int elementSize = getElementSize(type);
+		int rowLength = width * pixelStride;
+		long rowBytes = (long)rowLength * elementSize;
+
+		int offset = 0;
+		int[] intData = null;
+		short[] shortData = null;
+		byte[] byteData = null;
+		PixelReader reader = null;
+		int[] row = null;
+		if (scanlineStride > 0) {
+			if (elementSize == 4)
+				intData = ((DataBufferInt)raster.getDataBuffer()).getData();
+			else if (elementSize == 2)
+				shortData = ((DataBufferUShort)raster.getDataBuffer()).getData();
+			else
+				byteData = ((DataBufferByte)raster.getDataBuffer()).getData();
+			offset = raster.getDataBuffer().getOffset()
+					- raster.getSampleModelTranslateY() * scanlineStride
+					- raster.getSampleModelTranslateX() * pixelStride;
+		}
+		else {
+			reader = PixelReader.forImage(image);
+			row = new int[width];
+		}
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(HEADER_SIZE + rowBytes * height);
+			FileChannel channel = raf.getChannel();
+
+			ByteBuffer chunk = getChunkBuffer(rowBytes);
+			chunk.clear();
+			chunk.order(ByteOrder.BIG_ENDIAN);
+			chunk.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height).putInt(type);
+			chunk.put((byte)(ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN ? 0 : 1));
+			while (chunk.position() < HEADER_SIZE)
+				chunk.put((byte)0);
+			writeFully(channel, chunk, 0L);
+
+			int rowsPerChunk = (int)Math.max(1L, Math.min(height, chunk.capacity() / rowBytes));
+			for (int y0 = 0; y0 < height; y0 += rowsPerChunk) {
+				int rows = Math.min(rowsPerChunk, height - y0);
+				chunk.clear();
+				chunk.order(ByteOrder.nativeOrder());
+
+				for (int y = y0; y < y0 + rows; y++) {
+					if (reader != null) {
+						reader.getArgbRow(0, y, width, row);
+						chunk.asIntBuffer().put(row, 0, width);
+						chunk.position(chunk.position() + width * 4);
+					}
+					else if (intData != null) {
+						chunk.asIntBuffer().put(intData, offset + y * scanlineStride, rowLength);
+						chunk.position(chunk.position() + rowLength * 4);
+					}
+					else if (shortData != null) {
+						chunk.asShortBuffer().put(shortData, offset + y * scanlineStride,
+								rowLength);
+						chunk.position(chunk.position() + rowLength * 2);
+					}
+					else {
+						chunk.put(byteData, offset + y * scanlineStride, rowLength);
+					}
+				}
+				writeFully(channel, chunk, HEADER_SIZE + y0 * rowBytes);
+			}
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * load an image from a snapshot file
+	 * @param file the snapshot file
+	 * @return the image
+	 * @throws IOException if the file cannot be read or it is not a snapshot file
+	 */
+	public static BufferedImage read(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() < HEADER_SIZE)
+				throw new IOException("Not a snapshot file: " + file.getPath());
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			readFully(channel, header, 0L, file);
+			int magic = header.getInt();
+			int version = header.getInt();
+			int width = header.getInt();
+			int height = header.getInt();
+			int type = header.getInt();
+			ByteOrder order = header.get() == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+			if (magic != MAGIC || version != VERSION || getPixelStride(type) == 0
+					|| width <= 0 || height <= 0)
+				throw new IOException("Not a snapshot file: " + file.getPath());
+
+			int elementSize = getElementSize(type);
+			long rowBytes = (long)width * getPixelStride(type) * elementSize;
+			if (channel.size() < HEADER_SIZE + rowBytes * height)
+				throw new IOException("Truncated snapshot file: " + file.getPath());
+
+			// the raster of a new image is contiguous, so the rows are copied in chunks
+			BufferedImage image = createImage(type, width, height);
+			ByteBuffer chunk = getChunkBuffer(rowBytes);
+			int rowsPerChunk = (int)Math.max(1L, Math.min(height, chunk.capacity() / rowBytes));
+			int pos = 0;
+			for (int y0 = 0; y0 < height; y0 += rowsPerChunk) {
+				int rows = Math.min(rowsPerChunk, height - y0);
+				int chunkBytes = (int)(rows * rowBytes);
+				chunk.clear();
+				chunk.limit(chunkBytes);
+				readFully(channel, chunk, HEADER_SIZE + y0 * rowBytes, file);
+				chunk.order(order);
+
+				if (elementSize == 4) {
+					int[] data = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+					chunk.asIntBuffer().get(data, pos, chunkBytes / 4);
+					pos += chunkBytes / 4;
+				}
+				else if (elementSize == 2) {
+					short[] data = ((DataBufferUShort)image.getRaster().getDataBuffer()).getData();
+					chunk.asShortBuffer().get(data, pos, chunkBytes / 2);
+					pos += chunkBytes / 2;
+				}
+				else {
+					byte[] data = ((DataBufferByte)image.getRaster().getDataBuffer()).getData();
+					chunk.get(data, pos, chunkBytes);
+					pos += chunkBytes;
+				}
+			}
+			return image;
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * @param rowBytes the size of a row
+	 * @return the buffer to copy the chunks through, large enough for a row at least
+	 */
+	private static ByteBuffer getChunkBuffer(long rowBytes) {
+		if (rowBytes <= CHUNK_SIZE)
+			return chunkBuffer.get();
+		if (rowBytes > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("The image rows are too large: " + rowBytes);
+		return ByteBuffer.allocateDirect((int)rowBytes);
+	}
+
+	/**
+	 * write the content of a buffer, from its start up to its position, at the given file
+	 * position
+	 */
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+			throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			position += channel.write(buffer, position);
+	}
+
+	/**
+	 * fill a buffer, from its position up to its limit, from the given file position, then
+	 * rewind it
+	 */
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position,
+			File file) throws IOException {
+		while (buffer.hasRemaining()) {
+			int count = channel.read(buffer, position);
+			if (count < 0)
+				throw new IOException("Truncated snapshot file: " + file.getPath());
+			position += count;
+		}
+		buffer.rewind();
+	}
+
+	/**
+	 * @return the type the image is stored as if its raster is copied as it is: its own type, or
+	 * one of the 16 bit types if it is a 16 bit per component sRGB or grey image laid out like
+	 * the compatible raster of its color model; 0 if the image has to be converted
+	 */
+	private static int getStoredType(BufferedImage image) {
+		int type = image.getType();
+		if (type != BufferedImage.TYPE_CUSTOM && type != BufferedImage.TYPE_USHORT_GRAY)
+			return getPixelStride(type) > 0 ? type : 0;
+
+		ColorModel cm = image.getColorModel();
+		WritableRaster raster = image.getRaster();
+		if (!(cm instanceof ComponentColorModel) || cm.isAlphaPremultiplied()
+				|| cm.getTransferType() != DataBuffer.TYPE_USHORT
+				|| !(raster.getSampleModel() instanceof ComponentSampleModel))
+			return 0;
+
+		// the components are interleaved in the color model order
+		ComponentSampleModel sm = (ComponentSampleModel)raster.getSampleModel();
+		int[] bandOffsets = sm.getBandOffsets();
+		if (sm.getPixelStride() != bandOffsets.length)
+			return 0;
+		for (int band = 0; band < bandOffsets.length; band++)
+			if (bandOffsets[band] != band)
+				return 0;
+
+		ColorSpace cs = cm.getColorSpace();
+		if (cs.getType() == ColorSpace.TYPE_GRAY && !cm.hasAlpha() && bandOffsets.length == 1)
+			return BufferedImage.TYPE_USHORT_GRAY;
+		if (cs.isCS_sRGB())
+			return cm.hasAlpha() ? TYPE_USHORT_RGBA : TYPE_USHORT_RGB;
+		return 0;
+	}
+
+	/**
+	 * create a new image of a stored type
+	 */
+	private static BufferedImage createImage(int type, int width, int height) {
+		if (type != TYPE_USHORT_RGB && type != TYPE_USHORT_RGBA)
+			return new BufferedImage(width, height, type);
+
+		boolean alpha = type == TYPE_USHORT_RGBA;
+		ComponentColorModel cm = new ComponentColorModel(
+				ColorSpace.getInstance(ColorSpace.CS_sRGB), alpha, false,
+				alpha ? Transparency.TRANSLUCENT : Transparency.OPAQUE, DataBuffer.TYPE_USHORT);
+		return new BufferedImage(cm, cm.createCompatibleWritableRaster(width, height), false,
+				null);
+	}
+
+	/**
+	 * @return the number of data elements per pixel of the image types stored as they are,
+	 * 0 for the other types
+	 */
+	private static int getPixelStride(int type) {
+		switch (type) {
+			case BufferedImage.TYPE_INT_RGB:
+			case BufferedImage.TYPE_INT_ARGB:
+			case BufferedImage.TYPE_INT_ARGB_PRE:
+			case BufferedImage.TYPE_INT_BGR:
+			case BufferedImage.TYPE_BYTE_GRAY:
+			case BufferedImage.TYPE_USHORT_GRAY:
+				return 1;
+			case BufferedImage.TYPE_3BYTE_BGR:
+			case TYPE_USHORT_RGB:
+				return 3;
+			case BufferedImage.TYPE_4BYTE_ABGR:
+			case BufferedImage.TYPE_4BYTE_ABGR_PRE:
+			case TYPE_USHORT_RGBA:
+				return 4;
+			default:
+				return 0;
+		}
+	}
+
+	/**
+	 * @return the size of the data elements of a stored type, in bytes
+	 */
+	private static int getElementSize(int type) {
+		switch (type) {
+			case BufferedImage.TYPE_INT_RGB:
+			case BufferedImage.TYPE_INT_ARGB:
+			case BufferedImage.TYPE_INT_ARGB_PRE:
+			case BufferedImage.TYPE_INT_BGR:
+				return 4;
+			case BufferedImage.TYPE_USHORT_GRAY:
+			case TYPE_USHORT_RGB:
+			case TYPE_USHORT_RGBA:
+				return 2;
+			default:
+				return 1;
+		}
+	}
+
+	/**
+	 * @return the scanline stride of a raster laid out like a new image of the same type, i.e.
+	 * which differs at most by its stride and offset (e.g. a sub-image); 0 for any other raster
+	 */
+	private static int getScanlineStride(WritableRaster raster) {
+		SampleModel sm = raster.getSampleModel();
+		if (raster.getDataBuffer().getNumBanks() != 1)
+			return 0;
+		if (raster.getDataBuffer() instanceof DataBufferInt
+				&& sm instanceof SinglePixelPackedSampleModel)
+			return ((SinglePixelPackedSampleModel)sm).getScanlineStride();
+		if ((raster.getDataBuffer() instanceof DataBufferByte
+				|| raster.getDataBuffer() instanceof DataBufferUShort)
+				&& sm instanceof ComponentSampleModel)
+			return ((ComponentSampleModel)sm).getScanlineStride();
+		return 0;
+	}
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.Dimension;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.SwingWorker;
+
+import com.alexalecu.imageCrop.exception.InvalidOperationException;
+
+/**
+ * Rotate an image in the background and crop it to the largest rectangle which contains image
+ * pixels only, or render it through a given transformation (e.g. to deskew a part of it); the
+ * progress (0 - 100) is published through the "progress" property, and the
+ * result through the "result" property, once the task is done
+ *
+ * @author Alex Cojocaru
+ */
+public class RotateTask extends SwingWorker<BufferedImage, Void> {
+	private BufferedImage result; // the task execution result
+	private Throwable error; // the error thrown by the task, if any
+
+	private ImageHandle image;
+
+	// set by the background body when it starts, or by done() if the body has never run (the
+	// task has been cancelled before); whichever sets it releases the image
+	private final AtomicBoolean imageClaimed = new AtomicBoolean();
+	private double degrees;
+	private AffineTransform transform; // maps the result to the image, if set
+	private Dimension size; // the size of the result, if the transformation is set
+	private AffineResampler.Interpolation interpolation = AffineResampler.Interpolation.BICUBIC;
+
+
+	/**
+	 * @return the rotated image; null if the task has been cancelled or has failed
+	 */
+	public BufferedImage getResult() {
+		return result;
+	}
+
+	/**
+	 * set the task execution result and trigger a property change event
+	 * @param result
+	 */
+	private void setResult(BufferedImage result) {
+		BufferedImage oldResult = this.result;
+		this.result = result;
+		getPropertyChangeSupport().firePropertyChange("result", oldResult, result);
+	}
+
+	/**
+	 * @return the error which made the task fail, null if it has not failed
+	 */
+	public Throwable getError() {
+		return error;
+	}
+
+	/**
+	 * set the image to rotate
+	 * @param image a handle of its own to the image, so that the image cannot change while it is
+	 * being rotated; its ownership is transferred to the task, which releases it once done
+	 */
+	public void setImage(ImageHandle image) throws InvalidOperationException {
+		assertStateForChangingProperties();
+		this.image = image;
+	}
+
+	/**
+	 * set the number of degrees to rotate the image
+	 * @param degrees
+	 */
+	public void setDegrees(double degrees) throws InvalidOperationException {
+		assertStateForChangingProperties();
+		this.degrees = degrees;
+	}
+
+	/**
+	 * set the transformation to render the image through, instead of rotating it by a number
+	 * of degrees
+	 * @param destToSource the transformation mapping the result coordinates to the image
+	 * coordinates
+	 * @param size the size of the result
+	 */
+	public void setTransform(AffineTransform destToSource, Dimension size)
+			throws InvalidOperationException {
+		assertStateForChangingProperties();
+		this.transform = destToSource;
+		this.size = size;
+	}
+
+	/**
+	 * set the interpolation kernel, bicubic by default
+	 * @param interpolation
+	 */
+	public void setInterpolation(AffineResampler.Interpolation interpolation)
+			throws InvalidOperationException {
+		assertStateForChangingProperties();
+		this.interpolation = interpolation;
+	}
+
+	/**
+	 * Assert that the current task state allows the instance fields to be modified
+	 * @throws InvalidOperationException
+	 */
+	public void assertStateForChangingProperties() throws InvalidOperationException {
+		if (getState() == StateValue.PENDING)
+			return;
+		if (getState() == StateValue.DONE)
+			return;
+
+		throw new InvalidOperationException("Cannot change instance fields" +
+				" when the RotateTask is in " + getState() + "state");
+	}
+
+	/**
+	 * rotate the image; make sure you set the execution parameters before executing the task
+	 * @return the rotated image, null if the task has been cancelled
+	 */
+	@Override
+	protected BufferedImage doInBackground() {
+		if (image == null || !imageClaimed.compareAndSet(false, true))
+			return null;
+
+		// the tiles are rendered in parallel, and their progress may be reported out of order;
+		// only a progress higher than the one already published is published
+		AffineResampler.Monitor monitor = new AffineResampler.Monitor() {
+			private int published;
+
+			public synchronized void progress(int done, int total) {
+				int progress = 100 * done / total;
+				if (progress <= published)
+					return;
+				published = progress;
+				setProgress(progress);
+			}
+
+			public boolean isCancelled() {
+				return RotateTask.this.isCancelled();
+			}
+		};
+
+		try {
+			if (transform != null)
+				return AffineResampler.resample(image.getImage(), transform, size.width,
+						size.height, null, interpolation, monitor);
+			return ImageRotate.rotateDegreesCropped(image.getImage(), degrees, interpolation,
+					monitor);
+		}
+		finally {
+			image.release();
+		}
+	}
+
+	@Override
+	public void done() {
+		if (image != null && imageClaimed.compareAndSet(false, true))
+			image.release();
+
+		try {
+			setResult(get());
+		}
+		catch (InterruptedException e) {
+			setResult(null);
+		}
+		catch (ExecutionException e) {
+			error = e.getCause();
+			setResult(null);
+		}
+		catch (CancellationException e) {
+			setResult(null);
+		}
+	}
+}
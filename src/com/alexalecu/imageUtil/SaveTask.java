@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.SwingWorker;
+
+import com.alexalecu.imageCrop.exception.InvalidOperationException;
+import com.alexalecu.util.FileUtil;
+
+/**
+ * Save an image file in the background, so that the next image can be worked on while the
+ * previous one is saving; the image is written to a temporary file next to the destination
+ * file, which is then flushed to the disk and renamed over the destination, so that the
+ * destination is never left truncated. The progress (0 - 100) is published through the
+ * "progress" property, and the saved file through the "result" property, once the task is done.
+ *
+ * @author Alex Cojocaru
+ */
+public class SaveTask extends SwingWorker<File, Void> {
+	/**
+	 * The image to save; its methods are called from the background thread, so it has to hold a
+	 * snapshot of the image (e.g. a handle of its own) and of the state it depends on
+	 */
+	public interface Source {
+		/**
+		 * write the image to the given file without encoding it, if possible (e.g. by cropping
+		 * the JPEG file it comes from)
+		 * @param file the file to write to
+		 * @return true if the image has been written, false if it has to be encoded
+		 * @throws IOException if the file cannot be written
+		 */
+		public boolean copyTo(File file) throws IOException;
+
+		/**
+		 * @return the image to encode
+		 * @throws IOException if the image cannot be obtained
+		 */
+		public BufferedImage getImage() throws IOException;
+
+		/**
+		 * release the image and the resources held by the image returned by getImage; called
+		 * once the task is done with the source, whether it has been saved or not
+		 */
+		public void release();
+	}
+
+	private File result; // the task execution result
+	private Throwable error; // the error thrown by the task, if any
+
+	private Source source;
+	private File file;
+	private EncodeService.Format format = EncodeService.Format.JPEG;
+	private ImageConvert.JpegPreset preset = ImageConvert.JpegPreset.DEFAULT;
+	private long maxBytes = -1L;
+	private EncodeService encodeService;
+
+
+	/**
+	 * @return the saved file; null if the task has been cancelled or has failed
+	 */
+	public File getResult() {
+		return result;
+	}
+
+	/**
+	 * set the task execution result and trigger a property change event
+	 * @param result
+	 */
+	private void setResult(File result) {
+		File oldResult = this.result;
+		this.result = result;
+		getPropertyChangeSupport().firePropertyChange("result", oldResult, result);
+	}
+
+	/**
+	 * @return the error which made the task fail, null if it has not failed
+	 */
+	public Throwable getError() {
+		return error;
+	}
+
+	/**
+	 * set the image to save
+	 * @param source
+	 */
+	public void setSource(Source source) throws InvalidOperationException {
+		assertStateForChangingProperties();
+		this.source = source;
+	}
+
+	/**
+	 * @return the file to save to
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * set the file to save to; it is overwritten if it exists
+	 * @param file
+	 */
+	public void setFile(File file) throws InvalidOperationException {
+		assertStateForChangingProperties();
+		this.file = file;
+	}
+
+	/**
+	 * set the output format, JPEG by default
+	 * @param format
+	 */
+	public void setFormat(EncodeService.Format format) throws InvalidOperationException {
+		assertStateForChangingProperties();
+		this.format = format;
+	}
+
+	/**
+	 * set the JPEG encoder settings, the writer defaults by default
+	 * @param preset
+	 */
+	public void setPreset(ImageConvert.JpegPreset preset) throws InvalidOperationException {
+		assertStateForChangingProperties();
+		this.preset = preset;
+	}
+
+	/**
+	 * set the maximum size of the JPEG file, 0 or less for no limit (the default); the image is
+	 * always encoded when it is set
+	 * @param maxBytes
+	 */
+	public void setMaxBytes(long maxBytes) throws InvalidOperationException {
+		assertStateForChangingProperties();
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * set the service encoding the image
+	 * @param encodeService
+	 */
+	public void setEncodeService(EncodeService encodeService) throws InvalidOperationException {
+		assertStateForChangingProperties();
+		this.encodeService = encodeService;
+	}
+
+	/**
+	 * Assert that the current task state allows the instance fields to be modified
+	 * @throws InvalidOperationException
+	 */
+	public void assertStateForChangingProperties() throws InvalidOperationException {
+		if (getState() == StateValue.PENDING)
+			return;
+		if (getState() == StateValue.DONE)
+			return;
+
+		throw new InvalidOperationException("Cannot change instance fields" +
+				" when the SaveTask is in " + getState() + "state");
+	}
+
+	/**
+	 * save the image; make sure you set the execution parameters before executing the task
+	 * @return the saved file
+	 */
+	@Override
+	protected File doInBackground() throws Exception {
+		if (source == null)
+			return null;
+
+		try {
+			if (file == null || encodeService == null)
+				return null;
+
+			// a JPEG file can be cropped without encoding it again, unless its size has to be
+			// limited
+			if (format == EncodeService.Format.JPEG && maxBytes <= 0) {
+				File copy = FileUtil.createReplacementFile(file);
+				try {
+					if (source.copyTo(copy)) {
+						FileUtil.replaceFile(copy, file);
+						return file;
+					}
+				}
+				finally {
+					copy.delete();
+				}
+			}
+
+			BufferedImage image = source.getImage();
+			setProgress(50);
+
+			// the service encodes to a temporary file as well
+			(format == EncodeService.Format.JPEG && maxBytes > 0
+					? encodeService.submit(image, null, preset, maxBytes, file)
+					: encodeService.submit(image, null, format, preset, file)).get();
+			return file;
+		}
+		catch (ExecutionException e) {
+			// report the encoder error itself
+			throw e.getCause() instanceof Exception ? (Exception)e.getCause() : e;
+		}
+		finally {
+			source.release();
+		}
+	}
+
+	@Override
+	public void done() {
+		try {
+			setResult(get());
+		}
+		catch (InterruptedException e) {
+			setResult(null);
+		}
+		catch (ExecutionException e) {
+			error = e.getCause();
+			setResult(null);
+		}
+		catch (CancellationException e) {
+			setResult(null);
+		}
+	}
+}
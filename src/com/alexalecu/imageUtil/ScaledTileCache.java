@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A scaled view of an image, rendered on demand in square tiles, so that showing a part of a big
+ * image at any scale costs the same as showing a small image: only the tiles which are asked
+ * for are rendered, straight from the source pixels (or from the nearest level of the image
+ * pyramid, if any), and the most recently used ones are kept in a bounded LRU cache.
+ * The instances are not thread safe.
+ *
+ * @author Alex Cojocaru
+ */
+public class ScaledTileCache {
+	/**
+	 * the width and height of the tiles, in scaled pixels
+	 */
+	public final static int TILE_SIZE = 256;
+
+	private final BufferedImage source;
+	private final ImagePyramid pyramid;
+	private final double scale;
+	private final int width;
+	private final int height;
+	private final int tilesX;
+	private final AffineResampler.Interpolation interpolation;
+
+	// the image the tiles are rendered from, and its size relative to the source image
+	private final BufferedImage level;
+	private final double levelScaleX;
+	private final double levelScaleY;
+
+	// the rendered tiles, by index, the least recently used first
+	private final Map<Integer, BufferedImage> tiles;
+
+	/**
+	 * @param source the image to scale
+	 * @param scale the scale factor
+	 * @param maxTiles the maximum number of tiles to keep
+	 */
+	public ScaledTileCache(BufferedImage source, double scale, int maxTiles) {
+		this(source, null, scale, maxTiles, null);
+	}
+
+	/**
+	 * @param source the image to scale
+	 * @param pyramid the pyramid of the image, null if it has not been built
+	 * @param scale the scale factor
+	 * @param maxTiles the maximum number of tiles to keep
+	 * @param interpolation the interpolation kernel, e.g. NEAREST_NEIGHBOR for a quick preview;
+	 * null for the best kernel for the scale
+	 */
+	public ScaledTileCache(BufferedImage source, ImagePyramid pyramid, double scale,
+			final int maxTiles, AffineResampler.Interpolation interpolation) {
+		this.source = source;
+		this.pyramid = pyramid != null && pyramid.matches(source) ? pyramid : null;
+		this.scale = scale;
+		this.width = Math.max(1, (int)(scale * source.getWidth()));
+		this.height = Math.max(1, (int)(scale * source.getHeight()));
+		this.tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+
+		this.level = this.pyramid != null ? this.pyramid.getLevelForScale(source, scale) : source;
+		this.levelScaleX = (double)level.getWidth() / source.getWidth();
+		this.levelScaleY = (double)level.getHeight() / source.getHeight();
+
+		// the bicubic kernel sharpens the enlarged images and the levels reduced by less than
+		// 2 times, but it skips too many pixels of the images reduced more than that
+		if (interpolation != null)
+			this.interpolation = interpolation;
+		else if (scale >= 1d || this.pyramid != null)
+			this.interpolation = AffineResampler.Interpolation.BICUBIC;
+		else
+			this.interpolation = AffineResampler.Interpolation.BILINEAR;
+
+		this.tiles = new LinkedHashMap<Integer, BufferedImage>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, BufferedImage> eldest) {
+				return size() > maxTiles;
+			}
+		};
+	}
+
+	/**
+	 * @return the image being scaled
+	 */
+	public BufferedImage getSource() {
+		return source;
+	}
+
+	/**
+	 * @return the pyramid the tiles are rendered from, null if they are rendered from the image
+	 */
+	public ImagePyramid getPyramid() {
+		return pyramid;
+	}
+
+	/**
+	 * @return the interpolation kernel the tiles are rendered with
+	 */
+	public AffineResampler.Interpolation getInterpolation() {
+		return interpolation;
+	}
+
+	/**
+	 * @return the scale factor
+	 */
+	public double getScale() {
+		return scale;
+	}
+
+	/**
+	 * @return the width of the scaled image
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return the height of the scaled image
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return the number of tiles in the cache
+	 */
+	public int getCachedTileCount() {
+		return tiles.size();
+	}
+
+	/**
+	 * get a tile of the scaled image, rendering it if it is not in the cache
+	 * @param tileX the column of the tile
+	 * @param tileY the row of the tile
+	 * @return the tile, whose top left corner is at (tileX, tileY) * TILE_SIZE in the scaled
+	 * image; the tiles on the right and bottom edges are smaller than TILE_SIZE
+	 */
+	public BufferedImage getTile(int tileX, int tileY) {
+		Integer index = Integer.valueOf(tileY * tilesX + tileX);
+		BufferedImage tile = tiles.get(index);
+		if (tile == null) {
+			tile = renderTile(tileX * TILE_SIZE, tileY * TILE_SIZE, null);
+			tiles.put(index, tile);
+		}
+		return tile;
+	}
+
+	/**
+	 * render the tiles intersecting a region which are not in the cache, e.g. in the background
+	 * before the cache is handed over to the thread painting them
+	 * @param region a region of the scaled image
+	 * @param monitor the monitor to check for cancellation; can be null
+	 * @return true if all the tiles have been rendered, false if the operation has been cancelled
+	 */
+	public boolean render(Rectangle region, AffineResampler.Monitor monitor) {
+		Rectangle range = getTileRange(region);
+		for (int tileY = range.y; tileY < range.y + range.height; tileY++) {
+			for (int tileX = range.x; tileX < range.x + range.width; tileX++) {
+				Integer index = Integer.valueOf(tileY * tilesX + tileX);
+				if (tiles.containsKey(index))
+					continue;
+
+				BufferedImage tile = renderTile(tileX * TILE_SIZE, tileY * TILE_SIZE, monitor);
+				if (tile == null)
+					return false;
+				tiles.put(index, tile);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param region a region of the scaled image
+	 * @return the columns (x, width) and rows (y, height) of the tiles intersecting the region
+	 */
+	public Rectangle getTileRange(Rectangle region) {
+		Rectangle clipped = region.intersection(new Rectangle(width, height));
+		if (clipped.isEmpty())
+			return new Rectangle();
+
+		int x0 = clipped.x / TILE_SIZE;
+		int y0 = clipped.y / TILE_SIZE;
+		int x1 = (clipped.x + clipped.width - 1) / TILE_SIZE;
+		int y1 = (clipped.y + clipped.height - 1) / TILE_SIZE;
+		return new Rectangle(x0, y0, x1 - x0 + 1, y1 - y0 + 1);
+	}
+
+	/**
+	 * drop the tiles showing a region of the source image which has changed, so that they are
+	 * rendered again
+	 * @param region the region of the source image, in source coordinates
+	 * @return the region of the scaled image showing it
+	 */
+	public Rectangle invalidate(Rectangle region) {
+		// the interpolation kernel reaches 2 source pixels around each scaled pixel
+		int x0 = Math.max(0, (int)Math.floor((region.x - 2) * scale));
+		int y0 = Math.max(0, (int)Math.floor((region.y - 2) * scale));
+		int x1 = Math.min(width, (int)Math.ceil((region.x + region.width + 2) * scale));
+		int y1 = Math.min(height, (int)Math.ceil((region.y + region.height + 2) * scale));
+		Rectangle scaled = new Rectangle(x0, y0, Math.max(0, x1 - x0), Math.max(0, y1 - y0));
+
+		Rectangle range = getTileRange(scaled);
+		for (int tileY = range.y; tileY < range.y + range.height; tileY++)
+			for (int tileX = range.x; tileX < range.x + range.width; tileX++)
+				tiles.remove(Integer.valueOf(tileY * tilesX + tileX));
+		return scaled;
+	}
+
+	/**
+	 * render the tile at the given location
+	 * @param x the x coordinate of the tile in the scaled image
+	 * @param y the y coordinate of the tile in the scaled image
+	 * @param monitor the monitor to check for cancellation; can be null
+	 * @return the tile, null if the operation has been cancelled
+	 */
+	private BufferedImage renderTile(int x, int y, AffineResampler.Monitor monitor) {
+		BufferedImage tile = PixelWriter.createCompatibleImage(level,
+				Math.min(TILE_SIZE, width - x), Math.min(TILE_SIZE, height - y));
+
+		// map the tile pixels to the scaled image, then to the level
+		AffineTransform destToSource = AffineTransform.getScaleInstance(levelScaleX / scale,
+				levelScaleY / scale);
+		destToSource.translate(x, y);
+		return AffineResampler.resample(level, destToSource, tile, null, interpolation, monitor)
+				? tile : null;
+	}
+}
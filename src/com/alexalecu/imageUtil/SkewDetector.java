@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.Dimension;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+/**
+ * Estimate the skew of a scanned item from the edges of the hull enclosing it, and straighten
+ * the item in a single pass
+ *
+ * @author Alex Cojocaru
+ */
+public class SkewDetector {
+	// the resolution of the angle accumulator, in degrees
+	private final static double BIN_SIZE = 0.1d;
+	private final static int BIN_COUNT = (int)Math.round(90 / BIN_SIZE);
+
+	// the edges within this many bins from the peak are used for refining the estimation
+	private final static int REFINE_BINS = 5;
+
+	/**
+	 * Estimate the skew angle of an item from the edges of its hull, using a Hough transform
+	 * restricted to the angle space: each edge votes for its angle (folded to [-45, 45) degrees,
+	 * as the sides of a rectangle are 90 degrees apart) with a weight equal to its length; the
+	 * peak of the accumulator is then refined to the length weighted mean of the edge angles
+	 * around it.
+	 * @param edges the hull edges, in image coordinates
+	 * @return the skew angle in degrees, positive if the item is rotated clockwise;
+	 * 0 if there are no edges
+	 */
+	public static double estimateSkewDegrees(List<GeomEdge> edges) {
+		if (edges == null || edges.isEmpty())
+			return 0d;
+
+		int count = edges.size();
+		double[] angles = new double[count];
+		double[] lengths = new double[count];
+		double[] votes = new double[BIN_COUNT];
+
+		for (int i = 0; i < count; i++) {
+			GeomEdge edge = edges.get(i);
+			double dx = edge.getQ().getX() - edge.getP().getX();
+			double dy = edge.getQ().getY() - edge.getP().getY();
+
+			angles[i] = foldAngle(Math.toDegrees(Math.atan2(dy, dx)));
+			lengths[i] = Math.sqrt(dx * dx + dy * dy);
+			votes[getBin(angles[i])] += lengths[i];
+		}
+
+		// find the peak, smoothing the accumulator over the neighbouring bins
+		int peak = 0;
+		double peakVotes = -1d;
+		for (int bin = 0; bin < BIN_COUNT; bin++) {
+			double sum = votes[(bin + BIN_COUNT - 1) % BIN_COUNT] + 2 * votes[bin]
+					+ votes[(bin + 1) % BIN_COUNT];
+			if (sum > peakVotes) {
+				peakVotes = sum;
+				peak = bin;
+			}
+		}
+
+		// and refine it using the edges voting close to the peak
+		double peakAngle = -45d + (peak + 0.5d) * BIN_SIZE;
+		double weightedSum = 0d;
+		double weights = 0d;
+		for (int i = 0; i < count; i++) {
+			double delta = foldAngle(angles[i] - peakAngle);
+			if (Math.abs(delta) <= REFINE_BINS * BIN_SIZE) {
+				weightedSum += delta * lengths[i];
+				weights += lengths[i];
+			}
+		}
+
+		return weights > 0 ? foldAngle(peakAngle + weightedSum / weights) : peakAngle;
+	}
+
+	/**
+	 * Compute the transformation and the size of the straightened item: the item is rotated by
+	 * -degrees around the center of its hull, and the result is the smallest rectangle
+	 * containing the rotated hull
+	 * @param hull the vertices of the hull enclosing the item
+	 * @param degrees the skew angle of the item
+	 * @param size the size of the straightened item is stored into this object
+	 * @return the transformation mapping the straightened item coordinates to the image
+	 * coordinates, to be used with AffineResampler
+	 */
+	public static AffineTransform getDeskewTransform(List<GeomPoint> hull, double degrees,
+			Dimension size) {
+
+		double radians = Math.toRadians(degrees);
+		double cos = Math.cos(radians);
+		double sin = Math.sin(radians);
+
+		// the hull center
+		double cx = 0d, cy = 0d;
+		for (GeomPoint p : hull) {
+			cx += p.getX() + 0.5d;
+			cy += p.getY() + 0.5d;
+		}
+		cx /= hull.size();
+		cy /= hull.size();
+
+		// the bounds of the hull rotated by -degrees around its center; use the outer corners of
+		// each vertex pixel, so that the whole item fits
+		double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+		for (GeomPoint p : hull) {
+			for (int corner = 0; corner < 4; corner++) {
+				double x = p.getX() + (corner & 1) - cx;
+				double y = p.getY() + (corner >> 1) - cy;
+				double rx = x * cos + y * sin;
+				double ry = -x * sin + y * cos;
+				minX = Math.min(minX, rx);
+				minY = Math.min(minY, ry);
+				maxX = Math.max(maxX, rx);
+				maxY = Math.max(maxY, ry);
+			}
+		}
+
+		// trim the anti-aliased border, which is at most a pixel wide
+		size.width = Math.max(1, (int)Math.floor(maxX - minX) - 1);
+		size.height = Math.max(1, (int)Math.floor(maxY - minY) - 1);
+
+		AffineTransform transform = new AffineTransform();
+		transform.translate(cx, cy);
+		transform.rotate(radians);
+		transform.translate(minX + 1, minY + 1);
+		return transform;
+	}
+
+	/**
+	 * straighten the item enclosed by the given hull and crop it out of the image in a single
+	 * pass, without rotating the whole image
+	 * @param image the image containing the item
+	 * @param hull the vertices of the hull enclosing the item
+	 * @param degrees the skew angle of the item, as returned by estimateSkewDegrees
+	 * @return the straightened item
+	 */
+	public static BufferedImage deskew(BufferedImage image, List<GeomPoint> hull,
+			double degrees) {
+		Dimension size = new Dimension();
+		AffineTransform transform = getDeskewTransform(hull, degrees, size);
+		return AffineResampler.resample(image, transform, size.width, size.height, null);
+	}
+
+	/**
+	 * fold the given angle into the [-45, 45) degrees range, modulo 90 degrees
+	 */
+	private static double foldAngle(double degrees) {
+		double folded = (degrees + 45d) % 90d;
+		if (folded < 0)
+			folded += 90d;
+		return folded - 45d;
+	}
+
+	/**
+	 * @return the accumulator bin for the given folded angle
+	 */
+	private static int getBin(double folded) {
+		return Math.min(BIN_COUNT - 1, (int)((folded + 45d) / BIN_SIZE));
+	}
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An RGB image stored in a memory mapped scratch file rather than on the heap, split into square
+ * tiles; only the most recently used tiles are kept mapped, so the memory used does not depend on
+ * the image size. The pixels can be accessed row by row, or through a BufferedImage view which
+ * lets the existing image code (e.g. the ImageIO writers) stream over the tiles.
+ * The pixel access methods are thread safe.
+ *
+ * @author Alex Cojocaru
+ */
+public class TiledImage {
+	// the size of the square tiles
+	public final static int TILE_SIZE = 256;
+
+	// the maximum number of tiles kept mapped at once
+	private final static int MAX_RESIDENT_TILES = 64;
+
+	private final static long TILE_BYTES = (long)TILE_SIZE * TILE_SIZE * 4;
+
+	private final int width;
+	private final int height;
+	private final int tilesX;
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+
+	// the mapped tiles, in access order; the least recently used ones are dropped
+	private final Map<Integer, IntBuffer> residentTiles;
+
+	/**
+	 * create a new image, backed by a scratch file in the temporary directory
+	 * @param width the image width
+	 * @param height the image height
+	 * @throws IOException if the scratch file cannot be created
+	 */
+	public TiledImage(int width, int height) throws IOException {
+		this(width, height, null);
+	}
+
+	/**
+	 * create a new image, backed by a scratch file in the given directory
+	 * @param width the image width
+	 * @param height the image height
+	 * @param scratchDir the directory to create the scratch file in, null for the temporary
+	 * directory
+	 * @throws IOException if the scratch file cannot be created
+	 */
+	public TiledImage(int width, int height, File scratchDir) throws IOException {
+		if (width <= 0 || height <= 0)
+			throw new IllegalArgumentException("Invalid image size: " + width + "x" + height);
+
+		this.width = width;
+		this.height = height;
+		this.tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+		int tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+
+		file = File.createTempFile("tiledImage", ".raw", scratchDir);
+		file.deleteOnExit();
+		raf = new RandomAccessFile(file, "rw");
+		raf.setLength(tilesX * tilesY * TILE_BYTES);
+		channel = raf.getChannel();
+
+		residentTiles = new LinkedHashMap<Integer, IntBuffer>(MAX_RESIDENT_TILES, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, IntBuffer> eldest) {
+				return size() > MAX_RESIDENT_TILES;
+			}
+		};
+	}
+
+	/**
+	 * decode a region of an image file into a new tiled image, a band of tiles at a time
+	 * @param imageFile the image file
+	 * @param region the region to decode, it has to be inside the image
+	 * @return the tiled image
+	 * @throws IOException if the image cannot be decoded or the scratch file cannot be created
+	 */
+	public static TiledImage read(File imageFile, Rectangle region) throws IOException {
+		TiledImage image = new TiledImage(region.width, region.height);
+		try {
+			int[] row = new int[region.width];
+			for (int y = 0; y < region.height; y += TILE_SIZE) {
+				int bandHeight = Math.min(TILE_SIZE, region.height - y);
+				BufferedImage band = ImageLoader.readRegion(imageFile, new Rectangle(
+						region.x, region.y + y, region.width, bandHeight));
+
+				PixelReader reader = PixelReader.forImage(band);
+				for (int i = 0; i < bandHeight; i++) {
+					reader.getArgbRow(0, i, region.width, row);
+					image.setArgbRow(0, y + i, region.width, row);
+				}
+			}
+		}
+		catch (IOException e) {
+			image.close();
+			throw e;
+		}
+		return image;
+	}
+
+	/**
+	 * @return the image width
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return the image height
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @param x the x coordinate of the pixel
+	 * @param y the y coordinate of the pixel
+	 * @return the RGB value of the pixel, with the alpha set to opaque
+	 */
+	public int getArgb(int x, int y) {
+		return getTile(x, y).get(getTileIndex(x, y)) | 0xFF000000;
+	}
+
+	/**
+	 * @param x the x coordinate of the pixel
+	 * @param y the y coordinate of the pixel
+	 * @param argb the new value of the pixel; the alpha is ignored
+	 */
+	public void setArgb(int x, int y, int argb) {
+		getTile(x, y).put(getTileIndex(x, y), argb);
+	}
+
+	/**
+	 * read a horizontal run of pixels
+	 * @param x the x coordinate of the first pixel
+	 * @param y the y coordinate of the row
+	 * @param length the number of pixels to read
+	 * @param argb the array to store the values into, starting at index 0
+	 */
+	public void getArgbRow(int x, int y, int length, int[] argb) {
+		int done = 0;
+		while (done < length) {
+			// copy the part of the run lying in the current tile
+			int tx = x + done;
+			int count = Math.min(length - done, TILE_SIZE - tx % TILE_SIZE);
+			IntBuffer tile = getTile(tx, y);
+			int index = getTileIndex(tx, y);
+			for (int i = 0; i < count; i++)
+				argb[done + i] = tile.get(index + i) | 0xFF000000;
+			done += count;
+		}
+	}
+
+	/**
+	 * write a horizontal run of pixels
+	 * @param x the x coordinate of the first pixel
+	 * @param y the y coordinate of the row
+	 * @param length the number of pixels to write
+	 * @param argb the new pixel values, starting at index 0
+	 */
+	public void setArgbRow(int x, int y, int length, int[] argb) {
+		int done = 0;
+		while (done < length) {
+			int tx = x + done;
+			int count = Math.min(length - done, TILE_SIZE - tx % TILE_SIZE);
+			IntBuffer tile = getTile(tx, y);
+			int index = getTileIndex(tx, y);
+			for (int i = 0; i < count; i++)
+				tile.put(index + i, argb[done + i]);
+			done += count;
+		}
+	}
+
+	/**
+	 * copy a region of the image onto the heap
+	 * @param region the region to copy, it has to be inside the image
+	 * @return a new TYPE_INT_RGB image
+	 */
+	public BufferedImage getRegion(Rectangle region) {
+		BufferedImage image = new BufferedImage(region.width, region.height,
+				BufferedImage.TYPE_INT_RGB);
+		int[] row = new int[region.width];
+		for (int y = 0; y < region.height; y++) {
+			getArgbRow(region.x, region.y + y, region.width, row);
+			image.setRGB(0, y, region.width, 1, row, 0, region.width);
+		}
+		return image;
+	}
+
+	/**
+	 * create a BufferedImage view of this image; the view holds no pixels, it reads and writes
+	 * the tiles, hence the writers and the filters working on BufferedImage stream over the tiles.
+	 * The view is only available for the images having less than 2^31 pixels.
+	 * @return the view, an RGB image of TYPE_CUSTOM
+	 */
+	public BufferedImage getImage() {
+		if ((long)width * height > Integer.MAX_VALUE)
+			throw new IllegalStateException("The image is too big for a BufferedImage view");
+
+		DirectColorModel cm = new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF);
+		SinglePixelPackedSampleModel sm = new SinglePixelPackedSampleModel(
+				DataBuffer.TYPE_INT, width, height, cm.getMasks());
+		WritableRaster raster = Raster.createWritableRaster(sm, new TiledDataBuffer(), null);
+		return new BufferedImage(cm, raster, false, null);
+	}
+
+	/**
+	 * drop the tiles and delete the scratch file; the image cannot be used afterwards
+	 */
+	public synchronized void close() {
+		residentTiles.clear();
+		try {
+			channel.close();
+			raf.close();
+		}
+		catch (IOException e) {
+			// nothing to do, the file is deleted anyway
+		}
+		file.delete();
+	}
+
+	/**
+	 * @return the index of the pixel inside its tile
+	 */
+	private int getTileIndex(int x, int y) {
+		return (y % TILE_SIZE) * TILE_SIZE + x % TILE_SIZE;
+	}
+
+	/**
+	 * @return the tile containing the given pixel, mapping it if it is not resident
+	 */
+	private synchronized IntBuffer getTile(int x, int y) {
+		if (x < 0 || y < 0 || x >= width || y >= height)
+			throw new IndexOutOfBoundsException("Pixel outside the image: " + x + "," + y);
+
+		Integer key = Integer.valueOf((y / TILE_SIZE) * tilesX + x / TILE_SIZE);
+		IntBuffer tile = residentTiles.get(key);
+		if (tile == null) {
+			try {
+				tile = channel.map(FileChannel.MapMode.READ_WRITE, key * TILE_BYTES, TILE_BYTES)
+						.order(ByteOrder.nativeOrder()).asIntBuffer();
+			}
+			catch (IOException e) {
+				throw new IllegalStateException("Cannot map the tile " + key, e);
+			}
+			residentTiles.put(key, tile);
+		}
+		return tile;
+	}
+
+
+	/**
+	 * The data buffer of the BufferedImage view, mapping each element to a tile pixel
+	 */
+	private class TiledDataBuffer extends DataBuffer {
+		private TiledDataBuffer() {
+			super(DataBuffer.TYPE_INT, width * height);
+		}
+
+		@Override
+		public int getElem(int bank, int i) {
+			return getTile(i % width, i / width).get(getTileIndex(i % width, i / width));
+		}
+
+		@Override
+		public void setElem(int bank, int i, int val) {
+			setArgb(i % width, i / width, val);
+		}
+	}
+}
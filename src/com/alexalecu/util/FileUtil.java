@@ -22,6 +22,7 @@ import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
+import java.util.Collection;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -81,9 +82,24 @@ public class FileUtil {
 	 * @return an unique file name in the given directory
 	 */
 	public static String generateUniqueFilename(String dir, String filename, int suffixLength) {
+		return generateUniqueFilename(dir, filename, suffixLength, null);
+	}
+
+	/**
+	 * Generate an unique file name for the given filename, which is not reserved either (e.g. by
+	 * a file being written in the background)
+	 * @param dir the directory containing the file
+	 * @param filename the file name to generate an unique name to
+	 * @param suffixLength the number of digits for the auto-generated number to append to the
+	 * file name, if the given filename exists already in the given directory
+	 * @param reserved the files which do not exist yet, but whose names are taken; can be null
+	 * @return an unique file name in the given directory
+	 */
+	public static String generateUniqueFilename(String dir, String filename, int suffixLength,
+			Collection<File> reserved) {
 		// if the file does not exist, return its name
 		File file = new File(dir, filename);
-		if (!file.exists())
+		if (!file.exists() && (reserved == null || !reserved.contains(file)))
 			return filename;
 		
 		filename = removeAutoGeneratedSuffix(filename, suffixLength);
@@ -100,7 +116,7 @@ public class FileUtil {
 			
 			// if the file does not exist, return it
 			file = new File (dir, filename);
-			if (!file.exists())
+			if (!file.exists() && (reserved == null || !reserved.contains(file)))
 				return filename;
 		}
 		
@@ -280,6 +296,76 @@ public class FileUtil {
 		}
 	}
 
+	/**
+	 * create an empty temporary file to write the new content of a file to, before replacing it;
+	 * the temporary file is created in the same directory, so that it is on the same file system
+	 * and can be renamed over the file
+	 * @param file the file to be replaced
+	 * @return the temporary file
+	 * @throws IOException if the file cannot be created
+	 */
+	public static File createReplacementFile(File file) throws IOException {
+		File dir = file.getAbsoluteFile().getParentFile();
+		return File.createTempFile("." + stripExtension(file.getName()) + "_", ".tmp", dir);
+	}
+
+	/**
+	 * flush a file created by createReplacementFile to the disk and rename it over the file it
+	 * replaces, so that the file is never left truncated: a crash leaves either the previous
+	 * content or the new one. The rename is atomic on the POSIX file systems; where it cannot
+	 * replace an existing file (e.g. on Windows), the file is renamed to a backup name first,
+	 * and renamed back if the replacement still cannot take its place.
+	 * The replacement file is deleted if it cannot be renamed, but only if the file is intact.
+	 * @param replacement the file holding the new content
+	 * @param file the file to replace
+	 * @throws IOException if the replacement file cannot be flushed or renamed
+	 */
+	public static void replaceFile(File replacement, File file) throws IOException {
+		// opening a missing file for writing would create it empty
+		if (!replacement.isFile())
+			throw new IOException("Cannot find " + replacement.getPath());
+		
+		// the data of a file are flushed whichever descriptor is synced
+		RandomAccessFile raf = new RandomAccessFile(replacement, "rw");
+		try {
+			raf.getFD().sync();
+		}
+		finally {
+			raf.close();
+		}
+		
+		if (replacement.renameTo(file))
+			return;
+		
+		// move the file out of the way, it is intact if this fails
+		File backup = null;
+		if (file.exists()) {
+			backup = File.createTempFile("." + stripExtension(file.getName()) + "_", ".bak",
+					file.getAbsoluteFile().getParentFile());
+			if (!backup.delete() || !file.renameTo(backup)) {
+				backup.delete();
+				replacement.delete();
+				throw new IOException("Cannot rename " + file.getPath() + " to " +
+						backup.getPath());
+			}
+		}
+		
+		if (replacement.renameTo(file)) {
+			if (backup != null)
+				backup.delete();
+			return;
+		}
+		
+		// put the file back; if even that fails, keep both the previous and the new content
+		if (backup != null && !backup.renameTo(file))
+			throw new IOException("Cannot rename " + replacement.getPath() + " to " +
+					file.getPath() + "; the previous content is kept in " + backup.getPath() +
+					" and the new one in " + replacement.getPath());
+		replacement.delete();
+		throw new IOException("Cannot rename " + replacement.getPath() + " to " +
+				file.getPath());
+	}
+
 	/**
 	 * delete a file or directory
 	 * @param dir the file or directory to delete
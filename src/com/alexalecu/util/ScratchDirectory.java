@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.util;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A private directory in the temporary directory, for the scratch files of an application
+ * session; each session gets its own directory, so that concurrent instances do not share their
+ * files. The directory and its files are deleted when the JVM exits.
+ *
+ * @author Alex Cojocaru
+ */
+public class ScratchDirectory {
+	private final File directory;
+
+	private ScratchDirectory(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * create a new scratch directory
+	 * @param prefix the prefix of the directory name
+	 * @return the scratch directory
+	 * @throws IOException if the directory cannot be created
+	 */
+	public static ScratchDirectory create(String prefix) throws IOException {
+		// reserve a unique name, then turn it into a directory
+		File directory = File.createTempFile(prefix, "");
+		if (!directory.delete() || !directory.mkdir())
+			throw new IOException("Cannot create the scratch directory: " + directory.getPath());
+
+		final ScratchDirectory scratch = new ScratchDirectory(directory);
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				scratch.delete();
+			}
+		}, prefix + "-scratch-cleanup"));
+		return scratch;
+	}
+
+	/**
+	 * @return the scratch directory
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * @param name the file name
+	 * @return the file with the given name in the scratch directory
+	 */
+	public File getFile(String name) {
+		return new File(directory, name);
+	}
+
+	/**
+	 * create a new empty file with a unique name in the scratch directory
+	 * @param prefix the prefix of the file name
+	 * @param suffix the suffix of the file name
+	 * @return the new file
+	 * @throws IOException if the file cannot be created
+	 */
+	public File createFile(String prefix, String suffix) throws IOException {
+		return File.createTempFile(prefix, suffix, directory);
+	}
+
+	/**
+	 * delete the scratch directory and its files; the directory cannot be used afterwards
+	 */
+	public synchronized void delete() {
+		File[] files = directory.listFiles();
+		if (files != null)
+			for (File file : files)
+				file.delete();
+		directory.delete();
+	}
+}
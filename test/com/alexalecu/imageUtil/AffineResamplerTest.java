@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.Color;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.alexalecu.imageUtil.AffineResampler.Interpolation;
+
+/**
+ * @author Alex Cojocaru
+ *
+ */
+public class AffineResamplerTest {
+
+	@Test
+	public void testResampleIdentity() {
+		BufferedImage image = createImage(BufferedImage.TYPE_INT_RGB);
+
+		for (Interpolation interpolation : Interpolation.values()) {
+			BufferedImage result = AffineResampler.resample(image, new AffineTransform(),
+					image.getWidth(), image.getHeight(), null, interpolation, null);
+
+			for (int y = 0; y < image.getHeight(); y++)
+				for (int x = 0; x < image.getWidth(); x++)
+					Assert.assertEquals("Wrong pixel at " + x + "," + y + " for " + interpolation,
+							image.getRGB(x, y), result.getRGB(x, y));
+		}
+	}
+
+	@Test
+	public void testResampleImageTypes() {
+		AffineTransform transform = AffineTransform.getRotateInstance(Math.toRadians(10), 75, 50);
+		BufferedImage expected = AffineResampler.resample(createImage(BufferedImage.TYPE_INT_RGB),
+				transform, 150, 100, Color.WHITE, Interpolation.BICUBIC, null);
+
+		int[] types = new int[] {BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_INT_ARGB,
+				BufferedImage.TYPE_4BYTE_ABGR};
+		for (int type : types) {
+			BufferedImage result = AffineResampler.resample(createImage(type),
+					transform, 150, 100, Color.WHITE, Interpolation.BICUBIC, null);
+
+			Assert.assertEquals("Wrong image type", type, result.getType());
+			for (int y = 0; y < result.getHeight(); y++)
+				for (int x = 0; x < result.getWidth(); x++)
+					Assert.assertEquals("Wrong pixel at " + x + "," + y + " for type " + type,
+							expected.getRGB(x, y), result.getRGB(x, y));
+		}
+	}
+
+	@Test
+	public void testResampleBackground() {
+		BufferedImage image = createImage(BufferedImage.TYPE_INT_RGB);
+
+		// shift the image 10 pixels to the right
+		BufferedImage result = AffineResampler.resample(image,
+				AffineTransform.getTranslateInstance(-10, 0), image.getWidth(), image.getHeight(),
+				Color.RED, Interpolation.BILINEAR, null);
+
+		Assert.assertEquals("Wrong background", Color.RED.getRGB(), result.getRGB(5, 50));
+		Assert.assertEquals("Wrong pixel", image.getRGB(0, 50), result.getRGB(10, 50));
+		Assert.assertEquals("Wrong pixel", image.getRGB(100, 50), result.getRGB(110, 50));
+	}
+
+	@Test
+	public void testResampleMonitor() {
+		BufferedImage image = createImage(BufferedImage.TYPE_INT_RGB);
+		final AtomicInteger progress = new AtomicInteger();
+
+		BufferedImage result = AffineResampler.resample(image, new AffineTransform(), 300, 200,
+				null, Interpolation.NEAREST_NEIGHBOR, new AffineResampler.Monitor() {
+					public void progress(int done, int total) {
+						Assert.assertEquals("Wrong tile count", 20, total);
+						progress.incrementAndGet();
+					}
+
+					public boolean isCancelled() {
+						return false;
+					}
+				});
+		Assert.assertNotNull("The result is missing", result);
+		Assert.assertEquals("Wrong progress count", 20, progress.get());
+
+		result = AffineResampler.resample(image, new AffineTransform(), 300, 200, null,
+				Interpolation.NEAREST_NEIGHBOR, new AffineResampler.Monitor() {
+					public void progress(int done, int total) {
+						Assert.fail("Tile rendered after cancellation");
+					}
+
+					public boolean isCancelled() {
+						return true;
+					}
+				});
+		Assert.assertNull("The cancelled result is not null", result);
+	}
+
+	/**
+	 * @return an image of the given type filled with a gradient
+	 */
+	private BufferedImage createImage(int type) {
+		BufferedImage image = new BufferedImage(150, 100, type);
+		for (int y = 0; y < image.getHeight(); y++)
+			for (int x = 0; x < image.getWidth(); x++)
+				image.setRGB(x, y, new Color(x, y * 2, (x + y) % 256).getRGB());
+		return image;
+	}
+}
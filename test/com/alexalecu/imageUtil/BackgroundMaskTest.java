@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Alex Cojocaru
+ *
+ */
+public class BackgroundMaskTest {
+
+	@Test
+	public void testClassifyBands() {
+		BufferedImage image = createImage();
+		BackgroundMask mask = new BackgroundMask(120, 90, Color.WHITE, 10);
+
+		// classify the image the way a decoder reports its rows, in bands of various heights
+		for (int y = 0; y < 90; y += 7)
+			mask.classify(image, new Rectangle(0, y, 120, Math.min(7, 90 - y)));
+		Assert.assertTrue("Mask not complete", mask.isComplete());
+		Assert.assertTrue("Mask not matching", mask.matches(image, Color.WHITE, 10));
+		Assert.assertFalse("Mask matching another tolerance", mask.matches(image, Color.WHITE, 11));
+
+		boolean[][] matrix = mask.getMatrix();
+		for (int y = 0; y < 90; y++)
+			for (int x = 0; x < 120; x++)
+				Assert.assertEquals("Wrong pixel at " + x + "," + y,
+						!ImageColors.isBgColor(image, x, y, Color.WHITE, 10), matrix[x][y]);
+
+		Assert.assertEquals("Wrong row count", 50, mask.getRowCount(30));
+		Assert.assertEquals("Wrong row count", 0, mask.getRowCount(10));
+		Assert.assertEquals("Wrong column count", 40, mask.getColumnCount(30));
+		Assert.assertEquals("Wrong item bounds", new Rectangle(20, 25, 50, 40),
+				mask.getItemBounds());
+		Assert.assertEquals("Wrong border color", new Color(250, 250, 250),
+				mask.getBorderColor());
+	}
+
+	@Test
+	public void testClassifyAgain() {
+		BufferedImage image = new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB);
+		BackgroundMask mask = new BackgroundMask(40, 30, Color.BLACK, 0);
+		mask.classify(image, new Rectangle(0, 0, 40, 15));
+		Assert.assertFalse("Mask complete", mask.isComplete());
+		Assert.assertNull("Item found", mask.getItemBounds());
+
+		// a later pass of the decoder updates the rows already classified
+		image.setRGB(5, 10, 0xFFFFFFFF);
+		mask.classify(image, new Rectangle(0, 0, 40, 30));
+		Assert.assertTrue("Mask not complete", mask.isComplete());
+		Assert.assertEquals("Wrong row count", 1, mask.getRowCount(10));
+		Assert.assertEquals("Wrong item bounds", new Rectangle(5, 10, 1, 1), mask.getItemBounds());
+	}
+
+	/**
+	 * @return a near white image with a dark item
+	 */
+	private BufferedImage createImage() {
+		BufferedImage image = new BufferedImage(120, 90, BufferedImage.TYPE_3BYTE_BGR);
+		Graphics2D g = image.createGraphics();
+		g.setColor(new Color(250, 250, 250));
+		g.fillRect(0, 0, 120, 90);
+		g.setColor(new Color(40, 60, 80));
+		g.fillRect(20, 25, 50, 40);
+		g.dispose();
+		return image;
+	}
+}
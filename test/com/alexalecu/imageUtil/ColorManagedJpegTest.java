@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.color.ColorSpace;
+import java.awt.color.ICC_Profile;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorConvertOp;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Alex Cojocaru
+ *
+ */
+public class ColorManagedJpegTest {
+	// the size of the flat color blocks, a multiple of the JPEG block size
+	private final static int BLOCK = 16;
+
+	// the tolerance for the JPEG compression and the table interpolation errors
+	private final static int TOLERANCE = 4;
+
+	private final static int[][] CMYK_COLORS = {
+		{0, 0, 0, 0}, {255, 0, 0, 0}, {0, 255, 0, 0}, {0, 0, 255, 0},
+		{0, 0, 0, 255}, {40, 90, 160, 20}, {200, 128, 64, 100}, {128, 128, 128, 128}
+	};
+
+	@Test
+	public void testReadCmyk() throws IOException {
+		File file = writeJpeg(createCmykRaster(false), null);
+		BufferedImage image = ImageLoader.read(file, 1);
+		assertCmykBlocks(image);
+	}
+
+	@Test
+	public void testReadAdobeCmyk() throws IOException {
+		// the Adobe marker, with the unknown transform, means the components are inverted
+		byte[] adobe = {
+			(byte)0xFF, (byte)0xEE, 0, 14, 'A', 'd', 'o', 'b', 'e', 0, 100, 0, 0, 0, 0, 0
+		};
+		File file = writeJpeg(createCmykRaster(true), adobe);
+		BufferedImage image = ImageLoader.read(file, 1);
+		assertCmykBlocks(image);
+	}
+
+	@Test
+	public void testReadIccProfile() throws IOException {
+		int[] colors = {0x808080, 0xC04020, 0x40A0E0, 0xFFFFFF, 0xE0E040, 0x6090C0};
+		BufferedImage source = new BufferedImage(colors.length * BLOCK, BLOCK,
+				BufferedImage.TYPE_3BYTE_BGR);
+		for (int i = 0; i < colors.length; i++)
+			for (int y = 0; y < BLOCK; y++)
+				for (int x = 0; x < BLOCK; x++)
+					source.setRGB(i * BLOCK + x, y, colors[i]);
+
+		// tag the image as linear RGB, with a single APP2 chunk
+		byte[] profile = ICC_Profile.getInstance(ColorSpace.CS_LINEAR_RGB).getData();
+		ByteArrayOutputStream app2 = new ByteArrayOutputStream();
+		int length = 2 + 14 + profile.length;
+		app2.write(new byte[] {(byte)0xFF, (byte)0xE2, (byte)(length >> 8), (byte)length});
+		app2.write("ICC_PROFILE".getBytes("US-ASCII"));
+		app2.write(new byte[] {0, 1, 1});
+		app2.write(profile);
+
+		File plain = writeJpeg(source, null);
+		File tagged = writeJpeg(source, app2.toByteArray());
+		BufferedImage image = ImageLoader.read(tagged, 1);
+		Assert.assertEquals("Wrong type", BufferedImage.TYPE_3BYTE_BGR, image.getType());
+
+		// the reference: the untagged pixels, converted from linear RGB by the color management
+		BufferedImage decoded = ImageIO.read(plain);
+		BufferedImage expected = new BufferedImage(decoded.getWidth(), decoded.getHeight(),
+				BufferedImage.TYPE_3BYTE_BGR);
+		new ColorConvertOp(new ICC_Profile[] {
+				ICC_Profile.getInstance(ColorSpace.CS_LINEAR_RGB),
+				ICC_Profile.getInstance(ColorSpace.CS_sRGB)}, null).filter(
+						decoded.getRaster(), expected.getRaster());
+
+		for (int i = 0; i < colors.length; i++) {
+			int x = i * BLOCK + BLOCK / 2, y = BLOCK / 2;
+			assertColor("Wrong color " + i, expected.getRGB(x, y), image.getRGB(x, y));
+		}
+	}
+
+	@Test
+	public void testLutCache() {
+		ICC_Profile profile = ICC_Profile.getInstance(ColorSpace.CS_LINEAR_RGB);
+		ColorLut lut = ColorLut.forProfile(profile);
+		Assert.assertSame("Not cached", lut,
+				ColorLut.forProfile(ICC_Profile.getInstance(profile.getData())));
+		Assert.assertEquals("Wrong inputs", 3, lut.getInputs());
+		Assert.assertEquals("Wrong black", 0, lut.lookup(0, 0, 0));
+		Assert.assertEquals("Wrong white", 0xFFFFFF, lut.lookup(255, 255, 255));
+	}
+
+	/**
+	 * @return a raster made of flat blocks of the CMYK test colors, inverted if requested
+	 */
+	private WritableRaster createCmykRaster(boolean inverted) {
+		WritableRaster raster = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE,
+				CMYK_COLORS.length * BLOCK, BLOCK, 4, null);
+		int[] pixel = new int[4];
+		for (int i = 0; i < CMYK_COLORS.length; i++) {
+			for (int band = 0; band < 4; band++)
+				pixel[band] = inverted ? 255 - CMYK_COLORS[i][band] : CMYK_COLORS[i][band];
+			for (int y = 0; y < BLOCK; y++)
+				for (int x = 0; x < BLOCK; x++)
+					raster.setPixel(i * BLOCK + x, y, pixel);
+		}
+		return raster;
+	}
+
+	/**
+	 * check the block centers against the device independent CMYK conversion
+	 */
+	private void assertCmykBlocks(BufferedImage image) {
+		Assert.assertEquals("Wrong type", BufferedImage.TYPE_3BYTE_BGR, image.getType());
+		for (int i = 0; i < CMYK_COLORS.length; i++) {
+			int[] cmyk = CMYK_COLORS[i];
+			double white = 255d - cmyk[3];
+			int r = (int)Math.round((255 - cmyk[0]) * white / 255);
+			int g = (int)Math.round((255 - cmyk[1]) * white / 255);
+			int b = (int)Math.round((255 - cmyk[2]) * white / 255);
+			assertColor("Wrong color " + i, r << 16 | g << 8 | b,
+					image.getRGB(i * BLOCK + BLOCK / 2, BLOCK / 2));
+		}
+	}
+
+	private void assertColor(String message, int expected, int actual) {
+		for (int shift = 0; shift < 24; shift += 8) {
+			int delta = Math.abs(((expected >> shift) & 0xFF) - ((actual >> shift) & 0xFF));
+			if (delta > TOLERANCE)
+				Assert.fail(message + ": expected " + Integer.toHexString(expected & 0xFFFFFF)
+						+ ", got " + Integer.toHexString(actual & 0xFFFFFF));
+		}
+	}
+
+	/**
+	 * write a raster or an image as a high quality JPEG file, inserting the given marker
+	 * segment after the SOI and JFIF markers
+	 * @param pixels a Raster or a BufferedImage
+	 */
+	private File writeJpeg(Object pixels, byte[] segment) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+		ImageOutputStream ios = ImageIO.createImageOutputStream(bytes);
+		try {
+			writer.setOutput(ios);
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(1f);
+			IIOImage image = pixels instanceof Raster
+					? new IIOImage((Raster)pixels, null, null)
+					: new IIOImage((BufferedImage)pixels, null, null);
+			writer.write(null, image, param);
+		}
+		finally {
+			ios.close();
+			writer.dispose();
+		}
+
+		byte[] data = bytes.toByteArray();
+		int offset = 2;
+		if ((data[2] & 0xFF) == 0xFF && (data[3] & 0xFF) == 0xE0)
+			offset += 2 + ((data[4] & 0xFF) << 8 | (data[5] & 0xFF));
+
+		File file = File.createTempFile("colorManagedJpegTest", ".jpg");
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(data, 0, offset);
+			if (segment != null)
+				out.write(segment);
+			out.write(data, offset, data.length - offset);
+		}
+		finally {
+			out.close();
+		}
+		return file;
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Alex Cojocaru
+ *
+ */
+public class ColorMatcherTest {
+
+	@Test
+	public void testMatch8Bit() {
+		BufferedImage image = new BufferedImage(3, 1, BufferedImage.TYPE_3BYTE_BGR);
+		image.setRGB(0, 0, 0x808080);
+		image.setRGB(1, 0, 0x858080);
+		image.setRGB(2, 0, 0x868080);
+
+		// the same outcome as ImageColors.colorMatch with a tolerance of 5
+		ColorMatcher matcher = new ColorMatcher(image, new Color(0x808080),
+				ColorMatcher.normalizeTolerance(5));
+		boolean[] result = new boolean[3];
+		matcher.matchRow(0, 0, 3, result);
+		Assert.assertTrue("Equal color not matched", result[0]);
+		Assert.assertTrue("Color within tolerance not matched", result[1]);
+		Assert.assertFalse("Color outside tolerance matched", result[2]);
+	}
+
+	@Test
+	public void testMatch16Bit() {
+		// the samples are all 128 once narrowed to 8 bits
+		BufferedImage image = new BufferedImage(1, 3, BufferedImage.TYPE_USHORT_GRAY);
+		image.getRaster().setSample(0, 0, 0, 0x8080);
+		image.getRaster().setSample(0, 1, 0, 0x8088);
+		image.getRaster().setSample(0, 2, 0, 0x80F0);
+
+		Color bgColor = getColor(image, 0, 0);
+		boolean[] result = new boolean[3];
+		new ColorMatcher(image, bgColor, 0d).matchColumn(0, 0, 3, result);
+		Assert.assertTrue("Equal sample not matched", result[0]);
+		Assert.assertFalse("Different sample matched", result[1]);
+		Assert.assertFalse("Different sample matched", result[2]);
+
+		// the tolerance is in normalized units, about 0.1% of the range here
+		new ColorMatcher(image, bgColor, 0x10 / 65535d).matchColumn(0, 0, 3, result);
+		Assert.assertTrue("Equal sample not matched", result[0]);
+		Assert.assertTrue("Sample within tolerance not matched", result[1]);
+		Assert.assertFalse("Sample outside tolerance matched", result[2]);
+	}
+
+	@Test
+	public void testMatchGreyPickedColor() {
+		// the colors picked from a grey image are sRGB colors, converted back to linear grey
+		BufferedImage image = new BufferedImage(256, 1, BufferedImage.TYPE_BYTE_GRAY);
+		for (int x = 0; x < 256; x++)
+			image.getRaster().setSample(x, 0, 0, x);
+
+		boolean[] result = new boolean[256];
+		for (int x = 0; x < 256; x += 15) {
+			Color picked = ImageColors.getPixelColor(image, x, 0);
+			new ColorMatcher(image, picked, 0d).matchRow(0, 0, 256, result);
+			Assert.assertTrue("Picked color not matched at " + x, result[x]);
+			Assert.assertFalse("Distant color matched at " + x, result[(x + 128) % 256]);
+		}
+	}
+
+	@Test
+	public void testImageColors16Bit() {
+		BufferedImage image = new BufferedImage(10, 1, BufferedImage.TYPE_USHORT_GRAY);
+		for (int x = 0; x < 10; x++)
+			image.getRaster().setSample(x, 0, 0, 0x8080);
+		image.getRaster().setSample(6, 0, 0, 0x80A0);
+		Color bgColor = getColor(image, 0, 0);
+
+		int[] margins = ImageColors.getColorMargins(image, 0, false, 0, 9, bgColor, 0);
+		Assert.assertEquals("Wrong left margin", 6, margins[0]);
+		Assert.assertEquals("Wrong right margin", 6, margins[1]);
+		Assert.assertFalse("Line matched", ImageColors.isBgColor(image, 0, false, 0, 9,
+				bgColor, 0));
+		Assert.assertTrue("Line not matched", ImageColors.isBgColor(image, 0, false, 0, 5,
+				bgColor, 0));
+	}
+
+	private static Color getColor(BufferedImage image, int x, int y) {
+		return ImageColors.getPixelColor(image, x, y);
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.alexalecu.imageCrop.exception.InvalidOperationException;
+
+/**
+ * @author Alex Cojocaru
+ *
+ */
+public class EdgeDetectorTest {
+
+	@Test
+	public void testDetectEdges() {
+		BufferedImage image = createImage(BufferedImage.TYPE_INT_RGB);
+		boolean[][] matrix = EdgeDetector.detectEdges(image, EdgeDetector.MIN_EDGE_THRESHOLD);
+
+		Assert.assertEquals("Wrong matrix width", image.getWidth(), matrix.length);
+		Assert.assertEquals("Wrong matrix height", image.getHeight(), matrix[0].length);
+
+		Assert.assertTrue("Left edge not found", matrix[40][50]);
+		Assert.assertTrue("Right edge not found", matrix[139][50]);
+		Assert.assertTrue("Top edge not found", matrix[90][30]);
+		Assert.assertTrue("Bottom edge not found", matrix[90][69]);
+		Assert.assertFalse("Edge found on the background", matrix[10][10]);
+		Assert.assertFalse("Edge found inside the item", matrix[90][50]);
+	}
+
+	@Test
+	public void testDetectEdgesImageTypes() {
+		boolean[][] expected = EdgeDetector.detectEdges(
+				createImage(BufferedImage.TYPE_INT_RGB), EdgeDetector.MIN_EDGE_THRESHOLD);
+
+		int[] types = new int[] {BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_INT_ARGB,
+				BufferedImage.TYPE_BYTE_GRAY};
+		for (int type : types) {
+			boolean[][] matrix = EdgeDetector.detectEdges(
+					createImage(type), EdgeDetector.MIN_EDGE_THRESHOLD);
+			for (int x = 0; x < matrix.length; x++)
+				for (int y = 0; y < matrix[0].length; y++)
+					Assert.assertEquals("Wrong edge mask for image type " + type,
+							expected[x][y], matrix[x][y]);
+		}
+	}
+
+	@Test
+	public void testEdgeThreshold() {
+		// a step of 40 grey levels is an edge for a tolerance below it only
+		BufferedImage image = new BufferedImage(100, 50, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		g.setColor(Color.white);
+		g.fillRect(0, 0, 100, 50);
+		g.setColor(new Color(215, 215, 215));
+		g.fillRect(50, 0, 50, 50);
+		g.dispose();
+
+		boolean[][] matrix = EdgeDetector.detectEdges(image, EdgeDetector.getEdgeThreshold(30));
+		Assert.assertTrue("Edge not found", matrix[50][25]);
+		matrix = EdgeDetector.detectEdges(image, EdgeDetector.getEdgeThreshold(50));
+		Assert.assertFalse("Edge found within the tolerance", matrix[50][25]);
+
+		Assert.assertEquals("Wrong minimum threshold", EdgeDetector.MIN_EDGE_THRESHOLD,
+				EdgeDetector.getEdgeThreshold(0));
+	}
+
+	@Test
+	public void testAutoSelectByEdges() throws InvalidOperationException {
+		AutoSelectTask task = new AutoSelectTask();
+		task.setImage(createImage(BufferedImage.TYPE_INT_RGB));
+		task.setSelectionRect(new Rectangle(20, 20, 160, 60));
+		task.setBgColor(Color.white);
+		task.setBgTolerance(0);
+		task.setSelectMethod(ImageSelectMethod.SelectMaximum);
+		task.setDetectMethod(ImageDetectMethod.DetectEdges);
+
+		Object[] result = task.doInBackground();
+		Assert.assertEquals("Computed rectangle is wrong",
+				new Rectangle(39, 29, 102, 42), result[0]);
+	}
+
+	/**
+	 * @return a white image containing a light grey item, which cannot be told apart from the
+	 * background by using the background color and a tolerance of 0
+	 */
+	private BufferedImage createImage(int type) {
+		BufferedImage image = new BufferedImage(200, 100, type);
+		Graphics2D g = image.createGraphics();
+		g.setColor(Color.white);
+		g.fillRect(0, 0, 200, 100);
+		g.setColor(new Color(225, 225, 225));
+		g.fillRect(40, 30, 100, 40);
+		g.dispose();
+		return image;
+	}
+}
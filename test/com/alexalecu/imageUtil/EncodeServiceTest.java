@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Alex Cojocaru
+ *
+ */
+public class EncodeServiceTest {
+
+	@Test
+	public void testRegions() throws Exception {
+		BufferedImage image = new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < 200; y++)
+			for (int x = 0; x < 300; x++)
+				image.setRGB(x, y, x < 150 ? 0xFF0000 : 0x0000FF);
+
+		// a budget smaller than the images, so that the producer has to wait for the encoders
+		EncodeService service = new EncodeService(2, 64 * 1024);
+		List<File> files = new ArrayList<File>();
+		try {
+			List<Future<EncodeService.Result>> results =
+					new ArrayList<Future<EncodeService.Result>>();
+			for (int i = 0; i < 6; i++) {
+				File file = File.createTempFile("encodeService", i % 2 == 0 ? ".png" : ".jpg");
+				files.add(file);
+				Rectangle region = new Rectangle(i * 40, 0, 50 + i * 10, 100 + i * 10);
+				results.add(service.submit(image, region, i % 2 == 0 ? EncodeService.Format.PNG
+						: EncodeService.Format.JPEG, ImageConvert.JpegPreset.HIGH_QUALITY, file));
+			}
+
+			for (int i = 0; i < 6; i++) {
+				EncodeService.Result result = results.get(i).get();
+				Assert.assertEquals("Wrong file", files.get(i), result.getFile());
+				Assert.assertTrue("Negative latency", result.getEncodeMillis() >= 0
+						&& result.getQueuedMillis() >= 0);
+
+				BufferedImage read = ImageIO.read(files.get(i));
+				Assert.assertEquals("Wrong width", 50 + i * 10, read.getWidth());
+				Assert.assertEquals("Wrong height", 100 + i * 10, read.getHeight());
+				if (i % 2 == 0)
+					Assert.assertEquals("Wrong pixel", image.getRGB(i * 40 + 5, 5),
+							read.getRGB(5, 5));
+			}
+			Assert.assertEquals("Memory not released", 0L, service.getPendingBytes());
+		}
+		finally {
+			service.shutdown();
+			for (File file : files)
+				file.delete();
+		}
+	}
+
+	@Test
+	public void testError() throws Exception {
+		EncodeService service = new EncodeService(1, 1024 * 1024);
+		try {
+			File file = new File(new File(System.getProperty("java.io.tmpdir"), "noSuchDir"),
+					"out.jpg");
+			Future<EncodeService.Result> result = service.submit(
+					new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB), null,
+					EncodeService.Format.JPEG, ImageConvert.JpegPreset.DEFAULT, file);
+			try {
+				result.get();
+				Assert.fail("The job should have failed");
+			}
+			catch (ExecutionException e) {
+				Assert.assertTrue("Wrong cause", e.getCause() instanceof IOException);
+			}
+			Assert.assertEquals("Memory not released", 0L, service.getPendingBytes());
+		}
+		finally {
+			service.shutdown();
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Alex Cojocaru
+ *
+ */
+public class ExportProfileTest {
+
+	@Test
+	public void testGetSize() {
+		Assert.assertEquals("Full size changed", new Dimension(4000, 3000),
+				ExportProfile.getSize(4000, 3000, 0));
+		Assert.assertEquals("Wrong landscape size", new Dimension(2000, 1500),
+				ExportProfile.getSize(4000, 3000, 2000));
+		Assert.assertEquals("Wrong portrait size", new Dimension(225, 300),
+				ExportProfile.getSize(3000, 4000, 300));
+		Assert.assertEquals("Small image upscaled", new Dimension(200, 100),
+				ExportProfile.getSize(200, 100, 300));
+		Assert.assertEquals("Empty size", new Dimension(1, 300),
+				ExportProfile.getSize(10, 4000, 300));
+	}
+
+	@Test
+	public void testExport() throws Exception {
+		BufferedImage image = new BufferedImage(900, 600, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < 600; y++)
+			for (int x = 0; x < 900; x++)
+				image.setRGB(x, y, x < 450 ? 0xC02020 : 0x2020C0);
+
+		// the derivatives are sorted by decreasing size, whatever their order
+		ExportProfile profile = new ExportProfile(
+				new ExportProfile.Derivative("_thumb", 90, ImageConvert.JpegPreset.WEB),
+				new ExportProfile.Derivative("", 0, ImageConvert.JpegPreset.HIGH_QUALITY),
+				new ExportProfile.Derivative("_web", 450, ImageConvert.JpegPreset.WEB));
+		List<ExportProfile.Derivative> derivatives = profile.getDerivatives();
+		Assert.assertEquals("Wrong order", "", derivatives.get(0).getSuffix());
+		Assert.assertEquals("Wrong order", "_web", derivatives.get(1).getSuffix());
+		Assert.assertEquals("Wrong order", "_thumb", derivatives.get(2).getSuffix());
+
+		File baseFile = File.createTempFile("export", ".png");
+		baseFile.delete();
+		EncodeService service = new EncodeService(2, 64L * 1024 * 1024);
+		try {
+			List<Future<EncodeService.Result>> results = profile.export(image, baseFile, service);
+			int[] widths = new int[] { 900, 450, 90 };
+			int[] heights = new int[] { 600, 300, 60 };
+			for (int i = 0; i < 3; i++) {
+				File file = results.get(i).get().getFile();
+				Assert.assertEquals("Wrong file", profile.getFile(baseFile, derivatives.get(i)),
+						file);
+				Assert.assertTrue("Not a JPG file", file.getName().endsWith(
+						derivatives.get(i).getSuffix() + ".jpg"));
+
+				BufferedImage read = ImageIO.read(file);
+				Assert.assertEquals("Wrong width", widths[i], read.getWidth());
+				Assert.assertEquals("Wrong height", heights[i], read.getHeight());
+
+				// the colors survive the cascade of downscales
+				int left = read.getRGB(read.getWidth() / 4, read.getHeight() / 2);
+				int right = read.getRGB(read.getWidth() * 3 / 4, read.getHeight() / 2);
+				Assert.assertTrue("Wrong left color", ((left >> 16) & 0xFF) > (left & 0xFF) + 100);
+				Assert.assertTrue("Wrong right color",
+						(right & 0xFF) > ((right >> 16) & 0xFF) + 100);
+			}
+			Assert.assertEquals("Memory not released", 0L, service.getPendingBytes());
+		}
+		finally {
+			service.shutdown();
+			for (ExportProfile.Derivative derivative : derivatives)
+				profile.getFile(baseFile, derivative).delete();
+		}
+	}
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.alexalecu.util.FileUtil;
+
+/**
+ * @author Alex Cojocaru
+ *
+ */
+public class ExportTaskTest {
+
+	@Test
+	public void testExport() throws Exception {
+		File dir = createDirectory();
+		EncodeService service = new EncodeService(2, 16L * 1024 * 1024);
+		try {
+			ExportProfile profile = new ExportProfile(
+					new ExportProfile.Derivative("", 0, ImageConvert.JpegPreset.DEFAULT),
+					new ExportProfile.Derivative("_thumb", 100, ImageConvert.JpegPreset.WEB));
+			AtomicBoolean released = new AtomicBoolean();
+			ExportTask task = createTask(service, profile, new File(dir, "image.jpg"),
+					new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB), released);
+			task.run();
+
+			List<File> files = task.get();
+			Assert.assertEquals("Wrong file count", 2, files.size());
+			Assert.assertEquals("Wrong width", 400, ImageIO.read(files.get(0)).getWidth());
+			Assert.assertEquals("Wrong width", 100, ImageIO.read(files.get(1)).getWidth());
+			Assert.assertEquals("Temporary files left", 2, dir.listFiles().length);
+			Assert.assertTrue("Image not released", released.get());
+		}
+		finally {
+			service.shutdown();
+			FileUtil.deleteFileOrDirectory(dir);
+		}
+	}
+
+	@Test
+	public void testFailure() throws Exception {
+		File dir = createDirectory();
+		EncodeService service = new EncodeService(1, 16L * 1024 * 1024);
+		try {
+			// the thumbnail cannot be written, as its directory does not exist
+			ExportProfile profile = new ExportProfile(
+					new ExportProfile.Derivative("", 0, ImageConvert.JpegPreset.DEFAULT),
+					new ExportProfile.Derivative("_missing/thumb", 100,
+							ImageConvert.JpegPreset.WEB));
+			AtomicBoolean released = new AtomicBoolean();
+			ExportTask task = createTask(service, profile, new File(dir, "image.jpg"),
+					new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB), released);
+			task.run();
+			try {
+				task.get();
+				Assert.fail("No error");
+			}
+			catch (ExecutionException e) {
+				Assert.assertTrue("Wrong error", e.getCause() instanceof IOException);
+			}
+
+			// the derivatives written are deleted
+			Assert.assertEquals("Files left", 0, dir.listFiles().length);
+			Assert.assertTrue("Image not released", released.get());
+		}
+		finally {
+			service.shutdown();
+			FileUtil.deleteFileOrDirectory(dir);
+		}
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		File dir = createDirectory();
+		EncodeService service = new EncodeService(1, 16L * 1024 * 1024);
+		try {
+			// the export is cancelled while the image is obtained
+			AtomicBoolean released = new AtomicBoolean();
+			final ExportTask task = new ExportTask();
+			task.setBaseFile(new File(dir, "image.jpg"));
+			task.setEncodeService(service);
+			task.setSource(createSource(new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB),
+					released, new Runnable() {
+						public void run() {
+							task.cancel(false);
+						}
+					}));
+			task.run();
+			try {
+				task.get();
+				Assert.fail("Not cancelled");
+			}
+			catch (CancellationException e) {
+				// expected
+			}
+			Assert.assertEquals("Files written", 0, dir.listFiles().length);
+			Assert.assertTrue("Image not released", released.get());
+		}
+		finally {
+			service.shutdown();
+			FileUtil.deleteFileOrDirectory(dir);
+		}
+	}
+
+	@Test
+	public void testCancelBeforeStart() throws Exception {
+		EncodeService service = new EncodeService(1, 16L * 1024 * 1024);
+		try {
+			AtomicBoolean released = new AtomicBoolean();
+			ExportTask task = createTask(service, ExportProfile.DEFAULT,
+					new File(System.getProperty("java.io.tmpdir"), "image.jpg"),
+					new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB), released);
+			task.cancel(true);
+			task.run();
+
+			// the task is done on the event dispatch thread, through a coalescing timer
+			long deadline = System.currentTimeMillis() + 5000;
+			while (!released.get() && System.currentTimeMillis() < deadline)
+				Thread.sleep(10);
+			Assert.assertTrue("Image not released", released.get());
+		}
+		finally {
+			service.shutdown();
+		}
+	}
+
+	/**
+	 * @return a new empty temporary directory
+	 */
+	private File createDirectory() throws IOException {
+		File dir = File.createTempFile("exportTask", "");
+		dir.delete();
+		dir.mkdir();
+		return dir;
+	}
+
+	private ExportTask createTask(EncodeService service, ExportProfile profile, File baseFile,
+			BufferedImage image, AtomicBoolean released) throws Exception {
+		ExportTask task = new ExportTask();
+		task.setBaseFile(baseFile);
+		task.setProfile(profile);
+		task.setEncodeService(service);
+		task.setSource(createSource(image, released, null));
+		return task;
+	}
+
+	/**
+	 * @param image the image to export
+	 * @param released set once the image is released
+	 * @param onGetImage run when the image is requested, can be null
+	 */
+	private SaveTask.Source createSource(final BufferedImage image, final AtomicBoolean released,
+			final Runnable onGetImage) {
+		return new SaveTask.Source() {
+			public boolean copyTo(File file) throws IOException {
+				return false;
+			}
+
+			public BufferedImage getImage() throws IOException {
+				if (onGetImage != null)
+					onGetImage.run();
+				return image;
+			}
+
+			public void release() {
+				released.set(true);
+			}
+		};
+	}
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Alex Cojocaru
+ *
+ */
+public class ImageConvertTest {
+
+	@Test
+	public void testPooledWriterOutput() throws IOException {
+		BufferedImage image = createImage(120, 90);
+
+		// the pooled writer is reset between the calls, so the output does not change
+		byte[] first = ImageConvert.toByteArray(image, 0.7f);
+		byte[] second = ImageConvert.toByteArray(image, 0.7f);
+		Assert.assertTrue("Different output", Arrays.equals(first, second));
+
+		// and the quality of a call does not leak into the next one
+		byte[] lower = ImageConvert.toByteArray(image, 0.3f);
+		Assert.assertTrue("Quality not applied", lower.length < first.length);
+		Assert.assertTrue("Different output", Arrays.equals(first,
+				ImageConvert.toByteArray(image, 0.7f)));
+
+		ByteArrayOutputStream png = new ByteArrayOutputStream();
+		ImageConvert.writePng(image, png);
+		BufferedImage read = ImageConvert.read(png.toByteArray());
+		Assert.assertEquals("Wrong png pixel", image.getRGB(33, 44), read.getRGB(33, 44));
+	}
+
+	@Test
+	public void testPresetsToFile() throws IOException {
+		BufferedImage image = createImage(200, 150);
+		File file = File.createTempFile("imageConvert", ".jpg");
+		try {
+			// the file output matches the stream output
+			ImageConvert.writeJpg(image, ImageConvert.JpegPreset.HIGH_QUALITY, file);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ImageConvert.writeJpg(image, ImageConvert.JpegPreset.HIGH_QUALITY, out);
+			Assert.assertTrue("Different output", Arrays.equals(out.toByteArray(), readFile(file)));
+			Assert.assertFalse("Progressive image", isProgressive(file));
+
+			// overwriting a bigger file truncates it
+			ImageConvert.writeJpg(image, ImageConvert.JpegPreset.WEB, file);
+			Assert.assertTrue("Progressive image expected", isProgressive(file));
+			Assert.assertTrue("Not truncated", file.length() < out.size());
+
+			BufferedImage read = ImageIO.read(file);
+			Assert.assertEquals("Wrong width", 200, read.getWidth());
+			Assert.assertEquals("Wrong height", 150, read.getHeight());
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testChannelStreamSeek() throws IOException {
+		File file = File.createTempFile("imageConvert", ".bin");
+		try {
+			ImageOutputStream ios = new FileChannelImageOutputStream(file);
+			try {
+				ios.writeInt(0x01020304);
+				ios.write(new byte[] { 5, 6, 7, 8 });
+				// patch a value written earlier, the way the encoders fill in the chunk lengths
+				ios.seek(1);
+				ios.write(9);
+				ios.seek(ios.length());
+				ios.writeShort(0x0A0B);
+
+				ios.seek(0);
+				Assert.assertEquals("Wrong value read back", 0x01090304, ios.readInt());
+				Assert.assertEquals("Wrong length", 10, ios.length());
+			}
+			finally {
+				ios.close();
+			}
+
+			Assert.assertTrue("Wrong content", Arrays.equals(
+					new byte[] { 1, 9, 3, 4, 5, 6, 7, 8, 10, 11 }, readFile(file)));
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testWriteJpgToSize() throws IOException {
+		BufferedImage image = createImage(800, 600);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageConvert.writeJpg(image, 0.5f, out);
+		long maxBytes = out.size();
+
+		File file = File.createTempFile("imageConvert", ".jpg");
+		try {
+			float quality = ImageConvert.writeJpg(image, ImageConvert.JpegPreset.DEFAULT,
+					maxBytes, file);
+			Assert.assertTrue("File too big: " + file.length(), file.length() <= maxBytes);
+			Assert.assertTrue("Quality too low: " + quality, quality > 0.4f && quality <= 0.55f);
+			Assert.assertEquals("Wrong size", 800, ImageIO.read(file).getWidth());
+
+			// the lowest quality is used if nothing fits
+			quality = ImageConvert.writeJpg(image, ImageConvert.JpegPreset.DEFAULT, 100L, file);
+			Assert.assertTrue("Quality too high: " + quality, quality < 0.1f);
+			Assert.assertNotNull("Image not written", ImageIO.read(file));
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testWrite16BitCrop() throws IOException {
+		// a 48 bit image, whose samples differ below the 8 bit resolution
+		ComponentColorModel cm = new ComponentColorModel(
+				ColorSpace.getInstance(ColorSpace.CS_sRGB), false, false,
+				Transparency.OPAQUE, DataBuffer.TYPE_USHORT);
+		WritableRaster raster = cm.createCompatibleWritableRaster(60, 40);
+		for (int y = 0; y < 40; y++)
+			for (int x = 0; x < 60; x++)
+				raster.setPixel(x, y, new int[] {x * 1000 + y, 0x8000 + x, 0xFFFF - y});
+		BufferedImage image = new BufferedImage(cm, raster, false, null);
+		Assert.assertSame("High bit depth image converted", image, PixelFormat.normalize(image));
+
+		// the crop is a view of the image, which is written as it is
+		Rectangle region = new Rectangle(10, 5, 30, 20);
+		BufferedImage crop = ImageConvert.cropImage(image, region);
+		Assert.assertSame("The crop is a copy", raster.getDataBuffer(),
+				crop.getRaster().getDataBuffer());
+
+		File file = File.createTempFile("imageConvert", ".png");
+		try {
+			ImageConvert.writePng(crop, file);
+			BufferedImage read = ImageIO.read(file);
+			Raster readRaster = read.getRaster();
+			Assert.assertEquals("Wrong sample size", 16,
+					readRaster.getSampleModel().getSampleSize(0));
+			Assert.assertEquals("Wrong width", region.width, read.getWidth());
+			for (int y = 0; y < region.height; y++)
+				for (int x = 0; x < region.width; x++)
+					for (int band = 0; band < 3; band++)
+						Assert.assertEquals("Wrong sample at " + x + "," + y,
+								raster.getSample(region.x + x, region.y + y, band),
+								readRaster.getSample(x, y, band));
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testWriteRotated16BitJpg() throws IOException {
+		ComponentColorModel cm = new ComponentColorModel(
+				ColorSpace.getInstance(ColorSpace.CS_sRGB), false, false,
+				Transparency.OPAQUE, DataBuffer.TYPE_USHORT);
+		WritableRaster raster = cm.createCompatibleWritableRaster(80, 60);
+		for (int y = 0; y < 60; y++)
+			for (int x = 0; x < 80; x++)
+				raster.setPixel(x, y, new int[] {x * 800, y * 1000, 0x8000});
+		BufferedImage image = new BufferedImage(cm, raster, false, null);
+
+		// the resampled image is opaque and of 8 bits per component
+		BufferedImage rotated = ImageRotate.rotateDegreesCropped(image, 7.5d);
+		Assert.assertFalse("Rotated image has alpha", rotated.getColorModel().hasAlpha());
+		Assert.assertEquals("Wrong rotated type", BufferedImage.TYPE_3BYTE_BGR,
+				rotated.getType());
+
+		File file = File.createTempFile("imageConvert", ".jpg");
+		try {
+			ImageConvert.writeJpg(rotated, ImageConvert.JpegPreset.HIGH_QUALITY, file);
+			BufferedImage read = ImageIO.read(file);
+			Assert.assertEquals("Wrong width", rotated.getWidth(), read.getWidth());
+
+			// the alpha is dropped as well
+			BufferedImage argb = new BufferedImage(40, 30, BufferedImage.TYPE_INT_ARGB);
+			ImageConvert.writeJpg(argb, ImageConvert.JpegPreset.HIGH_QUALITY, file);
+			Assert.assertEquals("Wrong width", 40, ImageIO.read(file).getWidth());
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	private static BufferedImage createImage(int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < height; y++)
+			for (int x = 0; x < width; x++)
+				image.setRGB(x, y, (x * 2) << 16 | (y * 3) << 8 | ((x * y) & 0xFF));
+		return image;
+	}
+
+	private static byte[] readFile(File file) throws IOException {
+		byte[] bytes = new byte[(int)file.length()];
+		FileInputStream in = new FileInputStream(file);
+		try {
+			int read = 0;
+			while (read < bytes.length)
+				read += in.read(bytes, read, bytes.length - read);
+		}
+		finally {
+			in.close();
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return true if the JPG file has a progressive start of frame marker
+	 */
+	private static boolean isProgressive(File file) throws IOException {
+		byte[] bytes = readFile(file);
+		for (int i = 0; i < bytes.length - 1; i++)
+			if ((bytes[i] & 0xFF) == 0xFF && (bytes[i + 1] & 0xFF) == 0xC2)
+				return true;
+		return false;
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Alex Cojocaru
+ *
+ */
+public class ImageHandleTest {
+
+	@Test
+	public void testCopyOnWrite() {
+		BufferedImage image = new BufferedImage(100, 80, BufferedImage.TYPE_INT_RGB);
+		image.setRGB(20, 30, 0xFF123456);
+		ImageHandle handle = ImageHandle.wrap(image);
+		Assert.assertFalse("Shared image", handle.isShared());
+		Assert.assertSame("Exclusive image copied", image, handle.getWritableImage());
+
+		// the view shares the pixels of the image
+		ImageHandle view = handle.getView(new Rectangle(10, 20, 50, 40));
+		Assert.assertTrue("Image not shared", handle.isShared());
+		Assert.assertEquals("Wrong view size", 50, view.getWidth());
+		Assert.assertEquals("Wrong view pixel", 0xFF123456, view.getImage().getRGB(10, 10));
+		image.setRGB(21, 30, 0xFF654321);
+		Assert.assertEquals("View not sharing the pixels", 0xFF654321,
+				view.getImage().getRGB(11, 10));
+
+		// writing to the view copies it, the image is not affected
+		BufferedImage writable = view.getWritableImage();
+		writable.setRGB(10, 10, 0xFFABCDEF);
+		Assert.assertEquals("Image modified", 0xFF123456, image.getRGB(20, 30));
+		Assert.assertFalse("Detached view still shared", view.isShared());
+		Assert.assertFalse("Image still shared", handle.isShared());
+
+		// once the other handles are released, the pixels are written in place
+		ImageHandle other = handle.retain();
+		Assert.assertTrue("Image not shared", handle.isShared());
+		other.release();
+		other.release();
+		Assert.assertSame("Exclusive image copied", image, handle.getWritableImage());
+
+		try {
+			other.getImage();
+			Assert.fail("A released handle cannot be used");
+		}
+		catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testCloneSubimage() {
+		BufferedImage image = new BufferedImage(200, 100, BufferedImage.TYPE_3BYTE_BGR);
+		image.setRGB(55, 45, 0xFF102030);
+
+		// the clone of a sub-image holds the sub-image pixels only, in the same layout
+		BufferedImage clone = ImageConvert.cloneImage(image.getSubimage(50, 40, 30, 20));
+		Assert.assertEquals("Wrong type", BufferedImage.TYPE_3BYTE_BGR, clone.getType());
+		Assert.assertEquals("Wrong buffer size", 30 * 20 * 3,
+				((DataBufferByte)clone.getRaster().getDataBuffer()).getData().length);
+		Assert.assertEquals("Wrong pixel", 0xFF102030, clone.getRGB(5, 5));
+	}
+}
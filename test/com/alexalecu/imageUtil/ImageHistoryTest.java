@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Alex Cojocaru
+ *
+ */
+public class ImageHistoryTest {
+
+	@Test
+	public void testUndoRedo() throws Exception {
+		ImageHistory<String> history = new ImageHistory<String>(Long.MAX_VALUE, null);
+		history.push("first", createImage(0xFF000001));
+		history.push("second", createImage(0xFF000002));
+		history.push("third", createImage(0xFF000003));
+		Assert.assertEquals("Wrong size", 3, history.size());
+		Assert.assertFalse("Redo available", history.canRedo());
+
+		history.undo();
+		history.undo();
+		Assert.assertEquals("Wrong state", "first", history.getState());
+		Assert.assertFalse("Undo available", history.canUndo());
+		assertImage(history, 0xFF000001);
+
+		history.redo();
+		Assert.assertEquals("Wrong state", "second", history.getState());
+		assertImage(history, 0xFF000002);
+
+		// a new step drops the ones which could have been redone
+		history.push("fourth", createImage(0xFF000004));
+		Assert.assertEquals("Wrong size", 3, history.size());
+		Assert.assertEquals("Wrong index", 2, history.getIndex());
+		Assert.assertFalse("Redo available", history.canRedo());
+		Assert.assertEquals("Wrong state", "second", history.getState(1));
+
+		history.clear();
+		Assert.assertEquals("History not cleared", 0, history.size());
+		Assert.assertEquals("Images not released", 0L, history.getResidentBytes());
+	}
+
+	@Test
+	public void testSpill() throws Exception {
+		// 100 x 80 x 4 bytes per image; only two of the older images fit the budget
+		ImageHistory<Integer> history = new ImageHistory<Integer>(2 * 32000, null);
+		for (int i = 0; i < 6; i++)
+			history.push(i, createImage(0xFF000000 | i));
+		history.flush();
+
+		Assert.assertTrue("Current image spilled", history.isResident(5));
+		Assert.assertTrue("Previous image spilled", history.isResident(4));
+		Assert.assertTrue("Previous image spilled", history.isResident(3));
+		Assert.assertFalse("Old image kept in memory", history.isResident(0));
+		Assert.assertEquals("Wrong resident bytes", 3 * 32000L, history.getResidentBytes());
+
+		// the spilled images are loaded back, and the ones far from the current one spilled
+		while (history.canUndo())
+			history.undo();
+		history.flush();
+		assertImage(history, 0xFF000000);
+		Assert.assertTrue("Next image spilled", history.isResident(1));
+		Assert.assertFalse("Far image kept in memory", history.isResident(5));
+
+		while (history.canRedo()) {
+			history.redo();
+			assertImage(history, 0xFF000000 | history.getState());
+		}
+		history.clear();
+	}
+
+	@Test
+	public void testSpillDirectory() throws Exception {
+		File directory = new File(System.getProperty("java.io.tmpdir"),
+				"historyTest" + System.nanoTime());
+		Assert.assertTrue("Cannot create the directory", directory.mkdir());
+		try {
+			ImageHistory<Integer> history = new ImageHistory<Integer>(0L, directory);
+			history.push(0, createImage(0xFF000000));
+			history.push(1, createImage(0xFF000001));
+			history.flush();
+			Assert.assertEquals("Spill file not written", 1, directory.list().length);
+
+			// the spill files are deleted along with their steps
+			history.clear();
+			Assert.assertEquals("Spill file not deleted", 0, directory.list().length);
+		}
+		finally {
+			for (File file : directory.listFiles())
+				file.delete();
+			directory.delete();
+		}
+	}
+
+	@Test
+	public void testSharedPixels() throws Exception {
+		// a crop shares the pixels of the image it has been cut from, so they are counted once
+		ImageHistory<Integer> history = new ImageHistory<Integer>(32000, null);
+		ImageHandle image = createImage(0xFF000000);
+		ImageHandle crop = image.getView(new Rectangle(10, 10, 50, 40));
+		history.push(0, image);
+		history.push(1, crop);
+		history.flush();
+		Assert.assertTrue("Shared image spilled", history.isResident(0));
+		Assert.assertEquals("Wrong resident bytes", 32000L, history.getResidentBytes());
+
+		// the two older images fit the budget of a single one
+		history.push(2, createImage(0xFF000002));
+		history.flush();
+		Assert.assertTrue("Shared image spilled", history.isResident(0));
+		Assert.assertTrue("Shared image spilled", history.isResident(1));
+		Assert.assertEquals("Wrong resident bytes", 2 * 32000L, history.getResidentBytes());
+
+		// another image does not fit anymore, so the older ones are spilled
+		history.push(3, createImage(0xFF000003));
+		history.flush();
+		Assert.assertTrue("Previous image spilled", history.isResident(2));
+		Assert.assertFalse("Old image kept in memory", history.isResident(1));
+		Assert.assertFalse("Old image kept in memory", history.isResident(0));
+		history.clear();
+	}
+
+	private static ImageHandle createImage(int argb) {
+		BufferedImage image = new BufferedImage(100, 80, BufferedImage.TYPE_INT_RGB);
+		image.setRGB(50, 40, argb);
+		return ImageHandle.wrap(image);
+	}
+
+	private static void assertImage(ImageHistory<?> history, int argb) throws Exception {
+		ImageHandle image = history.getImage();
+		try {
+			Assert.assertEquals("Wrong image", argb, image.getImage().getRGB(50, 40));
+		}
+		finally {
+			image.release();
+		}
+	}
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Alex Cojocaru
+ *
+ */
+public class ImageLoaderTest {
+
+	@Test
+	public void testReadSize() throws IOException {
+		File file = createImageFile();
+		Assert.assertEquals("Wrong size", new Dimension(300, 200), ImageLoader.readSize(file));
+	}
+
+	@Test
+	public void testGetSubsampling() {
+		Dimension size = new Dimension(3000, 2000);
+		Assert.assertEquals("Wrong subsampling", 1,
+				ImageLoader.getSubsampling(size, 3000L * 2000 * 4));
+		Assert.assertEquals("Wrong subsampling", 2,
+				ImageLoader.getSubsampling(size, 3000L * 2000 * 4 - 1));
+		Assert.assertEquals("Wrong subsampling", 2,
+				ImageLoader.getSubsampling(size, 1500L * 1000 * 4));
+		Assert.assertEquals("Wrong subsampling", 10,
+				ImageLoader.getSubsampling(size, 300L * 200 * 4));
+
+		// the subsampled size is rounded up
+		Assert.assertEquals("Wrong subsampling", 3,
+				ImageLoader.getSubsampling(new Dimension(3001, 2000), 1500L * 1000 * 4));
+	}
+
+	@Test
+	public void testRead() throws IOException {
+		File file = createImageFile();
+		BufferedImage image = createImage();
+
+		BufferedImage proxy = ImageLoader.read(file, 3);
+		Assert.assertEquals("Wrong width", 100, proxy.getWidth());
+		Assert.assertEquals("Wrong height", 67, proxy.getHeight());
+		for (int y = 0; y < proxy.getHeight(); y++)
+			for (int x = 0; x < proxy.getWidth(); x++)
+				Assert.assertEquals("Wrong pixel at " + x + "," + y,
+						image.getRGB(x * 3, y * 3), proxy.getRGB(x, y));
+	}
+
+	@Test
+	public void testReadRegion() throws IOException {
+		File file = createImageFile();
+		BufferedImage image = createImage();
+
+		BufferedImage region = ImageLoader.readRegion(file, new Rectangle(250, 20, 100, 40));
+		Assert.assertEquals("The region is not clipped", 50, region.getWidth());
+		Assert.assertEquals("Wrong height", 40, region.getHeight());
+		assertRegion(image, 250, 20, region);
+	}
+
+	@Test
+	public void testReadTransformed() throws IOException {
+		File file = createImageFile();
+		BufferedImage image = createImage();
+
+		// a crop of a proxy subsampled by 4, mapped back to the full resolution
+		AffineTransform destToSource = AffineTransform.getScaleInstance(4, 4);
+		destToSource.translate(10, 5);
+		destToSource.scale(1d / 4, 1d / 4);
+		BufferedImage result = ImageLoader.readTransformed(file, destToSource, 80, 60);
+		assertRegion(image, 40, 20, result);
+
+		// a quarter turn, done through the resampler
+		Dimension size = new Dimension();
+		destToSource = ImageRotate.getRotateCroppedTransform(300, 200, 90, size);
+		result = ImageLoader.readTransformed(file, destToSource, size.width, size.height);
+		BufferedImage expected = ImageTranspose.transpose(image, ImageTranspose.Transpose.ROTATE_90);
+		assertRegion(expected, 0, 0, result);
+	}
+
+	@Test
+	public void testReadProgressive() throws IOException {
+		File file = createImageFile();
+		final boolean[] decoded = new boolean[200];
+		final BufferedImage[] target = new BufferedImage[1];
+
+		BufferedImage image = ImageLoader.read(file, 1, new ImageLoader.Monitor() {
+			public void imageUpdated(BufferedImage image, Rectangle region) {
+				target[0] = image;
+				for (int y = region.y; y < region.y + region.height; y++)
+					decoded[y] = true;
+			}
+
+			public void progress(int percent) {
+			}
+
+			public boolean isCancelled() {
+				return false;
+			}
+		});
+
+		// the regions are decoded into the returned image, and they cover it
+		Assert.assertSame("Wrong image updated", image, target[0]);
+		for (int y = 0; y < decoded.length; y++)
+			Assert.assertTrue("Row not reported: " + y, decoded[y]);
+		assertRegion(createImage(), 0, 0, image);
+	}
+
+	@Test
+	public void testReadCancelled() throws IOException {
+		File file = createImageFile();
+		final int[] updates = new int[1];
+
+		BufferedImage image = ImageLoader.read(file, 1, new ImageLoader.Monitor() {
+			public void imageUpdated(BufferedImage image, Rectangle region) {
+				updates[0]++;
+			}
+
+			public void progress(int percent) {
+			}
+
+			public boolean isCancelled() {
+				return updates[0] > 0;
+			}
+		});
+		Assert.assertNull("Cancelled image returned", image);
+	}
+
+	/**
+	 * assert that the region matches the image pixels starting at (x0, y0)
+	 */
+	private void assertRegion(BufferedImage image, int x0, int y0, BufferedImage region) {
+		for (int y = 0; y < region.getHeight(); y++)
+			for (int x = 0; x < region.getWidth(); x++)
+				Assert.assertEquals("Wrong pixel at " + x + "," + y,
+						image.getRGB(x0 + x, y0 + y), region.getRGB(x, y));
+	}
+
+	/**
+	 * @return a gradient image
+	 */
+	private BufferedImage createImage() {
+		BufferedImage image = new BufferedImage(300, 200, BufferedImage.TYPE_3BYTE_BGR);
+		for (int y = 0; y < image.getHeight(); y++)
+			for (int x = 0; x < image.getWidth(); x++)
+				image.setRGB(x, y, new Color(x % 256, y, (x + y) % 256).getRGB());
+		return image;
+	}
+
+	/**
+	 * @return a temporary PNG file containing the gradient image
+	 */
+	private File createImageFile() throws IOException {
+		File file = File.createTempFile("imageLoaderTest", ".png");
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			ImageConvert.writePng(createImage(), out);
+		}
+		finally {
+			out.close();
+		}
+		return file;
+	}
+}
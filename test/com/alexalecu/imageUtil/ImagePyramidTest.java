@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Alex Cojocaru
+ *
+ */
+public class ImagePyramidTest {
+
+	@Test
+	public void testLevels() {
+		BufferedImage image = createImage(1000, 600);
+		ImagePyramid pyramid = ImagePyramid.build(image);
+
+		Assert.assertTrue("Pyramid not matching", pyramid.matches(image));
+		Assert.assertEquals("Wrong level count", 3, pyramid.getLevelCount());
+		int[][] sizes = new int[][] { { 500, 300 }, { 250, 150 }, { 125, 75 } };
+		for (int i = 0; i < sizes.length; i++) {
+			Assert.assertEquals("Wrong level width", sizes[i][0], pyramid.getLevel(i).getWidth());
+			Assert.assertEquals("Wrong level height", sizes[i][1],
+					pyramid.getLevel(i).getHeight());
+		}
+
+		// each level averages the pixels of the image
+		BufferedImage level = pyramid.getLevel(1);
+		int expected = (image.getRGB(200, 200) >> 16) & 0xFF;
+		Assert.assertEquals("Wrong level pixel", expected, (level.getRGB(50, 50) >> 16) & 0xFF, 2);
+
+		// the smallest level at least as big as the scaled image is picked
+		Assert.assertSame("Wrong level", image, pyramid.getLevelForScale(image, 0.6d));
+		Assert.assertSame("Wrong level", pyramid.getLevel(0), pyramid.getLevelForScale(image, 0.3d));
+		Assert.assertSame("Wrong level", pyramid.getLevel(2),
+				pyramid.getLevelForScale(image, 0.1d));
+		Assert.assertEquals("Wrong byte count", (500 * 300 + 250 * 150 + 125 * 75) * 4,
+				pyramid.getByteCount());
+	}
+
+	@Test
+	public void testTilesFromPyramid() {
+		BufferedImage image = createImage(1000, 600);
+		ImagePyramid pyramid = ImagePyramid.build(image);
+		ScaledTileCache fromPyramid = new ScaledTileCache(image, pyramid, 0.2d, 10, null);
+		ScaledTileCache fromImage = new ScaledTileCache(image, 0.2d, 10);
+
+		// the pyramid of another image is not used
+		Assert.assertSame("Pyramid not used", pyramid, fromPyramid.getPyramid());
+		Assert.assertNull("Wrong pyramid used", new ScaledTileCache(createImage(900, 600),
+				pyramid, 0.2d, 10, null).getPyramid());
+
+		// the smooth parts of the image look the same either way
+		BufferedImage expected = fromImage.getTile(0, 0);
+		BufferedImage actual = fromPyramid.getTile(0, 0);
+		Assert.assertEquals("Wrong tile width", expected.getWidth(), actual.getWidth());
+		for (int y = 0; y < actual.getHeight(); y++)
+			for (int x = 0; x < actual.getWidth(); x++)
+				Assert.assertEquals("Wrong pixel", (expected.getRGB(x, y) >> 16) & 0xFF,
+						(actual.getRGB(x, y) >> 16) & 0xFF, 3);
+	}
+
+	@Test
+	public void testCache() throws InterruptedException {
+		BufferedImage first = createImage(400, 400);
+		BufferedImage second = createImage(400, 400);
+		long pyramidBytes = ImagePyramid.build(first).getByteCount();
+
+		// only one pyramid fits the budget
+		ImagePyramidCache cache = new ImagePyramidCache(pyramidBytes + pyramidBytes / 2);
+		try {
+			final CountDownLatch built = new CountDownLatch(1);
+			ImagePyramidCache.Listener listener = new ImagePyramidCache.Listener() {
+				public void pyramidBuilt(BufferedImage source, ImagePyramid pyramid) {
+					built.countDown();
+				}
+			};
+			Assert.assertNull("Pyramid not built in background", cache.request(first, listener));
+			Assert.assertTrue("Pyramid not built", built.await(10, TimeUnit.SECONDS));
+
+			ImagePyramid pyramid = cache.get(first);
+			Assert.assertNotNull("Pyramid not cached", pyramid);
+			Assert.assertSame("Pyramid not reused", pyramid, cache.request(first, listener));
+			Assert.assertNull("Wrong pyramid", cache.get(second));
+
+			// the least recently used pyramid is evicted
+			final CountDownLatch builtSecond = new CountDownLatch(1);
+			cache.request(second, new ImagePyramidCache.Listener() {
+				public void pyramidBuilt(BufferedImage source, ImagePyramid pyramid) {
+					builtSecond.countDown();
+				}
+			});
+			Assert.assertTrue("Pyramid not built", builtSecond.await(10, TimeUnit.SECONDS));
+			Assert.assertNotNull("Pyramid not cached", cache.get(second));
+			Assert.assertNull("Pyramid not evicted", cache.get(first));
+			Assert.assertEquals("Wrong byte count", pyramidBytes, cache.getByteCount());
+		}
+		finally {
+			cache.shutdown();
+		}
+	}
+
+	private static BufferedImage createImage(int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < height; y++)
+			for (int x = 0; x < width; x++)
+				image.setRGB(x, y, (x * 255 / width) << 16 | (y * 255 / height) << 8);
+		return image;
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Alex Cojocaru
+ *
+ */
+public class ImageResizeTest {
+
+	@Test
+	public void testDownscaleAveragesAllPixels() {
+		// a one pixel black and white checkerboard; skipping pixels would keep some of it
+		BufferedImage image = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < 600; y++)
+			for (int x = 0; x < 800; x++)
+				image.setRGB(x, y, (x + y) % 2 == 0 ? 0xFFFFFF : 0x000000);
+
+		BufferedImage resized = ImageResize.resize(image, 90, 70);
+		Assert.assertEquals("Wrong width", 90, resized.getWidth());
+		Assert.assertEquals("Wrong height", 70, resized.getHeight());
+		Assert.assertEquals("Wrong type", BufferedImage.TYPE_INT_RGB, resized.getType());
+		for (int y = 0; y < 70; y++) {
+			for (int x = 0; x < 90; x++) {
+				int grey = resized.getRGB(x, y) & 0xFF;
+				Assert.assertTrue("Aliased pixel " + x + ", " + y + ": " + grey,
+						Math.abs(grey - 128) <= 3);
+			}
+		}
+	}
+
+	@Test
+	public void testGradientPosition() {
+		// a horizontal ramp; each resized pixel has the value of the source at its center
+		BufferedImage image = new BufferedImage(1000, 50, BufferedImage.TYPE_3BYTE_BGR);
+		for (int y = 0; y < 50; y++)
+			for (int x = 0; x < 1000; x++)
+				image.setRGB(x, y, (x * 256 / 1000) * 0x010101);
+
+		int[] widths = new int[] { 700, 500, 333, 100, 37 };
+		for (int width : widths) {
+			BufferedImage resized = ImageResize.resize(image, width, 10);
+			Assert.assertEquals("Wrong type", BufferedImage.TYPE_3BYTE_BGR, resized.getType());
+			for (int x = 2; x < width - 2; x++) {
+				double expected = ((x + 0.5d) * 1000 / width) * 256 / 1000 - 0.5d;
+				int actual = resized.getRGB(x, 5) & 0xFF;
+				Assert.assertEquals("Shifted pixel " + x + " at width " + width, expected,
+						actual, 1.5d);
+			}
+		}
+	}
+
+	@Test
+	public void testSolidColorAndUpscale() {
+		BufferedImage image = new BufferedImage(31, 17, BufferedImage.TYPE_BYTE_GRAY);
+		for (int y = 0; y < 17; y++)
+			for (int x = 0; x < 31; x++)
+				image.getRaster().setSample(x, y, 0, 77);
+
+		int[][] sizes = new int[][] { { 15, 8 }, { 1, 1 }, { 31, 17 }, { 100, 40 }, { 62, 5 } };
+		for (int[] size : sizes) {
+			BufferedImage resized = ImageResize.resize(image, size[0], size[1]);
+			Assert.assertEquals("Wrong width", size[0], resized.getWidth());
+			Assert.assertEquals("Wrong height", size[1], resized.getHeight());
+			Assert.assertEquals("Wrong type", BufferedImage.TYPE_BYTE_GRAY, resized.getType());
+			for (int y = 0; y < size[1]; y++)
+				for (int x = 0; x < size[0]; x++)
+					Assert.assertEquals("Color changed", 77,
+							resized.getRaster().getSample(x, y, 0));
+		}
+	}
+}
@@ -80,6 +80,54 @@ public class ImageRotateTest {
 		Assert.assertEquals("", new Dimension(3, 4), box);
 	}
 	
+	@Test
+	public void testGetInscribedBox() {
+		Dimension box = ImageRotate.getInscribedBox(50, 30, 0);
+		Assert.assertEquals("", new Dimension(50, 30), box);
+
+		box = ImageRotate.getInscribedBox(50, 30, -90);
+		Assert.assertEquals("", new Dimension(30, 50), box);
+
+		// 45 degrees, the rectangle is a square touching the long sides
+		box = ImageRotate.getInscribedBox(201, 101, 45);
+		Assert.assertEquals("", new Dimension(71, 71), box);
+
+		// 10 degrees, each corner touches a side
+		box = ImageRotate.getInscribedBox(401, 301, 10);
+		Assert.assertEquals("", new Dimension(364, 241), box);
+	}
+	
+	@Test
+	public void testRotateDegreesCropped() throws IOException {
+		InputStream is = new FileInputStream("test/resources/test1.png");
+		BufferedImage img = ImageConvert.read(is);
+		BufferedImage white = new BufferedImage(img.getWidth(), img.getHeight(),
+				BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < white.getHeight(); y++)
+			for (int x = 0; x < white.getWidth(); x++)
+				white.setRGB(x, y, 0xFFFFFF);
+
+		double[] angles = new double[] {0, 5.7, 38, -20, 90, 135};
+		for (double deg : angles) {
+			BufferedImage rotated = ImageRotate.rotateDegreesCropped(white, deg);
+			Assert.assertEquals("Wrong size for " + deg + " degrees",
+					ImageRotate.getInscribedBox(white.getWidth(), white.getHeight(), deg),
+					new Dimension(rotated.getWidth(), rotated.getHeight()));
+
+			// no background may leak into the result
+			for (int y = 0; y < rotated.getHeight(); y++)
+				for (int x = 0; x < rotated.getWidth(); x++)
+					Assert.assertEquals("Background found at " + x + "," + y + " for " + deg
+							+ " degrees", 0xFFFFFFFF, rotated.getRGB(x, y));
+		}
+
+		// the center pixel does not move
+		BufferedImage rotated = ImageRotate.rotateDegreesCropped(img, 90);
+		Assert.assertEquals("Wrong center pixel",
+				img.getRGB(img.getWidth() / 2, img.getHeight() / 2),
+				rotated.getRGB(rotated.getWidth() / 2, rotated.getHeight() / 2));
+	}
+	
 	@Test
 	public void testNormalizeDegrees() {
 		int normalized = (int)ImageRotate.normalizeDegrees(374);
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.Color;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.alexalecu.imageUtil.ImageTranspose.Transpose;
+
+/**
+ * @author Alex Cojocaru
+ *
+ */
+public class ImageTransposeTest {
+
+	@Test
+	public void testGetRotation() {
+		Assert.assertEquals("Wrong rotation", Transpose.ROTATE_90, ImageTranspose.getRotation(90));
+		Assert.assertEquals("Wrong rotation", Transpose.ROTATE_180, ImageTranspose.getRotation(-180));
+		Assert.assertEquals("Wrong rotation", Transpose.ROTATE_270, ImageTranspose.getRotation(-90));
+		Assert.assertEquals("Wrong rotation", Transpose.ROTATE_90, ImageTranspose.getRotation(450));
+		Assert.assertNull("Unexpected rotation", ImageTranspose.getRotation(0));
+		Assert.assertNull("Unexpected rotation", ImageTranspose.getRotation(90.5));
+	}
+
+	@Test
+	public void testTranspose() {
+		int[] types = new int[] {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB,
+				BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR,
+				BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_BYTE_INDEXED,
+				BufferedImage.TYPE_USHORT_565_RGB};
+
+		for (int type : types) {
+			BufferedImage image = createImage(type);
+			// a sub-image shares the buffer of its parent, at an offset
+			BufferedImage subImage = image.getSubimage(7, 3, 130, 95);
+
+			for (BufferedImage source : new BufferedImage[] {image, subImage}) {
+				for (Transpose transpose : Transpose.values()) {
+					BufferedImage result = ImageTranspose.transpose(source, transpose);
+					Assert.assertEquals("Wrong image type", type, result.getType());
+					assertTransposed(source, result, transpose);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testCustomBandOrder() {
+		// interleaved ARGB bytes: the alpha is first, unlike the default order of the bands
+		ColorModel cm = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB),
+				true, false, Transparency.TRANSLUCENT, DataBuffer.TYPE_BYTE);
+		WritableRaster raster = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, 150, 100,
+				150 * 4, 4, new int[] {1, 2, 3, 0}, null);
+		BufferedImage image = new BufferedImage(cm, raster, false, null);
+		image.setRGB(0, 0, 0xFFFF0000);
+		for (int y = 0; y < image.getHeight(); y++)
+			for (int x = 1; x < image.getWidth(); x++)
+				image.setRGB(x, y, new Color(x, y * 2, (x * y) % 256, 255 - y).getRGB());
+
+		for (Transpose transpose : Transpose.values())
+			assertTransposed(image, ImageTranspose.transpose(image, transpose), transpose);
+		Assert.assertEquals("Wrong red pixel", 0xFFFF0000,
+				ImageTranspose.transpose(image, Transpose.ROTATE_180).getRGB(149, 99));
+	}
+
+	@Test
+	public void testRotationDirection() {
+		BufferedImage image = createImage(BufferedImage.TYPE_INT_RGB);
+		int w = image.getWidth();
+		int h = image.getHeight();
+
+		// rotate by 90 degrees around the image center through the resampler
+		AffineTransform destToSource = new AffineTransform();
+		destToSource.translate(w / 2.0, h / 2.0);
+		destToSource.rotate(-Math.PI / 2);
+		destToSource.translate(-h / 2.0, -w / 2.0);
+		BufferedImage expected = AffineResampler.resample(image, destToSource, h, w, null,
+				AffineResampler.Interpolation.NEAREST_NEIGHBOR, null);
+
+		BufferedImage result = ImageRotate.rotateDegreesCropped(image, 90);
+		for (int y = 0; y < w; y++)
+			for (int x = 0; x < h; x++)
+				Assert.assertEquals("Wrong pixel at " + x + "," + y,
+						expected.getRGB(x, y), result.getRGB(x, y));
+	}
+
+	/**
+	 * assert that each result pixel is the corresponding source pixel
+	 */
+	private void assertTransposed(BufferedImage source, BufferedImage result,
+			Transpose transpose) {
+		int w = source.getWidth();
+		int h = source.getHeight();
+		boolean swap = transpose == Transpose.ROTATE_90 || transpose == Transpose.ROTATE_270;
+		Assert.assertEquals("Wrong width", swap ? h : w, result.getWidth());
+		Assert.assertEquals("Wrong height", swap ? w : h, result.getHeight());
+
+		for (int y = 0; y < result.getHeight(); y++) {
+			for (int x = 0; x < result.getWidth(); x++) {
+				int sx, sy;
+				switch (transpose) {
+					case ROTATE_90: sx = y; sy = h - 1 - x; break;
+					case ROTATE_180: sx = w - 1 - x; sy = h - 1 - y; break;
+					case ROTATE_270: sx = w - 1 - y; sy = x; break;
+					case FLIP_HORIZONTAL: sx = w - 1 - x; sy = y; break;
+					default: sx = x; sy = h - 1 - y;
+				}
+				Assert.assertEquals("Wrong pixel at " + x + "," + y + " for " + transpose
+						+ ", type " + source.getType(), source.getRGB(sx, sy), result.getRGB(x, y));
+			}
+		}
+	}
+
+	/**
+	 * @return an image of the given type filled with a gradient, larger than a block
+	 */
+	private BufferedImage createImage(int type) {
+		BufferedImage image = new BufferedImage(150, 100, type);
+		for (int y = 0; y < image.getHeight(); y++)
+			for (int x = 0; x < image.getWidth(); x++)
+				image.setRGB(x, y, new Color(x, y * 2, (x * y) % 256, 255 - y).getRGB());
+		return image;
+	}
+}
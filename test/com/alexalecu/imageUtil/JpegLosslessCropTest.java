@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Alex Cojocaru
+ *
+ */
+public class JpegLosslessCropTest {
+
+	@Test
+	public void testColorCrop() throws IOException {
+		// the default JPEG writer subsamples the chroma, so the MCUs are 16x16
+		BufferedImage image = createImage(301, 203, BufferedImage.TYPE_INT_RGB);
+		File source = File.createTempFile("losslessCrop", ".jpg");
+		File crop = File.createTempFile("losslessCrop", ".jpg");
+		try {
+			writeJpg(image, source);
+			Dimension mcuSize = JpegLosslessCrop.getMcuSize(source);
+			Assert.assertEquals("Wrong MCU size", new Dimension(16, 16), mcuSize);
+
+			Rectangle region = JpegLosslessCrop.snapToMcu(new Rectangle(40, 37, 213, 150),
+					mcuSize);
+			Assert.assertEquals("Wrong snapped region", new Rectangle(32, 32, 221, 155), region);
+			JpegLosslessCrop.crop(source, region, crop);
+
+			// the chroma upsampling differs near the crop edges only
+			BufferedImage decoded = ImageIO.read(source);
+			BufferedImage cropped = ImageIO.read(crop);
+			Assert.assertEquals("Wrong width", 221, cropped.getWidth());
+			Assert.assertEquals("Wrong height", 155, cropped.getHeight());
+			assertSamePixels(decoded, cropped, region, 2);
+		}
+		finally {
+			source.delete();
+			crop.delete();
+		}
+	}
+
+	@Test
+	public void testGreyCrop() throws IOException {
+		BufferedImage image = createImage(150, 97, BufferedImage.TYPE_BYTE_GRAY);
+		File source = File.createTempFile("losslessCrop", ".jpg");
+		try {
+			writeJpg(image, source);
+			Assert.assertEquals("Wrong MCU size", new Dimension(8, 8),
+					JpegLosslessCrop.getMcuSize(source));
+
+			// crop to the bottom right corner, in place
+			BufferedImage decoded = ImageIO.read(source);
+			Rectangle region = new Rectangle(72, 24, 78, 73);
+			JpegLosslessCrop.crop(source, region, source);
+
+			BufferedImage cropped = ImageIO.read(source);
+			Assert.assertEquals("Wrong width", 78, cropped.getWidth());
+			assertSamePixels(decoded, cropped, region, 0);
+		}
+		finally {
+			source.delete();
+		}
+	}
+
+	@Test
+	public void testUnsupported() throws IOException {
+		File file = File.createTempFile("losslessCrop", ".png");
+		try {
+			ImageIO.write(createImage(20, 20, BufferedImage.TYPE_INT_RGB), "png", file);
+			Assert.assertNull("PNG supported", JpegLosslessCrop.getMcuSize(file));
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	private static BufferedImage createImage(int width, int height, int type) {
+		BufferedImage image = new BufferedImage(width, height, type);
+		for (int y = 0; y < height; y++)
+			for (int x = 0; x < width; x++)
+				image.setRGB(x, y, ((x * 5) & 0xFF) << 16 | ((y * 3) & 0xFF) << 8
+						| ((x * y) & 0xFF));
+		return image;
+	}
+
+	private static void writeJpg(BufferedImage image, File file) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			ImageConvert.writeJpg(image, 0.85f, out);
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	private static void assertSamePixels(BufferedImage decoded, BufferedImage cropped,
+			Rectangle region, int border) {
+		for (int y = border; y < region.height - border; y++)
+			for (int x = border; x < region.width - border; x++)
+				Assert.assertEquals("Wrong pixel at " + x + "," + y,
+						decoded.getRGB(region.x + x, region.y + y), cropped.getRGB(x, y));
+	}
+}
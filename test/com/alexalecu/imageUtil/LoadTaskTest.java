@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
+import java.io.File;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Alex Cojocaru
+ *
+ */
+public class LoadTaskTest {
+
+	@Test
+	public void testBackgroundMaskOfNormalizedImage() throws Exception {
+		File file = File.createTempFile("loadTaskTest", ".png");
+		try {
+			// a grey + alpha PNG file is decoded as a custom image, which is normalized
+			ImageIO.write(createGreyAlphaImage(), "png", file);
+			Assert.assertEquals("Wrong decoded type", BufferedImage.TYPE_CUSTOM,
+					ImageIO.read(file).getType());
+
+			LoadTask loadTask = new LoadTask();
+			loadTask.setFile(file);
+			loadTask.setBackgroundColor(Color.WHITE, AutoSelectTask.getColorTolerance(4));
+			loadTask.run();
+			BufferedImage image = loadTask.get();
+			Assert.assertTrue("Image not normalized", image.getType() != BufferedImage.TYPE_CUSTOM);
+
+			// the auto selection takes the classification done while loading
+			final boolean[] reduced = new boolean[1];
+			AutoSelectTask task = new AutoSelectTask() {
+				@Override
+				public boolean[][] reduceColors(BufferedImage bi) {
+					reduced[0] = true;
+					return super.reduceColors(bi);
+				}
+			};
+			task.setImage(image);
+			task.setSelectionRect(new Rectangle(20, 20, 160, 60));
+			task.setBgColor(Color.WHITE);
+			task.setBgTolerance(4);
+			task.setSelectMethod(ImageSelectMethod.SelectMaximum);
+			task.setBackgroundMask(loadTask.getBackgroundMask());
+
+			Object[] result = task.doInBackground();
+			Assert.assertFalse("Background mask not used", reduced[0]);
+			Assert.assertEquals("Computed rectangle is wrong",
+					new Rectangle(40, 30, 100, 40), result[0]);
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * @return a white, opaque grey + alpha image containing a dark grey item
+	 */
+	private BufferedImage createGreyAlphaImage() {
+		ColorModel cm = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY),
+				true, false, Transparency.TRANSLUCENT, DataBuffer.TYPE_BYTE);
+		WritableRaster raster = cm.createCompatibleWritableRaster(200, 100);
+		for (int y = 0; y < 100; y++) {
+			for (int x = 0; x < 200; x++) {
+				boolean item = x >= 40 && x < 140 && y >= 30 && y < 70;
+				raster.setSample(x, y, 0, item ? 64 : 255);
+				raster.setSample(x, y, 1, 255);
+			}
+		}
+		return new BufferedImage(cm, raster, false, null);
+	}
+}
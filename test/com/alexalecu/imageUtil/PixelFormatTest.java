@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Alex Cojocaru
+ *
+ */
+public class PixelFormatTest {
+
+	@Test
+	public void testConvertToGrey() {
+		BufferedImage image = createColorImage(BufferedImage.TYPE_3BYTE_BGR);
+		BufferedImage grey = ImageConvert.convertType(image, BufferedImage.TYPE_BYTE_GRAY);
+		Assert.assertEquals("Wrong type", BufferedImage.TYPE_BYTE_GRAY, grey.getType());
+
+		for (int y = 0; y < image.getHeight(); y++) {
+			for (int x = 0; x < image.getWidth(); x++) {
+				Color color = new Color(image.getRGB(x, y));
+				int expected = ImageColors.luminance(color.getRed(), color.getGreen(),
+						color.getBlue());
+				Assert.assertEquals("Wrong grey at " + x + "," + y, expected,
+						grey.getRaster().getSample(x, y, 0));
+			}
+		}
+	}
+
+	@Test
+	public void testConvertToColor() {
+		BufferedImage image = createColorImage(BufferedImage.TYPE_INT_RGB);
+		for (int type : new int[] {BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_INT_ARGB,
+				BufferedImage.TYPE_INT_BGR}) {
+			BufferedImage converted = PixelFormat.convert(image, type);
+			Assert.assertEquals("Wrong type", type, converted.getType());
+			for (int y = 0; y < image.getHeight(); y++)
+				for (int x = 0; x < image.getWidth(); x++)
+					Assert.assertEquals("Wrong pixel at " + x + "," + y,
+							image.getRGB(x, y), converted.getRGB(x, y));
+		}
+
+		// the grey levels are replicated on each component
+		BufferedImage grey = new BufferedImage(4, 3, BufferedImage.TYPE_BYTE_GRAY);
+		grey.getRaster().setSample(2, 1, 0, 123);
+		BufferedImage color = PixelFormat.convert(grey, BufferedImage.TYPE_3BYTE_BGR);
+		Assert.assertEquals("Wrong pixel", 0xFF7B7B7B, color.getRGB(2, 1));
+	}
+
+	@Test
+	public void testNormalize() {
+		BufferedImage image = createColorImage(BufferedImage.TYPE_3BYTE_BGR);
+		Assert.assertSame("Direct type converted", image, PixelFormat.normalize(image));
+
+		IndexColorModel palette = new IndexColorModel(8, 2,
+				new byte[] {0, (byte)200}, new byte[] {0, 100}, new byte[] {0, 50});
+		BufferedImage indexed = new BufferedImage(10, 8, BufferedImage.TYPE_BYTE_INDEXED, palette);
+		indexed.getRaster().setSample(3, 4, 0, 1);
+		BufferedImage normalized = PixelFormat.normalize(indexed);
+		Assert.assertEquals("Wrong type", BufferedImage.TYPE_3BYTE_BGR, normalized.getType());
+		Assert.assertEquals("Wrong pixel", 0xFFC86432, normalized.getRGB(3, 4));
+
+		// the high bit depth images keep their depth
+		BufferedImage ushort = new BufferedImage(10, 8, BufferedImage.TYPE_USHORT_GRAY);
+		Assert.assertSame("High bit depth image converted", ushort,
+				PixelFormat.normalize(ushort));
+		Assert.assertSame("High bit depth image converted", ushort, PixelFormat.compact(ushort));
+	}
+
+	@Test
+	public void testCompact() {
+		// a document scanned in color mode
+		BufferedImage scan = new BufferedImage(20, 10, BufferedImage.TYPE_3BYTE_BGR);
+		for (int x = 0; x < 20; x++)
+			scan.setRGB(x, 5, new Color(x * 10, x * 10, x * 10).getRGB());
+		BufferedImage compact = PixelFormat.compact(scan);
+		Assert.assertEquals("Grey scan not compacted", BufferedImage.TYPE_BYTE_GRAY,
+				compact.getType());
+		for (int x = 0; x < 20; x++)
+			Assert.assertEquals("Wrong grey", x * 10, compact.getRaster().getSample(x, 5, 0));
+
+		BufferedImage image = createColorImage(BufferedImage.TYPE_3BYTE_BGR);
+		Assert.assertSame("Color image converted", image, PixelFormat.compact(image));
+	}
+
+	/**
+	 * @return a color gradient image of the given type
+	 */
+	private BufferedImage createColorImage(int type) {
+		BufferedImage image = new BufferedImage(70, 50, type);
+		for (int y = 0; y < image.getHeight(); y++)
+			for (int x = 0; x < image.getWidth(); x++)
+				image.setRGB(x, y, new Color(x * 3, y * 5, (x + y) * 2).getRGB());
+		return image;
+	}
+}
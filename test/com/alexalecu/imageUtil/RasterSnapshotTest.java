@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Alex Cojocaru
+ *
+ */
+public class RasterSnapshotTest {
+
+	@Test
+	public void testStoredTypes() throws IOException {
+		int[] types = new int[] { BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB,
+				BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR,
+				BufferedImage.TYPE_BYTE_GRAY };
+		for (int type : types) {
+			BufferedImage image = createImage(97, 61, type);
+			BufferedImage read = writeAndRead(image);
+			Assert.assertEquals("Wrong type", type, read.getType());
+			assertSamePixels(image, read);
+		}
+	}
+
+	@Test
+	public void testSubimageAndConvertedTypes() throws IOException {
+		// a sub-image is stored with its own stride
+		BufferedImage image = createImage(120, 80, BufferedImage.TYPE_3BYTE_BGR);
+		BufferedImage subimage = image.getSubimage(13, 7, 50, 40);
+		BufferedImage read = writeAndRead(subimage);
+		Assert.assertEquals("Wrong type", BufferedImage.TYPE_3BYTE_BGR, read.getType());
+		assertSamePixels(subimage, read);
+
+		// the other types are stored as ARGB
+		BufferedImage binary = createImage(33, 21, BufferedImage.TYPE_BYTE_BINARY);
+		read = writeAndRead(binary);
+		Assert.assertEquals("Wrong type", BufferedImage.TYPE_INT_ARGB, read.getType());
+		assertSamePixels(binary, read);
+	}
+
+	@Test
+	public void test16BitTypes() throws IOException {
+		// the 48 and 64 bit images keep their samples, down to the lowest bits
+		for (int alpha = 0; alpha < 2; alpha++) {
+			ComponentColorModel cm = new ComponentColorModel(
+					ColorSpace.getInstance(ColorSpace.CS_sRGB), alpha == 1, false,
+					alpha == 1 ? Transparency.TRANSLUCENT : Transparency.OPAQUE,
+					DataBuffer.TYPE_USHORT);
+			WritableRaster raster = cm.createCompatibleWritableRaster(90, 70);
+			fill16Bit(raster);
+			BufferedImage image = new BufferedImage(cm, raster, false, null);
+
+			BufferedImage read = writeAndRead(image);
+			Assert.assertEquals("Wrong alpha", alpha == 1, read.getColorModel().hasAlpha());
+			assertSameSamples(image.getRaster(), read.getRaster(), 16);
+
+			// and so do their sub-images
+			BufferedImage subimage = image.getSubimage(11, 9, 40, 30);
+			assertSameSamples(subimage.getRaster(), writeAndRead(subimage).getRaster(), 16);
+		}
+
+		BufferedImage grey = new BufferedImage(50, 40, BufferedImage.TYPE_USHORT_GRAY);
+		fill16Bit(grey.getRaster());
+		BufferedImage read = writeAndRead(grey);
+		Assert.assertEquals("Wrong type", BufferedImage.TYPE_USHORT_GRAY, read.getType());
+		assertSameSamples(grey.getRaster(), read.getRaster(), 16);
+	}
+
+	@Test
+	public void testChunksAndDelete() throws IOException {
+		// the image is copied in several chunks, and the file can be deleted right away
+		BufferedImage image = createImage(1024, 600, BufferedImage.TYPE_INT_ARGB);
+		File file = File.createTempFile("rasterSnapshot", ".raw");
+		try {
+			RasterSnapshot.write(image, file);
+			assertSamePixels(image, RasterSnapshot.read(file));
+		}
+		finally {
+			Assert.assertTrue("Snapshot file not deleted", file.delete());
+		}
+	}
+
+	@Test
+	public void testInvalidFile() throws IOException {
+		File file = File.createTempFile("rasterSnapshot", ".raw");
+		try {
+			RasterSnapshot.read(file);
+			Assert.fail("An empty file is not a snapshot");
+		}
+		catch (IOException e) {
+			// expected
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	private static BufferedImage writeAndRead(BufferedImage image) throws IOException {
+		File file = File.createTempFile("rasterSnapshot", ".raw");
+		try {
+			RasterSnapshot.write(image, file);
+			return RasterSnapshot.read(file);
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	private static BufferedImage createImage(int width, int height, int type) {
+		BufferedImage image = new BufferedImage(width, height, type);
+		for (int y = 0; y < height; y++)
+			for (int x = 0; x < width; x++)
+				image.setRGB(x, y, ((x * y) & 0xFF) << 24 | ((x * 5) & 0xFF) << 16
+						| ((y * 3) & 0xFF) << 8 | ((x + y) & 0xFF));
+		return image;
+	}
+
+	private static void fill16Bit(WritableRaster raster) {
+		for (int y = 0; y < raster.getHeight(); y++)
+			for (int x = 0; x < raster.getWidth(); x++)
+				for (int band = 0; band < raster.getNumBands(); band++)
+					raster.setSample(x, y, band, (x * 701 + y * 13 + band * 4099) & 0xFFFF);
+	}
+
+	private static void assertSameSamples(Raster expected, Raster actual, int sampleSize) {
+		Assert.assertEquals("Wrong width", expected.getWidth(), actual.getWidth());
+		Assert.assertEquals("Wrong height", expected.getHeight(), actual.getHeight());
+		Assert.assertEquals("Wrong band count", expected.getNumBands(), actual.getNumBands());
+		Assert.assertEquals("Wrong sample size", sampleSize,
+				actual.getSampleModel().getSampleSize(0));
+		for (int y = 0; y < expected.getHeight(); y++)
+			for (int x = 0; x < expected.getWidth(); x++)
+				for (int band = 0; band < expected.getNumBands(); band++)
+					Assert.assertEquals("Wrong sample at " + x + "," + y,
+							expected.getSample(x, y, band), actual.getSample(x, y, band));
+	}
+
+	private static void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+		Assert.assertEquals("Wrong width", expected.getWidth(), actual.getWidth());
+		Assert.assertEquals("Wrong height", expected.getHeight(), actual.getHeight());
+		for (int y = 0; y < expected.getHeight(); y++)
+			for (int x = 0; x < expected.getWidth(); x++)
+				Assert.assertEquals("Wrong pixel at " + x + "," + y,
+						expected.getRGB(x, y), actual.getRGB(x, y));
+	}
+}
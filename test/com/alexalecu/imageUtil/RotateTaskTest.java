@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.Dimension;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.SwingUtilities;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Alex Cojocaru
+ *
+ */
+public class RotateTaskTest {
+
+	@Test
+	public void testRotate() throws Exception {
+		ImageHandle image = ImageHandle.wrap(
+				new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB));
+		RotateTask task = new RotateTask();
+		task.setImage(image.retain());
+		task.setDegrees(5d);
+		task.run();
+
+		BufferedImage result = task.get();
+		Dimension size = new Dimension();
+		ImageRotate.getRotateCroppedTransform(400, 300, 5d, size);
+		Assert.assertEquals("Wrong width", size.width, result.getWidth());
+		Assert.assertEquals("Wrong height", size.height, result.getHeight());
+		Assert.assertFalse("Image not released", image.isShared());
+	}
+
+	@Test
+	public void testProgress() throws Exception {
+		// the tiles are rendered in parallel, but the progress never goes back
+		RotateTask task = new RotateTask();
+		final List<Integer> progress = new ArrayList<Integer>();
+		task.addPropertyChangeListener(new PropertyChangeListener() {
+			public void propertyChange(PropertyChangeEvent evt) {
+				if (evt.getPropertyName().equals("progress"))
+					progress.add((Integer)evt.getNewValue());
+			}
+		});
+		task.setImage(ImageHandle.wrap(
+				new BufferedImage(2000, 1500, BufferedImage.TYPE_INT_RGB)));
+		task.setDegrees(30d);
+		task.run();
+
+		// the progress events are coalesced, then fired on the event dispatch thread
+		long deadline = System.currentTimeMillis() + 5000;
+		do {
+			Thread.sleep(10);
+			SwingUtilities.invokeAndWait(new Runnable() {
+				public void run() {
+				}
+			});
+		}
+		while ((progress.isEmpty() || progress.get(progress.size() - 1) < 100)
+				&& System.currentTimeMillis() < deadline);
+		Assert.assertFalse("No progress", progress.isEmpty());
+		Assert.assertEquals("Wrong final progress", 100, (int)progress.get(progress.size() - 1));
+		for (int i = 1; i < progress.size(); i++)
+			Assert.assertTrue("Progress going back", progress.get(i) > progress.get(i - 1));
+	}
+
+	@Test
+	public void testCancelBeforeStart() throws Exception {
+		ImageHandle image = ImageHandle.wrap(
+				new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB));
+		RotateTask task = new RotateTask();
+		task.setImage(image.retain());
+		task.setDegrees(5d);
+		task.cancel(true);
+		task.run();
+
+		// the task is done on the event dispatch thread, through a coalescing timer
+		long deadline = System.currentTimeMillis() + 5000;
+		while (image.isShared() && System.currentTimeMillis() < deadline)
+			Thread.sleep(10);
+		Assert.assertNull("Result of a cancelled task", task.getResult());
+		Assert.assertFalse("Image not released", image.isShared());
+	}
+
+	@Test
+	public void testTransform() throws Exception {
+		BufferedImage source = new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB);
+		source.setRGB(150, 120, 0xFFFFFFFF);
+		ImageHandle image = ImageHandle.wrap(source);
+
+		// cut a region out of the image, as a deskew by 0 degrees does
+		RotateTask task = new RotateTask();
+		task.setImage(image.retain());
+		task.setTransform(AffineTransform.getTranslateInstance(100, 100), new Dimension(80, 60));
+		task.run();
+
+		BufferedImage result = task.get();
+		Assert.assertEquals("Wrong width", 80, result.getWidth());
+		Assert.assertEquals("Wrong height", 60, result.getHeight());
+		Assert.assertEquals("Wrong pixel", 0xFFFFFFFF, result.getRGB(50, 20));
+		Assert.assertFalse("Image not released", image.isShared());
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.alexalecu.util.FileUtil;
+
+/**
+ * @author Alex Cojocaru
+ *
+ */
+public class SaveTaskTest {
+
+	@Test
+	public void testReplace() throws Exception {
+		File dir = createDirectory();
+		EncodeService service = new EncodeService(1, 16L * 1024 * 1024);
+		try {
+			File file = new File(dir, "image.png");
+			FileUtil.writeFile("previous", file);
+
+			SaveTask task = createTask(service, file,
+					new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB), false);
+			task.run();
+			Assert.assertEquals("Wrong result", file, task.get());
+
+			BufferedImage read = ImageIO.read(file);
+			Assert.assertEquals("Wrong width", 40, read.getWidth());
+			Assert.assertEquals("Wrong height", 30, read.getHeight());
+			Assert.assertEquals("Temporary file left", 1, dir.listFiles().length);
+		}
+		finally {
+			service.shutdown();
+			FileUtil.deleteFileOrDirectory(dir);
+		}
+	}
+
+	@Test
+	public void testCopy() throws Exception {
+		File dir = createDirectory();
+		EncodeService service = new EncodeService(1, 16L * 1024 * 1024);
+		try {
+			File file = new File(dir, "image.jpg");
+
+			// the copied file is used as it is, without encoding the image
+			SaveTask task = createTask(service, file, null, true);
+			task.run();
+			Assert.assertEquals("Wrong result", file, task.get());
+			Assert.assertEquals("Not copied", "copied".length(), file.length());
+			Assert.assertEquals("Temporary file left", 1, dir.listFiles().length);
+		}
+		finally {
+			service.shutdown();
+			FileUtil.deleteFileOrDirectory(dir);
+		}
+	}
+
+	@Test
+	public void testFailure() throws Exception {
+		File dir = createDirectory();
+		EncodeService service = new EncodeService(1, 16L * 1024 * 1024);
+		try {
+			File file = new File(dir, "image.jpg");
+			FileUtil.writeFile("previous", file);
+
+			// the image cannot be obtained: the previous file is kept whole
+			SaveTask task = createTask(service, file, null, false);
+			task.run();
+			try {
+				task.get();
+				Assert.fail("No error");
+			}
+			catch (ExecutionException e) {
+				Assert.assertTrue("Wrong error", e.getCause() instanceof IOException);
+			}
+			Assert.assertEquals("File changed", "previous".length(), file.length());
+			Assert.assertEquals("Temporary file left", 1, dir.listFiles().length);
+		}
+		finally {
+			service.shutdown();
+			FileUtil.deleteFileOrDirectory(dir);
+		}
+	}
+
+	/**
+	 * @return a new empty temporary directory
+	 */
+	private File createDirectory() throws IOException {
+		File dir = File.createTempFile("saveTask", "");
+		dir.delete();
+		dir.mkdir();
+		return dir;
+	}
+
+	/**
+	 * @param service the service encoding the image
+	 * @param file the file to save to
+	 * @param image the image to save, null to fail when it is requested
+	 * @param copy true to copy the file instead of encoding the image
+	 */
+	private SaveTask createTask(EncodeService service, File file, final BufferedImage image,
+			final boolean copy) throws Exception {
+		SaveTask task = new SaveTask();
+		task.setFile(file);
+		task.setFormat(EncodeService.Format.forFile(file));
+		task.setEncodeService(service);
+		task.setSource(new SaveTask.Source() {
+			public boolean copyTo(File file) throws IOException {
+				if (copy)
+					FileUtil.writeFile("copied", file);
+				return copy;
+			}
+
+			public BufferedImage getImage() throws IOException {
+				if (image == null)
+					throw new IOException("Cannot decode the image");
+				return image;
+			}
+
+			public void release() {
+			}
+		});
+		return task;
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Alex Cojocaru
+ *
+ */
+public class ScaledTileCacheTest {
+
+	@Test
+	public void testTilesMatchScaledImage() {
+		BufferedImage image = createImage(300, 200);
+		double[] scales = new double[] { 0.37d, 2.5d };
+		for (double scale : scales) {
+			ScaledTileCache cache = new ScaledTileCache(image, scale, 100);
+			Assert.assertEquals("Wrong width", (int)(300 * scale), cache.getWidth());
+			Assert.assertEquals("Wrong height", (int)(200 * scale), cache.getHeight());
+
+			// the tiles render the same pixels as the whole scaled image
+			BufferedImage scaled = new BufferedImage(cache.getWidth(), cache.getHeight(),
+					BufferedImage.TYPE_INT_RGB);
+			AffineResampler.resample(image, AffineTransform.getScaleInstance(1 / scale,
+					1 / scale), scaled, null, scale >= 1 ? AffineResampler.Interpolation.BICUBIC
+					: AffineResampler.Interpolation.BILINEAR, null);
+
+			Rectangle range = cache.getTileRange(new Rectangle(cache.getWidth(),
+					cache.getHeight()));
+			for (int tileY = range.y; tileY < range.y + range.height; tileY++) {
+				for (int tileX = range.x; tileX < range.x + range.width; tileX++) {
+					BufferedImage tile = cache.getTile(tileX, tileY);
+					int x0 = tileX * ScaledTileCache.TILE_SIZE;
+					int y0 = tileY * ScaledTileCache.TILE_SIZE;
+					Assert.assertEquals("Wrong tile width",
+							Math.min(ScaledTileCache.TILE_SIZE, cache.getWidth() - x0),
+							tile.getWidth());
+					for (int y = 0; y < tile.getHeight(); y++) {
+						for (int x = 0; x < tile.getWidth(); x++) {
+							// the tile offsets round the source coordinates differently
+							int expected = scaled.getRGB(x0 + x, y0 + y);
+							int actual = tile.getRGB(x, y);
+							for (int shift = 0; shift < 24; shift += 8)
+								Assert.assertEquals("Wrong pixel", (expected >> shift) & 0xFF,
+										(actual >> shift) & 0xFF, 1);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testCacheBounds() {
+		BufferedImage image = createImage(400, 400);
+		ScaledTileCache cache = new ScaledTileCache(image, 4d, 5);
+
+		// only the tiles asked for are rendered, and at most 5 are kept
+		Rectangle range = cache.getTileRange(new Rectangle(300, 300, 600, 200));
+		Assert.assertEquals("Wrong range", new Rectangle(1, 1, 3, 1), range);
+		BufferedImage tile = cache.getTile(1, 1);
+		Assert.assertSame("Tile not cached", tile, cache.getTile(1, 1));
+		for (int tileX = 0; tileX < 6; tileX++)
+			cache.getTile(tileX, 2);
+		Assert.assertEquals("Cache not bounded", 5, cache.getCachedTileCount());
+		Assert.assertNotSame("Tile not evicted", tile, cache.getTile(1, 1));
+
+		// a changed source region drops the tiles showing it
+		Rectangle scaled = cache.invalidate(new Rectangle(140, 140, 10, 10));
+		Assert.assertTrue("Wrong scaled region",
+				scaled.contains(new Rectangle(560, 560, 40, 40)));
+		Assert.assertEquals("Tile not dropped", 4, cache.getCachedTileCount());
+	}
+
+	@Test
+	public void testRenderInAdvance() {
+		BufferedImage image = createImage(400, 400);
+		ScaledTileCache preview = new ScaledTileCache(image, null, 2d, 10,
+				AffineResampler.Interpolation.NEAREST_NEIGHBOR);
+		Assert.assertEquals("Wrong interpolation", AffineResampler.Interpolation.NEAREST_NEIGHBOR,
+				preview.getInterpolation());
+		Assert.assertEquals("Wrong pixel", image.getRGB(101, 101), preview.getTile(0, 0)
+				.getRGB(203, 203));
+
+		// a cancelled rendering leaves the missing tiles out
+		ScaledTileCache refined = new ScaledTileCache(image, null, 2d, 10, null);
+		Assert.assertEquals("Wrong interpolation", AffineResampler.Interpolation.BICUBIC,
+				refined.getInterpolation());
+		Assert.assertFalse("Rendering not cancelled", refined.render(new Rectangle(0, 0, 600, 300),
+				new AffineResampler.Monitor() {
+					public void progress(int done, int total) {
+					}
+
+					public boolean isCancelled() {
+						return true;
+					}
+				}));
+		Assert.assertEquals("Tiles rendered", 0, refined.getCachedTileCount());
+
+		// otherwise the tiles are rendered once
+		Assert.assertTrue("Rendering cancelled", refined.render(new Rectangle(0, 0, 600, 300),
+				null));
+		Assert.assertEquals("Tiles not rendered", 6, refined.getCachedTileCount());
+		BufferedImage tile = refined.getTile(1, 1);
+		Assert.assertTrue("Rendering cancelled", refined.render(new Rectangle(0, 0, 600, 300),
+				null));
+		Assert.assertSame("Tile rendered again", tile, refined.getTile(1, 1));
+	}
+
+	private static BufferedImage createImage(int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < height; y++)
+			for (int x = 0; x < width; x++)
+				image.setRGB(x, y, (x * 255 / width) << 16 | (y * 255 / height) << 8
+						| ((x / 7 + y / 5) % 2) * 0xFF);
+		return image;
+	}
+}
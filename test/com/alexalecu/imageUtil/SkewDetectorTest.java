@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Alex Cojocaru
+ *
+ */
+public class SkewDetectorTest {
+	private final static int ITEM_WIDTH = 120;
+	private final static int ITEM_HEIGHT = 60;
+
+	@Test
+	public void testEstimateSkewDegrees() {
+		double[] angles = new double[] {0d, 5d, -3.5d, 12d, 30d};
+		for (double deg : angles) {
+			double estimated = SkewDetector.estimateSkewDegrees(toEdges(getItemHull(deg)));
+			Assert.assertEquals("Wrong skew for " + deg + " degrees", deg, estimated, 0.5d);
+		}
+
+		Assert.assertEquals("Wrong skew for no edges",
+				0d, SkewDetector.estimateSkewDegrees(new ArrayList<GeomEdge>()), 0d);
+	}
+
+	@Test
+	public void testDeskew() {
+		double deg = 5d;
+		List<GeomPoint> hull = getItemHull(deg);
+		BufferedImage image = createImage(deg);
+
+		BufferedImage result = SkewDetector.deskew(image, hull,
+				SkewDetector.estimateSkewDegrees(toEdges(hull)));
+
+		Assert.assertEquals("Wrong image type", image.getType(), result.getType());
+		Assert.assertEquals("Wrong width", ITEM_WIDTH, result.getWidth(), 3);
+		Assert.assertEquals("Wrong height", ITEM_HEIGHT, result.getHeight(), 3);
+
+		// the straightened item fills the whole result, corners included
+		int[][] points = new int[][] {{result.getWidth() / 2, result.getHeight() / 2},
+				{1, 1}, {result.getWidth() - 2, 1}, {1, result.getHeight() - 2},
+				{result.getWidth() - 2, result.getHeight() - 2}};
+		for (int[] point : points) {
+			int grey = result.getRGB(point[0], point[1]) & 0xFF;
+			Assert.assertTrue("Background found at " + point[0] + "," + point[1], grey < 128);
+		}
+	}
+
+	/**
+	 * @return a white image containing a dark item rotated by the given angle around its center
+	 */
+	private BufferedImage createImage(double deg) {
+		BufferedImage image = new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		g.setColor(Color.WHITE);
+		g.fillRect(0, 0, image.getWidth(), image.getHeight());
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		g.setTransform(getItemTransform(deg));
+		g.setColor(new Color(40, 40, 40));
+		g.fillRect(0, 0, ITEM_WIDTH, ITEM_HEIGHT);
+		g.dispose();
+		return image;
+	}
+
+	/**
+	 * @return the item corners, rounded to the pixels they fall into
+	 */
+	private List<GeomPoint> getItemHull(double deg) {
+		AffineTransform transform = getItemTransform(deg);
+		double[][] corners = new double[][] {{0, 0}, {ITEM_WIDTH, 0},
+				{ITEM_WIDTH, ITEM_HEIGHT}, {0, ITEM_HEIGHT}};
+
+		List<GeomPoint> hull = new ArrayList<GeomPoint>();
+		for (double[] corner : corners) {
+			Point2D p = transform.transform(new Point2D.Double(corner[0], corner[1]), null);
+			hull.add(new GeomPoint((int)Math.round(p.getX()), (int)Math.round(p.getY())));
+		}
+		return hull;
+	}
+
+	private AffineTransform getItemTransform(double deg) {
+		AffineTransform transform = new AffineTransform();
+		transform.translate(150, 100);
+		transform.rotate(Math.toRadians(deg));
+		transform.translate(-ITEM_WIDTH / 2, -ITEM_HEIGHT / 2);
+		return transform;
+	}
+
+	private List<GeomEdge> toEdges(List<GeomPoint> hull) {
+		List<GeomEdge> edges = new ArrayList<GeomEdge>();
+		for (int i = 0; i < hull.size(); i++)
+			edges.add(new GeomEdge(hull.get(i), hull.get((i + 1) % hull.size())));
+		return edges;
+	}
+}
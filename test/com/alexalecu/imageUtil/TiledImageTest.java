@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.imageUtil;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Alex Cojocaru
+ *
+ */
+public class TiledImageTest {
+
+	@Test
+	public void testRows() throws IOException {
+		// a few tiles wide, with partial tiles on the right and bottom
+		int width = TiledImage.TILE_SIZE * 2 + 30;
+		int height = TiledImage.TILE_SIZE + 10;
+		TiledImage image = new TiledImage(width, height);
+		try {
+			int[] row = new int[width];
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++)
+					row[x] = getColor(x, y);
+				image.setArgbRow(0, y, width, row);
+			}
+
+			int[] read = new int[width - 20];
+			image.getArgbRow(10, height - 1, read.length, read);
+			for (int x = 0; x < read.length; x++)
+				Assert.assertEquals("Wrong pixel at " + x, getColor(x + 10, height - 1), read[x]);
+
+			image.setArgb(300, 200, 0x123456);
+			Assert.assertEquals("Wrong pixel", 0xFF123456, image.getArgb(300, 200));
+
+			// the view and the region copy read the same pixels
+			BufferedImage view = image.getImage();
+			BufferedImage region = image.getRegion(new Rectangle(250, 5, 20, 255));
+			Assert.assertEquals("Wrong view size", width, view.getWidth());
+			for (int y = 0; y < region.getHeight(); y++)
+				for (int x = 0; x < region.getWidth(); x++)
+					Assert.assertEquals("Wrong pixel at " + x + "," + y,
+							image.getArgb(250 + x, 5 + y), region.getRGB(x, y));
+			Assert.assertEquals("Wrong view pixel", 0xFF123456, view.getRGB(300, 200));
+
+			// and the view writes through
+			view.setRGB(1, 2, 0xFFABCDEF);
+			Assert.assertEquals("Wrong pixel", 0xFFABCDEF, image.getArgb(1, 2));
+		}
+		finally {
+			image.close();
+		}
+	}
+
+	@Test
+	public void testReadAndEncode() throws IOException {
+		BufferedImage source = new BufferedImage(600, 300, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < source.getHeight(); y++)
+			for (int x = 0; x < source.getWidth(); x++)
+				source.setRGB(x, y, getColor(x, y));
+		File file = File.createTempFile("tiledImageTest", ".png");
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			ImageConvert.writePng(source, out);
+		}
+		finally {
+			out.close();
+		}
+
+		TiledImage image = TiledImage.read(file, new Rectangle(20, 10, 550, 280));
+		try {
+			for (int y = 0; y < image.getHeight(); y += 7)
+				for (int x = 0; x < image.getWidth(); x += 3)
+					Assert.assertEquals("Wrong pixel at " + x + "," + y,
+							source.getRGB(20 + x, 10 + y), image.getArgb(x, y));
+
+			// the JPEG writer streams over the view
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ImageConvert.writeJpg(image.getImage(), bytes);
+			BufferedImage decoded = ImageConvert.read(bytes.toByteArray());
+			Assert.assertEquals("Wrong width", 550, decoded.getWidth());
+			Assert.assertEquals("Wrong height", 280, decoded.getHeight());
+		}
+		finally {
+			image.close();
+		}
+
+		// rendering to disk matches rendering on the heap
+		Dimension size = new Dimension();
+		AffineTransform destToSource = ImageRotate.getRotateCroppedTransform(600, 300, 7, size);
+		BufferedImage expected = ImageLoader.readTransformed(file, destToSource,
+				size.width, size.height);
+		TiledImage rendered = ImageLoader.readTransformedTiled(file, destToSource,
+				size.width, size.height);
+		try {
+			for (int y = 0; y < size.height; y += 5)
+				for (int x = 0; x < size.width; x += 5)
+					Assert.assertEquals("Wrong pixel at " + x + "," + y,
+							expected.getRGB(x, y), rendered.getArgb(x, y));
+		}
+		finally {
+			rendered.close();
+		}
+	}
+
+	private int getColor(int x, int y) {
+		return new Color(x % 256, y % 256, (x * y) % 256).getRGB();
+	}
+}
@@ -254,6 +254,35 @@ public class FileUtilTest {
 		Assert.assertFalse("Surprise! Directory was not delete as expected", uniqueDir.exists());
 	}
 
+	@Test
+	public void testReplaceFile() throws IOException {
+		File dir = createUniqueDirectory();
+		try {
+			File file = new File(dir, "image.jpg");
+			FileUtil.writeFile("old", file, false);
+			
+			File replacement = FileUtil.createReplacementFile(file);
+			FileUtil.writeFile("new", replacement, true);
+			FileUtil.replaceFile(replacement, file);
+			Assert.assertEquals("File not replaced", "new", readContent(file));
+			Assert.assertEquals("Temporary files left", 1, dir.list().length);
+			
+			// a missing replacement leaves the file intact
+			try {
+				FileUtil.replaceFile(new File(dir, "missing.tmp"), file);
+				Assert.fail("Missing replacement renamed");
+			}
+			catch (IOException e) {
+				// expected
+			}
+			Assert.assertEquals("File changed", "new", readContent(file));
+			Assert.assertEquals("Temporary files left", 1, dir.list().length);
+		}
+		finally {
+			FileUtil.deleteFileOrDirectory(dir);
+		}
+	}
+
 	@Test
 	public void testHumanReadableFileSize() {
 		Assert.assertEquals("1.43 Kb", FileUtil.getHumanReadableFileSize(1460));
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2012 Alex Cojocaru
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.alexalecu.util;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author Alex Cojocaru
+ *
+ */
+public class ScratchDirectoryTest {
+
+	@Test
+	public void testSessions() throws IOException {
+		ScratchDirectory first = ScratchDirectory.create("scratchTest");
+		ScratchDirectory second = ScratchDirectory.create("scratchTest");
+
+		// each session has its own directory
+		Assert.assertTrue("No directory", first.getDirectory().isDirectory());
+		Assert.assertFalse("Shared directory", first.getDirectory().equals(second.getDirectory()));
+
+		File file = first.createFile("scratch", ".raw");
+		Assert.assertEquals("Wrong parent", first.getDirectory(), file.getParentFile());
+		Assert.assertTrue("File not created", file.isFile());
+		Assert.assertTrue("Cannot create named file", first.getFile("original.raw").createNewFile());
+
+		// and deleting it removes its files
+		first.delete();
+		second.delete();
+		Assert.assertFalse("File not deleted", file.exists());
+		Assert.assertFalse("Directory not deleted", first.getDirectory().exists());
+		Assert.assertFalse("Directory not deleted", second.getDirectory().exists());
+	}
+}